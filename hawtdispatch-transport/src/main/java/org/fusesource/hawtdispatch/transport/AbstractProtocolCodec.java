@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.net.ProtocolException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
@@ -39,7 +40,7 @@ import java.util.LinkedList;
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public abstract class AbstractProtocolCodec implements ProtocolCodec {
+public abstract class AbstractProtocolCodec implements ProtocolCodec, PendingWriteSize {
 
     protected BufferPools bufferPools;
     protected BufferPool writeBufferPool;
@@ -70,6 +71,9 @@ public abstract class AbstractProtocolCodec implements ProtocolCodec {
     protected int lastReadIoSize;
     protected Action nextDecodeAction;
 
+    // the slice the frame decoders return, reused for every frame.
+    private final Buffer frame = new Buffer(0);
+
     public void setTransport(Transport transport) {
         this.writeChannel = (GatheringByteChannel) transport.getWriteChannel();
         this.readChannel = transport.getReadChannel();
@@ -122,6 +126,13 @@ public abstract class AbstractProtocolCodec implements ProtocolCodec {
         return writeCounter;
     }
 
+    /**
+     * @return the number of encoded bytes which have not been written to the channel yet.
+     */
+    public long getPendingWriteSize() {
+        return writeBufferRemaining + (nextWriteBuffer==null ? 0 : nextWriteBuffer.size());
+    }
+
     public long getLastWriteSize() {
         return lastWriteIoSize;
     }
@@ -182,6 +193,47 @@ public abstract class AbstractProtocolCodec implements ProtocolCodec {
         }
     }
 
+    /**
+     * Encodes a frame so that it can be decoded with {@link #readLengthPrefixedFrame(LengthPrefix, int)}.
+     * The payload may be written out as is, so it must not be modified until it's been flushed.
+     */
+    protected void writeLengthPrefixedFrame(LengthPrefix prefix, Buffer payload) throws IOException {
+        int length = payload.length;
+        switch (prefix) {
+            case VARINT:
+                int value = length;
+                while( (value & ~0x7F) != 0 ) {
+                    nextWriteBuffer.writeByte((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                nextWriteBuffer.writeByte(value);
+                break;
+            case SHORT:
+                if( length > 0xFFFF ) {
+                    throw new ProtocolException("Frame too large for a short length prefix: "+length);
+                }
+                nextWriteBuffer.writeShort(length);
+                break;
+            case INT:
+                nextWriteBuffer.writeInt(length);
+                break;
+            case LONG:
+                nextWriteBuffer.writeLong(length);
+                break;
+        }
+        writeDirect(ByteBuffer.wrap(payload.data, payload.offset, payload.length));
+    }
+
+    /**
+     * Encodes a frame so that it can be decoded with {@link #readDelimitedFrame(byte, int)}.
+     * The payload must not contain the delimiter, and may be written out as is, so it
+     * must not be modified until it's been flushed.
+     */
+    protected void writeDelimitedFrame(Buffer payload, byte delimiter) throws IOException {
+        writeDirect(ByteBuffer.wrap(payload.data, payload.offset, payload.length));
+        nextWriteBuffer.writeByte(delimiter);
+    }
+
     protected void flushNextWriteBuffer() {
         DataByteArrayOutputStream next = allocateNextWriteBuffer();
         ByteBuffer bb = nextWriteBuffer.toBuffer().toByteBuffer();
@@ -306,7 +358,8 @@ public abstract class AbstractProtocolCodec implements ProtocolCodec {
                         if (loadedSize > 0) {
                             newBuffer = Arrays.copyOfRange(readBuffer.array(), readStart, readStart + newSize);
                         } else {
-                            if( readBufferPool!=null && newSize == readBufferPool.getBufferSize()) {
+                            // pooled buffers come in size classes, so they may be larger than requested.
+                            if( readBufferPool!=null && newSize <= readBufferPool.getBufferSize()) {
                                 newBuffer = readBufferPool.checkout();
                             } else {
                                 newBuffer =  new byte[newSize];
@@ -411,6 +464,143 @@ public abstract class AbstractProtocolCodec implements ProtocolCodec {
         }
     }
 
+    /**
+     * Decodes a frame which is prefixed with its length.  The returned buffer
+     * is a slice of the read buffer which is reused for every frame, so it is
+     * only valid until the next read.  Copy it if it needs to be kept longer.
+     *
+     * @param prefix how the length header is encoded.
+     * @param max the maximum frame size, not counting the header, or -1 for no limit.
+     * @return the frame without its header, or null if it has not been fully received yet.
+     */
+    protected Buffer readLengthPrefixedFrame(LengthPrefix prefix, int max) throws ProtocolException {
+        byte[] array = readBuffer.array();
+        int available = readBuffer.position() - readStart;
+        int header;
+        long length = 0;
+        if( prefix == LengthPrefix.VARINT ) {
+            header = 0;
+            while( true ) {
+                if( header == available ) {
+                    // wait for the rest of the header.
+                    readEnd = readStart + available + 1;
+                    return null;
+                }
+                int b = array[readStart + header];
+                length |= (long)(b & 0x7F) << (7 * header);
+                header++;
+                if( (b & 0x80) == 0 ) {
+                    break;
+                }
+                if( header == 5 ) {
+                    throw new ProtocolException("Invalid varint frame length");
+                }
+            }
+        } else {
+            header = prefix.getSize();
+            if( available < header ) {
+                readEnd = readStart + header;
+                return null;
+            }
+            for (int i = 0; i < header; i++) {
+                length = (length << 8) | (array[readStart + i] & 0xFF);
+            }
+        }
+        if( length < 0 || (max >= 0 && length > max) || readStart + header + length > Integer.MAX_VALUE ) {
+            throw new ProtocolException("Invalid frame length: "+length);
+        }
+        readEnd = readStart + header + (int)length;
+        if( readBuffer.position() < readEnd ) {
+            return null;
+        }
+        frame.data = array;
+        frame.offset = readStart + header;
+        frame.length = (int)length;
+        readStart = readEnd;
+        return frame;
+    }
+
+    /**
+     * Decodes a frame which is terminated by a delimiter byte.  The returned buffer
+     * is a slice of the read buffer which is reused for every frame, so it is
+     * only valid until the next read.  Copy it if it needs to be kept longer.
+     *
+     * @param delimiter the byte which ends the frame.
+     * @param max the maximum frame size, not counting the delimiter, or -1 for no limit.
+     * @return the frame without its delimiter, or null if it has not been fully received yet.
+     */
+    protected Buffer readDelimitedFrame(byte delimiter, int max) throws ProtocolException {
+        int limit = readBuffer.position();
+        int pos = indexOf(readBuffer, readEnd, limit, delimiter);
+        if( pos < 0 ) {
+            // don't scan the received bytes again on the next call.
+            readEnd = limit;
+            if( max >= 0 && (readEnd - readStart) > max ) {
+                throw new ProtocolException("Maximum frame size exceeded");
+            }
+            return null;
+        }
+        int length = pos - readStart;
+        if( max >= 0 && length > max ) {
+            throw new ProtocolException("Maximum frame size exceeded");
+        }
+        frame.data = readBuffer.array();
+        frame.offset = readStart;
+        frame.length = length;
+        readStart = readEnd = pos + 1;
+        return frame;
+    }
+
+    /**
+     * @return an action which decodes the frames with {@link #readLengthPrefixedFrame(LengthPrefix, int)}.
+     */
+    protected Action lengthPrefixedFrameAction(final LengthPrefix prefix, final int max) {
+        return new Action() {
+            public Object apply() throws IOException {
+                return readLengthPrefixedFrame(prefix, max);
+            }
+        };
+    }
+
+    /**
+     * @return an action which decodes the frames with {@link #readDelimitedFrame(byte, int)}.
+     */
+    protected Action delimitedFrameAction(final byte delimiter, final int max) {
+        return new Action() {
+            public Object apply() throws IOException {
+                return readDelimitedFrame(delimiter, max);
+            }
+        };
+    }
+
+    /**
+     * Scans for a byte 8 bytes at a time: the word is xored with the byte
+     * repeated 8 times, so that the matching bytes become zero, and the
+     * zero bytes are then located without branching on every byte.
+     *
+     * @return the index of the first matching byte between from and to, or -1.
+     */
+    static int indexOf(ByteBuffer buffer, int from, int to, byte value) {
+        long pattern = (value & 0xFFL) * 0x0101010101010101L;
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long v = buffer.getLong(i) ^ pattern;
+            // sets the high bit of every byte of v which is zero.
+            long zeros = ~(((v & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | v | 0x7F7F7F7F7F7F7F7FL);
+            if( zeros != 0 ) {
+                int bits = bigEndian ? Long.numberOfLeadingZeros(zeros) : Long.numberOfTrailingZeros(zeros);
+                return i + (bits >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if( buffer.get(i) == value ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     protected Boolean readDirect(ByteBuffer buffer) {
         assert (directReadBuffer == null || (directReadBuffer == buffer));
 
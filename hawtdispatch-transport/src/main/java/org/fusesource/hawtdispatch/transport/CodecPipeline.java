@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * <p>
+ * A protocol codec composed of a chain of {@link CodecStage}s, listed from
+ * the one closest to the wire to the one closest to the application.  For
+ * example a framing stage followed by a compression stage followed by the
+ * application's stage.  TLS is handled below the pipeline by using it on an
+ * {@link SslTransport} or as the next codec of an {@link SslProtocolCodec}.
+ * </p><p>
+ * Unlike wrapping codecs, the stages don't each read from and write to a
+ * channel through their own buffers.  The pipeline reads into a single buffer
+ * and the stages pass slices of it along.  Bytes are only copied when a unit
+ * a stage decodes is split across reads.  On the way out, the buffers the
+ * stages emit are queued as they are and written with gathering writes.
+ * </p><p>
+ * A decode pass over the received bytes can produce many messages.  They are
+ * queued and returned one at a time by {@link #read()}, and the pipeline only
+ * reads from the channel again once all of them have been returned.
+ * </p>
+ */
+public class CodecPipeline implements ProtocolCodec, PendingWriteSize {
+
+    private final CodecStage[] stages;
+    private final Inbound[] inbound;
+    private final Outbound[] outbound;
+
+    private ReadableByteChannel readChannel;
+    private GatheringByteChannel writeChannel;
+    private int readBufferSize = 1024 * 64;
+    private int writeBufferSize = 1024 * 64;
+
+    private final LinkedList<Object> messages = new LinkedList<Object>();
+    private boolean undecoded;
+    private long readCounter;
+    private long lastReadSize;
+
+    private final LinkedList<ByteBuffer> writeBuffers = new LinkedList<ByteBuffer>();
+    private ByteBuffer[] gatherBuffers = new ByteBuffer[16];
+    private long writeRemaining;
+    private long writeCounter;
+    private long lastWriteSize;
+
+    public CodecPipeline(CodecStage... stages) {
+        if( stages.length == 0 ) {
+            throw new IllegalArgumentException("A pipeline needs at least one stage");
+        }
+        this.stages = stages;
+        this.inbound = new Inbound[stages.length];
+        this.outbound = new Outbound[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            inbound[i] = new Inbound(i);
+            outbound[i] = new Outbound(i);
+        }
+    }
+
+    public CodecStage[] getStages() {
+        return stages.clone();
+    }
+
+    public void setTransport(Transport transport) {
+        this.writeChannel = (GatheringByteChannel) transport.getWriteChannel();
+        this.readChannel = transport.getReadChannel();
+        if( transport instanceof TcpTransport) {
+            TcpTransport tcp = (TcpTransport) transport;
+            writeBufferSize = tcp.getSendBufferSize();
+            readBufferSize = tcp.getReceiveBufferSize();
+        } else if( transport instanceof UdpTransport) {
+            UdpTransport udp = (UdpTransport) transport;
+            writeBufferSize = udp.getSendBufferSize();
+            readBufferSize = udp.getReceiveBufferSize();
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Decoding
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    /**
+     * The bytes a stage has been passed but has not consumed yet.
+     */
+    private final class Inbound implements CodecStage.Output {
+
+        private final int index;
+        private ByteBuffer buffer;
+
+        Inbound(int index) {
+            this.index = index;
+        }
+
+        public void emit(Object value) throws IOException {
+            if( index+1 == stages.length ) {
+                messages.add(value);
+            } else {
+                inbound[index+1].receive((ByteBuffer) value);
+            }
+        }
+
+        void receive(ByteBuffer source) throws IOException {
+            if( buffer==null || !buffer.hasRemaining() ) {
+                // decode straight out of the previous stage's buffer.
+                stages[index].decode(source, this);
+                if( source.hasRemaining() ) {
+                    append(source);
+                }
+            } else {
+                append(source);
+                stages[index].decode(buffer, this);
+            }
+        }
+
+        void decode() throws IOException {
+            stages[index].decode(buffer, this);
+        }
+
+        /**
+         * Adds bytes after the unconsumed ones.  The consumed bytes may still be
+         * referenced by the queued messages so they don't get overwritten.
+         */
+        void append(ByteBuffer source) {
+            int size = source.remaining();
+            if( buffer==null || buffer.capacity() - buffer.limit() < size ) {
+                int pending = buffer==null ? 0 : buffer.remaining();
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(readBufferSize, (pending + size) * 2));
+                if( buffer!=null ) {
+                    larger.put(buffer);
+                }
+                larger.put(source);
+                larger.flip();
+                buffer = larger;
+            } else {
+                int position = buffer.position();
+                buffer.position(buffer.limit());
+                buffer.limit(buffer.capacity());
+                buffer.put(source);
+                buffer.limit(buffer.position());
+                buffer.position(position);
+            }
+        }
+
+        /**
+         * Moves the unconsumed bytes to the start of the buffer.  Only safe to
+         * do once all the messages decoded out of it have been read.
+         */
+        void compact() {
+            if( buffer!=null && buffer.position()!=0 ) {
+                buffer.compact();
+                buffer.flip();
+            }
+        }
+
+        /**
+         * Reads from the channel into the free space after the unconsumed bytes.
+         */
+        int fill() throws IOException {
+            if( buffer==null ) {
+                buffer = ByteBuffer.allocate(readBufferSize);
+                buffer.flip();
+            } else if( buffer.limit() == buffer.capacity() ) {
+                // a unit larger than the buffer is being received.
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                larger.put(buffer);
+                larger.flip();
+                buffer = larger;
+            }
+            int position = buffer.position();
+            buffer.position(buffer.limit());
+            buffer.limit(buffer.capacity());
+            int count = readChannel.read(buffer);
+            buffer.limit(buffer.position());
+            buffer.position(position);
+            return count;
+        }
+    }
+
+    public Object read() throws IOException {
+        while( messages.isEmpty() ) {
+            for (Inbound in : inbound) {
+                in.compact();
+            }
+            if( undecoded ) {
+                undecoded = false;
+            } else {
+                lastReadSize = inbound[0].fill();
+                if( lastReadSize == -1 ) {
+                    throw new EOFException("Peer disconnected");
+                } else if( lastReadSize == 0 ) {
+                    return null;
+                }
+                readCounter += lastReadSize;
+            }
+            inbound[0].decode();
+        }
+        return messages.removeFirst();
+    }
+
+    public void unread(byte[] buffer) {
+        inbound[0].append(ByteBuffer.wrap(buffer));
+        readCounter += buffer.length;
+        undecoded = true;
+    }
+
+    public long getReadCounter() {
+        return readCounter;
+    }
+
+    public long getLastReadSize() {
+        return lastReadSize;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Encoding
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    private final class Outbound implements CodecStage.Output {
+
+        private final int index;
+
+        Outbound(int index) {
+            this.index = index;
+        }
+
+        public void emit(Object value) throws IOException {
+            if( index == 0 ) {
+                ByteBuffer buffer = (ByteBuffer) value;
+                if( buffer.hasRemaining() ) {
+                    writeBuffers.add(buffer);
+                    writeRemaining += buffer.remaining();
+                }
+            } else {
+                stages[index-1].encode(value, outbound[index-1]);
+            }
+        }
+    }
+
+    public BufferState write(Object value) throws IOException {
+        if( full() ) {
+            return BufferState.FULL;
+        }
+        boolean wasEmpty = writeRemaining == 0;
+        int last = stages.length-1;
+        stages[last].encode(value, outbound[last]);
+        return wasEmpty ? BufferState.WAS_EMPTY : BufferState.NOT_EMPTY;
+    }
+
+    public BufferState flush() throws IOException {
+        while( writeRemaining != 0 ) {
+            int count = writeBuffers.size();
+            if( count == 1 ) {
+                lastWriteSize = writeChannel.write(writeBuffers.getFirst());
+            } else {
+                if( gatherBuffers.length < count ) {
+                    gatherBuffers = new ByteBuffer[Math.max(count, gatherBuffers.length * 2)];
+                }
+                gatherBuffers = writeBuffers.toArray(gatherBuffers);
+                lastWriteSize = writeChannel.write(gatherBuffers, 0, count);
+                Arrays.fill(gatherBuffers, 0, count, null);
+            }
+            if( lastWriteSize == 0 ) {
+                return BufferState.NOT_EMPTY;
+            }
+            writeRemaining -= lastWriteSize;
+            writeCounter += lastWriteSize;
+            while( !writeBuffers.isEmpty() && !writeBuffers.getFirst().hasRemaining() ) {
+                writeBuffers.removeFirst();
+            }
+        }
+        return BufferState.EMPTY;
+    }
+
+    public boolean full() {
+        return writeRemaining >= writeBufferSize;
+    }
+
+    /**
+     * @return the number of encoded bytes which have not been written to the channel yet.
+     */
+    public long getPendingWriteSize() {
+        return writeRemaining;
+    }
+
+    public long getWriteCounter() {
+        return writeCounter;
+    }
+
+    public long getLastWriteSize() {
+        return lastWriteSize;
+    }
+
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+}
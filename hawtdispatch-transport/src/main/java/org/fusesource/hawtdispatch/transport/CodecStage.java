@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A stage of a {@link CodecPipeline}.  Each stage decodes the buffers passed
+ * to it by the stage closer to the wire and encodes the values passed to it
+ * by the stage closer to the application.
+ * </p><p>
+ * Stages should hand off slices of the buffers they are passed instead of
+ * copying them.  The buffers are only valid until the pipeline reads from
+ * the channel again, which it does once all the decoded messages have been
+ * returned by {@link CodecPipeline#read()}, so a stage which needs to hold
+ * on to their data for longer has to copy it.
+ * </p>
+ */
+public interface CodecStage {
+
+    /**
+     * Where a stage passes the values it produces.
+     */
+    public static interface Output {
+        void emit(Object value) throws IOException;
+    }
+
+    /**
+     * Decodes as many complete units as the source holds, passing each one
+     * to the output.  The last stage of the pipeline emits the decoded messages
+     * and the other stages emit the ByteBuffers the next stage decodes.
+     * <p>
+     * Bytes left in the source are kept by the pipeline and passed in again,
+     * followed by the bytes which arrive later, on the next call.
+     * </p>
+     */
+    void decode(ByteBuffer source, Output output) throws IOException;
+
+    /**
+     * Encodes a value, passing the encoded ByteBuffers to the output.  The last
+     * stage of the pipeline is passed the messages being written and the other
+     * stages are passed the ByteBuffers emitted by the next stage.  The emitted
+     * buffers must not be modified until they have been written.
+     */
+    void encode(Object value, Output output) throws IOException;
+
+}
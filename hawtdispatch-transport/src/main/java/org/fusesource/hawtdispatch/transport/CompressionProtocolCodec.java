@@ -0,0 +1,561 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtbuf.Buffer;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * Implements streaming compression as a WrappingProtocolCodec, so it can be
+ * used on a {@link TcpTransport} or {@link SslTransport} around an existing
+ * application codec.  Both peers have to use it with the same compression
+ * provider and dictionary.
+ * </p><p>
+ * The bytes written by the next codec are compressed in blocks.  A block ends
+ * when the flush size is reached or when the next codec finishes flushing.
+ * Blocks smaller than the minimum compress size are sent as they are.  Every
+ * block is sent as a frame with a 1 byte type and a 4 byte length header.
+ * </p>
+ */
+public class CompressionProtocolCodec implements WrappingProtocolCodec, PendingWriteSize, ReleasableCodec {
+
+    private static final byte RAW_FRAME = 0;
+    private static final byte COMPRESSED_FRAME = 1;
+    private static final int HEADER_SIZE = 5;
+
+    private final CompressionProvider provider;
+    private byte[] dictionary;
+    private int flushSize = 1024 * 16;
+    private int minCompressSize = 256;
+    private int maxFrameSize = 1024 * 1024 * 100;
+
+    private ReadableByteChannel readChannel;
+    private WritableByteChannel writeChannel;
+    Transport transport;
+    ProtocolCodec next;
+
+    private CompressionProvider.Compressor compressor;
+    private CompressionProvider.Decompressor decompressor;
+
+    private byte[] block;
+    private int blockSize;
+    private ByteBuffer outbound;
+
+    private ByteBuffer inbound;
+    private ByteBuffer decoded;
+    private boolean endOfStream;
+
+    long lastReadSize;
+    long lastWriteSize;
+    long readCounter;
+    long writeCounter;
+    long uncompressedReadCounter;
+    long uncompressedWriteCounter;
+    long sentBlockBytes;
+    long sentFrameBytes;
+    long receivedFrameBytes;
+    long receivedBlockBytes;
+    long compressedFrames;
+    long rawFrames;
+
+    public CompressionProtocolCodec() {
+        this(new DeflateCompression());
+    }
+
+    public CompressionProtocolCodec(CompressionProvider provider) {
+        this.provider = provider;
+    }
+
+    public ProtocolCodec getNext() {
+        return next;
+    }
+
+    public void setNext(ProtocolCodec next) {
+        this.next = next;
+        initNext();
+    }
+
+    private void initNext() {
+        if( next!=null && transport!=null ) {
+            this.next.setTransport(new TransportFilter(transport){
+                public ReadableByteChannel getReadChannel() {
+                    return decompressingChannel;
+                }
+                public WritableByteChannel getWriteChannel() {
+                    return compressingChannel;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the bytes of the block being filled and of the frames not
+     *         written yet, plus the ones the next codec holds.
+     */
+    public long getPendingWriteSize() {
+        long rc = next instanceof PendingWriteSize ? ((PendingWriteSize) next).getPendingWriteSize() : 0;
+        rc += blockSize;
+        if( outbound!=null ) {
+            rc += outbound.remaining();
+        }
+        return rc;
+    }
+
+    public void release() {
+        if( next instanceof ReleasableCodec ) {
+            ((ReleasableCodec) next).release();
+        }
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+        this.readChannel = transport.getReadChannel();
+        this.writeChannel = transport.getWriteChannel();
+        initNext();
+    }
+
+    DecompressingChannel decompressingChannel = new DecompressingChannel();
+    CompressingChannel compressingChannel = new CompressingChannel();
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Compressing the outbound data
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    public class CompressingChannel implements GatheringByteChannel {
+
+        public int write(ByteBuffer plain) throws IOException {
+            if( block==null ) {
+                block = new byte[flushSize];
+            }
+            int rc = 0;
+            while( plain.hasRemaining() ) {
+                if( outbound!=null && outbound.remaining() >= flushSize ) {
+                    // wait for the compressed data to get written out.
+                    break;
+                }
+                int size = Math.min(plain.remaining(), block.length - blockSize);
+                plain.get(block, blockSize, size);
+                blockSize += size;
+                rc += size;
+                if( blockSize == block.length ) {
+                    endBlock();
+                }
+            }
+            uncompressedWriteCounter += rc;
+            return rc;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if(offset+length > srcs.length || length<0 || offset<0) {
+                throw new IndexOutOfBoundsException();
+            }
+            long rc=0;
+            for (int i = 0; i < length; i++) {
+                ByteBuffer src = srcs[offset+i];
+                if(src.hasRemaining()) {
+                    rc += write(src);
+                }
+                if( src.hasRemaining() ) {
+                    return rc;
+                }
+            }
+            return rc;
+        }
+
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen() {
+            return writeChannel.isOpen();
+        }
+
+        public void close() throws IOException {
+            writeChannel.close();
+        }
+    }
+
+    /**
+     * Frames the block of data written so far.
+     */
+    private void endBlock() throws IOException {
+        if( blockSize==0 ) {
+            return;
+        }
+        if( blockSize < minCompressSize ) {
+            appendFrame(RAW_FRAME, block, 0, blockSize);
+            rawFrames++;
+        } else {
+            if( compressor==null ) {
+                compressor = provider.createCompressor(dictionary);
+            }
+            // Even when it did not get smaller we have to send the compressed
+            // block since it's now part of the compressor's history.
+            Buffer compressed = compressor.compress(new Buffer(block, 0, blockSize));
+            appendFrame(COMPRESSED_FRAME, compressed.data, compressed.offset, compressed.length);
+            compressedFrames++;
+        }
+        sentBlockBytes += blockSize;
+        blockSize = 0;
+    }
+
+    private void appendFrame(byte type, byte[] data, int offset, int length) {
+        int size = HEADER_SIZE + length;
+        if( outbound==null ) {
+            outbound = ByteBuffer.allocate(Math.max(flushSize + HEADER_SIZE, size));
+            outbound.flip();
+        } else if( outbound.capacity() - outbound.limit() < size ) {
+            outbound.compact();
+            if( outbound.remaining() < size ) {
+                outbound.flip();
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(outbound.capacity() * 2, outbound.remaining() + size));
+                larger.put(outbound);
+                outbound = larger;
+            }
+            outbound.flip();
+        }
+        int position = outbound.position();
+        outbound.position(outbound.limit());
+        outbound.limit(outbound.capacity());
+        outbound.put(type);
+        outbound.putInt(length);
+        outbound.put(data, offset, length);
+        outbound.limit(outbound.position());
+        outbound.position(position);
+        sentFrameBytes += size;
+    }
+
+    /**
+     * @return true if all the compressed data was written.
+     */
+    private boolean flushOutbound() throws IOException {
+        if( outbound==null || !outbound.hasRemaining() ) {
+            return true;
+        }
+        lastWriteSize = writeChannel.write(outbound);
+        if( lastWriteSize > 0 ) {
+            writeCounter += lastWriteSize;
+        }
+        return !outbound.hasRemaining();
+    }
+
+    public ProtocolCodec.BufferState write(Object value) throws IOException {
+        return next.write(value);
+    }
+
+    public ProtocolCodec.BufferState flush() throws IOException {
+        while( true ) {
+            if( !flushOutbound() ) {
+                return BufferState.NOT_EMPTY;
+            }
+            ProtocolCodec.BufferState rc = next.flush();
+            // the end of the next codec's flush is a block boundary.
+            endBlock();
+            if( !flushOutbound() ) {
+                return BufferState.NOT_EMPTY;
+            }
+            if( rc != BufferState.NOT_EMPTY ) {
+                return rc;
+            }
+            // the next codec was waiting on us, now that the compressed data
+            // got written out it can continue.
+        }
+    }
+
+    public boolean full() {
+        return next.full();
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Decompressing the inbound data
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    public class DecompressingChannel implements ScatteringByteChannel {
+
+        public int read(ByteBuffer plain) throws IOException {
+            int rc = 0;
+            while( plain.hasRemaining() ) {
+                if( decoded!=null && decoded.hasRemaining() ) {
+                    int size = Math.min(plain.remaining(), decoded.remaining());
+                    int limit = decoded.limit();
+                    decoded.limit(decoded.position() + size);
+                    plain.put(decoded);
+                    decoded.limit(limit);
+                    rc += size;
+                } else if( !decodeFrame() ) {
+                    break;
+                }
+            }
+            uncompressedReadCounter += rc;
+            if( rc==0 && endOfStream ) {
+                return -1;
+            }
+            return rc;
+        }
+
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            if(offset+length > dsts.length || length<0 || offset<0) {
+                throw new IndexOutOfBoundsException();
+            }
+            long rc=0;
+            for (int i = 0; i < length; i++) {
+                ByteBuffer dst = dsts[offset+i];
+                if(dst.hasRemaining()) {
+                    rc += read(dst);
+                }
+                if( dst.hasRemaining() ) {
+                    return rc;
+                }
+            }
+            return rc;
+        }
+
+        public long read(ByteBuffer[] dsts) throws IOException {
+            return read(dsts, 0, dsts.length);
+        }
+
+        public boolean isOpen() {
+            return readChannel.isOpen();
+        }
+
+        public void close() throws IOException {
+            readChannel.close();
+        }
+    }
+
+    /**
+     * Decodes the next frame once it has been fully received.
+     *
+     * @return false if the frame has not been fully received yet.
+     */
+    private boolean decodeFrame() throws IOException {
+        while( true ) {
+            if( inbound!=null && inbound.remaining() >= HEADER_SIZE ) {
+                int position = inbound.position();
+                byte type = inbound.get(position);
+                int length = inbound.getInt(position + 1);
+                if( length < 0 || length > maxFrameSize ) {
+                    throw new ProtocolException("Invalid compressed frame length: "+length);
+                }
+                if( inbound.remaining() >= HEADER_SIZE + length ) {
+                    int offset = inbound.arrayOffset() + position + HEADER_SIZE;
+                    if( type == RAW_FRAME ) {
+                        decoded = ByteBuffer.wrap(inbound.array(), offset, length);
+                    } else if( type == COMPRESSED_FRAME ) {
+                        if( decompressor==null ) {
+                            decompressor = provider.createDecompressor(dictionary);
+                        }
+                        Buffer block = decompressor.decompress(new Buffer(inbound.array(), offset, length), maxFrameSize);
+                        decoded = ByteBuffer.wrap(block.data, block.offset, block.length);
+                    } else {
+                        throw new ProtocolException("Unknown compressed frame type: "+type);
+                    }
+                    inbound.position(position + HEADER_SIZE + length);
+                    receivedFrameBytes += HEADER_SIZE + length;
+                    receivedBlockBytes += decoded.remaining();
+                    return true;
+                }
+                if( inbound.capacity() < HEADER_SIZE + length ) {
+                    ByteBuffer larger = ByteBuffer.allocate(HEADER_SIZE + length);
+                    larger.put(inbound);
+                    larger.flip();
+                    inbound = larger;
+                }
+            }
+            if( endOfStream || !fill() ) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads from the channel into the free space after the received bytes.
+     * Only called once the previously decoded frame was fully read, so the
+     * received bytes can be moved around.
+     */
+    private boolean fill() throws IOException {
+        if( inbound==null ) {
+            inbound = ByteBuffer.allocate(flushSize + HEADER_SIZE);
+            inbound.flip();
+        } else if( inbound.position()!=0 ) {
+            inbound.compact();
+            inbound.flip();
+        }
+        int position = inbound.position();
+        inbound.position(inbound.limit());
+        inbound.limit(inbound.capacity());
+        lastReadSize = readChannel.read(inbound);
+        inbound.limit(inbound.position());
+        inbound.position(position);
+        if( lastReadSize == -1 ) {
+            endOfStream = true;
+            return false;
+        }
+        readCounter += lastReadSize;
+        return lastReadSize > 0;
+    }
+
+    public void unread(byte[] buffer) {
+        if( inbound==null ) {
+            inbound = ByteBuffer.allocate(Math.max(flushSize + HEADER_SIZE, buffer.length));
+            inbound.flip();
+        }
+        inbound.compact();
+        if( inbound.remaining() < buffer.length) {
+            throw new IllegalStateException("Cannot unread now");
+        }
+        inbound.put(buffer);
+        inbound.flip();
+    }
+
+    public Object read() throws IOException {
+        return next.read();
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Settings and metrics
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    public CompressionProvider getProvider() {
+        return provider;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Sets a preset dictionary the peer also uses, which improves the
+     * compression of the first blocks of the connection.
+     */
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public int getFlushSize() {
+        return flushSize;
+    }
+
+    /**
+     * Sets the number of bytes after which a block gets compressed and sent
+     * even if the next codec has not finished flushing.
+     */
+    public void setFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+    }
+
+    public int getMinCompressSize() {
+        return minCompressSize;
+    }
+
+    /**
+     * Sets the size below which blocks are sent without being compressed.
+     */
+    public void setMinCompressSize(int minCompressSize) {
+        this.minCompressSize = minCompressSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public long getWriteCounter() {
+        return writeCounter;
+    }
+
+    public long getLastWriteSize() {
+        return lastWriteSize;
+    }
+
+    public long getReadCounter() {
+        return readCounter;
+    }
+
+    public long getLastReadSize() {
+        return lastReadSize;
+    }
+
+    /**
+     * @return the number of bytes the next codec wrote.
+     */
+    public long getUncompressedWriteCounter() {
+        return uncompressedWriteCounter;
+    }
+
+    /**
+     * @return the number of bytes the next codec read.
+     */
+    public long getUncompressedReadCounter() {
+        return uncompressedReadCounter;
+    }
+
+    /**
+     * @return the number of blocks which were sent compressed.
+     */
+    public long getCompressedFrameCount() {
+        return compressedFrames;
+    }
+
+    /**
+     * @return the number of blocks which were too small to compress.
+     */
+    public long getRawFrameCount() {
+        return rawFrames;
+    }
+
+    /**
+     * @return the uncompressed size of the sent blocks divided by their size on the wire.
+     */
+    public double getWriteCompressionRatio() {
+        return sentFrameBytes == 0 ? 1.0 : (double) sentBlockBytes / sentFrameBytes;
+    }
+
+    /**
+     * @return the uncompressed size of the received blocks divided by their size on the wire.
+     */
+    public double getReadCompressionRatio() {
+        return receivedFrameBytes == 0 ? 1.0 : (double) receivedBlockBytes / receivedFrameBytes;
+    }
+
+    public int getReadBufferSize() {
+        return next.getReadBufferSize();
+    }
+
+    public int getWriteBufferSize() {
+        return next.getWriteBufferSize();
+    }
+
+}
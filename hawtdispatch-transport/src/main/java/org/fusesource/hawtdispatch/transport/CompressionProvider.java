@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtbuf.Buffer;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * The SPI the {@link CompressionProtocolCodec} uses to plug in a compression
+ * algorithm.  {@link DeflateCompression} is provided, other algorithms like
+ * LZ4 can be plugged in by implementing this interface.
+ * </p><p>
+ * Every connection gets its own compressor and decompressor so that they can
+ * keep the history of the stream, and use it as the dictionary for the
+ * blocks that follow.
+ * </p>
+ */
+public interface CompressionProvider {
+
+    /**
+     * Compresses the blocks of a stream.
+     */
+    public static interface Compressor {
+
+        /**
+         * Compresses a block and flushes it out so that the peer can decompress
+         * all of it without having to wait for the next block.
+         *
+         * @return the compressed block, only valid until the next call.
+         */
+        Buffer compress(Buffer block) throws IOException;
+    }
+
+    /**
+     * Decompresses the blocks of a stream.
+     */
+    public static interface Decompressor {
+
+        /**
+         * @param maxSize the largest decompressed block accepted.  Decompressing
+         *                has to stop as soon as the block gets larger, so that a
+         *                small block can't make the decompressor allocate
+         *                an arbitrary amount of memory.
+         * @return the decompressed block, only valid until the next call.
+         * @throws java.net.ProtocolException if the block decompresses to more
+         *                than maxSize bytes.
+         */
+        Buffer decompress(Buffer block, int maxSize) throws IOException;
+    }
+
+    /**
+     * @param dictionary a preset dictionary the peer also uses, or null.
+     */
+    Compressor createCompressor(byte[] dictionary);
+
+    /**
+     * @param dictionary a preset dictionary the peer also uses, or null.
+     */
+    Decompressor createDecompressor(byte[] dictionary);
+
+}
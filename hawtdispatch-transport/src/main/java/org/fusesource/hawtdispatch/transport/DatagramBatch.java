@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.BaseRetained;
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.fusesource.hawtdispatch.util.PooledBuffer;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A batch of datagrams moved through a {@link UdpTransport} which has been
+ * configured with a batch size.
+ * </p><p>
+ * Batches delivered to the transport listener are owned by the transport and
+ * get refilled with the next datagrams received once the listener returns.
+ * Call {@link #retain()} on a delivered batch to keep it, and {@link #release()}
+ * once done with it, the transport will then use a new batch for the next
+ * datagrams.
+ * </p><p>
+ * Batches offered to the transport are released by the transport once all
+ * the datagrams in it have been sent.
+ * </p>
+ */
+public class DatagramBatch extends BaseRetained {
+
+    private final ByteBuffer[] buffers;
+    private final SocketAddress[] addresses;
+    private final PooledBuffer slab;
+    private int size;
+
+    /**
+     * Creates an empty batch to fill using {@link #add(ByteBuffer, SocketAddress)}.
+     *
+     * @param capacity the maximum number of datagrams in the batch.
+     */
+    public DatagramBatch(int capacity) {
+        this.buffers = new ByteBuffer[capacity];
+        this.addresses = new SocketAddress[capacity];
+        this.slab = null;
+    }
+
+    /**
+     * Creates a batch whose datagram buffers are slices of a single direct buffer
+     * so that it can be reused to receive datagrams.
+     */
+    DatagramBatch(int capacity, int datagramSize, BufferPools bufferPools) {
+        this.buffers = new ByteBuffer[capacity];
+        this.addresses = new SocketAddress[capacity];
+        ByteBuffer data;
+        if( bufferPools!=null ) {
+            slab = bufferPools.checkoutDirectBuffer(capacity * datagramSize);
+            data = slab.buffer();
+        } else {
+            slab = null;
+            data = ByteBuffer.allocateDirect(capacity * datagramSize);
+        }
+        for (int i = 0; i < capacity; i++) {
+            data.limit((i + 1) * datagramSize);
+            data.position(i * datagramSize);
+            buffers[i] = data.slice();
+        }
+    }
+
+    /**
+     * Adds a datagram to send.
+     *
+     * @param buffer the datagram's contents from its position to its limit.
+     * @param address the address to send it to or null to send it to the
+     *                address the transport's channel is connected to.
+     * @return false if the batch is full.
+     */
+    public boolean add(ByteBuffer buffer, SocketAddress address) {
+        if( size >= buffers.length ) {
+            return false;
+        }
+        buffers[size] = buffer;
+        addresses[size] = address;
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return buffers.length;
+    }
+
+    public boolean isFull() {
+        return size >= buffers.length;
+    }
+
+    /**
+     * @return the contents of the datagram at the given index.
+     */
+    public ByteBuffer buffer(int index) {
+        if( index >= size ) {
+            throw new IndexOutOfBoundsException();
+        }
+        return buffers[index];
+    }
+
+    /**
+     * @return the address the datagram at the given index was received from or should
+     *         be sent to.
+     */
+    public SocketAddress address(int index) {
+        if( index >= size ) {
+            throw new IndexOutOfBoundsException();
+        }
+        return addresses[index];
+    }
+
+    /**
+     * @return the cleared buffer to receive the next datagram into.
+     */
+    ByteBuffer next() {
+        ByteBuffer rc = buffers[size];
+        rc.clear();
+        return rc;
+    }
+
+    void received(SocketAddress address) {
+        buffers[size].flip();
+        addresses[size] = address;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    @Override
+    protected void dispose() {
+        if( slab!=null ) {
+            slab.release();
+        }
+        super.dispose();
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramBatch { size: "+size+", capacity: "+buffers.length+" }";
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtbuf.Buffer;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * A {@link CompressionProvider} which uses a raw deflate stream per connection.
+ * Blocks are ended with a sync flush so that the stream's history keeps
+ * being used to compress the blocks that follow.
+ * </p>
+ */
+public class DeflateCompression implements CompressionProvider {
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    public DeflateCompression() {
+    }
+
+    public DeflateCompression(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the compression level, from 0 to 9, of the compressors created after this call.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public Compressor createCompressor(byte[] dictionary) {
+        Deflater deflater = new Deflater(level, true);
+        if( dictionary!=null ) {
+            deflater.setDictionary(dictionary);
+        }
+        return new DeflateCompressor(deflater);
+    }
+
+    public Decompressor createDecompressor(byte[] dictionary) {
+        Inflater inflater = new Inflater(true);
+        if( dictionary!=null ) {
+            inflater.setDictionary(dictionary);
+        }
+        return new InflateDecompressor(inflater);
+    }
+
+    static class DeflateCompressor implements Compressor {
+        private final Deflater deflater;
+        private byte[] output = new byte[1024 * 8];
+
+        DeflateCompressor(Deflater deflater) {
+            this.deflater = deflater;
+        }
+
+        public Buffer compress(Buffer block) throws IOException {
+            deflater.setInput(block.data, block.offset, block.length);
+            int size = 0;
+            while( true ) {
+                size += deflater.deflate(output, size, output.length - size, Deflater.SYNC_FLUSH);
+                if( size < output.length ) {
+                    // the whole block was flushed out.
+                    return new Buffer(output, 0, size);
+                }
+                byte[] larger = new byte[output.length * 2];
+                System.arraycopy(output, 0, larger, 0, size);
+                output = larger;
+            }
+        }
+    }
+
+    static class InflateDecompressor implements Decompressor {
+        private final Inflater inflater;
+        private byte[] output = new byte[1024 * 8];
+
+        InflateDecompressor(Inflater inflater) {
+            this.inflater = inflater;
+        }
+
+        public Buffer decompress(Buffer block, int maxSize) throws IOException {
+            inflater.setInput(block.data, block.offset, block.length);
+            int size = 0;
+            try {
+                while( true ) {
+                    if( size == output.length ) {
+                        // only grow up to one byte past the limit, enough to detect it got exceeded.
+                        byte[] larger = new byte[(int) Math.min(output.length * 2L, maxSize + 1L)];
+                        System.arraycopy(output, 0, larger, 0, size);
+                        output = larger;
+                    }
+                    size += inflater.inflate(output, size, output.length - size);
+                    if( size > maxSize ) {
+                        throw new ProtocolException("Decompressed block larger than "+maxSize+" bytes");
+                    }
+                    if( inflater.needsDictionary() ) {
+                        throw new ProtocolException("The compressed stream needs a preset dictionary");
+                    }
+                    if( size < output.length && (inflater.needsInput() || inflater.finished()) ) {
+                        return new Buffer(output, 0, size);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ProtocolException("Invalid compressed data: "+e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.BaseRetained;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * A region of a file which can be passed to {@link TcpTransport#offer(Object)}
+ * so that it gets sent straight from the file to the socket using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * instead of going through the protocol codec.
+ * </p><p>
+ * The region is sent after any previously offered commands and the transport
+ * stays full until the whole region has been sent.  The transport releases the
+ * region once it has been sent or the transport is stopped, so set a disposer
+ * on the region if the file channel needs to get closed at that point.
+ * </p>
+ */
+public class FileRegion extends BaseRetained {
+
+    private final FileChannel channel;
+    private final long count;
+    private long position;
+    private long transferred;
+
+    public FileRegion(FileChannel channel, long position, long count) {
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the file position of the next byte to send.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTransferred() {
+        return transferred;
+    }
+
+    public long remaining() {
+        return count - transferred;
+    }
+
+    /**
+     * Records that some of the region was sent.
+     *
+     * @param size the number of bytes sent.
+     * @throws IOException if nothing was sent because the region extends past the end of the file.
+     */
+    void transferred(long size) throws IOException {
+        if( size == 0 && position >= channel.size() ) {
+            throw new EOFException("File region extends past the end of the file");
+        }
+        position += size;
+        transferred += size;
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion { position: "+position+", transferred: "+transferred+", count: "+count+" }";
+    }
+}
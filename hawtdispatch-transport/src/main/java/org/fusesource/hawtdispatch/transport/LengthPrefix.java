@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+/**
+ * The encodings of the length header of a length prefixed frame, as used by
+ * {@link AbstractProtocolCodec#readLengthPrefixedFrame(LengthPrefix, int)} and
+ * {@link AbstractProtocolCodec#writeLengthPrefixedFrame(LengthPrefix, org.fusesource.hawtbuf.Buffer)}.
+ * The fixed size headers are unsigned big endian ints.
+ */
+public enum LengthPrefix {
+
+    /**
+     * An unsigned varint: 7 bits per byte, least significant group first,
+     * with the high bit set on every byte but the last.  Takes 1 to 5 bytes.
+     */
+    VARINT(0),
+    SHORT(2),
+    INT(4),
+    LONG(8);
+
+    private final int size;
+
+    LengthPrefix(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the size of the header in bytes, or 0 if it's variable.
+     */
+    public int getSize() {
+        return size;
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A framing {@link CodecStage} which prefixes every frame with its length
+ * as a 4 byte big endian int.
+ * </p><p>
+ * Decoding emits a slice of the source for every complete frame it holds,
+ * so one read can produce many frames without copying any of them.  Encoding
+ * emits a 4 byte header followed by the frame itself.
+ * </p>
+ */
+public class LengthPrefixedStage implements CodecStage {
+
+    private int maxFrameSize = 1024 * 1024 * 100;
+
+    public LengthPrefixedStage() {
+    }
+
+    public LengthPrefixedStage(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public void decode(ByteBuffer source, Output output) throws IOException {
+        while( source.remaining() >= 4 ) {
+            int position = source.position();
+            int length = source.getInt(position);
+            if( length < 0 || length > maxFrameSize ) {
+                throw new ProtocolException("Invalid frame length: "+length);
+            }
+            if( source.remaining() < 4 + length ) {
+                // wait for the rest of the frame.
+                return;
+            }
+            int limit = source.limit();
+            source.position(position + 4);
+            source.limit(position + 4 + length);
+            ByteBuffer frame = source.slice();
+            source.position(source.limit());
+            source.limit(limit);
+            output.emit(frame);
+        }
+    }
+
+    public void encode(Object value, Output output) throws IOException {
+        ByteBuffer frame = (ByteBuffer) value;
+        ByteBuffer header = ByteBuffer.allocate(4);
+        header.putInt(0, frame.remaining());
+        output.emit(header);
+        output.emit(frame);
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.util.LongHashMap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>
+ * A transport filter which multiplexes requests and their responses over
+ * the transport.  Every request is assigned a correlation id, which the
+ * {@link Correlator} adds to the command sent and extracts from the
+ * commands received, so that responses can arrive in any order.  Received
+ * commands which are not responses are passed on to the transport listener.
+ * </p><p>
+ * The in flight requests are tracked in a map keyed by the primitive
+ * correlation id, and their timeouts are expired by a timer wheel which
+ * only ticks while requests with a timeout are in flight.  A response
+ * which arrives after its request timed out is dropped.
+ * </p><p>
+ * At most {@link #getMaxInFlight()} requests are in flight at a time.  Once
+ * the limit is reached {@link #request} returns false, and the transport
+ * listener's {@link TransportListener#onRefill()} is called once a response
+ * frees up a slot, just like when {@link #offer(Object)} is refused.
+ * </p><p>
+ * Like {@link #offer(Object)}, requests must be issued from the transport's
+ * dispatch queue.  The response handlers are run on the queue passed to
+ * {@link #request}, which defaults to the transport's dispatch queue.
+ * </p>
+ */
+public class MultiplexingTransport extends TransportFilter {
+
+    /**
+     * Ties the requests to their responses.
+     */
+    public static interface Correlator {
+
+        /**
+         * @return the command to send for the request, carrying the correlation id.
+         */
+        Object correlate(long id, Object request);
+
+        /**
+         * @return the correlation id of the response, or -1 if the command is not a response.
+         */
+        long correlationId(Object command);
+    }
+
+    /**
+     * Receives the outcome of a request.
+     */
+    public static interface ResponseHandler {
+
+        void onResponse(Object response);
+
+        /**
+         * Called with a {@link TimeoutException} when the request timed out,
+         * or with an {@link IOException} when the transport failed or was
+         * disconnected before the response arrived.
+         */
+        void onFailure(Throwable error);
+    }
+
+    private static final class Request {
+        final long id;
+        final ResponseHandler handler;
+        final DispatchQueue queue;
+
+        // the timer wheel slot list the request is linked into, when it has a timeout.
+        long deadline = -1;
+        Request prev;
+        Request next;
+
+        Request(long id, ResponseHandler handler, DispatchQueue queue) {
+            this.id = id;
+            this.handler = handler;
+            this.queue = queue;
+        }
+    }
+
+    private final Correlator correlator;
+    private TransportListener transportListener;
+    private final LongHashMap<Request> inFlight = new LongHashMap<Request>();
+    private int maxInFlight = 1024;
+    private long nextId = 1;
+    private boolean refused;
+
+    private long tickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private Request[] wheel = new Request[512];
+    private long wheelStart;
+    private long currentTick;
+    private int scheduled;
+    private boolean ticking;
+
+    private long requestCount;
+    private long timeoutCount;
+    private long lateResponseCount;
+
+    public MultiplexingTransport(Transport next, Correlator correlator) {
+        super(next);
+        this.correlator = correlator;
+    }
+
+    /**
+     * Sends a request which does not time out, and handles its response on the
+     * transport's dispatch queue.
+     *
+     * @return false if the request was not sent because the in flight limit
+     *         was reached or the transport is full.
+     */
+    public boolean request(Object request, ResponseHandler handler) {
+        return request(request, 0, TimeUnit.MILLISECONDS, null, handler);
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param timeout how long to wait for the response, 0 to wait forever.
+     * @param queue the queue to run the handler on, or null for the transport's dispatch queue.
+     * @return false if the request was not sent because the in flight limit
+     *         was reached or the transport is full.
+     */
+    public boolean request(Object request, long timeout, TimeUnit unit, DispatchQueue queue, ResponseHandler handler) {
+        getDispatchQueue().assertExecuting();
+        if( inFlight.size() >= maxInFlight ) {
+            refused = true;
+            return false;
+        }
+        long id = nextId++;
+        Request r = new Request(id, handler, queue);
+        inFlight.put(id, r);
+        if( !next.offer(correlator.correlate(id, request)) ) {
+            inFlight.remove(id);
+            refused = true;
+            return false;
+        }
+        requestCount++;
+        if( timeout > 0 ) {
+            schedule(r, unit.toNanos(timeout));
+        }
+        return true;
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Inbound events
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void setTransportListener(TransportListener transportListener) {
+        this.transportListener = transportListener;
+        next.setTransportListener(new TransportListener() {
+            public void onTransportCommand(Object command) {
+                MultiplexingTransport.this.onTransportCommand(command);
+            }
+
+            public void onRefill() {
+                MultiplexingTransport.this.transportListener.onRefill();
+            }
+
+            public void onTransportFailure(IOException error) {
+                failAll(error);
+                MultiplexingTransport.this.transportListener.onTransportFailure(error);
+            }
+
+            public void onTransportConnected() {
+                MultiplexingTransport.this.transportListener.onTransportConnected();
+            }
+
+            public void onTransportDisconnected() {
+                failAll(new EOFException("Transport disconnected"));
+                MultiplexingTransport.this.transportListener.onTransportDisconnected();
+            }
+        });
+    }
+
+    @Override
+    public TransportListener getTransportListener() {
+        return transportListener;
+    }
+
+    private void onTransportCommand(Object command) {
+        long id = correlator.correlationId(command);
+        if( id < 0 ) {
+            transportListener.onTransportCommand(command);
+            return;
+        }
+        Request r = inFlight.remove(id);
+        if( r == null ) {
+            lateResponseCount++;
+            return;
+        }
+        unschedule(r);
+        complete(r, command, null);
+        if( refused && inFlight.size() < maxInFlight ) {
+            refused = false;
+            transportListener.onRefill();
+        }
+    }
+
+    private void complete(final Request r, final Object response, final Throwable error) {
+        if( r.queue == null || r.queue == getDispatchQueue() ) {
+            deliver(r, response, error);
+        } else {
+            r.queue.execute(new Task() {
+                public void run() {
+                    deliver(r, response, error);
+                }
+            });
+        }
+    }
+
+    private static void deliver(Request r, Object response, Throwable error) {
+        if( error == null ) {
+            r.handler.onResponse(response);
+        } else {
+            r.handler.onFailure(error);
+        }
+    }
+
+    private void failAll(IOException error) {
+        if( inFlight.isEmpty() ) {
+            return;
+        }
+        // values() is a copy, and the handlers may issue new requests which must stay in flight.
+        for (Request r : inFlight.values()) {
+            if( inFlight.remove(r.id) == r ) {
+                unschedule(r);
+                complete(r, null, error);
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Timer wheel
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    private void schedule(Request r, long timeout) {
+        long now = System.nanoTime();
+        if( !ticking ) {
+            // the wheel is empty so it can be restarted from now.
+            ticking = true;
+            wheelStart = now;
+            currentTick = 0;
+            scheduleTick();
+        }
+        long deadline = (now - wheelStart + timeout + tickNanos - 1) / tickNanos;
+        r.deadline = Math.max(deadline, currentTick + 1);
+        int slot = (int) (r.deadline & (wheel.length - 1));
+        r.next = wheel[slot];
+        if( r.next != null ) {
+            r.next.prev = r;
+        }
+        wheel[slot] = r;
+        scheduled++;
+    }
+
+    private void unschedule(Request r) {
+        if( r.deadline < 0 ) {
+            return;
+        }
+        if( r.prev != null ) {
+            r.prev.next = r.next;
+        } else {
+            wheel[(int) (r.deadline & (wheel.length - 1))] = r.next;
+        }
+        if( r.next != null ) {
+            r.next.prev = r.prev;
+        }
+        r.prev = r.next = null;
+        r.deadline = -1;
+        scheduled--;
+    }
+
+    private void scheduleTick() {
+        getDispatchQueue().executeAfter(tickNanos, TimeUnit.NANOSECONDS, new Task() {
+            public void run() {
+                tick();
+            }
+        });
+    }
+
+    private void tick() {
+        long target = (System.nanoTime() - wheelStart) / tickNanos;
+        // one pass around the wheel visits every slot, even if many ticks were missed.
+        long steps = Math.min(target - currentTick, wheel.length);
+        for (long i = 1; i <= steps; i++) {
+            int slot = (int) ((currentTick + i) & (wheel.length - 1));
+            Request r = wheel[slot];
+            while( r != null ) {
+                Request following = r.next;
+                if( r.deadline <= target ) {
+                    unschedule(r);
+                    inFlight.remove(r.id);
+                    timeoutCount++;
+                    complete(r, null, new TimeoutException("Request "+r.id+" timed out"));
+                }
+                r = following;
+            }
+        }
+        if( target > currentTick ) {
+            currentTick = target;
+        }
+        if( refused && inFlight.size() < maxInFlight ) {
+            refused = false;
+            transportListener.onRefill();
+        }
+        if( scheduled > 0 ) {
+            scheduleTick();
+        } else {
+            ticking = false;
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Settings and metrics
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    public Correlator getCorrelator() {
+        return correlator;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the pipelining depth: how many requests can be awaiting their response at a time.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public long getTickInterval(TimeUnit unit) {
+        return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the resolution of the request timeouts.  Only takes effect once the
+     * timer wheel is restarted, after all the pending timeouts have completed.
+     */
+    public void setTickInterval(long interval, TimeUnit unit) {
+        if( !ticking ) {
+            this.tickNanos = Math.max(1, unit.toNanos(interval));
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return the number of responses which were dropped because their request had already timed out.
+     */
+    public long getLateResponseCount() {
+        return lateResponseCount;
+    }
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+/**
+ * <p>
+ * Optionally implemented by {@link ProtocolCodec}s which can tell how many
+ * encoded bytes they hold which have not been written out yet.  The
+ * {@link TcpTransport} uses it to flush a write batch as soon as the
+ * {@link WriteBatchPolicy}'s max bytes are pending.
+ * </p>
+ */
+public interface PendingWriteSize {
+
+    /**
+     * @return the number of bytes which have not been written to the channel yet.
+     */
+    long getPendingWriteSize();
+
+}
@@ -21,7 +21,6 @@ import org.fusesource.hawtdispatch.*;
 
 import java.net.InetSocketAddress;
 import java.net.URI;
-import java.util.LinkedList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -38,7 +37,7 @@ public class PipeTransportServer implements TransportServer {
     protected final AtomicInteger connectionCounter = new AtomicInteger();
     DispatchQueue dispatchQueue;
 
-    private CustomDispatchSource<PipeTransport,LinkedList<PipeTransport>> acceptSource;
+    private CustomDispatchSource<PipeTransport,Batch<PipeTransport>> acceptSource;
 
 
     public String getBoundAddress() {
@@ -79,13 +78,13 @@ public class PipeTransportServer implements TransportServer {
     }
 
     public void start(Task onCompleted) throws Exception {
-        acceptSource = Dispatch.createSource(EventAggregators.<PipeTransport>linkedList(), dispatchQueue);
+        acceptSource = Dispatch.createSource(EventAggregators.<PipeTransport>batch(), dispatchQueue);
         acceptSource.setEventHandler(new Task() {
             public void run() {
-                LinkedList<PipeTransport> transports = acceptSource.getData();
-                for (PipeTransport transport : transports) {
+                Batch<PipeTransport> transports = acceptSource.getData();
+                for (int i = 0; i < transports.size(); i++) {
                     try {
-                        listener.onAccept(transport);
+                        listener.onAccept(transports.get(i));
                     } catch (Exception e) {
                         listener.onAcceptError(e);
                     }
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.Dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Provides the commonly used {@link ReadBudgetPolicy} implementations.
+ * </p>
+ */
+public class ReadBudgetPolicies {
+
+    /**
+     * Yields after reading 4 x the codec's read buffer size.
+     */
+    public static final ReadBudgetPolicy DEFAULT = new ReadBudgetPolicy() {
+        public boolean exhausted(ProtocolCodec codec, long bytes, int commands, long start) {
+            return bytes >= codec.getReadBufferSize()<<2;
+        }
+        public String toString() {
+            return "DEFAULT";
+        }
+    };
+
+    /**
+     * Yields after reading the given number of bytes.
+     */
+    public static ReadBudgetPolicy bytes(final long max) {
+        return new ReadBudgetPolicy() {
+            public boolean exhausted(ProtocolCodec codec, long bytes, int commands, long start) {
+                return bytes >= max;
+            }
+            public String toString() {
+                return "bytes("+max+")";
+            }
+        };
+    }
+
+    /**
+     * Yields after delivering the given number of commands.
+     */
+    public static ReadBudgetPolicy commands(final int max) {
+        return new ReadBudgetPolicy() {
+            public boolean exhausted(ProtocolCodec codec, long bytes, int commands, long start) {
+                return commands >= max;
+            }
+            public String toString() {
+                return "commands("+max+")";
+            }
+        };
+    }
+
+    /**
+     * Yields after draining for the given amount of time.  Useful when
+     * the cost of processing a command varies a lot.
+     */
+    public static ReadBudgetPolicy time(long duration, TimeUnit unit) {
+        final long max = unit.toNanos(duration);
+        return new ReadBudgetPolicy() {
+            public boolean exhausted(ProtocolCodec codec, long bytes, int commands, long start) {
+                return System.nanoTime() - start >= max;
+            }
+            public String toString() {
+                return "time("+max+"ns)";
+            }
+        };
+    }
+
+    /**
+     * Yields after reading a number of bytes which shrinks as the backlog of
+     * the current worker thread grows.  An idle worker lets the transport
+     * read up to max bytes while a busy one only lets it read min bytes.
+     */
+    public static ReadBudgetPolicy adaptive(final long min, final long max) {
+        return new ReadBudgetPolicy() {
+            public boolean exhausted(ProtocolCodec codec, long bytes, int commands, long start) {
+                if( bytes < min ) {
+                    return false;
+                }
+                return bytes >= Math.max(min, max / (1 + Dispatch.getCurrentThreadBacklog()));
+            }
+            public String toString() {
+                return "adaptive("+min+", "+max+")";
+            }
+        };
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+/**
+ * <p>
+ * Decides how much inbound data a transport processes before it yields
+ * so that other connections sharing the same threads get a chance to
+ * process their data.  Policies must be stateless since they can be
+ * shared by many transports.
+ * </p>
+ *
+ * @see ReadBudgetPolicies
+ */
+public interface ReadBudgetPolicy {
+
+    /**
+     * Called before every command is read.
+     *
+     * @param codec the codec of the transport being drained.
+     * @param bytes the number of bytes read since the transport started draining.
+     * @param commands the number of commands delivered since the transport started draining.
+     * @param start the {@link System#nanoTime()} at which the transport started draining.
+     * @return true if the transport should yield.
+     */
+    boolean exhausted(ProtocolCodec codec, long bytes, int commands, long start);
+
+}
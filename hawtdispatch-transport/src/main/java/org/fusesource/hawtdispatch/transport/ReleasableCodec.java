@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+/**
+ * <p>
+ * Optionally implemented by {@link ProtocolCodec}s which hold buffers
+ * checked out of a pool.  The {@link TcpTransport} releases them once
+ * the connection has been disposed of so they get back to the pool.
+ * </p>
+ */
+public interface ReleasableCodec {
+
+    /**
+     * Returns the buffers the codec holds to their pools.
+     */
+    void release();
+
+}
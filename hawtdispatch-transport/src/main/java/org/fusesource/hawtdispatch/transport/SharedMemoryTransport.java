@@ -0,0 +1,502 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.util.DirectBuffers;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * A transport for processes running on the same host which moves the
+ * encoded data through a pair of ring buffers in a memory mapped file
+ * instead of through the socket.
+ * </p><p>
+ * The transport still uses a TCP connection, but only to exchange small
+ * doorbell messages: the handshake which tells the server which file to
+ * map, the write position of the ring the peer should read from and the
+ * read position of the ring the peer can write to.  These positions
+ * are only published after the ring data has been written, so the socket
+ * system calls also act as the memory barrier between the processes.
+ * </p><p>
+ * The client creates the mapped file in the configured directory and the
+ * server only accepts files from its own configured directory, so both
+ * sides should be configured with the same, private directory.  The
+ * max read/write rates only apply to the doorbell traffic.
+ * </p>
+ */
+public class SharedMemoryTransport extends TcpTransport {
+
+    static final String FILE_PREFIX = "hawtdispatch-shm-";
+
+    static final byte HANDSHAKE = 'H';
+    static final byte WRITTEN = 'W';
+    static final byte ACKED = 'A';
+
+    private static final int CONTROL_BUFFER_SIZE = 4096;
+
+    public static SharedMemoryTransport createTransport(URI uri) throws Exception {
+        if( "shm".equals(uri.getScheme()) ) {
+            return new SharedMemoryTransport();
+        }
+        return null;
+    }
+
+    /**
+     * One direction of the transport.  The position is the total number of
+     * bytes written or read.  The limit is how far the position can advance:
+     * the peer's read position plus the capacity for the outbound ring
+     * and the peer's write position for the inbound ring.
+     */
+    static final class Ring {
+        final ByteBuffer data;
+        final int capacity;
+        long position;
+        long limit;
+        boolean blocked;
+
+        Ring(ByteBuffer data) {
+            this.data = data;
+            this.capacity = data.capacity();
+        }
+
+        int write(ByteBuffer src) {
+            int size = (int) Math.min(src.remaining(), limit - position);
+            int remaining = size;
+            while( remaining > 0 ) {
+                int offset = (int) (position % capacity);
+                int chunk = Math.min(remaining, capacity - offset);
+                int srcLimit = src.limit();
+                src.limit(src.position() + chunk);
+                data.limit(offset + chunk);
+                data.position(offset);
+                data.put(src);
+                src.limit(srcLimit);
+                position += chunk;
+                remaining -= chunk;
+            }
+            blocked = src.hasRemaining();
+            return size;
+        }
+
+        int read(ByteBuffer dst) {
+            int size = (int) Math.min(dst.remaining(), limit - position);
+            int remaining = size;
+            while( remaining > 0 ) {
+                int offset = (int) (position % capacity);
+                int chunk = Math.min(remaining, capacity - offset);
+                data.limit(offset + chunk);
+                data.position(offset);
+                dst.put(data);
+                position += chunk;
+                remaining -= chunk;
+            }
+            return size;
+        }
+    }
+
+    class RingChannel implements ReadableByteChannel, GatheringByteChannel {
+
+        public int read(ByteBuffer dst) throws IOException {
+            if( inbound==null ) {
+                return 0;
+            }
+            return inbound.read(dst);
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            if( outbound==null ) {
+                return 0;
+            }
+            return outbound.write(src);
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if(offset+length > srcs.length || length<0 || offset<0) {
+                throw new IndexOutOfBoundsException();
+            }
+            long rc=0;
+            for (int i = 0; i < length; i++) {
+                ByteBuffer src = srcs[offset+i];
+                if(src.hasRemaining()) {
+                    rc += write(src);
+                }
+                if( src.hasRemaining() ) {
+                    return rc;
+                }
+            }
+            return rc;
+        }
+
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen() {
+            return getSocketChannel().isOpen();
+        }
+
+        public void close() throws IOException {
+            getSocketChannel().close();
+        }
+    }
+
+    private File directory = new File(System.getProperty("java.io.tmpdir"));
+    private int ringSize = 1024*1024;
+
+    private boolean client;
+    private File file;
+    private MappedByteBuffer mapped;
+    private Ring outbound;
+    private Ring inbound;
+    private final RingChannel ringChannel = new RingChannel();
+
+    private boolean readSuspended = true;
+    private boolean handshakePending;
+    private long announcedWrite;
+    private long announcedAck;
+    private boolean controlWriteResumed;
+    private final ByteBuffer controlIn = ByteBuffer.allocate(CONTROL_BUFFER_SIZE);
+    private final ByteBuffer controlOut = ByteBuffer.allocate(CONTROL_BUFFER_SIZE);
+
+    public SharedMemoryTransport() {
+        controlOut.flip();
+    }
+
+    @Override
+    public void connecting(URI remoteLocation, URI localLocation) throws Exception {
+        client = true;
+        super.connecting(remoteLocation, localLocation);
+    }
+
+    @Override
+    protected void onConnected() throws IOException {
+        if( client ) {
+            file = File.createTempFile(FILE_PREFIX, ".ring", directory);
+            map(file, ringSize, true);
+            handshakePending = true;
+        }
+        super.onConnected();
+        // The socket only carries doorbell messages so keep it readable,
+        // suspending reads only stops decoding the inbound ring.
+        super.resumeRead();
+        if( client ) {
+            flushControl();
+        }
+    }
+
+    @Override
+    public void _stop(final Task onCompleted) {
+        if( file!=null ) {
+            file.delete();
+        }
+        super._stop(new Task() {
+            public void run() {
+                unmap();
+                if( onCompleted!=null ) {
+                    onCompleted.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Releases the mapping now rather than when the GC collects it.  The ring
+     * channel stops accessing the rings once they are gone.
+     */
+    private void unmap() {
+        inbound = null;
+        outbound = null;
+        if( mapped!=null ) {
+            DirectBuffers.free(mapped);
+            mapped = null;
+        }
+    }
+
+    private void map(File file, int size, boolean create) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if( create ) {
+                raf.setLength(2L * size);
+            } else if( raf.length() != 2L * size ) {
+                throw new IOException("Unexpected shared memory file size: "+raf.length());
+            }
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 2L * size);
+        } finally {
+            raf.close();
+        }
+        mapped.limit(size);
+        ByteBuffer first = mapped.slice();
+        mapped.limit(2 * size);
+        mapped.position(size);
+        ByteBuffer second = mapped.slice();
+
+        // The client writes to the first ring and reads from the second.
+        outbound = new Ring(create ? first : second);
+        inbound = new Ring(create ? second : first);
+        outbound.limit = size;
+    }
+
+    private void onHandshake(String path, int size) throws IOException {
+        if( outbound!=null ) {
+            throw new IOException("Unexpected shared memory handshake");
+        }
+        // check where the path really leads to, it may go through links.
+        File candidate = new File(path).getCanonicalFile();
+        if( !candidate.getName().startsWith(FILE_PREFIX) ||
+            !directory.getCanonicalFile().equals(candidate.getParentFile()) ) {
+            throw new IOException("Shared memory file is not in the configured directory: "+path);
+        }
+        map(candidate, size, false);
+
+        // both sides have it mapped now.. no need to keep it around.
+        candidate.delete();
+        drainOutboundSource.merge(1);
+    }
+
+    @Override
+    public boolean full() {
+        return outbound==null || super.full();
+    }
+
+    @Override
+    public void flush() {
+        super.flush();
+        // Publish what was written to the ring even if the codec could
+        // not write everything, otherwise the peer would never ack.
+        if( getServiceState() == STARTED && isConnected() ) {
+            try {
+                flushControl();
+            } catch (IOException e) {
+                onTransportFailure(e);
+            }
+        }
+    }
+
+    @Override
+    public void drainInbound() {
+        if (!getServiceState().isStarted()) {
+            return;
+        }
+        try {
+            readControl();
+            if( !readSuspended ) {
+                super.drainInbound();
+            }
+            if( isConnected() ) {
+                flushControl();
+            }
+        } catch (IOException e) {
+            onTransportFailure(e);
+        }
+    }
+
+    private void readControl() throws IOException {
+        while( true ) {
+            int count = super.getReadChannel().read(controlIn);
+            if( count == -1 ) {
+                throw new EOFException("Peer disconnected");
+            }
+            controlIn.flip();
+            try {
+                processControl();
+            } finally {
+                controlIn.compact();
+            }
+            if( count == 0 ) {
+                return;
+            }
+        }
+    }
+
+    private void processControl() throws IOException {
+        while( controlIn.remaining() >= 9 ) {
+            int start = controlIn.position();
+            byte type = controlIn.get();
+            switch( type ) {
+                case HANDSHAKE:
+                    int size = controlIn.getInt();
+                    int pathLength = controlIn.getInt();
+                    if( size <= 0 || size > Integer.MAX_VALUE / 2 ) {
+                        throw new IOException("Invalid shared memory ring size: "+size);
+                    }
+                    if( pathLength < 0 || pathLength > CONTROL_BUFFER_SIZE - 9 ) {
+                        throw new IOException("Invalid shared memory file path length: "+pathLength);
+                    }
+                    if( controlIn.remaining() < pathLength ) {
+                        controlIn.position(start);
+                        return;
+                    }
+                    byte[] path = new byte[pathLength];
+                    controlIn.get(path);
+                    onHandshake(new String(path, "UTF-8"), size);
+                    break;
+                case WRITTEN:
+                    if( inbound==null ) {
+                        throw new IOException("Shared memory write position received before the handshake");
+                    }
+                    long written = controlIn.getLong();
+                    // the peer can't take back data or write past what we have not read yet.
+                    if( written < inbound.limit || written > inbound.position + inbound.capacity ) {
+                        throw new IOException("Invalid shared memory write position: "+written);
+                    }
+                    inbound.limit = written;
+                    break;
+                case ACKED:
+                    if( outbound==null ) {
+                        throw new IOException("Shared memory ack received before the handshake");
+                    }
+                    long acked = controlIn.getLong();
+                    // the peer can't take back an ack or ack data we have not written yet.
+                    if( acked < outbound.limit - outbound.capacity || acked > outbound.position ) {
+                        throw new IOException("Invalid shared memory read position: "+acked);
+                    }
+                    outbound.limit = acked + outbound.capacity;
+                    if( outbound.blocked ) {
+                        outbound.blocked = false;
+                        drainOutboundSource.merge(1);
+                    }
+                    break;
+                default:
+                    throw new IOException("Invalid shared memory control message: "+type);
+            }
+        }
+    }
+
+    /**
+     * @return true if all the control messages have been sent.
+     */
+    private boolean flushControl() throws IOException {
+        while( true ) {
+            if( controlOut.hasRemaining() ) {
+                super.getWriteChannel().write(controlOut);
+                if( controlOut.hasRemaining() ) {
+                    if( !controlWriteResumed ) {
+                        controlWriteResumed = true;
+                        super.resumeWrite();
+                    }
+                    return false;
+                }
+            }
+            controlOut.clear();
+            if( handshakePending ) {
+                handshakePending = false;
+                byte[] path = file.getCanonicalPath().getBytes("UTF-8");
+                controlOut.put(HANDSHAKE);
+                controlOut.putInt(ringSize);
+                controlOut.putInt(path.length);
+                controlOut.put(path);
+            }
+            if( outbound!=null && outbound.position != announcedWrite ) {
+                announcedWrite = outbound.position;
+                controlOut.put(WRITTEN);
+                controlOut.putLong(announcedWrite);
+            }
+            if( inbound!=null && inbound.position != announcedAck ) {
+                announcedAck = inbound.position;
+                controlOut.put(ACKED);
+                controlOut.putLong(announcedAck);
+            }
+            controlOut.flip();
+            if( !controlOut.hasRemaining() ) {
+                if( controlWriteResumed ) {
+                    controlWriteResumed = false;
+                    super.suspendWrite();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The ring drains when the peer acks, not when the socket is writable, so
+     * the socket write source is only resumed to send control messages.
+     */
+    @Override
+    protected void resumeWrite() {
+    }
+
+    @Override
+    protected void suspendWrite() {
+    }
+
+    /**
+     * Doorbell messages still need to be processed while the application
+     * is not reading so that the peer gets our acks and we get its acks.
+     */
+    @Override
+    public void suspendRead() {
+        readSuspended = true;
+    }
+
+    @Override
+    public void resumeRead() {
+        if( readSuspended ) {
+            readSuspended = false;
+            dispatchQueue.execute(new Task() {
+                public void run() {
+                    drainInbound();
+                }
+            });
+        }
+    }
+
+    @Override
+    protected boolean isReadSuspended() {
+        return readSuspended;
+    }
+
+    public ReadableByteChannel getReadChannel() {
+        return ringChannel;
+    }
+
+    public WritableByteChannel getWriteChannel() {
+        return ringChannel;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    /**
+     * Sets the size in bytes of each of the two ring buffers.  Only used by the
+     * client side, the server uses the size sent in the handshake.
+     */
+    public void setRingSize(int ringSize) {
+        this.ringSize = ringSize;
+    }
+}
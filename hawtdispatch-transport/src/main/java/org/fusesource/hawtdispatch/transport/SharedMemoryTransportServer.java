@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.File;
+import java.net.URI;
+import java.net.UnknownHostException;
+
+/**
+ * Accepts {@link SharedMemoryTransport} connections.  Since the peers have to
+ * share a file system, it should normally be bound to a loopback address.
+ */
+public class SharedMemoryTransportServer extends TcpTransportServer {
+
+    public static SharedMemoryTransportServer createTransportServer(URI uri) throws Exception {
+        return new SharedMemoryTransportServer(uri);
+    }
+
+    private File directory = new File(System.getProperty("java.io.tmpdir"));
+
+    public SharedMemoryTransportServer(URI location) throws UnknownHostException {
+        super(location);
+    }
+
+    protected TcpTransport createTransport() {
+        SharedMemoryTransport rc = new SharedMemoryTransport();
+        rc.setDispatchQueue(dispatchQueue);
+        rc.setBlockingExecutor(blockingExecutor);
+        rc.setDirectory(directory);
+        return rc;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the directory the clients create their shared memory files in.  Only
+     * files in this directory will be mapped.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.fusesource.hawtdispatch.util.DirectBufferPool;
+
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Buffer management shared by the {@link SslTransport} and the {@link SslProtocolCodec}.
+ * </p><p>
+ * The SSL engine reads records from and wraps records into packet sized
+ * direct buffers, and decrypts records which don't fit the caller's buffer
+ * into an application sized one.  These get checked out of a pool only while
+ * a record is in flight, so idle connections don't hold any of them.
+ * </p>
+ */
+class SslBuffers {
+
+    /**
+     * Used as the source or target of the handshake wraps and unwraps which
+     * don't carry any application data.  It has no room, so it's never modified.
+     */
+    static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * The pools used when the transport or codec is not configured with a
+     * BufferPools.  They are keyed by exact size since packet sizes are just
+     * over a power of two and rounding them up to a size class would double
+     * the memory in use.
+     */
+    private static final ConcurrentHashMap<Integer, DirectBufferPool> PACKET_POOLS = new ConcurrentHashMap<Integer, DirectBufferPool>();
+
+    /**
+     * The heap pools used for the offloaded bulk encryption when the transport
+     * is not configured with a BufferPools.
+     */
+    static final BufferPools BULK_POOLS = new BufferPools();
+
+    /**
+     * @return the size of the buffers the engine of the given session needs
+     *         to read, wrap and unwrap records.
+     */
+    static int recordBufferSize(SSLSession session) {
+        return Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize());
+    }
+
+    /**
+     * @return the pool to check the record buffers of the given session out of.
+     */
+    static DirectBufferPool recordBufferPool(SSLSession session, BufferPools bufferPools) {
+        int size = recordBufferSize(session);
+        if( bufferPools!=null ) {
+            return bufferPools.getDirectBufferPool(size);
+        }
+        DirectBufferPool rc = PACKET_POOLS.get(size);
+        if( rc == null ) {
+            rc = new DirectBufferPool(size);
+            DirectBufferPool previous = PACKET_POOLS.putIfAbsent(size, rc);
+            if( previous!=null ) {
+                rc = previous;
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * Moves as many bytes as fit from the source to the target buffer.
+     *
+     * @return the number of bytes moved.
+     */
+    static int transfer(ByteBuffer source, ByteBuffer target) {
+        int size = Math.min(target.remaining(), source.remaining());
+        int limit = source.limit();
+        source.limit(source.position() + size);
+        target.put(source);
+        source.limit(limit);
+        return size;
+    }
+
+}
@@ -18,6 +18,8 @@
 package org.fusesource.hawtdispatch.transport;
 
 import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.fusesource.hawtdispatch.util.DirectBufferPool;
 
 import javax.net.ssl.*;
 import java.io.EOFException;
@@ -37,8 +39,10 @@ import static javax.net.ssl.SSLEngineResult.Status.BUFFER_OVERFLOW;
 /**
  * Implements the SSL protocol as a WrappingProtocolCodec.  Useful for when
  * you want to switch to the SSL protocol on a regular TCP Transport.
+ * The record buffers are only checked out of a pool while a record is
+ * in flight, so idle connections don't hold any.
  */
-public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
+public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession, PendingWriteSize, ReleasableCodec {
 
     private ReadableByteChannel readChannel;
     private WritableByteChannel writeChannel;
@@ -57,6 +61,9 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
     private boolean writeFlushing;
 
     private ByteBuffer readOverflowBuffer;
+    private BufferPools bufferPools;
+    private DirectBufferPool recordPool;
+    private int recordBufferSize;
     Transport transport;
 
     int lastReadSize;
@@ -122,9 +129,49 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
         }
         engine = sslContext.createSSLEngine();
         SSLSession session = engine.getSession();
-        readBuffer = ByteBuffer.allocateDirect(session.getPacketBufferSize());
-        readBuffer.flip();
-        writeBuffer = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        recordBufferSize = SslBuffers.recordBufferSize(session);
+        recordPool = SslBuffers.recordBufferPool(session, bufferPools);
+        // the read buffer gets checked out when we need to read in a record.
+        readUnderflow = true;
+    }
+
+    private void releaseWriteBuffer() {
+        if( writeBuffer!=null ) {
+            recordPool.checkin(writeBuffer);
+            writeBuffer = null;
+        }
+    }
+
+    /**
+     * Returns the read buffer to the pool if it does not hold any part of a record.
+     */
+    private void releaseReadBuffer() {
+        if( readBuffer!=null && (readUnderflow ? readBuffer.position()==0 : !readBuffer.hasRemaining()) ) {
+            recordPool.checkin(readBuffer);
+            readBuffer = null;
+            readUnderflow = true;
+        }
+    }
+
+    /**
+     * Returns the record buffers to the pool, including the ones holding
+     * data which has not been written or read yet.
+     */
+    public void release() {
+        releaseWriteBuffer();
+        writeFlushing = false;
+        if( readBuffer!=null ) {
+            recordPool.checkin(readBuffer);
+            readBuffer = null;
+            readUnderflow = true;
+        }
+        if( readOverflowBuffer!=null ) {
+            recordPool.checkin(readOverflowBuffer);
+            readOverflowBuffer = null;
+        }
+        if( next instanceof ReleasableCodec ) {
+            ((ReleasableCodec) next).release();
+        }
     }
 
 
@@ -187,11 +234,11 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
                 break;
 
             case NEED_WRAP:
-                secure_write(ByteBuffer.allocate(0));
+                secure_write(SslBuffers.EMPTY);
                 break;
 
             case NEED_UNWRAP:
-                if( secure_read(ByteBuffer.allocate(0)) == -1) {
+                if( secure_read(SslBuffers.EMPTY) == -1) {
                     throw new EOFException("Peer disconnected during ssl handshake");
                 }
                 break;
@@ -208,6 +255,17 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
         }
     }
 
+    /**
+     * @return the encrypted bytes not written yet plus the ones the next codec holds.
+     */
+    public long getPendingWriteSize() {
+        long rc = next instanceof PendingWriteSize ? ((PendingWriteSize) next).getPendingWriteSize() : 0;
+        if( writeBuffer!=null ) {
+            rc += writeFlushing ? writeBuffer.remaining() : writeBuffer.position();
+        }
+        return rc;
+    }
+
     /**
      * @return true if fully flushed.
      * @throws IOException
@@ -220,17 +278,18 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
                     writeCounter += lastWriteSize;
                 }
                 if( !writeBuffer.hasRemaining() ) {
-                    writeBuffer.clear();
+                    releaseWriteBuffer();
                     writeFlushing = false;
                     return true;
                 } else {
                     return false;
                 }
             } else {
-                if( writeBuffer.position()!=0 ) {
+                if( writeBuffer!=null && writeBuffer.position()!=0 ) {
                     writeBuffer.flip();
                     writeFlushing = true;
                 } else {
+                    releaseWriteBuffer();
                     return true;
                 }
             }
@@ -238,23 +297,32 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
     }
 
     private int secure_read(ByteBuffer plain) throws IOException {
+        try {
+            return unwrap(plain);
+        } finally {
+            releaseReadBuffer();
+        }
+    }
+
+    private int unwrap(ByteBuffer plain) throws IOException {
         int rc=0;
         while ( plain.hasRemaining() ^ engine.getHandshakeStatus() == NEED_UNWRAP ) {
             if( readOverflowBuffer !=null ) {
                 if(  plain.hasRemaining() ) {
                     // lets drain the overflow buffer before trying to suck down anymore
                     // network bytes.
-                    int size = Math.min(plain.remaining(), readOverflowBuffer.remaining());
-                    plain.put(readOverflowBuffer.array(), readOverflowBuffer.position(), size);
-                    readOverflowBuffer.position(readOverflowBuffer.position()+size);
+                    rc += SslBuffers.transfer(readOverflowBuffer, plain);
                     if( !readOverflowBuffer.hasRemaining() ) {
+                        recordPool.checkin(readOverflowBuffer);
                         readOverflowBuffer = null;
                     }
-                    rc += size;
                 } else {
                     return rc;
                 }
             } else if( readUnderflow ) {
+                if( readBuffer==null ) {
+                    readBuffer = recordPool.checkout();
+                }
                 lastReadSize = readChannel.read(readBuffer);
                 if( lastReadSize == -1 ) {  // peer closed socket.
                     if (rc==0) {
@@ -274,9 +342,10 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
                 SSLEngineResult result = engine.unwrap(readBuffer, plain);
                 rc += result.bytesProduced();
                 if( result.getStatus() == BUFFER_OVERFLOW ) {
-                    readOverflowBuffer = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+                    readOverflowBuffer = recordPool.checkout();
                     result = engine.unwrap(readBuffer, readOverflowBuffer);
                     if( readOverflowBuffer.position()==0 ) {
+                        recordPool.checkin(readOverflowBuffer);
                         readOverflowBuffer = null;
                     } else {
                         readOverflowBuffer.flip();
@@ -314,6 +383,9 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
         }
         int rc = 0;
         while ( plain.hasRemaining() ^ engine.getHandshakeStatus()==NEED_WRAP ) {
+            if( writeBuffer==null ) {
+                writeBuffer = recordPool.checkout();
+            }
             SSLEngineResult result = engine.wrap(plain, writeBuffer);
             assert result.getStatus()!= BUFFER_OVERFLOW;
             rc += result.bytesConsumed();
@@ -406,12 +478,17 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
     }
 
     public void unread(byte[] buffer) {
-        readBuffer.compact();
+        if( readBuffer==null ) {
+            readBuffer = recordPool.checkout();
+        } else if( !readUnderflow ) {
+            readBuffer.compact();
+        }
         if( readBuffer.remaining() < buffer.length) {
             throw new IllegalStateException("Cannot unread now");
         }
         readBuffer.put(buffer);
         readBuffer.flip();
+        readUnderflow = false;
     }
 
     public Object read() throws IOException {
@@ -447,11 +524,24 @@ public class SslProtocolCodec implements WrappingProtocolCodec, SecuredSession {
     }
 
     public int getReadBufferSize() {
-        return readBuffer.capacity();
+        return recordBufferSize;
     }
 
     public int getWriteBufferSize() {
-        return writeBuffer.capacity();
+        return recordBufferSize;
+    }
+
+    public BufferPools getBufferPools() {
+        return bufferPools;
+    }
+
+    /**
+     * Sets the pools the record buffers get checked out of.  Must be set before
+     * the codec is switched to client or server mode.  When null, which is the
+     * default, pools shared by all the SSL codecs and transports are used.
+     */
+    public void setBufferPools(BufferPools bufferPools) {
+        this.bufferPools = bufferPools;
     }
 
 
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Configures the TLS session cache of the SSLContext used by the
+ * {@link SslTransportServer} or {@link SslTransport} and keeps track of how
+ * many of their handshakes resumed a previous session instead of doing a
+ * full handshake.
+ * </p><p>
+ * The server caches the sessions it negotiated and the clients cache them
+ * keyed by the host and port of the remote location they connected to, so a
+ * reconnecting client can resume its session as long as it uses the same
+ * SSLContext.  Session tickets, which let the server resume sessions it
+ * no longer caches, are enabled by default on Java 13 and later and can only
+ * be switched off with the "jdk.tls.server.enableSessionTicketExtension" and
+ * "jdk.tls.client.enableSessionTicketExtension" system properties.
+ * </p><p>
+ * A handshake counts as a resumption when it ends up with the ID of a session
+ * which an earlier handshake recorded with this cache.  TLS 1.3 sessions
+ * resumed from a ticket get a new ID but keep the creation time of the
+ * session they resume, so those count as resumptions when they were created
+ * before the handshake started.
+ * </p><p>
+ * A single instance can be shared by many transports to get combined metrics.
+ * </p>
+ */
+public class SslSessionCache {
+
+    /**
+     * The JDK's default session cache size.
+     */
+    private static final int DEFAULT_TRACKED_IDS = 20480;
+
+    private int size;
+    private int timeout;
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumptions = new AtomicLong();
+
+    /**
+     * The IDs of the sessions negotiated by earlier handshakes, least recently
+     * used first.
+     */
+    private final LinkedHashMap<String, Boolean> sessionIds = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > maxTrackedIds();
+        }
+    };
+
+    /**
+     * Creates a session cache which keeps the SSLContext's cache settings.
+     */
+    public SslSessionCache() {
+        this(-1, -1);
+    }
+
+    /**
+     * @param size the maximum number of cached sessions, 0 for no limit or -1 to keep the SSLContext's setting.
+     * @param timeout the number of seconds a session can be resumed for, 0 for no limit or -1 to keep the SSLContext's setting.
+     */
+    public SslSessionCache(int size, int timeout) {
+        this.size = size;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Applies the cache settings to a server or client session context.
+     */
+    public void configure(SSLSessionContext context) {
+        if( context==null ) {
+            return;
+        }
+        if( size >= 0 && context.getSessionCacheSize()!=size ) {
+            context.setSessionCacheSize(size);
+        }
+        if( timeout >= 0 && context.getSessionTimeout()!=timeout ) {
+            context.setSessionTimeout(timeout);
+        }
+    }
+
+    /**
+     * Records a completed handshake.
+     *
+     * @param session the negotiated session.
+     * @param start the time in milliseconds the handshake was started at.
+     */
+    void handshakeCompleted(SSLSession session, long start) {
+        handshakes.incrementAndGet();
+        byte[] id = session.getId();
+        if( id==null || id.length==0 ) {
+            // sessions which can't be resumed have no ID.
+            return;
+        }
+        boolean resumed;
+        synchronized (sessionIds) {
+            resumed = sessionIds.put(toHex(id), Boolean.TRUE)!=null;
+        }
+        if( !resumed && "TLSv1.3".equals(session.getProtocol()) ) {
+            resumed = session.getCreationTime() < start;
+        }
+        if( resumed ) {
+            resumptions.incrementAndGet();
+        }
+    }
+
+    private int maxTrackedIds() {
+        // track as many IDs as the SSLContext can cache.
+        return size > 0 ? size : DEFAULT_TRACKED_IDS;
+    }
+
+    private static String toHex(byte[] id) {
+        StringBuilder sb = new StringBuilder(id.length*2);
+        for (byte b : id) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the number of completed handshakes.
+     */
+    public long getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    /**
+     * @return the number of handshakes which resumed a previous session.
+     */
+    public long getResumedCount() {
+        return resumptions.get();
+    }
+
+    /**
+     * @return the number of handshakes which had to negotiate a new session.
+     */
+    public long getFullHandshakeCount() {
+        return handshakes.get() - resumptions.get();
+    }
+
+    /**
+     * @return the percentage of the handshakes which resumed a previous session.
+     */
+    public double getHitRatio() {
+        long total = handshakes.get();
+        return total == 0 ? 0.0 : 100.0 * resumptions.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ size:%d, timeout:%d, handshakes:%d, resumed:%d, hit_ratio:%.2f %% }",
+                size,
+                timeout,
+                getHandshakeCount(),
+                getResumedCount(),
+                getHitRatio());
+    }
+
+}
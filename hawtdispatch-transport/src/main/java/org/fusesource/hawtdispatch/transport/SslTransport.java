@@ -18,6 +18,9 @@
 package org.fusesource.hawtdispatch.transport;
 
 import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.fusesource.hawtdispatch.util.DirectBufferPool;
+import org.fusesource.hawtdispatch.util.PooledBuffer;
 
 import javax.net.ssl.*;
 import java.io.EOFException;
@@ -29,14 +32,31 @@ import java.nio.channels.*;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_UNWRAP;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_WRAP;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
 import static javax.net.ssl.SSLEngineResult.Status.BUFFER_OVERFLOW;
+import static javax.net.ssl.SSLEngineResult.Status.CLOSED;
 
 /**
+ * <p>
  * An SSL Transport for secure communications.
+ * </p><p>
+ * By default the SSL engine is used on the transport's dispatch queue and
+ * only its delegated tasks run on the blocking executor.  When a crypto
+ * executor is configured, the whole handshake and the encryption of writes
+ * larger than the bulk crypto threshold run on it instead, so that
+ * connection storms don't stall the established connections sharing the
+ * dispatch threads.  Only one operation is offloaded at a time and its
+ * result is applied back on the transport's dispatch queue, so the
+ * ordering of the data is maintained.
+ * </p><p>
+ * The buffers the SSL engine reads and writes records with are checked out of
+ * pools only while a record is in flight, so idle connections don't hold any.
+ * </p>
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
@@ -79,6 +99,22 @@ public class SslTransport extends TcpTransport implements SecuredSession {
     private ByteBuffer readOverflowBuffer;
     private SSLChannel ssl_channel = new SSLChannel();
 
+    private BufferPools bufferPools;
+    private DirectBufferPool recordPool;
+
+    private Executor cryptoExecutor;
+    private int bulkCryptoThreshold;
+    private boolean handshakeOffloaded;
+    private boolean bulkPending;
+    private int deferredWriteResumes;
+    private boolean deferredDrain;
+    private PooledBuffer bulkBuffer;
+    private PooledBuffer bulkRemainder;
+
+    private SslSessionCache sessionCache;
+    private long handshakeStart;
+    private boolean sessionEstablished;
+
 
     public void setSSLContext(SSLContext ctx) {
         this.sslContext = ctx;
@@ -191,6 +227,10 @@ public class SslTransport extends TcpTransport implements SecuredSession {
     @Override
     public void connecting(URI remoteLocation, URI localLocation) throws Exception {
         assert engine == null;
+        if( sessionCache!=null ) {
+            sessionCache.configure(sslContext.getClientSessionContext());
+        }
+        // the host and port are the key the client session gets cached under.
         engine = sslContext.createSSLEngine(remoteLocation.getHost(), remoteLocation.getPort());
         engine.setUseClientMode(true);
         super.connecting(remoteLocation, localLocation);
@@ -214,21 +254,73 @@ public class SslTransport extends TcpTransport implements SecuredSession {
     @Override
     protected void initializeChannel() throws Exception {
         super.initializeChannel();
-        SSLSession session = engine.getSession();
-        readBuffer = ByteBuffer.allocateDirect(session.getPacketBufferSize());
-        readBuffer.flip();
-        writeBuffer = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        recordPool = SslBuffers.recordBufferPool(engine.getSession(), bufferPools);
+        // the read buffer gets checked out when we need to read in a record.
+        readUnderflow = true;
+    }
+
+    @Override
+    protected void dispose() {
+        super.dispose();
+        if( !handshakeOffloaded && !bulkPending ) {
+            // otherwise they get released once the offloaded operation completes.
+            releaseBuffers();
+        }
+    }
+
+    private void releaseBuffers() {
+        releaseWriteBuffer();
+        if( readBuffer!=null ) {
+            recordPool.checkin(readBuffer);
+            readBuffer = null;
+            readUnderflow = true;
+        }
+        if( readOverflowBuffer!=null ) {
+            recordPool.checkin(readOverflowBuffer);
+            readOverflowBuffer = null;
+        }
+        if( bulkBuffer!=null ) {
+            bulkBuffer.release();
+            bulkBuffer = null;
+        }
+        if( bulkRemainder!=null ) {
+            bulkRemainder.release();
+            bulkRemainder = null;
+        }
+    }
+
+    private void releaseWriteBuffer() {
+        if( writeBuffer!=null ) {
+            recordPool.checkin(writeBuffer);
+            writeBuffer = null;
+        }
+    }
+
+    /**
+     * Returns the read buffer to the pool if it does not hold any part of a record.
+     */
+    private void releaseReadBuffer() {
+        if( readBuffer!=null && (readUnderflow ? readBuffer.position()==0 : !readBuffer.hasRemaining()) ) {
+            recordPool.checkin(readBuffer);
+            readBuffer = null;
+            readUnderflow = true;
+        }
     }
 
     @Override
     protected void onConnected() throws IOException {
         super.onConnected();
+        handshakeStart = System.currentTimeMillis();
         engine.beginHandshake();
         handshake();
     }
 
     @Override
     public void flush() {
+        if( handshakeOffloaded ) {
+            // we continue once the offloaded handshake step completes.
+            return;
+        }
         if ( engine.getHandshakeStatus()!=NOT_HANDSHAKING ) {
             handshake();
         } else {
@@ -238,9 +330,18 @@ public class SslTransport extends TcpTransport implements SecuredSession {
 
     @Override
     public void drainInbound() {
+        if( handshakeOffloaded ) {
+            return;
+        }
+        if( bulkPending ) {
+            // the crypto executor is using the engine, drain once it's done.
+            deferredDrain = true;
+            return;
+        }
         if ( engine.getHandshakeStatus()!=NOT_HANDSHAKING ) {
             handshake();
         } else {
+            sessionEstablished();
             super.drainInbound();
         }
     }
@@ -250,11 +351,24 @@ public class SslTransport extends TcpTransport implements SecuredSession {
      * @throws IOException
      */
     protected boolean transportFlush() throws IOException {
+        if( bulkPending || handshakeOffloaded ) {
+            // the crypto executor is using the engine and its buffers.
+            return false;
+        }
+        if( bulkBuffer!=null ) {
+            super.getWriteChannel().write(bulkBuffer.buffer());
+            if( bulkBuffer.buffer().hasRemaining() ) {
+                return false;
+            }
+            bulkBuffer.release();
+            bulkBuffer = null;
+            suspendWrite();
+        }
         while (true) {
             if(writeFlushing) {
                 int count = super.getWriteChannel().write(writeBuffer);
                 if( !writeBuffer.hasRemaining() ) {
-                    writeBuffer.clear();
+                    releaseWriteBuffer();
                     writeFlushing = false;
                     suspendWrite();
                     return true;
@@ -262,11 +376,12 @@ public class SslTransport extends TcpTransport implements SecuredSession {
                     return false;
                 }
             } else {
-                if( writeBuffer.position()!=0 ) {
+                if( writeBuffer!=null && writeBuffer.position()!=0 ) {
                     writeBuffer.flip();
                     writeFlushing = true;
                     resumeWrite();
                 } else {
+                    releaseWriteBuffer();
                     return true;
                 }
             }
@@ -278,16 +393,43 @@ public class SslTransport extends TcpTransport implements SecuredSession {
             // can't write anymore until the write_secured_buffer gets fully flushed out..
             return 0;
         }
+        if( bulkRemainder!=null ) {
+            // finish encrypting what an offloaded bulk encryption could not.
+            ByteBuffer remainder = bulkRemainder.buffer();
+            wrap(remainder);
+            if( remainder.hasRemaining() ) {
+                return 0;
+            }
+            bulkRemainder.release();
+            bulkRemainder = null;
+            if( !transportFlush() ) {
+                return 0;
+            }
+        }
+        if( cryptoExecutor!=null && bulkCryptoThreshold > 0 && plain.remaining() >= bulkCryptoThreshold
+                && engine.getHandshakeStatus()==NOT_HANDSHAKING ) {
+            return offloadWrap(plain);
+        }
+        return wrap(plain);
+    }
+
+    private int wrap(ByteBuffer plain) throws IOException {
         int rc = 0;
+        boolean finished = false;
         while ( plain.hasRemaining() ^ engine.getHandshakeStatus()==NEED_WRAP ) {
+            if( writeBuffer==null ) {
+                writeBuffer = recordPool.checkout();
+            }
             SSLEngineResult result = engine.wrap(plain, writeBuffer);
             assert result.getStatus()!= BUFFER_OVERFLOW;
             rc += result.bytesConsumed();
+            finished |= result.getHandshakeStatus()==FINISHED;
             if( !transportFlush() ) {
                 break;
             }
         }
-        if( plain.remaining()==0 && engine.getHandshakeStatus()!=NOT_HANDSHAKING ) {
+        // once the handshake finishes, the handshake step drains what got offered or received meanwhile.
+        if( plain.remaining()==0 && (finished || engine.getHandshakeStatus()!=NOT_HANDSHAKING) ) {
             dispatchQueue.execute(new Task() {
                 public void run() {
                     handshake();
@@ -298,23 +440,32 @@ public class SslTransport extends TcpTransport implements SecuredSession {
     }
 
     private int secure_read(ByteBuffer plain) throws IOException {
+        try {
+            return unwrap(plain);
+        } finally {
+            releaseReadBuffer();
+        }
+    }
+
+    private int unwrap(ByteBuffer plain) throws IOException {
         int rc=0;
         while ( plain.hasRemaining() ^ engine.getHandshakeStatus() == NEED_UNWRAP ) {
             if( readOverflowBuffer !=null ) {
                 if(  plain.hasRemaining() ) {
                     // lets drain the overflow buffer before trying to suck down anymore
                     // network bytes.
-                    int size = Math.min(plain.remaining(), readOverflowBuffer.remaining());
-                    plain.put(readOverflowBuffer.array(), readOverflowBuffer.position(), size);
-                    readOverflowBuffer.position(readOverflowBuffer.position()+size);
+                    rc += SslBuffers.transfer(readOverflowBuffer, plain);
                     if( !readOverflowBuffer.hasRemaining() ) {
+                        recordPool.checkin(readOverflowBuffer);
                         readOverflowBuffer = null;
                     }
-                    rc += size;
                 } else {
                     return rc;
                 }
             } else if( readUnderflow ) {
+                if( readBuffer==null ) {
+                    readBuffer = recordPool.checkout();
+                }
                 int count = super.getReadChannel().read(readBuffer);
                 if( count == -1 ) {  // peer closed socket.
                     if (rc==0) {
@@ -333,9 +484,10 @@ public class SslTransport extends TcpTransport implements SecuredSession {
                 SSLEngineResult result = engine.unwrap(readBuffer, plain);
                 rc += result.bytesProduced();
                 if( result.getStatus() == BUFFER_OVERFLOW ) {
-                    readOverflowBuffer = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+                    readOverflowBuffer = recordPool.checkout();
                     result = engine.unwrap(readBuffer, readOverflowBuffer);
                     if( readOverflowBuffer.position()==0 ) {
+                        recordPool.checkin(readOverflowBuffer);
                         readOverflowBuffer = null;
                     } else {
                         readOverflowBuffer.flip();
@@ -350,7 +502,7 @@ public class SslTransport extends TcpTransport implements SecuredSession {
                             return rc;
                         }
                     case OK:
-                        if ( engine.getHandshakeStatus()!=NOT_HANDSHAKING ) {
+                        if ( result.getHandshakeStatus()==FINISHED || engine.getHandshakeStatus()!=NOT_HANDSHAKING ) {
                             dispatchQueue.execute(new Task() {
                                 public void run() {
                                     handshake();
@@ -370,7 +522,211 @@ public class SslTransport extends TcpTransport implements SecuredSession {
         return rc;
     }
 
+    /**
+     * Encrypts a copy of the plain data on the crypto executor.
+     *
+     * @return the number of bytes consumed from plain.
+     */
+    private int offloadWrap(ByteBuffer plain) {
+        final BufferPools pools = bufferPools!=null ? bufferPools : SslBuffers.BULK_POOLS;
+        final PooledBuffer input = pools.checkoutBuffer(plain.remaining());
+        input.buffer().put(plain);
+        input.buffer().flip();
+        int rc = input.buffer().remaining();
+        bulkPending = true;
+        cryptoExecutor.execute(new Task() {
+            public void run() {
+                PooledBuffer output = null;
+                IOException failure = null;
+                try {
+                    ByteBuffer source = input.buffer();
+                    SSLSession session = engine.getSession();
+                    int records = source.remaining() / session.getApplicationBufferSize() + 1;
+                    output = pools.checkoutBuffer(records * session.getPacketBufferSize());
+                    while( source.hasRemaining() ) {
+                        SSLEngineResult result = engine.wrap(source, output.buffer());
+                        if( result.getStatus() == BUFFER_OVERFLOW ) {
+                            PooledBuffer larger = pools.checkoutBuffer(output.buffer().limit() + session.getPacketBufferSize());
+                            output.buffer().flip();
+                            larger.buffer().put(output.buffer());
+                            output.release();
+                            output = larger;
+                        } else if( result.getStatus() == CLOSED || result.bytesConsumed()==0 ) {
+                            // the engine wants to handshake or is closing.. the
+                            // rest gets encrypted on the transport's queue.
+                            break;
+                        }
+                    }
+                    output.buffer().flip();
+                } catch (Throwable e) {
+                    // always hop back, otherwise the transport would wait for the result forever.
+                    failure = asIOException(e);
+                }
+                final PooledBuffer encrypted = output;
+                final IOException error = failure;
+                dispatchQueue.execute(new Task() {
+                    public void run() {
+                        bulkPending = false;
+                        if( !isConnected() || error!=null ) {
+                            input.release();
+                            if( encrypted!=null ) {
+                                encrypted.release();
+                            }
+                            if( error!=null ) {
+                                onTransportFailure(error);
+                            } else {
+                                releaseBuffers();
+                            }
+                            return;
+                        }
+                        if( input.buffer().hasRemaining() ) {
+                            bulkRemainder = input;
+                        } else {
+                            input.release();
+                        }
+                        while( deferredWriteResumes > 0 ) {
+                            deferredWriteResumes--;
+                            SslTransport.super.resumeWrite();
+                        }
+                        if( encrypted.buffer().hasRemaining() ) {
+                            bulkBuffer = encrypted;
+                            resumeWrite();
+                        } else {
+                            encrypted.release();
+                            drainOutboundSource.merge(1);
+                        }
+                        if( deferredDrain ) {
+                            deferredDrain = false;
+                            drainInbound();
+                        }
+                    }
+                });
+            }
+        });
+        return rc;
+    }
+
+    private static IOException asIOException(Throwable e) {
+        if( e instanceof IOException ) {
+            return (IOException) e;
+        }
+        IOException rc = new IOException("SSL crypto operation failed: "+e);
+        rc.initCause(e);
+        return rc;
+    }
+
+    @Override
+    protected void resumeWrite() {
+        if( bulkPending ) {
+            // no point in watching for the socket to be writable
+            // until the offloaded encryption completes.
+            deferredWriteResumes++;
+        } else {
+            super.resumeWrite();
+        }
+    }
+
+    /**
+     * Runs a handshake step on the crypto executor and then continues
+     * the handshake on the transport's dispatch queue.
+     */
+    private void offloadHandshake(final boolean wrap) throws IOException {
+        if( wrap ) {
+            if( writeBuffer==null ) {
+                writeBuffer = recordPool.checkout();
+            }
+        } else {
+            if( readBuffer!=null && !readUnderflow && !readBuffer.hasRemaining() ) {
+                readBuffer.compact();
+                readUnderflow = true;
+            }
+            if( readUnderflow ) {
+                if( readBuffer==null ) {
+                    readBuffer = recordPool.checkout();
+                }
+                int count = super.getReadChannel().read(readBuffer);
+                if( count == -1 ) {
+                    throw new EOFException("Peer disconnected during ssl handshake");
+                }
+                if( count==0 ) {
+                    // wait for more data to arrive.
+                    releaseReadBuffer();
+                    return;
+                }
+                readUnderflow = false;
+                readBuffer.flip();
+            }
+        }
+        handshakeOffloaded = true;
+        cryptoExecutor.execute(new Task() {
+            public void run() {
+                SSLEngineResult result = null;
+                ByteBuffer overflow = null;
+                IOException failure = null;
+                try {
+                    if( wrap ) {
+                        result = engine.wrap(SslBuffers.EMPTY, writeBuffer);
+                    } else {
+                        result = engine.unwrap(readBuffer, SslBuffers.EMPTY);
+                        if( result.getStatus() == BUFFER_OVERFLOW ) {
+                            // application data right after the handshake.
+                            overflow = recordPool.checkout();
+                            result = engine.unwrap(readBuffer, overflow);
+                            overflow.flip();
+                        }
+                    }
+                } catch (Throwable e) {
+                    // always hop back, otherwise the transport would wait for the result forever.
+                    failure = asIOException(e);
+                }
+                final SSLEngineResult status = result;
+                final ByteBuffer data = overflow;
+                final IOException error = failure;
+                dispatchQueue.execute(new Task() {
+                    public void run() {
+                        handshakeOffloaded = false;
+                        if( data!=null ) {
+                            if( data.hasRemaining() ) {
+                                readOverflowBuffer = data;
+                            } else {
+                                recordPool.checkin(data);
+                            }
+                        }
+                        if( !isConnected() ) {
+                            releaseBuffers();
+                            return;
+                        }
+                        try {
+                            if( error!=null ) {
+                                throw error;
+                            }
+                            if( !wrap ) {
+                                switch( status.getStatus() ) {
+                                    case CLOSED:
+                                        engine.closeInbound();
+                                        throw new EOFException("Peer disconnected during ssl handshake");
+                                    case BUFFER_UNDERFLOW:
+                                        readBuffer.compact();
+                                        readUnderflow = true;
+                                        break;
+                                }
+                                releaseReadBuffer();
+                            }
+                        } catch (IOException e) {
+                            onTransportFailure(e);
+                            return;
+                        }
+                        handshake();
+                    }
+                });
+            }
+        });
+    }
+
     public void handshake() {
+        if( handshakeOffloaded ) {
+            return;
+        }
         try {
             if( !transportFlush() ) {
                 return;
@@ -379,7 +735,8 @@ public class SslTransport extends TcpTransport implements SecuredSession {
                 case NEED_TASK:
                     final Runnable task = engine.getDelegatedTask();
                     if( task!=null ) {
-                        blockingExecutor.execute(new Task() {
+                        Executor executor = cryptoExecutor!=null ? cryptoExecutor : blockingExecutor;
+                        executor.execute(new Task() {
                             public void run() {
                                 task.run();
                                 dispatchQueue.execute(new Task() {
@@ -395,11 +752,17 @@ public class SslTransport extends TcpTransport implements SecuredSession {
                     break;
 
                 case NEED_WRAP:
-                    secure_write(ByteBuffer.allocate(0));
+                    if( cryptoExecutor!=null ) {
+                        offloadHandshake(true);
+                    } else {
+                        secure_write(SslBuffers.EMPTY);
+                    }
                     break;
 
                 case NEED_UNWRAP:
-                    if( secure_read(ByteBuffer.allocate(0)) == -1) {
+                    if( cryptoExecutor!=null && readOverflowBuffer==null ) {
+                        offloadHandshake(false);
+                    } else if( secure_read(SslBuffers.EMPTY) == -1) {
                         throw new EOFException("Peer disconnected during ssl handshake");
                     }
                     break;
@@ -414,11 +777,23 @@ public class SslTransport extends TcpTransport implements SecuredSession {
                     System.err.println("Unexpected ssl engine handshake status: "+ engine.getHandshakeStatus());
                     break;
             }
+            if( !handshakeOffloaded && engine.getHandshakeStatus()==NOT_HANDSHAKING ) {
+                sessionEstablished();
+            }
         } catch (IOException e ) {
             onTransportFailure(e);
         }
     }
 
+    private void sessionEstablished() {
+        if( !sessionEstablished ) {
+            sessionEstablished = true;
+            if( sessionCache!=null ) {
+                sessionCache.handshakeCompleted(engine.getSession(), handshakeStart);
+            }
+        }
+    }
+
 
     public ReadableByteChannel getReadChannel() {
         return ssl_channel;
@@ -435,6 +810,57 @@ public class SslTransport extends TcpTransport implements SecuredSession {
     public void setClientAuth(String clientAuth) {
         this.clientAuth = ClientAuth.valueOf(clientAuth.toUpperCase());
     }
+
+    public BufferPools getBufferPools() {
+        return bufferPools;
+    }
+
+    /**
+     * Sets the pools the record buffers and the offloaded bulk encryption buffers
+     * get checked out of.  When null, which is the default, pools shared by all
+     * the SSL transports are used.
+     */
+    public void setBufferPools(BufferPools bufferPools) {
+        this.bufferPools = bufferPools;
+    }
+
+    public SslSessionCache getSessionCache() {
+        return sessionCache;
+    }
+
+    /**
+     * Sets the session cache which configures the client session cache of the
+     * SSLContext and records whether the handshake resumed a previous session.
+     * Sessions only get resumed by transports which share the SSLContext.
+     */
+    public void setSessionCache(SslSessionCache sessionCache) {
+        this.sessionCache = sessionCache;
+    }
+
+    public Executor getCryptoExecutor() {
+        return cryptoExecutor;
+    }
+
+    /**
+     * Sets the executor the handshakes and the bulk encryption get offloaded to.
+     * When null, which is the default, the SSL engine is used on the transport's
+     * dispatch queue.
+     */
+    public void setCryptoExecutor(Executor cryptoExecutor) {
+        this.cryptoExecutor = cryptoExecutor;
+    }
+
+    public int getBulkCryptoThreshold() {
+        return bulkCryptoThreshold;
+    }
+
+    /**
+     * Sets the minimum size of the writes which get encrypted on the crypto executor.
+     * Defaults to 0 which disables offloading the encryption of writes.
+     */
+    public void setBulkCryptoThreshold(int bulkCryptoThreshold) {
+        this.bulkCryptoThreshold = bulkCryptoThreshold;
+    }
 }
 
 
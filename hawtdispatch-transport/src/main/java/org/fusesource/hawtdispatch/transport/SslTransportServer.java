@@ -18,6 +18,7 @@
 package org.fusesource.hawtdispatch.transport;
 
 import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.util.BufferPools;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
@@ -42,6 +43,10 @@ public class SslTransportServer extends TcpTransportServer {
     protected String protocol = "TLS";
     protected SSLContext sslContext;
     private String clientAuth = "want";
+    private Executor cryptoExecutor;
+    private BufferPools bufferPools;
+    private SslSessionCache sessionCache;
+    private int bulkCryptoThreshold;
 
     public SslTransportServer(URI location) throws Exception {
         super(location);
@@ -61,6 +66,9 @@ public class SslTransportServer extends TcpTransportServer {
         } else {
             sslContext = SSLContext.getDefault();
         }
+        if( sessionCache!=null ) {
+            sessionCache.configure(sslContext.getServerSessionContext());
+        }
         super.start(onCompleted);
     }
 
@@ -70,6 +78,10 @@ public class SslTransportServer extends TcpTransportServer {
         rc.setBlockingExecutor(blockingExecutor);
         rc.setSSLContext(sslContext);
         rc.setClientAuth(clientAuth);
+        rc.setCryptoExecutor(cryptoExecutor);
+        rc.setBufferPools(bufferPools);
+        rc.setSessionCache(sessionCache);
+        rc.setBulkCryptoThreshold(bulkCryptoThreshold);
         return rc;
     }
 
@@ -95,4 +107,50 @@ public class SslTransportServer extends TcpTransportServer {
         this.clientAuth = clientAuth;
     }
 
+    public Executor getCryptoExecutor() {
+        return cryptoExecutor;
+    }
+
+    /**
+     * Sets the executor the accepted transports offload their handshakes
+     * and bulk encryption to.
+     *
+     * @see SslTransport#setCryptoExecutor(Executor)
+     */
+    public void setCryptoExecutor(Executor cryptoExecutor) {
+        this.cryptoExecutor = cryptoExecutor;
+    }
+
+    public int getBulkCryptoThreshold() {
+        return bulkCryptoThreshold;
+    }
+
+    public void setBulkCryptoThreshold(int bulkCryptoThreshold) {
+        this.bulkCryptoThreshold = bulkCryptoThreshold;
+    }
+
+    public SslSessionCache getSessionCache() {
+        return sessionCache;
+    }
+
+    /**
+     * Sets the session cache which configures the server session cache of the
+     * SSLContext when the server is started and records how many of the
+     * accepted connections resumed a previous session.
+     */
+    public void setSessionCache(SslSessionCache sessionCache) {
+        this.sessionCache = sessionCache;
+    }
+
+    public BufferPools getBufferPools() {
+        return bufferPools;
+    }
+
+    /**
+     * @see SslTransport#setBufferPools(BufferPools)
+     */
+    public void setBufferPools(BufferPools bufferPools) {
+        this.bufferPools = bufferPools;
+    }
+
 }
@@ -22,6 +22,8 @@ import org.fusesource.hawtdispatch.*;
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
@@ -180,18 +182,25 @@ public class TcpTransport extends ServiceBase implements Transport {
     protected DispatchQueue dispatchQueue;
     private DispatchSource readSource;
     private DispatchSource writeSource;
-    protected CustomDispatchSource<Integer, Integer> drainOutboundSource;
-    protected CustomDispatchSource<Integer, Integer> yieldSource;
+    protected LongDispatchSource drainOutboundSource;
+    protected LongDispatchSource yieldSource;
 
     protected boolean useLocalHost = true;
 
     int maxReadRate;
     int maxWriteRate;
+    TokenBucket readTokenBucket;
+    TokenBucket writeTokenBucket;
     int receiveBufferSize = 1024*64;
     int sendBufferSize = 1024*64;
     boolean closeOnCancel = true;
 
     boolean keepAlive = true;
+    boolean tcpNoDelay = true;
+    WriteBatchPolicy writeBatchPolicy;
+    ReadBudgetPolicy readBudgetPolicy = ReadBudgetPolicies.DEFAULT;
+    long readTurns;
+    long readYields;
 
     public static final int IPTOS_LOWCOST = 0x02;
     public static final int IPTOS_RELIABILITY = 0x04;
@@ -201,61 +210,52 @@ public class TcpTransport extends ServiceBase implements Transport {
     int trafficClass = IPTOS_THROUGHPUT;
 
     protected RateLimitingChannel rateLimitingChannel;
+    protected FileRegion pendingFileRegion;
     SocketAddress localAddress;
     SocketAddress remoteAddress;
     protected Executor blockingExecutor;
 
-    class RateLimitingChannel implements ReadableByteChannel, WritableByteChannel {
+    class RateLimitingChannel implements ReadableByteChannel, GatheringByteChannel {
 
-        int read_allowance = maxReadRate;
+        final TokenBucket readBucket;
+        final TokenBucket writeBucket;
         boolean read_suspended = false;
         int read_resume_counter = 0;
-        int write_allowance = maxWriteRate;
+        long read_suspended_at;
         boolean write_suspended = false;
+        long write_suspended_at;
 
-        public void resetAllowance() {
-            if( read_allowance != maxReadRate || write_allowance != maxWriteRate) {
-                read_allowance = maxReadRate;
-                write_allowance = maxWriteRate;
-                if( write_suspended ) {
-                    write_suspended = false;
-                    resumeWrite();
-                }
-                if( read_suspended ) {
-                    read_suspended = false;
-                    resumeRead();
-                    for( int i=0; i < read_resume_counter ; i++ ) {
-                        resumeRead();
-                    }
-                }
-            }
+        RateLimitingChannel(TokenBucket readBucket, TokenBucket writeBucket) {
+            this.readBucket = readBucket;
+            this.writeBucket = writeBucket;
         }
 
         public int read(ByteBuffer dst) throws IOException {
-            if( maxReadRate ==0 ) {
+            if( readBucket==null ) {
                 return channel.read(dst);
             } else {
                 int remaining = dst.remaining();
-                if( read_allowance ==0 || remaining ==0 ) {
+                if( read_suspended || remaining ==0 ) {
                     return 0;
                 }
-
-                int reduction = 0;
-                if( remaining > read_allowance) {
-                    reduction = remaining - read_allowance;
-                    dst.limit(dst.limit() - reduction);
+                int allowance = (int) readBucket.take(remaining);
+                if( allowance == 0 ) {
+                    suspendReading();
+                    return 0;
                 }
+
+                int reduction = remaining - allowance;
+                dst.limit(dst.limit() - reduction);
                 int rc=0;
                 try {
                     rc = channel.read(dst);
-                    read_allowance -= rc;
                 } finally {
+                    readBucket.giveBack(allowance - Math.max(rc, 0));
                     if( reduction!=0 ) {
                         if( dst.remaining() == 0 ) {
-                            // we need to suspend the read now until we get
-                            // a new allowance..
-                            readSource.suspend();
-                            read_suspended = true;
+                            // we need to suspend the read now until the
+                            // bucket gets refilled..
+                            suspendReading();
                         }
                         dst.limit(dst.limit() + reduction);
                     }
@@ -265,30 +265,31 @@ public class TcpTransport extends ServiceBase implements Transport {
         }
 
         public int write(ByteBuffer src) throws IOException {
-            if( maxWriteRate ==0 ) {
+            if( writeBucket==null ) {
                 return channel.write(src);
             } else {
                 int remaining = src.remaining();
-                if( write_allowance ==0 || remaining ==0 ) {
+                if( write_suspended || remaining ==0 ) {
                     return 0;
                 }
-
-                int reduction = 0;
-                if( remaining > write_allowance) {
-                    reduction = remaining - write_allowance;
-                    src.limit(src.limit() - reduction);
+                int allowance = (int) writeBucket.take(remaining);
+                if( allowance == 0 ) {
+                    suspendWriting();
+                    return 0;
                 }
+
+                int reduction = remaining - allowance;
+                src.limit(src.limit() - reduction);
                 int rc = 0;
                 try {
                     rc = channel.write(src);
-                    write_allowance -= rc;
                 } finally {
+                    writeBucket.giveBack(allowance - rc);
                     if( reduction!=0 ) {
                         if( src.remaining() == 0 ) {
-                            // we need to suspend the read now until we get
-                            // a new allowance..
-                            write_suspended = true;
-                            suspendWrite();
+                            // we need to suspend the write now until the
+                            // bucket gets refilled..
+                            suspendWriting();
                         }
                         src.limit(src.limit() + reduction);
                     }
@@ -297,6 +298,99 @@ public class TcpTransport extends ServiceBase implements Transport {
             }
         }
 
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if( writeBucket==null ) {
+                return channel.write(srcs, offset, length);
+            }
+            if(offset+length > srcs.length || length<0 || offset<0) {
+                throw new IndexOutOfBoundsException();
+            }
+            long rc=0;
+            for (int i = 0; i < length; i++) {
+                ByteBuffer src = srcs[offset+i];
+                if(src.hasRemaining()) {
+                    rc += write(src);
+                }
+                if( src.hasRemaining() ) {
+                    return rc;
+                }
+            }
+            return rc;
+        }
+
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public long transferFrom(FileChannel file, long position, long count) throws IOException {
+            if( writeBucket==null ) {
+                return file.transferTo(position, count, channel);
+            } else {
+                if( write_suspended || count ==0 ) {
+                    return 0;
+                }
+                long allowed = writeBucket.take(count);
+                if( allowed == 0 ) {
+                    suspendWriting();
+                    return 0;
+                }
+                long rc = 0;
+                try {
+                    rc = file.transferTo(position, allowed, channel);
+                } finally {
+                    writeBucket.giveBack(allowed - rc);
+                }
+                if( allowed < count && rc == allowed ) {
+                    // we need to suspend the write now until the
+                    // bucket gets refilled..
+                    suspendWriting();
+                }
+                return rc;
+            }
+        }
+
+        private final Task readRefilled = new Task() {
+            public void run() {
+                readBucket.throttled(System.nanoTime() - read_suspended_at);
+                if( !socketState.is(CONNECTED.class) ) {
+                    return;
+                }
+                read_suspended = false;
+                _resumeRead();
+                for( int i=0; i < read_resume_counter ; i++ ) {
+                    _resumeRead();
+                }
+                read_resume_counter = 0;
+            }
+        };
+
+        private final Task writeRefilled = new Task() {
+            public void run() {
+                writeBucket.throttled(System.nanoTime() - write_suspended_at);
+                if( !socketState.is(CONNECTED.class) ) {
+                    return;
+                }
+                write_suspended = false;
+                resumeWrite();
+                drainOutboundSource.merge(1);
+            }
+        };
+
+        private void suspendReading() {
+            read_suspended = true;
+            read_suspended_at = System.nanoTime();
+            readSource.suspend();
+            // the bucket wakes all the transports sharing it with a single timer.
+            readBucket.await(dispatchQueue, readRefilled);
+        }
+
+        private void suspendWriting() {
+            write_suspended = true;
+            write_suspended_at = System.nanoTime();
+            suspendWrite();
+            writeBucket.await(dispatchQueue, writeRefilled);
+        }
+
         public boolean isOpen() {
             return channel.isOpen();
         }
@@ -357,7 +451,7 @@ public class TcpTransport extends ServiceBase implements Transport {
         } catch (SocketException e) {
         }
         try {
-            socket.setTcpNoDelay(true);
+            socket.setTcpNoDelay(tcpNoDelay);
         } catch (SocketException e) {
         }
         try {
@@ -512,17 +606,17 @@ public class TcpTransport extends ServiceBase implements Transport {
     }
 
     protected void onConnected() throws IOException {
-        yieldSource = Dispatch.createSource(EventAggregators.INTEGER_ADD, dispatchQueue);
+        yieldSource = Dispatch.createSource(EventAggregators.PRIMITIVE_ADD, dispatchQueue);
         yieldSource.setEventHandler(new Task() {
             public void run() {
                 drainInbound();
             }
         });
         yieldSource.resume();
-        drainOutboundSource = Dispatch.createSource(EventAggregators.INTEGER_ADD, dispatchQueue);
+        drainOutboundSource = Dispatch.createSource(EventAggregators.PRIMITIVE_ADD, dispatchQueue);
         drainOutboundSource.setEventHandler(new Task() {
             public void run() {
-                flush();
+                drainOutbound();
             }
         });
         drainOutboundSource.resume();
@@ -544,26 +638,35 @@ public class TcpTransport extends ServiceBase implements Transport {
             }
         });
 
-        if( maxReadRate !=0 || maxWriteRate !=0 ) {
-            rateLimitingChannel = new RateLimitingChannel();
-            schedualRateAllowanceReset();
+        TokenBucket readLimit = readTokenBucket;
+        if( readLimit==null && maxReadRate !=0 ) {
+            readLimit = new TokenBucket(maxReadRate);
         }
-        listener.onTransportConnected();
-    }
-
-    private void schedualRateAllowanceReset() {
-        dispatchQueue.executeAfter(1, TimeUnit.SECONDS, new Task(){
-            public void run() {
-                if( !socketState.is(CONNECTED.class) ) {
-                    return;
+        TokenBucket writeLimit = writeTokenBucket;
+        if( writeLimit==null && maxWriteRate !=0 ) {
+            writeLimit = new TokenBucket(maxWriteRate);
+        }
+        if( readLimit!=null || writeLimit!=null ) {
+            rateLimitingChannel = new RateLimitingChannel(readLimit, writeLimit);
+            if( codec!=null ) {
+                // the codec has to use the rate limited channels.
+                try {
+                    initializeCodec();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e.toString());
                 }
-                rateLimitingChannel.resetAllowance();
-                schedualRateAllowanceReset();
             }
-        });
+        }
+        listener.onTransportConnected();
     }
 
-    private void dispose() {
+    /**
+     * Releases the resources held by the connection once its sources
+     * have been canceled.
+     */
+    protected void dispose() {
         if( readSource!=null ) {
             readSource.cancel();
             readSource=null;
@@ -573,6 +676,15 @@ public class TcpTransport extends ServiceBase implements Transport {
             writeSource.cancel();
             writeSource=null;
         }
+
+        if( pendingFileRegion!=null ) {
+            pendingFileRegion.release();
+            pendingFileRegion=null;
+        }
+
+        if( codec instanceof ReleasableCodec ) {
+            ((ReleasableCodec) codec).release();
+        }
     }
 
     public void onTransportFailure(IOException error) {
@@ -584,6 +696,7 @@ public class TcpTransport extends ServiceBase implements Transport {
     public boolean full() {
         return codec==null ||
                codec.full() ||
+               pendingFileRegion!=null ||
                !socketState.is(CONNECTED.class) ||
                getServiceState() != STARTED;
     }
@@ -595,6 +708,14 @@ public class TcpTransport extends ServiceBase implements Transport {
         if( full() ) {
             return false;
         }
+        if( command instanceof FileRegion ) {
+            // The region gets sent once the codec is flushed.  We stay
+            // full until it's sent so that ordering is maintained.
+            pendingFileRegion = (FileRegion) command;
+            rejectingOffers = true;
+            drainOutboundSource.merge(1);
+            return true;
+        }
         try {
             ProtocolCodec.BufferState rc = codec.write(command);
             rejectingOffers = codec.full();
@@ -612,6 +733,82 @@ public class TcpTransport extends ServiceBase implements Transport {
 
     boolean writeResumedForCodecFlush = false;
 
+    private boolean batchFlushScheduled;
+    private long batchStart;
+    private int batchDrains;
+
+    private final Task batchFlushTask = new Task() {
+        public void run() {
+            batchFlushScheduled = false;
+            WriteBatchPolicy policy = writeBatchPolicy;
+            if( policy!=null && policy.isFlushOnIdle() && batchDrains > 0 && !batchDelayExpired(policy) ) {
+                // More got offered since we last checked, so the queue is still
+                // busy.  Check again once it has processed what it has queued.
+                batchDrains = 0;
+                scheduleBatchFlush(policy);
+            } else {
+                batchStart = 0;
+                flush();
+            }
+        }
+    };
+
+    /**
+     * Flushes the offered commands, unless the write batch policy says
+     * to hold on to them a little longer.
+     */
+    protected void drainOutbound() {
+        WriteBatchPolicy policy = writeBatchPolicy;
+        if( policy==null || mustFlushBatch(policy) ) {
+            batchStart = 0;
+            flush();
+            return;
+        }
+        if( batchStart==0 ) {
+            batchStart = System.nanoTime();
+        }
+        if( batchFlushScheduled ) {
+            batchDrains++;
+        } else {
+            batchDrains = 0;
+            scheduleBatchFlush(policy);
+        }
+    }
+
+    private long pendingWriteSize() {
+        if( codec instanceof PendingWriteSize ) {
+            return ((PendingWriteSize) codec).getPendingWriteSize();
+        }
+        return 0;
+    }
+
+    private boolean mustFlushBatch(WriteBatchPolicy policy) {
+        if( codec==null || codec.full() || rejectingOffers || pendingFileRegion!=null ) {
+            return true;
+        }
+        if( pendingWriteSize() >= policy.getMaxBytes() ) {
+            return true;
+        }
+        // With TCP_NODELAY disabled the OS is already delaying small writes.
+        if( !tcpNoDelay && !policy.isFlushOnIdle() ) {
+            return true;
+        }
+        return batchStart!=0 && batchDelayExpired(policy);
+    }
+
+    private boolean batchDelayExpired(WriteBatchPolicy policy) {
+        return System.nanoTime() - batchStart >= TimeUnit.MICROSECONDS.toNanos(policy.getMaxDelay());
+    }
+
+    private void scheduleBatchFlush(WriteBatchPolicy policy) {
+        batchFlushScheduled = true;
+        if( policy.isFlushOnIdle() ) {
+            dispatchQueue.execute(batchFlushTask);
+        } else {
+            dispatchQueue.executeAfter(policy.getMaxDelay(), TimeUnit.MICROSECONDS, batchFlushTask);
+        }
+    }
+
     /**
      *
      */
@@ -621,7 +818,7 @@ public class TcpTransport extends ServiceBase implements Transport {
             return;
         }
         try {
-            if( codec.flush() == ProtocolCodec.BufferState.EMPTY && transportFlush() ) {
+            if( codec.flush() == ProtocolCodec.BufferState.EMPTY && fileRegionFlush() && transportFlush() ) {
                 if( writeResumedForCodecFlush) {
                     writeResumedForCodecFlush = false;
                     suspendWrite();
@@ -644,17 +841,52 @@ public class TcpTransport extends ServiceBase implements Transport {
         return true;
     }
 
+    /**
+     * Sends the pending file region.  It's sent straight from the file
+     * to the socket unless the write channel is wrapped by something
+     * other than the rate limiter, like an SSL channel.
+     *
+     * @return true if there is no file region left to send.
+     * @throws IOException
+     */
+    protected boolean fileRegionFlush() throws IOException {
+        FileRegion region = pendingFileRegion;
+        if( region==null ) {
+            return true;
+        }
+        WritableByteChannel target = getWriteChannel();
+        while( region.remaining() > 0 ) {
+            long count;
+            if( target == rateLimitingChannel ) {
+                count = rateLimitingChannel.transferFrom(region.getChannel(), region.getPosition(), region.remaining());
+            } else {
+                count = region.getChannel().transferTo(region.getPosition(), region.remaining(), target);
+            }
+            region.transferred(count);
+            if( count == 0 ) {
+                return false;
+            }
+        }
+        pendingFileRegion = null;
+        region.release();
+        return true;
+    }
+
     public void drainInbound() {
-        if (!getServiceState().isStarted() || readSource.isSuspended()) {
+        if (!getServiceState().isStarted() || isReadSuspended()) {
             return;
         }
         try {
+            readTurns++;
             long initial = codec.getReadCounter();
-            // Only process upto 2 x the read buffer worth of data at a time so we can give
+            long start = System.nanoTime();
+            int commands = 0;
+            // Only process up to the read budget at a time so we can give
             // other connections a chance to process their requests.
-            while( codec.getReadCounter()-initial < codec.getReadBufferSize()<<2 ) {
+            while( !readBudgetPolicy.exhausted(codec, codec.getReadCounter()-initial, commands, start) ) {
                 Object command = codec.read();
                 if ( command!=null ) {
+                    commands++;
                     try {
                         listener.onTransportCommand(command);
                     } catch (Throwable e) {
@@ -663,13 +895,14 @@ public class TcpTransport extends ServiceBase implements Transport {
                     }
 
                     // the transport may be suspended after processing a command.
-                    if (getServiceState() == STOPPED || readSource.isSuspended()) {
+                    if (getServiceState() == STOPPED || isReadSuspended()) {
                         return;
                     }
                 } else {
                     return;
                 }
             }
+            readYields++;
             yieldSource.merge(1);
         } catch (IOException e) {
             onTransportFailure(e);
@@ -702,6 +935,10 @@ public class TcpTransport extends ServiceBase implements Transport {
         }
     }
 
+    protected boolean isReadSuspended() {
+        return readSource.isSuspended();
+    }
+
 
     public void resumeRead() {
         if( isConnected() && readSource!=null ) {
@@ -814,6 +1051,40 @@ public class TcpTransport extends ServiceBase implements Transport {
         this.maxWriteRate = maxWriteRate;
     }
 
+    public TokenBucket getReadTokenBucket() {
+        if( readTokenBucket==null && rateLimitingChannel!=null ) {
+            return rateLimitingChannel.readBucket;
+        }
+        return readTokenBucket;
+    }
+
+    /**
+     * Sets the token bucket which limits the read rate of the transport.  Share
+     * the bucket between transports to limit their combined read rate.  Takes
+     * precedence over the max read rate and must be set before the transport
+     * is started.
+     */
+    public void setReadTokenBucket(TokenBucket readTokenBucket) {
+        this.readTokenBucket = readTokenBucket;
+    }
+
+    public TokenBucket getWriteTokenBucket() {
+        if( writeTokenBucket==null && rateLimitingChannel!=null ) {
+            return rateLimitingChannel.writeBucket;
+        }
+        return writeTokenBucket;
+    }
+
+    /**
+     * Sets the token bucket which limits the write rate of the transport.  Share
+     * the bucket between transports to limit their combined write rate.  Takes
+     * precedence over the max write rate and must be set before the transport
+     * is started.
+     */
+    public void setWriteTokenBucket(TokenBucket writeTokenBucket) {
+        this.writeTokenBucket = writeTokenBucket;
+    }
+
     public int getTrafficClass() {
         return trafficClass;
     }
@@ -858,6 +1129,60 @@ public class TcpTransport extends ServiceBase implements Transport {
         this.keepAlive = keepAlive;
     }
 
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        if( channel!=null ) {
+            try {
+                channel.socket().setTcpNoDelay(tcpNoDelay);
+            } catch (SocketException ignore) {
+            }
+        }
+    }
+
+    public WriteBatchPolicy getWriteBatchPolicy() {
+        return writeBatchPolicy;
+    }
+
+    /**
+     * Sets the policy used to coalesce offered commands into fewer socket writes.
+     * When null, which is the default, offered commands are flushed as soon as the
+     * current dispatch queue task completes.
+     */
+    public void setWriteBatchPolicy(WriteBatchPolicy writeBatchPolicy) {
+        this.writeBatchPolicy = writeBatchPolicy;
+    }
+
+    public ReadBudgetPolicy getReadBudgetPolicy() {
+        return readBudgetPolicy;
+    }
+
+    /**
+     * Sets the policy which decides how much inbound data is processed
+     * before the transport yields to other connections.
+     */
+    public void setReadBudgetPolicy(ReadBudgetPolicy readBudgetPolicy) {
+        this.readBudgetPolicy = readBudgetPolicy;
+    }
+
+    /**
+     * @return the number of times the transport started draining inbound data.
+     */
+    public long getReadTurnCount() {
+        return readTurns;
+    }
+
+    /**
+     * @return the number of times the transport stopped draining inbound data
+     *         and yielded because its read budget was exhausted.
+     */
+    public long getReadYieldCount() {
+        return readYields;
+    }
+
     public Executor getBlockingExecutor() {
         return blockingExecutor;
     }
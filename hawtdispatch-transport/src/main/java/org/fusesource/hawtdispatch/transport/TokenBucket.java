@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A token bucket used to limit the rate at which a transport reads or writes.
+ * The bucket holds up to burst tokens, each one allowing a byte to be
+ * transferred, and is refilled continuously at the configured rate.
+ * </p><p>
+ * A bucket can be shared by a group of transports, for example all the
+ * connections of a tenant or of a transport server, to limit their
+ * combined rate.  It is thread safe so the transports can be using
+ * different dispatch queues.
+ * </p><p>
+ * Transports which run out of tokens wait for the bucket to be refilled,
+ * which happens at least a refill interval later, so a larger refill
+ * interval results in fewer timer events but in burstier traffic.  A single
+ * timer wakes all the transports waiting on the bucket, however many of
+ * them share it.
+ * </p>
+ */
+public class TokenBucket {
+
+    private final long rate;
+    private final long burst;
+    private final long nanosPerToken;
+    private final long fillNanos;
+    private volatile long refillInterval = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private long tokens;
+    private long lastRefill;
+
+    // the transports waiting for a refill.
+    private ArrayList<Waiter> waiters = new ArrayList<Waiter>();
+    private boolean refillScheduled;
+
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    /**
+     * Creates a bucket which allows bursts of up to one second worth of tokens.
+     *
+     * @param rate the number of tokens added per second.
+     */
+    public TokenBucket(long rate) {
+        this(rate, rate);
+    }
+
+    /**
+     * @param rate the number of tokens added per second.
+     * @param burst the maximum number of tokens the bucket holds.
+     */
+    public TokenBucket(long rate, long burst) {
+        if( rate <= 0 || burst <= 0 ) {
+            throw new IllegalArgumentException("The rate and burst must be greater than zero");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.nanosPerToken = Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+        this.fillNanos = (long) (((double) burst * TimeUnit.SECONDS.toNanos(1)) / rate);
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if( elapsed >= fillNanos ) {
+            tokens = burst;
+            lastRefill = now;
+        } else if( elapsed > 0 ) {
+            long added = elapsed * rate / TimeUnit.SECONDS.toNanos(1);
+            if( added > 0 ) {
+                // only advance by the time the whole tokens took so fractions are not lost.
+                lastRefill += added * TimeUnit.SECONDS.toNanos(1) / rate;
+                tokens = Math.min(burst, tokens + added);
+            }
+        }
+    }
+
+    /**
+     * Takes up to the requested number of tokens.
+     *
+     * @return the number of tokens taken, 0 if the bucket is empty.
+     */
+    public synchronized long take(long requested) {
+        refill(System.nanoTime());
+        long rc = Math.min(requested, tokens);
+        tokens -= rc;
+        granted.addAndGet(rc);
+        return rc;
+    }
+
+    /**
+     * Returns tokens which were taken but not used.
+     */
+    public synchronized void giveBack(long unused) {
+        if( unused > 0 ) {
+            tokens = Math.min(burst, tokens + unused);
+            granted.addAndGet(-unused);
+        }
+    }
+
+    /**
+     * @return how many nanoseconds to wait before more tokens are available.
+     */
+    public synchronized long delay() {
+        long now = System.nanoTime();
+        refill(now);
+        if( tokens > 0 ) {
+            return 0;
+        }
+        return Math.max(refillInterval, nanosPerToken - (now - lastRefill));
+    }
+
+    /**
+     * Executes a task on a queue once the bucket has been refilled.  The
+     * waiters of the bucket share a single refill timer, and should call
+     * this again if the bucket is still empty when they are woken up.
+     */
+    public void await(DispatchQueue queue, Task task) {
+        long delay;
+        synchronized (this) {
+            waiters.add(new Waiter(queue, task));
+            if( refillScheduled ) {
+                return;
+            }
+            refillScheduled = true;
+            delay = delay();
+        }
+        Dispatch.getGlobalQueue().executeAfter(delay, TimeUnit.NANOSECONDS, wakeup);
+    }
+
+    private final Task wakeup = new Task() {
+        public void run() {
+            ArrayList<Waiter> woken;
+            synchronized (TokenBucket.this) {
+                woken = waiters;
+                waiters = new ArrayList<Waiter>();
+                refillScheduled = false;
+            }
+            for (Waiter waiter : woken) {
+                waiter.queue.execute(waiter.task);
+            }
+        }
+    };
+
+    private static final class Waiter {
+        final DispatchQueue queue;
+        final Task task;
+
+        Waiter(DispatchQueue queue, Task task) {
+            this.queue = queue;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Records that a transport had to stop transferring for a while because
+     * the bucket was empty.
+     */
+    void throttled(long nanos) {
+        throttles.incrementAndGet();
+        throttledNanos.addAndGet(nanos);
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    public long getRefillInterval(TimeUnit unit) {
+        return unit.convert(refillInterval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the minimum amount of time a transport waits once the bucket is empty.
+     */
+    public void setRefillInterval(long interval, TimeUnit unit) {
+        this.refillInterval = unit.toNanos(interval);
+    }
+
+    /**
+     * @return the total number of tokens used so far.
+     */
+    public long getGrantedCount() {
+        return granted.get();
+    }
+
+    /**
+     * @return the number of times a transport was throttled because the bucket was empty.
+     */
+    public long getThrottleCount() {
+        return throttles.get();
+    }
+
+    /**
+     * @return the total time transports have spent throttled by this bucket.
+     */
+    public long getThrottledTime(TimeUnit unit) {
+        return unit.convert(throttledNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket { rate: "+rate+", burst: "+burst+", granted: "+granted.get()+
+                ", throttles: "+throttles.get()+", throttled_ms: "+getThrottledTime(TimeUnit.MILLISECONDS)+" }";
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.jmx.DispatcherManagement;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.net.SocketAddress;
+
+/**
+ * <p>
+ * Exposes a transport over JMX.  The attributes are read from outside the
+ * transport's dispatch queue, so they are only as accurate as a racy read
+ * allows.
+ * </p>
+ */
+public class TransportView implements TransportViewMBean {
+
+    private final Transport transport;
+
+    public TransportView(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Registers a view of the transport under the
+     * <code>org.fusesource.hawtdispatch:type=Transport,name=&lt;name&gt;</code> object name.
+     *
+     * @return the name it got registered under, which must be unregistered once the transport is stopped.
+     */
+    public static ObjectName register(MBeanServer server, Transport transport, String name) throws JMException {
+        ObjectName rc = new ObjectName(DispatcherManagement.DOMAIN + ":type=Transport,name=" + ObjectName.quote(name));
+        server.registerMBean(new TransportView(transport), rc);
+        return rc;
+    }
+
+    private static String toString(SocketAddress address) {
+        return address == null ? null : address.toString();
+    }
+
+    public String getRemoteAddress() {
+        return toString(transport.getRemoteAddress());
+    }
+
+    public String getLocalAddress() {
+        return toString(transport.getLocalAddress());
+    }
+
+    public String getDispatchQueue() {
+        DispatchQueue queue = transport.getDispatchQueue();
+        return queue == null ? null : queue.getLabel();
+    }
+
+    public boolean isConnected() {
+        return transport.isConnected();
+    }
+
+    public boolean isClosed() {
+        return transport.isClosed();
+    }
+
+    public boolean isFull() {
+        return transport.full();
+    }
+
+    public long getReadCounter() {
+        ProtocolCodec codec = transport.getProtocolCodec();
+        return codec == null ? 0 : codec.getReadCounter();
+    }
+
+    public long getWriteCounter() {
+        ProtocolCodec codec = transport.getProtocolCodec();
+        return codec == null ? 0 : codec.getWriteCounter();
+    }
+
+    public void suspendRead() {
+        transport.getDispatchQueue().execute(new Task() {
+            public void run() {
+                transport.suspendRead();
+            }
+        });
+    }
+
+    public void resumeRead() {
+        transport.getDispatchQueue().execute(new Task() {
+            public void run() {
+                transport.resumeRead();
+            }
+        });
+    }
+}
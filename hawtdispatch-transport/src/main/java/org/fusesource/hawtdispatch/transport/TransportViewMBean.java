@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+/**
+ * The management interface of a transport.
+ */
+public interface TransportViewMBean {
+
+    String getRemoteAddress();
+
+    String getLocalAddress();
+
+    String getDispatchQueue();
+
+    boolean isConnected();
+
+    boolean isClosed();
+
+    /**
+     * @return true if the transport is refusing offers until its buffered writes get flushed.
+     */
+    boolean isFull();
+
+    /**
+     * @return the number of bytes read from the transport.
+     */
+    long getReadCounter();
+
+    /**
+     * @return the number of bytes written to the transport.
+     */
+    long getWriteCounter();
+
+    /**
+     * Stops reading from the transport, asynchronously on its dispatch queue.
+     */
+    void suspendRead();
+
+    /**
+     * Resumes reading from the transport, asynchronously on its dispatch queue.
+     */
+    void resumeRead();
+
+}
@@ -17,9 +17,11 @@
 package org.fusesource.hawtdispatch.transport;
 
 import org.fusesource.hawtdispatch.*;
+import org.fusesource.hawtdispatch.util.BufferPools;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
@@ -29,6 +31,14 @@ import java.util.concurrent.Executor;
 
 /**
  * <p>
+ * A UDP based implementation of {@link Transport}.
+ * </p><p>
+ * By default every datagram is read and written through the protocol codec.
+ * When a batch size is configured, the codec is not used: up to batch size
+ * datagrams are received per read event into a reusable {@link DatagramBatch}
+ * which is delivered to the listener as a single command, and the
+ * transport accepts {@link DatagramBatch} commands whose datagrams are all
+ * sent before the transport accepts the next batch.
  * </p>
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
@@ -176,14 +186,21 @@ public class UdpTransport extends ServiceBase implements Transport {
     protected DispatchQueue dispatchQueue;
     private DispatchSource readSource;
     private DispatchSource writeSource;
-    protected CustomDispatchSource<Integer, Integer> drainOutboundSource;
-    protected CustomDispatchSource<Integer, Integer> yieldSource;
+    protected LongDispatchSource drainOutboundSource;
+    protected LongDispatchSource yieldSource;
 
     protected boolean useLocalHost = true;
 
     int receiveBufferSize = 1024*64;
     int sendBufferSize = 1024*64;
 
+    int batchSize = 0;
+    int datagramSize = 1024*2;
+    BufferPools bufferPools;
+    private DatagramBatch receiveBatch;
+    private DatagramBatch sendBatch;
+    private int sendIndex;
+
 
     public static final int IPTOS_LOWCOST = 0x02;
     public static final int IPTOS_RELIABILITY = 0x04;
@@ -354,14 +371,14 @@ public class UdpTransport extends ServiceBase implements Transport {
     }
 
     protected void onConnected() throws IOException {
-        yieldSource = Dispatch.createSource(EventAggregators.INTEGER_ADD, dispatchQueue);
+        yieldSource = Dispatch.createSource(EventAggregators.PRIMITIVE_ADD, dispatchQueue);
         yieldSource.setEventHandler(new Task() {
             public void run() {
                 drainInbound();
             }
         });
         yieldSource.resume();
-        drainOutboundSource = Dispatch.createSource(EventAggregators.INTEGER_ADD, dispatchQueue);
+        drainOutboundSource = Dispatch.createSource(EventAggregators.PRIMITIVE_ADD, dispatchQueue);
         drainOutboundSource.setEventHandler(new Task() {
             public void run() {
                 flush();
@@ -400,6 +417,14 @@ public class UdpTransport extends ServiceBase implements Transport {
             writeSource.cancel();
             writeSource=null;
         }
+        if( receiveBatch!=null ) {
+            receiveBatch.release();
+            receiveBatch=null;
+        }
+        if( sendBatch!=null ) {
+            sendBatch.release();
+            sendBatch=null;
+        }
         this.codec = null;
         if(onDispose!=null) {
             onDispose.run();
@@ -414,6 +439,9 @@ public class UdpTransport extends ServiceBase implements Transport {
 
 
     public boolean full() {
+        if( batchSize > 0 ) {
+            return sendBatch!=null;
+        }
         return codec==null || codec.full();
     }
 
@@ -429,6 +457,20 @@ public class UdpTransport extends ServiceBase implements Transport {
                 throw new IOException("Not running.");
             }
 
+            if( batchSize > 0 ) {
+                if( !(command instanceof DatagramBatch) ) {
+                    throw new IllegalArgumentException("Only DatagramBatch commands can be offered in batch mode, not: "+(command==null ? null : command.getClass().getName()));
+                }
+                if( sendBatch!=null ) {
+                    return false;
+                }
+                sendBatch = (DatagramBatch) command;
+                sendIndex = 0;
+                rejectingOffers = true;
+                drainOutboundSource.merge(1);
+                return true;
+            }
+
             ProtocolCodec.BufferState rc = codec.write(command);
             rejectingOffers = codec.full();
             switch (rc ) {
@@ -456,7 +498,7 @@ public class UdpTransport extends ServiceBase implements Transport {
             return;
         }
         try {
-            if( codec.flush() == ProtocolCodec.BufferState.EMPTY && transportFlush() ) {
+            if( (codec==null || codec.flush() == ProtocolCodec.BufferState.EMPTY) && datagramFlush() && transportFlush() ) {
                 if( writeResumedForCodecFlush) {
                     writeResumedForCodecFlush = false;
                     suspendWrite();
@@ -479,11 +521,43 @@ public class UdpTransport extends ServiceBase implements Transport {
         return true;
     }
 
+    /**
+     * Sends the datagrams of the pending batch until the channel can't take any more.
+     *
+     * @return true if the whole batch was sent.
+     */
+    protected boolean datagramFlush() throws IOException {
+        if( sendBatch==null ) {
+            return true;
+        }
+        while( sendIndex < sendBatch.size() ) {
+            ByteBuffer buffer = sendBatch.buffer(sendIndex);
+            SocketAddress address = sendBatch.address(sendIndex);
+            if( address==null ) {
+                channel.write(buffer);
+            } else {
+                channel.send(buffer, address);
+            }
+            // a datagram is either sent whole or not at all.
+            if( buffer.hasRemaining() ) {
+                return false;
+            }
+            sendIndex++;
+        }
+        sendBatch.release();
+        sendBatch = null;
+        return true;
+    }
+
     public void drainInbound() {
         if (!getServiceState().isStarted() || readSource.isSuspended()) {
             return;
         }
         try {
+            if( batchSize > 0 ) {
+                drainDatagrams();
+                return;
+            }
             long initial = codec.getReadCounter();
             // Only process upto 2 x the read buffer worth of data at a time so we can give
             // other connections a chance to process their requests.
@@ -511,6 +585,52 @@ public class UdpTransport extends ServiceBase implements Transport {
         }
     }
 
+    private void drainDatagrams() throws IOException {
+        if( receiveBatch==null ) {
+            receiveBatch = new DatagramBatch(batchSize, datagramSize, bufferPools);
+        }
+        DatagramBatch batch = receiveBatch;
+        batch.clear();
+        // reading a connected channel avoids creating an address object per datagram.
+        SocketAddress peer = channel.isConnected() ? channel.socket().getRemoteSocketAddress() : null;
+        while( !batch.isFull() ) {
+            ByteBuffer buffer = batch.next();
+            SocketAddress address;
+            if( peer!=null ) {
+                if( channel.read(buffer) <= 0 ) {
+                    break;
+                }
+                address = peer;
+            } else {
+                address = channel.receive(buffer);
+                if( address==null ) {
+                    break;
+                }
+            }
+            batch.received(address);
+        }
+        if( batch.size()==0 ) {
+            return;
+        }
+        try {
+            listener.onTransportCommand(batch);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            onTransportFailure(new IOException("Transport listener failure."));
+        }
+        if( batch.retained() > 1 ) {
+            // the listener kept it.. use a new batch next time.
+            batch.release();
+            if( receiveBatch==batch ) {
+                receiveBatch = null;
+            }
+        }
+        // There may be more datagrams, but give other connections a chance first.
+        if( batch.size()==batchSize && getServiceState() == STARTED && readSource!=null && !readSource.isSuspended() ) {
+            yieldSource.merge(1);
+        }
+    }
+
     public SocketAddress getLocalAddress() {
         return localAddress;
     }
@@ -645,6 +765,43 @@ public class UdpTransport extends ServiceBase implements Transport {
         this.sendBufferSize = sendBufferSize;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of datagrams received per {@link DatagramBatch}.
+     * Setting it to a value greater than 0 enables the batched mode in
+     * which the protocol codec is not used, and only {@link DatagramBatch}
+     * commands can be offered.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getDatagramSize() {
+        return datagramSize;
+    }
+
+    /**
+     * Sets the size of the buffers datagrams are received into when in batched
+     * mode.  Larger datagrams get truncated.
+     */
+    public void setDatagramSize(int datagramSize) {
+        this.datagramSize = datagramSize;
+    }
+
+    public BufferPools getBufferPools() {
+        return bufferPools;
+    }
+
+    /**
+     * Sets the pools the receive batch buffers get checked out of when in batched mode.
+     */
+    public void setBufferPools(BufferPools bufferPools) {
+        this.bufferPools = bufferPools;
+    }
+
     public Executor getBlockingExecutor() {
         return blockingExecutor;
     }
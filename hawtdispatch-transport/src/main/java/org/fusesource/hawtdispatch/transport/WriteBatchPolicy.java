@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+/**
+ * <p>
+ * Controls how long a {@link TcpTransport} holds on to encoded commands so
+ * that they can be sent to the socket with a single gathering write.
+ * </p><p>
+ * The buffered data is flushed once there are max bytes of it, once the
+ * oldest of it has been held for max delay microseconds or, when flush on
+ * idle is enabled, once the transport's dispatch queue has processed the
+ * tasks that were queued when the data was offered without any new data
+ * getting offered.  Data is also flushed right away when the transport
+ * gets full so the back-pressure is not delayed.
+ * </p><p>
+ * A policy can be shared by many transports.
+ * </p>
+ */
+public class WriteBatchPolicy {
+
+    private int maxBytes = 1024*16;
+    private long maxDelay = 200;
+    private boolean flushOnIdle = true;
+
+    public WriteBatchPolicy() {
+    }
+
+    public WriteBatchPolicy(int maxBytes, long maxDelay, boolean flushOnIdle) {
+        this.maxBytes = maxBytes;
+        this.maxDelay = maxDelay;
+        this.flushOnIdle = flushOnIdle;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the number of pending bytes which flushes the batch right away.
+     * Only applies to the codecs which implement {@link PendingWriteSize}.
+     */
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the max delay in microseconds.
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Sets the maximum number of microseconds data is held before getting flushed.
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public boolean isFlushOnIdle() {
+        return flushOnIdle;
+    }
+
+    public void setFlushOnIdle(boolean flushOnIdle) {
+        this.flushOnIdle = flushOnIdle;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBatchPolicy { max_bytes: "+maxBytes+", max_delay: "+maxDelay+", flush_on_idle: "+flushOnIdle+" }";
+    }
+}
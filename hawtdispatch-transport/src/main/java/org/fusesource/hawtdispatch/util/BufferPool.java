@@ -18,6 +18,7 @@ package org.fusesource.hawtdispatch.util;
 
 /**
  * <p>
+ * A pool of heap byte arrays which are all of the same size.
  * </p>
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
@@ -39,4 +40,8 @@ public class BufferPool extends ThreadLocalPool<byte[]> {
         return bufferSize;
     }
 
+    public BufferPoolMetrics metrics() {
+        return BufferPoolMetrics.of(this, bufferSize, false);
+    }
+
 }
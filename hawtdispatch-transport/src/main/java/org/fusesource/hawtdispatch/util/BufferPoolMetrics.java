@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtdispatch.util;
+
+/**
+ * <p>
+ * Usage statistics of a buffer pool size class.
+ * </p>
+ */
+public class BufferPoolMetrics {
+
+    /**
+     * The size of the buffers managed by the pool.
+     */
+    public int bufferSize;
+
+    /**
+     * True if the pool manages direct (off-heap) buffers.
+     */
+    public boolean direct;
+
+    /**
+     * The number of checkouts that were served from the pool.
+     */
+    public long hits;
+
+    /**
+     * The number of checkouts that had to allocate a new buffer.
+     */
+    public long misses;
+
+    /**
+     * The number of buffers checked out which have not been checked in yet.
+     */
+    public long outstanding;
+
+    /**
+     * The number of buffers checked in which were dropped because the pool was full.
+     */
+    public long discarded;
+
+    static BufferPoolMetrics of(ThreadLocalPool<?> pool, int bufferSize, boolean direct) {
+        BufferPoolMetrics rc = new BufferPoolMetrics();
+        rc.bufferSize = bufferSize;
+        rc.direct = direct;
+        rc.hits = pool.getHitCount();
+        rc.misses = pool.getMissCount();
+        rc.outstanding = pool.getOutstanding();
+        rc.discarded = pool.getDiscardCount();
+        return rc;
+    }
+
+    @Override
+    public String toString() {
+        long total = hits + misses;
+        return String.format("{ buffer_size:%d, direct:%s, hits:%d, misses:%d, hit_ratio:%.2f %%, outstanding:%d, discarded:%d }",
+                bufferSize,
+                direct,
+                hits,
+                misses,
+                total == 0 ? 0.0f : 100.0f * hits / total,
+                outstanding,
+                discarded);
+    }
+}
@@ -16,23 +16,133 @@
  */
 package org.fusesource.hawtdispatch.util;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * <p>
+ * Manages a set of buffer pools organized by power of two size classes.
+ * A request for a pool of a given size returns the pool of the smallest
+ * size class that can hold buffers of that size, so the buffers checked
+ * out of the returned pool may be larger than the requested size.
  * </p>
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
 public class BufferPools {
 
-    private final HashMap<Integer, BufferPool> pools = new HashMap<Integer, BufferPool>();
+    /**
+     * The smallest size class is 2^MIN_SIZE_SHIFT bytes.
+     */
+    public static final int MIN_SIZE_SHIFT = 6;
 
-    public synchronized BufferPool getBufferPool(int size) {
-        BufferPool rc = pools.get(size);
+    /**
+     * The largest size class is 2^MAX_SIZE_SHIFT bytes.
+     */
+    public static final int MAX_SIZE_SHIFT = 30;
+
+    private final AtomicReferenceArray<BufferPool> pools = new AtomicReferenceArray<BufferPool>(MAX_SIZE_SHIFT+1);
+    private final AtomicReferenceArray<DirectBufferPool> directPools = new AtomicReferenceArray<DirectBufferPool>(MAX_SIZE_SHIFT+1);
+    private int slabSize = DirectBufferPool.DEFAULT_SLAB_SIZE;
+
+    /**
+     * @return the heap buffer pool for the size class which can hold buffers of the given size.
+     */
+    public BufferPool getBufferPool(int size) {
+        int shift = sizeClassShift(size);
+        BufferPool rc = pools.get(shift);
+        if( rc == null ) {
+            rc = new BufferPool(1 << shift);
+            if( !pools.compareAndSet(shift, null, rc) ) {
+                rc = pools.get(shift);
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * @return the direct buffer pool for the size class which can hold buffers of the given size.
+     */
+    public DirectBufferPool getDirectBufferPool(int size) {
+        int shift = sizeClassShift(size);
+        DirectBufferPool rc = directPools.get(shift);
         if( rc == null ) {
-            rc = new BufferPool(size);
-            pools.put(size, rc);
+            rc = new DirectBufferPool(1 << shift, slabSize);
+            if( !directPools.compareAndSet(shift, null, rc) ) {
+                rc = directPools.get(shift);
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * Checks out a reference counted heap buffer which gets checked back into
+     * its pool once it is released.
+     *
+     * @param size the limit of the returned buffer.
+     */
+    public PooledBuffer checkoutBuffer(int size) {
+        return new PooledBuffer(getBufferPool(size), size);
+    }
+
+    /**
+     * Checks out a reference counted direct buffer which gets checked back into
+     * its pool once it is released.
+     *
+     * @param size the limit of the returned buffer.
+     */
+    public PooledBuffer checkoutDirectBuffer(int size) {
+        return new PooledBuffer(getDirectBufferPool(size), size);
+    }
+
+    /**
+     * @return the size of the size class which can hold buffers of the given size.
+     */
+    public static int sizeClass(int size) {
+        return 1 << sizeClassShift(size);
+    }
+
+    private static int sizeClassShift(int size) {
+        if( size > (1 << MAX_SIZE_SHIFT) ) {
+            throw new IllegalArgumentException("Buffer size too large: "+size);
+        }
+        if( size <= (1 << MIN_SIZE_SHIFT) ) {
+            return MIN_SIZE_SHIFT;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * Sets the size of the slabs which direct buffer pools created
+     * after this call carve their buffers out of.
+     *
+     * @param slabSize
+     */
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * @return the usage statistics of all the size classes that have been used.
+     */
+    public List<BufferPoolMetrics> metrics() {
+        ArrayList<BufferPoolMetrics> rc = new ArrayList<BufferPoolMetrics>();
+        for (int i = 0; i < pools.length(); i++) {
+            BufferPool pool = pools.get(i);
+            if( pool!=null ) {
+                rc.add(pool.metrics());
+            }
+        }
+        for (int i = 0; i < directPools.length(); i++) {
+            DirectBufferPool pool = directPools.get(i);
+            if( pool!=null ) {
+                rc.add(pool.metrics());
+            }
         }
         return rc;
     }
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtdispatch.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+/**
+ * <p>
+ * A pool of direct (off-heap) byte buffers which are all of the same size.
+ * </p><p>
+ * The buffers are sliced out of larger direct slabs so that we avoid doing
+ * many small direct allocations, which are expensive and only get
+ * reclaimed when the GC gets around to it.  The pool does not hold on to
+ * the buffers it hands out, so a buffer which is dropped, or discarded
+ * because it was checked in while the pool was full, gets collected.
+ * A slab's memory is released once all of its buffers have been collected.
+ * The buffers kept by the pool keep their slabs, so only use this pool for
+ * buffer sizes which are continuously in use.
+ * </p>
+ */
+public class DirectBufferPool extends ThreadLocalPool<ByteBuffer> {
+
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private final int bufferSize;
+    private final int slabSize;
+    private ByteBuffer slab;
+    private int slabs;
+    // tracks the buffers created which have not been collected yet.
+    private final HashSet<Slice> slices = new HashSet<Slice>();
+    private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+    private Slab current;
+
+    private static final class Slab {
+        final ByteBuffer buffer;
+        int buffers;
+
+        Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Slice extends WeakReference<ByteBuffer> {
+        final Slab slab;
+
+        Slice(ByteBuffer buffer, Slab slab, ReferenceQueue<ByteBuffer> queue) {
+            super(buffer, queue);
+            this.slab = slab;
+        }
+    }
+
+    public DirectBufferPool(int bufferSize) {
+        this(bufferSize, DEFAULT_SLAB_SIZE);
+    }
+
+    public DirectBufferPool(int bufferSize, int slabSize) {
+        this.bufferSize = bufferSize;
+        this.slabSize = Math.max(bufferSize, slabSize - (slabSize % bufferSize));
+    }
+
+    @Override
+    protected synchronized ByteBuffer create() {
+        expunge();
+        if( slab==null || slab.remaining() < bufferSize ) {
+            if( current!=null && current.buffers==0 ) {
+                free(current);
+            }
+            slab = ByteBuffer.allocateDirect(slabSize);
+            current = new Slab(slab);
+            slabs++;
+        }
+        slab.limit(slab.position() + bufferSize);
+        ByteBuffer rc = slab.slice();
+        slab.position(slab.limit());
+        slab.limit(slab.capacity());
+        current.buffers++;
+        slices.add(new Slice(rc, current, collected));
+        return rc;
+    }
+
+    /**
+     * Releases the slabs of which all the buffers have been collected.
+     */
+    private void expunge() {
+        Slice slice;
+        while( (slice = (Slice) collected.poll()) != null ) {
+            slices.remove(slice);
+            Slab owner = slice.slab;
+            if( --owner.buffers==0 && owner!=current ) {
+                free(owner);
+            }
+        }
+    }
+
+    private void free(Slab slab) {
+        DirectBuffers.free(slab.buffer);
+        slabs--;
+    }
+
+    /**
+     * Returns a buffer to the pool.  The buffer is cleared before it
+     * is made available for the next checkout.
+     */
+    @Override
+    public void checkin(ByteBuffer value) {
+        value.clear();
+        super.checkin(value);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * @return the number of slabs the pool holds.
+     */
+    public synchronized int getSlabCount() {
+        expunge();
+        return slabs;
+    }
+
+    public BufferPoolMetrics metrics() {
+        return BufferPoolMetrics.of(this, bufferSize, true);
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Releases the memory of direct and memory mapped byte buffers right away
+ * instead of when the GC gets around to collecting them.  There is no
+ * public API for it, so the JDK internals are used when they are accessible.
+ * </p><p>
+ * A freed buffer must not be accessed anymore, doing so can crash the JVM.
+ * </p>
+ */
+public final class DirectBuffers {
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try {
+            // java 9 and later.
+            Class<?> clazz = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = clazz.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Throwable e) {
+            invokeCleaner = null;
+            try {
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Throwable e2) {
+                cleaner = null;
+                clean = null;
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * Releases the memory of a buffer obtained from {@link ByteBuffer#allocateDirect(int)}
+     * or from mapping a file.  Slices and duplicates of it can't be freed.
+     *
+     * @return false if the memory will only be released once the buffer gets collected.
+     */
+    public static boolean free(ByteBuffer buffer) {
+        if( buffer == null || !buffer.isDirect() ) {
+            return false;
+        }
+        try {
+            if( INVOKE_CLEANER != null ) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            if( CLEANER != null ) {
+                Object cleaner = CLEANER.invoke(buffer);
+                if( cleaner != null ) {
+                    CLEAN.invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (Throwable e) {
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * A hash map keyed by primitive longs so that looking up an entry does not
+ * box the key or allocate an entry object.  It uses open addressing with
+ * linear probing and is kept at most half full.
+ * </p><p>
+ * Null values are not supported.  It is not thread safe.
+ * </p>
+ */
+public class LongHashMap<V> {
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of entries the map can hold before it has to grow.
+     */
+    public LongHashMap(int capacity) {
+        int slots = 2;
+        while( slots < capacity * 2 ) {
+            slots <<= 1;
+        }
+        allocate(slots);
+    }
+
+    private void allocate(int slots) {
+        keys = new long[slots];
+        values = new Object[slots];
+        mask = slots - 1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            Object value = values[i];
+            if( value == null ) {
+                return null;
+            }
+            if( keys[i] == key ) {
+                return (V) value;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the value previously associated with the key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if( value == null ) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        if( (size + 1) * 2 > values.length ) {
+            grow();
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            Object current = values[i];
+            if( current == null ) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return null;
+            }
+            if( keys[i] == key ) {
+                values[i] = value;
+                return (V) current;
+            }
+        }
+    }
+
+    /**
+     * @return the value which was associated with the key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        while( true ) {
+            if( values[i] == null ) {
+                return null;
+            }
+            if( keys[i] == key ) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        V rc = (V) values[i];
+
+        // shift back the entries which follow so that no tombstones are needed.
+        int gap = i;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if( ((j - home) & mask) >= ((j - gap) & mask) ) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return rc;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(values.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+            if( value != null ) {
+                int j = slot(oldKeys[i]);
+                while( values[j] != null ) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = value;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a copy of the values held by the map.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        ArrayList<V> rc = new ArrayList<V>(size);
+        for (Object value : values) {
+            if( value != null ) {
+                rc.add((V) value);
+            }
+        }
+        return rc;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtdispatch.util;
+
+import org.fusesource.hawtdispatch.BaseRetained;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A reference counted buffer which was checked out of a {@link BufferPools}
+ * size class pool.  The buffer is checked back into its pool once its retain
+ * counter reaches zero, so it can be passed along a pipeline of queues
+ * without copying as long as every holder balances its calls to
+ * {@link #retain()} and {@link #release()}.
+ * </p><p>
+ * Set the "org.fusesource.hawtdispatch.util.PooledBuffer.LEAK_DETECTION" system
+ * property to "true" to get a report of buffers which were garbage collected
+ * without being released.  If BaseRetained tracing is also enabled, the
+ * report will include the recorded retain/release call traces.  Leaks are
+ * reported to the {@link LeakListener} set with {@link #setLeakListener(LeakListener)},
+ * by default to the uncaught exception handler of the thread which noticed them.
+ * </p>
+ */
+public class PooledBuffer extends BaseRetained {
+
+    private static final boolean LEAK_DETECTION = Boolean.getBoolean("org.fusesource.hawtdispatch.util.PooledBuffer.LEAK_DETECTION");
+
+    private final BufferPool heapPool;
+    private final DirectBufferPool directPool;
+    private final Leak leak;
+    private ByteBuffer buffer;
+
+    PooledBuffer(BufferPool pool, int size) {
+        this.heapPool = pool;
+        this.directPool = null;
+        this.buffer = ByteBuffer.wrap(pool.checkout(), 0, size);
+        this.leak = track();
+    }
+
+    PooledBuffer(DirectBufferPool pool, int size) {
+        this.heapPool = null;
+        this.directPool = pool;
+        this.buffer = pool.checkout();
+        this.buffer.limit(size);
+        this.leak = track();
+    }
+
+    /**
+     * @return the pooled byte buffer.  Its limit is initially set to the requested size
+     *         but its capacity may be larger.
+     */
+    public ByteBuffer buffer() {
+        assertRetained();
+        return buffer;
+    }
+
+    /**
+     * @return the backing array of a heap buffer.
+     * @throws UnsupportedOperationException if the buffer is direct.
+     */
+    public byte[] array() {
+        assertRetained();
+        if( heapPool==null ) {
+            throw new UnsupportedOperationException("Direct buffers are not backed by an array");
+        }
+        return buffer.array();
+    }
+
+    public boolean isDirect() {
+        return directPool!=null;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    protected void dispose() {
+        ByteBuffer b = buffer;
+        buffer = null;
+        if( leak!=null ) {
+            leak.released();
+        }
+        if( heapPool!=null ) {
+            heapPool.checkin(b.array());
+        } else {
+            directPool.checkin(b);
+        }
+        super.dispose();
+    }
+
+    @Override
+    public String toString() {
+        return "PooledBuffer { direct: "+isDirect()+", capacity: "+(buffer==null ? "released" : buffer.capacity())+" }";
+    }
+
+    /////////////////////////////////////////////////////////////////////
+    //
+    // Leak detection
+    //
+    /////////////////////////////////////////////////////////////////////
+
+    private static final ReferenceQueue<PooledBuffer> COLLECTED = new ReferenceQueue<PooledBuffer>();
+    private static final Set<Leak> LIVE = Collections.synchronizedSet(new HashSet<Leak>());
+    private static final AtomicLong LEAKS = new AtomicLong();
+
+    /**
+     * Gets notified of the pooled buffers which were garbage collected
+     * without being released.
+     */
+    public static interface LeakListener {
+
+        /**
+         * @param checkout holds the stack trace of the buffer's checkout.
+         * @param traces the recorded retain/release call traces, or null if
+         *               BaseRetained tracing is not enabled.
+         */
+        void leaked(Throwable checkout, List<String> traces);
+    }
+
+    private static final LeakListener DEFAULT_LEAK_LISTENER = new LeakListener() {
+        public void leaked(Throwable checkout, List<String> traces) {
+            IllegalStateException e = new IllegalStateException("A pooled buffer was garbage collected without being released."
+                    + (traces==null ? "" : " Retain/release traces: "+traces));
+            e.initCause(checkout);
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    };
+
+    private static volatile LeakListener leakListener = DEFAULT_LEAK_LISTENER;
+
+    /**
+     * Sets where the leaks get reported, null restores the default which
+     * reports them to the thread's uncaught exception handler.
+     */
+    public static void setLeakListener(LeakListener listener) {
+        leakListener = listener==null ? DEFAULT_LEAK_LISTENER : listener;
+    }
+
+    private static final class Leak extends WeakReference<PooledBuffer> {
+        final Exception checkout;
+        final List<String> traces;
+
+        Leak(PooledBuffer referent) {
+            super(referent, COLLECTED);
+            this.checkout = new Exception("Buffer checked out, thread: "+Thread.currentThread().getName());
+            this.traces = referent.traces();
+        }
+
+        void released() {
+            LIVE.remove(this);
+            clear();
+        }
+    }
+
+    private Leak track() {
+        if( !LEAK_DETECTION ) {
+            return null;
+        }
+        reportLeaks();
+        Leak rc = new Leak(this);
+        LIVE.add(rc);
+        return rc;
+    }
+
+    /**
+     * Reports any buffers which were garbage collected without first getting released.
+     * This is done automatically on every checkout when leak detection is enabled.
+     */
+    public static void reportLeaks() {
+        Leak leak;
+        while( (leak = (Leak) COLLECTED.poll())!=null ) {
+            if( LIVE.remove(leak) ) {
+                LEAKS.incrementAndGet();
+                List<String> traces = null;
+                if( leak.traces!=null ) {
+                    synchronized (leak.traces) {
+                        traces = new ArrayList<String>(leak.traces);
+                    }
+                }
+                try {
+                    leakListener.leaked(leak.checkout, traces);
+                } catch (Throwable e) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of leaked buffers reported so far.
+     */
+    public static long getLeakCount() {
+        return LEAKS.get();
+    }
+
+}
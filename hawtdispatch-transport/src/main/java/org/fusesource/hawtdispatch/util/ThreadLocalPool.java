@@ -16,75 +16,214 @@
  */
 package org.fusesource.hawtdispatch.util;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
+ * A pool of objects which keeps a small cache of objects per thread
+ * so that most checkouts and checkins don't need any synchronization.
+ * </p><p>
+ * When a thread's cache overflows, half of it is moved as a batch to
+ * a shared arena.  When a thread's cache is empty, it first tries to
+ * grab a batch from the arena before creating a new object.  This allows
+ * objects to be checked in on a different thread than the one they
+ * were checked out on without them getting lost.
+ * </p><p>
+ * The pool statistics are counted per thread without synchronization and
+ * summed up when they are read.  The counts of the threads which have
+ * died are folded into shared totals.
  * </p>
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
 abstract public class ThreadLocalPool<T> {
 
+    /**
+     * The statistics of a thread, only updated by that thread.
+     */
+    static final class Counters {
+        final WeakReference<Thread> thread = new WeakReference<Thread>(Thread.currentThread());
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong checkins = new AtomicLong();
+
+        static void increment(AtomicLong counter) {
+            counter.lazySet(counter.get() + 1);
+        }
+
+        boolean isDead() {
+            Thread t = thread.get();
+            return t == null || !t.isAlive();
+        }
+    }
+
     class Pool {
         final ArrayList<T> objects = new ArrayList<T>(maxPoolSizePerThread());
-        long hitCounter;
-        long missCounter;
-//        public void monitor() {
-//            DispatchQueue current = Dispatch.getCurrentThreadQueue();
-//            if( current!=null ) {
-//                current.executeAfter(1, TimeUnit.SECONDS, new Task() {
-//                    @Override
-//                    public void run() {
-//                        if( hitCounter + missCounter > 0 ) {
-//                            System.out.println(String.format("Pool stats: %d hits, %d misses =  %f percent",
-//                                    hitCounter, missCounter, 100.0*hitCounter/(hitCounter + missCounter)));
-//                        }
-//                        hitCounter=0;
-//                        missCounter=0;
-//                        monitor();
-//                    }
-//                });
-//            }
-//        }
+        final Counters counters = new Counters();
     }
 
     private final ThreadLocal<Pool> objectsThreadLocal = new ThreadLocal<Pool>();
+    private final ConcurrentLinkedQueue<ArrayList<T>> arena = new ConcurrentLinkedQueue<ArrayList<T>>();
+    private final AtomicInteger arenaBatches = new AtomicInteger();
+
+    private final CopyOnWriteArrayList<Counters> counters = new CopyOnWriteArrayList<Counters>();
+    // the counts of the threads which died.
+    private long deadHits;
+    private long deadMisses;
+    private long deadCheckins;
+    private final AtomicLong discards = new AtomicLong();
 
     abstract protected T create();
 
     protected int maxPoolSizePerThread() {
-        return 10;
+        return 32;
+    }
+
+    /**
+     * @return the maximum number of batches of objects the shared arena will hold
+     *         before objects checked in start getting discarded.
+     */
+    protected int maxArenaBatches() {
+        return 64;
     }
 
     private Pool getPool() {
         Pool rc = objectsThreadLocal.get();
         if (rc == null) {
             rc = new Pool();
-//            rc.monitor();
             objectsThreadLocal.set(rc);
+            register(rc.counters);
         }
         return rc;
     }
 
+    private synchronized void register(Counters c) {
+        foldDeadCounters();
+        counters.add(c);
+    }
+
+    private synchronized void foldDeadCounters() {
+        for (Counters c : counters) {
+            if( c.isDead() ) {
+                deadHits += c.hits.get();
+                deadMisses += c.misses.get();
+                deadCheckins += c.checkins.get();
+                counters.remove(c);
+            }
+        }
+    }
+
     public T checkout() {
         Pool pool = getPool();
         ArrayList<T> objects = pool.objects;
+        if (objects.isEmpty()) {
+            ArrayList<T> batch = arena.poll();
+            if( batch!=null ) {
+                arenaBatches.decrementAndGet();
+                objects.addAll(batch);
+            }
+        }
+        T rc;
         if (!objects.isEmpty()) {
-            pool.hitCounter++;
-            return objects.remove(objects.size() - 1);
+            Counters.increment(pool.counters.hits);
+            rc = objects.remove(objects.size() - 1);
         } else {
-            pool.missCounter++;
-            return create();
+            Counters.increment(pool.counters.misses);
+            rc = create();
         }
+        return rc;
     }
 
     public void checkin(T value) {
-        ArrayList<T> objects = getPool().objects;
+        Pool pool = getPool();
+        ArrayList<T> objects = pool.objects;
+        Counters.increment(pool.counters.checkins);
+        if (objects.size() >= maxPoolSizePerThread()) {
+            spill(objects);
+        }
         if (objects.size() < maxPoolSizePerThread()) {
             objects.add(value);
+        } else {
+            discards.incrementAndGet();
+            discard(value);
         }
     }
 
+    /**
+     * Called with the objects checked in while the pool is full,
+     * which are dropped from the pool.
+     */
+    protected void discard(T value) {
+    }
+
+    /**
+     * Moves the top half of the thread's cache to the shared arena.
+     */
+    private void spill(ArrayList<T> objects) {
+        if( arenaBatches.incrementAndGet() > maxArenaBatches() ) {
+            arenaBatches.decrementAndGet();
+            return;
+        }
+        int size = objects.size();
+        int half = size >> 1;
+        ArrayList<T> batch = new ArrayList<T>(size - half);
+        for (int i = half; i < size; i++) {
+            batch.add(objects.get(i));
+        }
+        for (int i = size - 1; i >= half; i--) {
+            objects.remove(i);
+        }
+        arena.add(batch);
+    }
+
+    /**
+     * @return the number of checkouts that were served from the pool.
+     */
+    public synchronized long getHitCount() {
+        foldDeadCounters();
+        long rc = deadHits;
+        for (Counters c : counters) {
+            rc += c.hits.get();
+        }
+        return rc;
+    }
+
+    /**
+     * @return the number of checkouts that had to create a new object.
+     */
+    public synchronized long getMissCount() {
+        foldDeadCounters();
+        long rc = deadMisses;
+        for (Counters c : counters) {
+            rc += c.misses.get();
+        }
+        return rc;
+    }
+
+    /**
+     * @return the number of objects checked in which were dropped because the pool was full.
+     */
+    public long getDiscardCount() {
+        return discards.get();
+    }
+
+    /**
+     * @return the number of objects which have been checked out but not yet checked in.
+     */
+    public synchronized long getOutstanding() {
+        foldDeadCounters();
+        long rc = deadHits + deadMisses - deadCheckins;
+        for (Counters c : counters) {
+            // read the checkins first so that a concurrent checkout and checkin can't make it negative.
+            long checkins = c.checkins.get();
+            rc += c.hits.get() + c.misses.get() - checkins;
+        }
+        return rc;
+    }
 
 }
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class AbstractProtocolCodecTest {
+
+    // bytes which trip up a word at a time scan which gets its carries wrong.
+    static final byte[] TRICKY = {0x00, 0x01, 0x7F, (byte) 0x80, (byte) 0x81, (byte) 0xFE, (byte) 0xFF, '\n'};
+
+    @Test
+    public void indexOfFindsTheDelimiterAtEveryOffset() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (byte delimiter : TRICKY) {
+                for (byte filler : TRICKY) {
+                    if( filler == delimiter ) {
+                        continue;
+                    }
+                    for (int length = 1; length <= 26; length++) {
+                        for (int at = 0; at < length; at++) {
+                            byte[] data = new byte[length];
+                            Arrays.fill(data, filler);
+                            data[at] = delimiter;
+                            ByteBuffer buffer = ByteBuffer.wrap(data).order(order);
+                            for (int from = 0; from <= at; from++) {
+                                assertEquals(order + " delimiter " + delimiter + " filler " + filler + " at " + at + " from " + from,
+                                        at, AbstractProtocolCodec.indexOf(buffer, from, length, delimiter));
+                            }
+                            for (int from = at + 1; from <= length; from++) {
+                                assertEquals(-1, AbstractProtocolCodec.indexOf(buffer, from, length, delimiter));
+                            }
+                            // the end of the range is exclusive.
+                            assertEquals(-1, AbstractProtocolCodec.indexOf(buffer, 0, at, delimiter));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indexOfFindsTheFirstOfSeveralDelimiters() {
+        byte[] data = new byte[32];
+        Arrays.fill(data, (byte) 'a');
+        data[5] = '\n';
+        data[6] = '\n';
+        data[13] = '\n';
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        assertEquals(5, AbstractProtocolCodec.indexOf(buffer, 0, data.length, (byte) '\n'));
+        assertEquals(6, AbstractProtocolCodec.indexOf(buffer, 6, data.length, (byte) '\n'));
+        assertEquals(13, AbstractProtocolCodec.indexOf(buffer, 7, data.length, (byte) '\n'));
+    }
+
+    @Test
+    public void delimitedFramesSplitAcrossReads() throws IOException {
+        List<byte[]> frames = new ArrayList<byte[]>();
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        for (int length = 0; length < 40; length++) {
+            byte[] frame = new byte[length];
+            for (int i = 0; i < length; i++) {
+                frame[i] = TRICKY[i % TRICKY.length] == '\n' ? (byte) 'x' : TRICKY[i % TRICKY.length];
+            }
+            frames.add(frame);
+            wire.write(frame);
+            wire.write('\n');
+        }
+        for (int chunk : new int[]{1, 3, 7, 8, 9, 64, 4096}) {
+            FrameCodec codec = new FrameCodec(null, 1024);
+            codec.delimiter = '\n';
+            assertFrames(frames, codec.decode(wire.toByteArray(), chunk));
+        }
+    }
+
+    @Test
+    public void delimitedFrameLimit() throws IOException {
+        FrameCodec codec = new FrameCodec(null, 10);
+        codec.delimiter = '\n';
+        assertFrames(Arrays.asList(new byte[10]), codec.decode(frame(10, '\n'), 4));
+        codec = new FrameCodec(null, 10);
+        codec.delimiter = '\n';
+        try {
+            codec.decode(frame(11, '\n'), 4);
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    @Test
+    public void lengthPrefixedFramesOfEveryWidth() throws IOException {
+        for (LengthPrefix prefix : LengthPrefix.values()) {
+            List<byte[]> frames = new ArrayList<byte[]>();
+            for (int length : new int[]{0, 1, 2, 127, 128, 255, 256, 300, 16383, 16384, 65535, 70000}) {
+                if( prefix == LengthPrefix.SHORT && length > 0xFFFF ) {
+                    continue;
+                }
+                byte[] frame = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    frame[i] = (byte) i;
+                }
+                frames.add(frame);
+            }
+            byte[] wire = new FrameCodec(prefix, -1).encode(frames);
+            for (int chunk : new int[]{1000, 4096, 100000}) {
+                assertFrames(frames, new FrameCodec(prefix, -1).decode(wire, chunk));
+            }
+        }
+    }
+
+    @Test
+    public void lengthPrefixedHeadersSplitAcrossReads() throws IOException {
+        for (LengthPrefix prefix : LengthPrefix.values()) {
+            List<byte[]> frames = new ArrayList<byte[]>();
+            for (int length : new int[]{0, 1, 5, 127, 128, 200}) {
+                frames.add(new byte[length]);
+            }
+            byte[] wire = new FrameCodec(prefix, -1).encode(frames);
+            for (int chunk = 1; chunk <= 9; chunk++) {
+                assertFrames(frames, new FrameCodec(prefix, -1).decode(wire, chunk));
+            }
+        }
+    }
+
+    @Test
+    public void varintLengths() throws IOException {
+        assertVarint(0, 0x00);
+        assertVarint(127, 0x7F);
+        assertVarint(128, 0x80, 0x01);
+        assertVarint(300, 0xAC, 0x02);
+        assertVarint(16384, 0x80, 0x80, 0x01);
+        assertVarint(16384, 0x80, 0x80, 0x81, 0x80, 0x00);
+    }
+
+    @Test
+    public void varintOverflow() throws IOException {
+        // the fifth byte of a varint must not have the continuation bit set.
+        try {
+            new FrameCodec(LengthPrefix.VARINT, -1).decode(bytes(0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01), 6);
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+        // 5 bytes decoding past Integer.MAX_VALUE.
+        try {
+            new FrameCodec(LengthPrefix.VARINT, -1).decode(bytes(0xFF, 0xFF, 0xFF, 0xFF, 0x0F), 5);
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+        // an incomplete varint waits for more data.
+        assertEquals(0, new FrameCodec(LengthPrefix.VARINT, -1).decode(bytes(0xFF, 0xFF, 0xFF, 0xFF), 4).size());
+    }
+
+    @Test
+    public void invalidFixedLengths() throws IOException {
+        // a long length which does not fit an int.
+        try {
+            new FrameCodec(LengthPrefix.LONG, -1).decode(bytes(0x80, 0, 0, 0, 0, 0, 0, 1), 8);
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+        try {
+            new FrameCodec(LengthPrefix.INT, 100).decode(bytes(0, 0, 0, 101), 4);
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+        try {
+            new FrameCodec(LengthPrefix.SHORT, -1).encode(Arrays.asList(new byte[0x10000]));
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    private static void assertVarint(int length, int... header) throws IOException {
+        byte[] wire = Arrays.copyOf(bytes(header), header.length + length);
+        List<byte[]> frames = new FrameCodec(LengthPrefix.VARINT, -1).decode(wire, 7);
+        assertEquals(1, frames.size());
+        assertEquals(length, frames.get(0).length);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] rc = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            rc[i] = (byte) values[i];
+        }
+        return rc;
+    }
+
+    private static byte[] frame(int length, char delimiter) {
+        byte[] rc = new byte[length + 1];
+        rc[length] = (byte) delimiter;
+        return rc;
+    }
+
+    private static void assertFrames(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue("frame " + i, Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+
+    /**
+     * Encodes and decodes byte array frames.
+     */
+    static class FrameCodec extends AbstractProtocolCodec {
+
+        final LengthPrefix prefix;
+        final int max;
+        byte delimiter;
+
+        FrameCodec(LengthPrefix prefix, int max) {
+            this.prefix = prefix;
+            this.max = max;
+            // start small so that the read buffer has to grow.
+            this.readBufferSize = 64;
+            this.writeBufferSize = 64;
+        }
+
+        @Override
+        protected void encode(Object value) throws IOException {
+            writeLengthPrefixedFrame(prefix, new Buffer((byte[]) value));
+        }
+
+        @Override
+        protected Action initialDecodeAction() {
+            return prefix == null ? delimitedFrameAction(delimiter, max) : lengthPrefixedFrameAction(prefix, max);
+        }
+
+        byte[] encode(List<byte[]> frames) throws IOException {
+            ChunkedChannel channel = new ChunkedChannel(new byte[0], 0);
+            writeChannel = channel;
+            for (byte[] frame : frames) {
+                while( write(frame) == ProtocolCodec.BufferState.FULL ) {
+                    flush();
+                }
+            }
+            assertEquals(ProtocolCodec.BufferState.EMPTY, flush());
+            return channel.written.toByteArray();
+        }
+
+        List<byte[]> decode(byte[] wire, int chunk) throws IOException {
+            readChannel = new ChunkedChannel(wire, chunk);
+            nextDecodeAction = initialDecodeAction();
+            List<byte[]> rc = new ArrayList<byte[]>();
+            Object frame;
+            while( (frame = read()) != null ) {
+                rc.add(((Buffer) frame).toByteArray());
+            }
+            return rc;
+        }
+    }
+
+    /**
+     * A channel which hands out the data it is given a chunk at a time, and
+     * keeps what is written to it, also a chunk at a time if the chunk size
+     * is not 0.
+     */
+    static class ChunkedChannel implements ReadableByteChannel, GatheringByteChannel {
+
+        final byte[] data;
+        final int chunk;
+        int position;
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        ChunkedChannel(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        public int read(ByteBuffer dst) {
+            int count = Math.min(Math.min(chunk, dst.remaining()), data.length - position);
+            dst.put(data, position, count);
+            position += count;
+            return count;
+        }
+
+        public int write(ByteBuffer src) {
+            int count = chunk > 0 ? Math.min(chunk, src.remaining()) : src.remaining();
+            byte[] bytes = new byte[count];
+            src.get(bytes);
+            written.write(bytes, 0, count);
+            return count;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long rc = 0;
+            for (int i = offset; i < offset + length; i++) {
+                rc += write(srcs[i]);
+                if( srcs[i].hasRemaining() ) {
+                    break;
+                }
+            }
+            return rc;
+        }
+
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+}
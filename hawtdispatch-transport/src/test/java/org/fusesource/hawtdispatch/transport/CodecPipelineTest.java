@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fusesource.hawtdispatch.transport.AbstractProtocolCodecTest.ChunkedChannel;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class CodecPipelineTest {
+
+    /**
+     * Encodes strings as UTF-8.
+     */
+    static class StringStage implements CodecStage {
+        public void decode(ByteBuffer source, Output output) throws IOException {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            output.emit(new String(bytes, "UTF-8"));
+        }
+
+        public void encode(Object value, Output output) throws IOException {
+            output.emit(ByteBuffer.wrap(((String) value).getBytes("UTF-8")));
+        }
+    }
+
+    @Test
+    public void framesSplitAcrossReadsAndWrites() throws IOException {
+        List<String> messages = messages(200);
+        for (int chunk : new int[]{1, 3, 4, 5, 7, 100, 4096}) {
+            byte[] wire = encode(new CodecPipeline(new LengthPrefixedStage(), new StringStage()), messages, chunk);
+            assertEquals(messages, decode(new CodecPipeline(new LengthPrefixedStage(), new StringStage()), wire, chunk));
+        }
+    }
+
+    @Test
+    public void nestedFramingStages() throws IOException {
+        // the inner stage decodes units split across the frames of the outer one.
+        List<String> messages = messages(100);
+        for (int chunk : new int[]{1, 3, 8, 100, 4096}) {
+            byte[] wire = encode(new CodecPipeline(new LengthPrefixedStage(), new LengthPrefixedStage(), new StringStage()), messages, chunk);
+            assertEquals(messages, decode(new CodecPipeline(new LengthPrefixedStage(), new LengthPrefixedStage(), new StringStage()), wire, chunk));
+        }
+    }
+
+    @Test
+    public void frameLargerThanTheReadBuffer() throws IOException {
+        StringBuilder large = new StringBuilder();
+        while( large.length() < 200 * 1024 ) {
+            large.append("0123456789");
+        }
+        List<String> messages = new ArrayList<String>();
+        messages.add("small");
+        messages.add(large.toString());
+        messages.add("after");
+        byte[] wire = encode(new CodecPipeline(new LengthPrefixedStage(), new StringStage()), messages, 0);
+        assertEquals(messages, decode(new CodecPipeline(new LengthPrefixedStage(), new StringStage()), wire, 8192));
+    }
+
+    @Test
+    public void unread() throws IOException {
+        List<String> messages = messages(10);
+        byte[] wire = encode(new CodecPipeline(new LengthPrefixedStage(), new StringStage()), messages, 0);
+        CodecPipeline pipeline = new CodecPipeline(new LengthPrefixedStage(), new StringStage());
+        pipeline.setTransport(transport(new ChunkedChannel(new byte[0], 0)));
+        pipeline.unread(wire);
+        for (String message : messages) {
+            assertEquals(message, pipeline.read());
+        }
+        assertNull(pipeline.read());
+        assertEquals(wire.length, pipeline.getReadCounter());
+    }
+
+    @Test
+    public void pendingWriteSize() throws IOException {
+        CodecPipeline pipeline = new CodecPipeline(new LengthPrefixedStage(), new StringStage());
+        ChunkedChannel channel = new ChunkedChannel(new byte[0], 3);
+        pipeline.setTransport(transport(channel));
+        assertEquals(ProtocolCodec.BufferState.WAS_EMPTY, pipeline.write("hello"));
+        assertEquals(ProtocolCodec.BufferState.NOT_EMPTY, pipeline.write("world"));
+        assertEquals(18, pipeline.getPendingWriteSize());
+        assertEquals(ProtocolCodec.BufferState.EMPTY, pipeline.flush());
+        assertEquals(0, pipeline.getPendingWriteSize());
+        assertEquals(18, pipeline.getWriteCounter());
+        assertEquals(18, channel.written.size());
+    }
+
+    @Test
+    public void invalidFrameLength() throws IOException {
+        byte[][] headers = {
+            {0, 0, 0, 11},
+            {(byte) 0x80, 0, 0, 0},
+        };
+        for (byte[] header : headers) {
+            CodecPipeline pipeline = new CodecPipeline(new LengthPrefixedStage(10), new StringStage());
+            pipeline.setTransport(transport(new ChunkedChannel(header, 4)));
+            try {
+                pipeline.read();
+                fail("expected ProtocolException");
+            } catch (ProtocolException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void needsAStage() {
+        try {
+            new CodecPipeline();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static List<String> messages(int count) {
+        List<String> rc = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder message = new StringBuilder();
+            for (int j = 0; j < i % 37; j++) {
+                message.append((char) ('a' + j % 26));
+            }
+            rc.add(message.toString());
+        }
+        return rc;
+    }
+
+    private static byte[] encode(CodecPipeline pipeline, List<String> messages, int chunk) throws IOException {
+        ChunkedChannel channel = new ChunkedChannel(new byte[0], chunk);
+        pipeline.setTransport(transport(channel));
+        for (String message : messages) {
+            while( pipeline.write(message) == ProtocolCodec.BufferState.FULL ) {
+                pipeline.flush();
+            }
+        }
+        while( pipeline.flush() != ProtocolCodec.BufferState.EMPTY ) {
+        }
+        return channel.written.toByteArray();
+    }
+
+    private static List<Object> decode(CodecPipeline pipeline, byte[] wire, int chunk) throws IOException {
+        ChunkedChannel channel = new ChunkedChannel(wire, chunk);
+        pipeline.setTransport(transport(channel));
+        List<Object> rc = new ArrayList<Object>();
+        Object message;
+        while( (message = pipeline.read()) != null ) {
+            rc.add(message);
+        }
+        assertEquals(wire.length, channel.position);
+        return rc;
+    }
+
+    static Transport transport(final ChunkedChannel channel) {
+        return (Transport) Proxy.newProxyInstance(Transport.class.getClassLoader(), new Class[]{Transport.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if( method.getName().equals("getReadChannel") || method.getName().equals("getWriteChannel") ) {
+                    return channel;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+}
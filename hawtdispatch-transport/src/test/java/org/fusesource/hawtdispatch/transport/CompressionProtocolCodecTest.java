@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtdispatch.transport.AbstractProtocolCodecTest.ChunkedChannel;
+import org.fusesource.hawtdispatch.transport.AbstractProtocolCodecTest.FrameCodec;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class CompressionProtocolCodecTest {
+
+    static CompressionProtocolCodec codec(byte[] dictionary) {
+        CompressionProtocolCodec rc = new CompressionProtocolCodec();
+        rc.setDictionary(dictionary);
+        rc.setFlushSize(1024);
+        FrameCodec next = new FrameCodec(LengthPrefix.INT, 1024 * 1024);
+        // the end of every flush of the next codec ends a block, so let it batch up the frames.
+        next.writeBufferSize = 64 * 1024;
+        rc.setNext(next);
+        return rc;
+    }
+
+    static List<String> messages(int count) {
+        List<String> rc = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            rc.add("message " + i + " with a body which compresses well, message " + i);
+        }
+        return rc;
+    }
+
+    static byte[] encode(CompressionProtocolCodec codec, List<String> messages, int chunk) throws IOException {
+        ChunkedChannel channel = new ChunkedChannel(new byte[0], chunk);
+        codec.setTransport(CodecPipelineTest.transport(channel));
+        for (String message : messages) {
+            while( codec.write(message.getBytes("UTF-8")) == ProtocolCodec.BufferState.FULL ) {
+                codec.flush();
+            }
+        }
+        while( codec.flush() != ProtocolCodec.BufferState.EMPTY ) {
+        }
+        return channel.written.toByteArray();
+    }
+
+    static List<String> decode(CompressionProtocolCodec codec, byte[] wire, int chunk) throws IOException {
+        codec.setTransport(CodecPipelineTest.transport(new ChunkedChannel(wire, chunk)));
+        List<String> rc = new ArrayList<String>();
+        Object frame;
+        while( (frame = codec.read()) != null ) {
+            Buffer buffer = (Buffer) frame;
+            rc.add(new String(buffer.data, buffer.offset, buffer.length, "UTF-8"));
+        }
+        return rc;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        List<String> messages = messages(1000);
+        for (int chunk : new int[]{1, 7, 100, 4096}) {
+            CompressionProtocolCodec writer = codec(null);
+            byte[] wire = encode(writer, messages, chunk);
+            CompressionProtocolCodec reader = codec(null);
+            assertEquals(messages, decode(reader, wire, chunk));
+
+            assertTrue(writer.getCompressedFrameCount() > 0);
+            assertTrue(wire.length < writer.getUncompressedWriteCounter());
+            assertEquals(wire.length, writer.getWriteCounter());
+            assertEquals(wire.length, reader.getReadCounter());
+            assertEquals(writer.getUncompressedWriteCounter(), reader.getUncompressedReadCounter());
+            assertTrue(writer.getWriteCompressionRatio() > 2);
+            assertEquals(writer.getWriteCompressionRatio(), reader.getReadCompressionRatio(), 0.0);
+        }
+    }
+
+    @Test
+    public void smallBlocksAreSentRaw() throws IOException {
+        List<String> messages = messages(1);
+        CompressionProtocolCodec writer = codec(null);
+        writer.setMinCompressSize(1024);
+        byte[] wire = encode(writer, messages, 0);
+        assertEquals(1, writer.getRawFrameCount());
+        assertEquals(0, writer.getCompressedFrameCount());
+        // the frame header makes it a little larger.
+        assertTrue(writer.getWriteCompressionRatio() < 1);
+
+        CompressionProtocolCodec reader = codec(null);
+        assertEquals(messages, decode(reader, wire, 3));
+        assertEquals(writer.getWriteCompressionRatio(), reader.getReadCompressionRatio(), 0.0);
+    }
+
+    @Test
+    public void presetDictionary() throws IOException {
+        byte[] dictionary = "message with a body which compresses well, message ".getBytes("UTF-8");
+        List<String> messages = messages(10);
+        byte[] plain = encode(codec(null), messages, 0);
+        byte[] wire = encode(codec(dictionary), messages, 0);
+        assertTrue(wire.length < plain.length);
+        assertEquals(messages, decode(codec(dictionary), wire, 5));
+    }
+
+    @Test
+    public void writesStopWhileTheCompressedDataIsPending() throws IOException {
+        CompressionProtocolCodec codec = codec(null);
+        // only a byte at a time gets written out.
+        codec.setTransport(CodecPipelineTest.transport(new ChunkedChannel(new byte[0], 1)));
+        byte[] data = new byte[codec.getFlushSize() * 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteBuffer plain = ByteBuffer.wrap(data);
+        int written = codec.compressingChannel.write(plain);
+        assertTrue(written > 0);
+        assertTrue(plain.hasRemaining());
+        assertTrue(codec.getPendingWriteSize() < codec.getFlushSize() * 3);
+        assertEquals(0, codec.compressingChannel.write(plain));
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.Task;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class FileRegionTest {
+
+    ExecutorService executor;
+    ServerSocket server;
+    File file;
+    byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        content = SslTransportTest.frame(256 * 1024, 7);
+        file = File.createTempFile("region", ".dat");
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        executor.shutdown();
+        file.delete();
+    }
+
+    /**
+     * Offers the commands it is given in order, waiting for a refill when the transport is full.
+     */
+    static class Sender extends DefaultTransportListener {
+        final TcpTransport transport;
+        final LinkedList<Object> outbound = new LinkedList<Object>();
+        final BlockingQueue<IOException> failures = new LinkedBlockingQueue<IOException>();
+
+        Sender(TcpTransport transport, Object... commands) {
+            this.transport = transport;
+            outbound.addAll(Arrays.asList(commands));
+        }
+
+        public void onTransportConnected() {
+            onRefill();
+        }
+
+        public void onRefill() {
+            while( !outbound.isEmpty() && transport.offer(outbound.getFirst()) ) {
+                outbound.removeFirst();
+            }
+        }
+
+        public void onTransportFailure(IOException error) {
+            failures.add(error);
+        }
+    }
+
+    TcpTransport connect(int maxWriteRate, Object... commands) throws Exception {
+        TcpTransport transport = new TcpTransport();
+        transport.setDispatchQueue(Dispatch.createQueue("file region client"));
+        transport.setBlockingExecutor(executor);
+        transport.setMaxWriteRate(maxWriteRate);
+        transport.connecting(new URI("tcp://127.0.0.1:" + server.getLocalPort()), null);
+        transport.setProtocolCodec(SslTransportTest.codec());
+        transport.setTransportListener(new Sender(transport, commands));
+        transport.start(Dispatch.NOOP);
+        return transport;
+    }
+
+    /**
+     * Accepts one connection and reads the given number of bytes from it.
+     */
+    Future<byte[]> receive(final int size) {
+        return executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                Socket socket = server.accept();
+                try {
+                    byte[] rc = new byte[size];
+                    InputStream is = socket.getInputStream();
+                    int pos = 0;
+                    while( pos < size ) {
+                        int count = is.read(rc, pos, size - pos);
+                        if( count < 0 ) {
+                            throw new EOFException();
+                        }
+                        pos += count;
+                    }
+                    return rc;
+                } finally {
+                    socket.close();
+                }
+            }
+        });
+    }
+
+    FileRegion region(long position, long count, final CountDownLatch released) throws IOException {
+        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        FileRegion rc = new FileRegion(channel, position, count);
+        rc.setDisposer(new Runnable() {
+            public void run() {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                }
+                released.countDown();
+            }
+        });
+        return rc;
+    }
+
+    static byte[] frame(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(baos);
+        os.writeInt(data.length);
+        os.write(data);
+        return baos.toByteArray();
+    }
+
+    void assertSentBetweenFrames(int maxWriteRate) throws Exception {
+        byte[] first = SslTransportTest.frame(10, 1);
+        byte[] last = SslTransportTest.frame(20, 2);
+        int position = 100;
+        int count = content.length - 1000;
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(frame(first));
+        expected.write(content, position, count);
+        expected.write(frame(last));
+
+        Future<byte[]> received = receive(expected.size());
+        CountDownLatch released = new CountDownLatch(1);
+        TcpTransport transport = connect(maxWriteRate, first, region(position, count, released), last);
+        try {
+            assertTrue(Arrays.equals(expected.toByteArray(), received.get(10, SECONDS)));
+            assertTrue(released.await(5, SECONDS));
+            assertNull(((Sender) transport.getTransportListener()).failures.poll());
+        } finally {
+            SslTransportTest.stop(transport);
+        }
+    }
+
+    @Test
+    public void sentStraightFromTheFile() throws Exception {
+        assertSentBetweenFrames(0);
+    }
+
+    @Test
+    public void sentThroughTheRateLimiter() throws Exception {
+        assertSentBetweenFrames(1024 * 1024);
+    }
+
+    @Test
+    public void regionPastTheEndOfTheFileFails() throws Exception {
+        receive(4);
+        CountDownLatch released = new CountDownLatch(1);
+        TcpTransport transport = connect(0, region(content.length - 10, 100, released));
+        try {
+            IOException failure = ((Sender) transport.getTransportListener()).failures.poll(5, SECONDS);
+            assertTrue(failure instanceof EOFException);
+        } finally {
+            SslTransportTest.stop(transport);
+        }
+        assertTrue(released.await(5, SECONDS));
+    }
+
+    @Test
+    public void stopReleasesAPendingRegion() throws Exception {
+        receive(4);
+        CountDownLatch released = new CountDownLatch(1);
+        // slow enough that the region is still being sent when we stop.
+        TcpTransport transport = connect(1024, region(0, content.length, released));
+        Thread.sleep(200);
+        assertEquals(1, released.getCount());
+        SslTransportTest.stop(transport);
+        assertTrue(released.await(5, SECONDS));
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.transport.AbstractProtocolCodecTest.FrameCodec;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class ReadBudgetPoliciesTest {
+
+    static final FrameCodec CODEC = new FrameCodec(LengthPrefix.INT, 1024);
+
+    @Test
+    public void defaultYieldsAfterFourReadBuffers() {
+        int limit = CODEC.getReadBufferSize() * 4;
+        assertFalse(ReadBudgetPolicies.DEFAULT.exhausted(CODEC, limit - 1, 1000, System.nanoTime()));
+        assertTrue(ReadBudgetPolicies.DEFAULT.exhausted(CODEC, limit, 0, System.nanoTime()));
+    }
+
+    @Test
+    public void bytes() {
+        ReadBudgetPolicy policy = ReadBudgetPolicies.bytes(100);
+        assertFalse(policy.exhausted(CODEC, 99, 1000, System.nanoTime()));
+        assertTrue(policy.exhausted(CODEC, 100, 0, System.nanoTime()));
+    }
+
+    @Test
+    public void commands() {
+        ReadBudgetPolicy policy = ReadBudgetPolicies.commands(3);
+        assertFalse(policy.exhausted(CODEC, 1000000, 2, System.nanoTime()));
+        assertTrue(policy.exhausted(CODEC, 0, 3, System.nanoTime()));
+    }
+
+    @Test
+    public void time() {
+        ReadBudgetPolicy policy = ReadBudgetPolicies.time(1, SECONDS);
+        long now = System.nanoTime();
+        assertFalse(policy.exhausted(CODEC, 1000000, 1000, now));
+        assertTrue(policy.exhausted(CODEC, 0, 0, now - SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void adaptiveUsesTheMaxWhenNotOnABusyWorker() {
+        // the test thread is not a worker, so it has no backlog.
+        assertEquals(0, Dispatch.getCurrentThreadBacklog());
+        ReadBudgetPolicy policy = ReadBudgetPolicies.adaptive(10, 1000);
+        assertFalse(policy.exhausted(CODEC, 9, 0, System.nanoTime()));
+        assertFalse(policy.exhausted(CODEC, 999, 0, System.nanoTime()));
+        assertTrue(policy.exhausted(CODEC, 1000, 0, System.nanoTime()));
+    }
+
+    /**
+     * Sends the frames from a plain socket to a transport which may only
+     * deliver one command per read turn.
+     */
+    @Test
+    public void transportYieldsOnceItsBudgetIsExhausted() throws Exception {
+        final int count = 50;
+        ExecutorService executor = Executors.newCachedThreadPool();
+        ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        try {
+            final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+            final TcpTransport transport = new TcpTransport();
+            transport.setDispatchQueue(Dispatch.createQueue("read budget client"));
+            transport.setBlockingExecutor(executor);
+            transport.setReadBudgetPolicy(ReadBudgetPolicies.commands(1));
+            transport.connecting(new URI("tcp://127.0.0.1:" + server.getLocalPort()), null);
+            transport.setProtocolCodec(SslTransportTest.codec());
+            transport.setTransportListener(new DefaultTransportListener() {
+                public void onTransportConnected() {
+                    transport.resumeRead();
+                }
+
+                public void onTransportCommand(Object command) {
+                    received.add(((Buffer) command).toByteArray());
+                }
+            });
+            transport.start(Dispatch.NOOP);
+
+            Socket socket = server.accept();
+            try {
+                // all in one write so that the transport reads several frames at once.
+                byte[] wire = SslTransportTest.codec().encode(frames(count));
+                OutputStream os = socket.getOutputStream();
+                os.write(wire);
+                os.flush();
+                for (byte[] frame : frames(count)) {
+                    byte[] actual = received.poll(5, SECONDS);
+                    assertNotNull(actual);
+                    assertTrue(Arrays.equals(frame, actual));
+                }
+            } finally {
+                SslTransportTest.stop(transport);
+                socket.close();
+            }
+            assertTrue(transport.getReadYieldCount() > 0);
+            assertTrue(transport.getReadTurnCount() > transport.getReadYieldCount());
+        } finally {
+            server.close();
+            executor.shutdown();
+        }
+    }
+
+    static List<byte[]> frames(int count) {
+        List<byte[]> rc = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            rc.add(SslTransportTest.frame(20, i));
+        }
+        return rc;
+    }
+
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.transport.AbstractProtocolCodecTest.FrameCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class SharedMemoryTransportTest {
+
+    File directory;
+    ExecutorService blockingExecutor;
+    SharedMemoryTransportServer server;
+    final BlockingQueue<IOException> serverFailures = new ArrayBlockingQueue<IOException>(10);
+
+    @Before
+    public void startServer() throws Exception {
+        directory = File.createTempFile("shm-test", "");
+        directory.delete();
+        directory.mkdirs();
+        blockingExecutor = Executors.newCachedThreadPool();
+        server = new SharedMemoryTransportServer(new URI("shm://127.0.0.1:0"));
+        server.setDispatchQueue(Dispatch.createQueue("shm server"));
+        server.setBlockingExecutor(blockingExecutor);
+        server.setDirectory(directory);
+        server.setTransportServerListener(new TransportServerListener() {
+            public void onAccept(final Transport transport) {
+                try {
+                    transport.setProtocolCodec(new FrameCodec(LengthPrefix.INT, 1024 * 1024));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                transport.setTransportListener(new Echo(transport));
+                transport.start(Dispatch.NOOP);
+            }
+
+            public void onAcceptError(Exception error) {
+                serverFailures.offer(new IOException(error.toString()));
+            }
+        });
+        final CountDownLatch started = new CountDownLatch(1);
+        server.start(new Task() {
+            public void run() {
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(5, SECONDS));
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        server.stop(new Task() {
+            public void run() {
+                stopped.countDown();
+            }
+        });
+        stopped.await(5, SECONDS);
+        blockingExecutor.shutdown();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Sends back the frames it receives, suspending reads while it is full.
+     */
+    class Echo extends DefaultTransportListener {
+        final Transport transport;
+        final LinkedList<Object> pending = new LinkedList<Object>();
+
+        Echo(Transport transport) {
+            this.transport = transport;
+        }
+
+        public void onTransportCommand(Object command) {
+            pending.add(((Buffer) command).toByteArray());
+            drain();
+        }
+
+        public void onRefill() {
+            drain();
+        }
+
+        void drain() {
+            while( !pending.isEmpty() && transport.offer(pending.getFirst()) ) {
+                pending.removeFirst();
+            }
+            if( pending.isEmpty() ) {
+                transport.resumeRead();
+            } else {
+                transport.suspendRead();
+            }
+        }
+
+        public void onTransportFailure(IOException error) {
+            serverFailures.offer(error);
+        }
+    }
+
+    @Test
+    public void framesWrapAroundTheRings() throws Exception {
+        // about 200 times the ring size goes through each ring.
+        final int count = 4000;
+        final SharedMemoryTransport client = new SharedMemoryTransport();
+        DispatchQueue queue = Dispatch.createQueue("shm client");
+        client.setDispatchQueue(queue);
+        client.setBlockingExecutor(blockingExecutor);
+        client.setDirectory(directory);
+        client.setRingSize(4096);
+        client.connecting(new URI("tcp://127.0.0.1:" + server.getSocketAddress().getPort()), null);
+        client.setProtocolCodec(new FrameCodec(LengthPrefix.INT, 1024 * 1024));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] inOrder = {true};
+        final IOException[] failure = new IOException[1];
+        client.setTransportListener(new DefaultTransportListener() {
+            int sent;
+            int received;
+
+            public void onTransportConnected() {
+                client.resumeRead();
+                send();
+            }
+
+            public void onRefill() {
+                send();
+            }
+
+            void send() {
+                while( sent < count && client.offer(frame(sent)) ) {
+                    sent++;
+                }
+            }
+
+            public void onTransportCommand(Object command) {
+                if( !Arrays.equals(frame(received), ((Buffer) command).toByteArray()) ) {
+                    inOrder[0] = false;
+                }
+                if( ++received == count ) {
+                    done.countDown();
+                }
+            }
+
+            public void onTransportFailure(IOException error) {
+                failure[0] = error;
+                done.countDown();
+            }
+        });
+        client.start(Dispatch.NOOP);
+        assertTrue(done.await(30, SECONDS));
+        assertNull(failure[0]);
+        assertTrue(inOrder[0]);
+        // both sides have mapped the file, so it is gone from the directory.
+        assertEquals(0, directory.list().length);
+
+        final CountDownLatch stopped = new CountDownLatch(1);
+        client.stop(new Task() {
+            public void run() {
+                stopped.countDown();
+            }
+        });
+        assertTrue(stopped.await(5, SECONDS));
+        // the rings are unmapped.
+        assertEquals(0, client.getReadChannel().read(ByteBuffer.allocate(10)));
+        assertEquals(0, client.getWriteChannel().write(ByteBuffer.allocate(10)));
+    }
+
+    static byte[] frame(int i) {
+        byte[] rc = new byte[50 + i % 100];
+        Arrays.fill(rc, (byte) i);
+        return rc;
+    }
+
+    @Test
+    public void invalidHandshakesAreRejected() throws Exception {
+        assertRejected(handshake(-1, "x"));
+        assertRejected(handshake(0, "x"));
+        assertRejected(handshake(Integer.MAX_VALUE, "x"));
+        assertRejected(ByteBuffer.allocate(9).put(SharedMemoryTransport.HANDSHAKE).putInt(1024).putInt(-1).array());
+        assertRejected(handshake(1024, new File(directory.getParentFile(), SharedMemoryTransport.FILE_PREFIX + "x").getPath()));
+    }
+
+    @Test
+    public void positionsBeforeTheHandshakeAreRejected() throws Exception {
+        assertRejected(position(SharedMemoryTransport.WRITTEN, 1));
+        assertRejected(position(SharedMemoryTransport.ACKED, 0));
+    }
+
+    @Test
+    public void invalidWritePositionsAreRejected() throws Exception {
+        // past what the server has room for.
+        assertRejected(handshake(1024, ringFile(1024)), position(SharedMemoryTransport.WRITTEN, 1025));
+        // going backwards.
+        assertRejected(handshake(1024, ringFile(1024)), position(SharedMemoryTransport.WRITTEN, 10), position(SharedMemoryTransport.WRITTEN, 5));
+    }
+
+    @Test
+    public void invalidAcksAreRejected() throws Exception {
+        // the server has not written anything.
+        assertRejected(handshake(1024, ringFile(1024)), position(SharedMemoryTransport.ACKED, 1));
+    }
+
+    private String ringFile(int size) throws IOException {
+        File file = File.createTempFile(SharedMemoryTransport.FILE_PREFIX, ".ring", directory);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(2L * size);
+        } finally {
+            raf.close();
+        }
+        return file.getCanonicalPath();
+    }
+
+    private static byte[] handshake(int size, String path) throws IOException {
+        byte[] bytes = path.getBytes("UTF-8");
+        return ByteBuffer.allocate(9 + bytes.length).put(SharedMemoryTransport.HANDSHAKE).putInt(size).putInt(bytes.length).put(bytes).array();
+    }
+
+    private static byte[] position(byte type, long value) {
+        return ByteBuffer.allocate(9).put(type).putLong(value).array();
+    }
+
+    /**
+     * Sends the control messages over a raw socket and checks that the server fails the connection.
+     */
+    private void assertRejected(byte[]... messages) throws Exception {
+        Socket socket = new Socket("127.0.0.1", server.getSocketAddress().getPort());
+        try {
+            for (byte[] message : messages) {
+                socket.getOutputStream().write(message);
+                socket.getOutputStream().flush();
+            }
+            IOException failure = serverFailures.poll(5, SECONDS);
+            assertNotNull(failure);
+            assertFalse(failure instanceof EOFException);
+        } finally {
+            socket.close();
+        }
+    }
+
+}
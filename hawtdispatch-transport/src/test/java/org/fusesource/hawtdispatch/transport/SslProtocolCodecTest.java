@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import org.fusesource.hawtdispatch.transport.AbstractProtocolCodecTest.ChunkedChannel;
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.fusesource.hawtdispatch.util.DirectBufferPool;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class SslProtocolCodecTest {
+
+    @Test
+    public void releaseReturnsAPendingWriteBuffer() throws Exception {
+        BufferPools pools = new BufferPools();
+        SslProtocolCodec codec = new SslProtocolCodec();
+        codec.setBufferPools(pools);
+        codec.client();
+        // the channel only takes a byte per write, so the client hello stays pending.
+        ChunkedChannel channel = new ChunkedChannel(new byte[0], 1);
+        codec.setTransport(CodecPipelineTest.transport(channel));
+        codec.handshake();
+        DirectBufferPool pool = recordPool(pools, codec);
+        assertEquals(1, pool.getOutstanding());
+        assertTrue(codec.getPendingWriteSize() > 0);
+
+        codec.release();
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(0, codec.getPendingWriteSize());
+    }
+
+    @Test
+    public void releaseReturnsAPartiallyReadRecord() throws Exception {
+        BufferPools pools = new BufferPools();
+        SslProtocolCodec codec = new SslProtocolCodec();
+        codec.setBufferPools(pools);
+        codec.server(SslProtocolCodec.ClientAuth.NONE);
+        // the start of a handshake record header.
+        ChunkedChannel channel = new ChunkedChannel(new byte[]{0x16, 0x03, 0x03}, 3);
+        codec.setTransport(CodecPipelineTest.transport(channel));
+        codec.handshake();
+        DirectBufferPool pool = recordPool(pools, codec);
+        assertEquals(1, pool.getOutstanding());
+
+        codec.release();
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void releaseWithoutBuffers() throws Exception {
+        SslProtocolCodec codec = new SslProtocolCodec();
+        codec.release();
+        codec.setBufferPools(new BufferPools());
+        codec.client();
+        codec.release();
+    }
+
+    private static DirectBufferPool recordPool(BufferPools pools, SslProtocolCodec codec) {
+        return pools.getDirectBufferPool(SslBuffers.recordBufferSize(codec.getSSLSession()));
+    }
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.security.KeyStore;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.transport.SslTransportTest.Client;
+import org.fusesource.hawtdispatch.transport.SslTransportTest.Echo;
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class SslSessionCacheTest {
+
+    static SSLSession session(final String protocol, final long creationTime, final byte... id) {
+        return (SSLSession) Proxy.newProxyInstance(SSLSession.class.getClassLoader(), new Class[]{SSLSession.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if( method.getName().equals("getId") ) {
+                    return id;
+                } else if( method.getName().equals("getProtocol") ) {
+                    return protocol;
+                } else if( method.getName().equals("getCreationTime") ) {
+                    return creationTime;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Test
+    public void aRepeatedSessionIdIsAResumption() {
+        SslSessionCache cache = new SslSessionCache();
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 1), 200);
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 2), 200);
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 1), 300);
+        assertEquals(3, cache.getHandshakeCount());
+        assertEquals(1, cache.getResumedCount());
+        assertEquals(2, cache.getFullHandshakeCount());
+        assertEquals(100.0 / 3, cache.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void aTls13SessionCreatedBeforeTheHandshakeIsAResumption() {
+        SslSessionCache cache = new SslSessionCache();
+        // resumed from a ticket: a new ID, but the creation time of the original session.
+        cache.handshakeCompleted(session("TLSv1.3", 100, (byte) 1), 200);
+        assertEquals(1, cache.getResumedCount());
+        // negotiated during the handshake.
+        cache.handshakeCompleted(session("TLSv1.3", 200, (byte) 2), 200);
+        assertEquals(1, cache.getResumedCount());
+        // only TLS 1.3 keeps the creation time of the resumed session.
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 3), 200);
+        assertEquals(1, cache.getResumedCount());
+        assertEquals(3, cache.getHandshakeCount());
+    }
+
+    @Test
+    public void sessionsWithoutAnIdCannotBeResumed() {
+        SslSessionCache cache = new SslSessionCache();
+        cache.handshakeCompleted(session("TLSv1.2", 100), 200);
+        cache.handshakeCompleted(session("TLSv1.2", 100), 200);
+        assertEquals(2, cache.getHandshakeCount());
+        assertEquals(0, cache.getResumedCount());
+    }
+
+    @Test
+    public void tracksAsManyIdsAsTheCacheHolds() {
+        SslSessionCache cache = new SslSessionCache(2, -1);
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 1), 200);
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 2), 200);
+        // uses 1 so that 2 is the least recently used.
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 1), 200);
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 3), 200);
+        assertEquals(1, cache.getResumedCount());
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 1), 200);
+        assertEquals(2, cache.getResumedCount());
+        cache.handshakeCompleted(session("TLSv1.2", 100, (byte) 2), 200);
+        assertEquals(2, cache.getResumedCount());
+    }
+
+    @Test
+    public void configuresTheSessionContext() throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+        int size = context.getServerSessionContext().getSessionCacheSize();
+        int timeout = context.getServerSessionContext().getSessionTimeout();
+
+        new SslSessionCache().configure(context.getServerSessionContext());
+        assertEquals(size, context.getServerSessionContext().getSessionCacheSize());
+        assertEquals(timeout, context.getServerSessionContext().getSessionTimeout());
+
+        new SslSessionCache(10, 60).configure(context.getServerSessionContext());
+        assertEquals(10, context.getServerSessionContext().getSessionCacheSize());
+        assertEquals(60, context.getServerSessionContext().getSessionTimeout());
+    }
+
+    /**
+     * Reconnects with the same SSLContext, so the client resumes its session.
+     */
+    @Test
+    public void reconnectingClientResumesItsSession() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream is = getClass().getResourceAsStream("/keystore.jks");
+        try {
+            keyStore.load(is, "password".toCharArray());
+        } finally {
+            is.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "password".toCharArray());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        SslSessionCache serverCache = new SslSessionCache();
+        SslTransportServer server = new SslTransportServer(new URI("ssl://127.0.0.1:0"));
+        server.setKeyManagers(kmf.getKeyManagers());
+        server.setTrustManagers(tmf.getTrustManagers());
+        server.setDispatchQueue(Dispatch.createQueue("ssl server"));
+        server.setBlockingExecutor(executor);
+        server.setSessionCache(serverCache);
+        server.setTransportServerListener(new TransportServerListener() {
+            public void onAccept(Transport transport) {
+                try {
+                    transport.setProtocolCodec(SslTransportTest.codec());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                transport.setTransportListener(new Echo(transport));
+                transport.start(Dispatch.NOOP);
+            }
+
+            public void onAcceptError(Exception error) {
+                error.printStackTrace();
+            }
+        });
+        final CountDownLatch started = new CountDownLatch(1);
+        server.start(new Task() {
+            public void run() {
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(5, SECONDS));
+        try {
+            SslSessionCache clientCache = new SslSessionCache();
+            for (int i = 0; i < 2; i++) {
+                SslTransport transport = new SslTransport();
+                transport.setSSLContext(sslContext);
+                transport.setSessionCache(clientCache);
+                transport.setBufferPools(new BufferPools());
+                transport.setDispatchQueue(Dispatch.createQueue("ssl client"));
+                transport.setBlockingExecutor(executor);
+                transport.connecting(new URI("ssl://127.0.0.1:" + server.getSocketAddress().getPort()), null);
+                transport.setProtocolCodec(SslTransportTest.codec());
+                Client client = new Client(transport);
+                transport.setTransportListener(client);
+                transport.start(Dispatch.NOOP);
+                // the echo also makes sure the client got any session ticket the server sent.
+                client.send(SslTransportTest.frame(10, i));
+                assertNotNull(client.received.poll(10, SECONDS));
+                SslTransportTest.stop(transport);
+            }
+            assertEquals(2, clientCache.getHandshakeCount());
+            assertEquals(1, clientCache.getResumedCount());
+            assertEquals(2, serverCache.getHandshakeCount());
+            assertEquals(1, serverCache.getResumedCount());
+        } finally {
+            server.stop(Dispatch.NOOP);
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.transport.AbstractProtocolCodecTest.FrameCodec;
+import org.fusesource.hawtdispatch.util.BufferPoolMetrics;
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class SslTransportTest {
+
+    SSLContext sslContext;
+    ExecutorService executor;
+    SslTransportServer server;
+
+    /**
+     * Runs the crypto operations on a thread pool, unless they are being held back.
+     */
+    class CryptoExecutor implements Executor {
+        final AtomicInteger executed = new AtomicInteger();
+        final BlockingQueue<Runnable> held = new LinkedBlockingQueue<Runnable>();
+        volatile boolean hold;
+
+        public void execute(Runnable task) {
+            executed.incrementAndGet();
+            if( hold ) {
+                held.add(task);
+            } else {
+                executor.execute(task);
+            }
+        }
+
+        void release() {
+            hold = false;
+            Runnable task;
+            while( (task = held.poll()) != null ) {
+                executor.execute(task);
+            }
+        }
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream is = getClass().getResourceAsStream("/keystore.jks");
+        try {
+            keyStore.load(is, "password".toCharArray());
+        } finally {
+            is.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "password".toCharArray());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        executor = Executors.newCachedThreadPool();
+        server = new SslTransportServer(new URI("ssl://127.0.0.1:0"));
+        server.setKeyManagers(kmf.getKeyManagers());
+        server.setTrustManagers(tmf.getTrustManagers());
+        server.setDispatchQueue(Dispatch.createQueue("ssl server"));
+        server.setBlockingExecutor(executor);
+        server.setCryptoExecutor(new CryptoExecutor());
+        server.setBulkCryptoThreshold(8 * 1024);
+        server.setTransportServerListener(new TransportServerListener() {
+            public void onAccept(final Transport transport) {
+                transport.setDispatchQueue(Dispatch.createQueue("ssl server connection"));
+                try {
+                    transport.setProtocolCodec(codec());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                transport.setTransportListener(new Echo(transport));
+                transport.start(Dispatch.NOOP);
+            }
+
+            public void onAcceptError(Exception error) {
+                error.printStackTrace();
+            }
+        });
+        final CountDownLatch started = new CountDownLatch(1);
+        server.start(new Task() {
+            public void run() {
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(5, SECONDS));
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        server.stop(new Task() {
+            public void run() {
+                stopped.countDown();
+            }
+        });
+        stopped.await(5, SECONDS);
+        executor.shutdown();
+    }
+
+    static FrameCodec codec() {
+        FrameCodec rc = new FrameCodec(LengthPrefix.INT, 1024 * 1024);
+        rc.writeBufferSize = 64 * 1024;
+        return rc;
+    }
+
+    /**
+     * Sends back the frames it receives, suspending reads while it is full.
+     */
+    static class Echo extends DefaultTransportListener {
+        final Transport transport;
+        final LinkedList<Object> pending = new LinkedList<Object>();
+
+        Echo(Transport transport) {
+            this.transport = transport;
+        }
+
+        public void onTransportConnected() {
+            transport.resumeRead();
+        }
+
+        public void onTransportCommand(Object command) {
+            pending.add(((Buffer) command).toByteArray());
+            drain();
+        }
+
+        public void onRefill() {
+            drain();
+        }
+
+        void drain() {
+            while( !pending.isEmpty() && transport.offer(pending.getFirst()) ) {
+                pending.removeFirst();
+            }
+            if( pending.isEmpty() ) {
+                transport.resumeRead();
+            } else {
+                transport.suspendRead();
+            }
+        }
+    }
+
+    /**
+     * Sends the frames it is given and collects the ones it receives.
+     */
+    static class Client extends DefaultTransportListener {
+        final SslTransport transport;
+        final LinkedList<byte[]> outbound = new LinkedList<byte[]>();
+        final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+        final BlockingQueue<IOException> failures = new LinkedBlockingQueue<IOException>();
+
+        Client(SslTransport transport) {
+            this.transport = transport;
+        }
+
+        void send(final byte[]... frames) {
+            transport.getDispatchQueue().execute(new Task() {
+                public void run() {
+                    outbound.addAll(Arrays.asList(frames));
+                    onRefill();
+                }
+            });
+        }
+
+        public void onTransportConnected() {
+            transport.resumeRead();
+            onRefill();
+        }
+
+        public void onRefill() {
+            while( !outbound.isEmpty() && transport.offer(outbound.getFirst()) ) {
+                outbound.removeFirst();
+            }
+        }
+
+        public void onTransportCommand(Object command) {
+            received.add(((Buffer) command).toByteArray());
+        }
+
+        public void onTransportFailure(IOException error) {
+            failures.add(error);
+        }
+    }
+
+    Client connect(BufferPools pools, CryptoExecutor crypto) throws Exception {
+        SslTransport transport = new SslTransport();
+        transport.setSSLContext(sslContext);
+        transport.setBufferPools(pools);
+        transport.setDispatchQueue(Dispatch.createQueue("ssl client"));
+        transport.setBlockingExecutor(executor);
+        transport.setCryptoExecutor(crypto);
+        transport.setBulkCryptoThreshold(8 * 1024);
+        transport.connecting(new URI("ssl://127.0.0.1:" + server.getSocketAddress().getPort()), null);
+        transport.setProtocolCodec(codec());
+        Client rc = new Client(transport);
+        transport.setTransportListener(rc);
+        transport.start(Dispatch.NOOP);
+        return rc;
+    }
+
+    static void stop(Transport transport) throws InterruptedException {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        transport.stop(new Task() {
+            public void run() {
+                stopped.countDown();
+            }
+        });
+        assertTrue(stopped.await(5, SECONDS));
+    }
+
+    static byte[] frame(int size, int seed) {
+        byte[] rc = new byte[size];
+        for (int i = 0; i < size; i++) {
+            rc[i] = (byte) (seed + i);
+        }
+        return rc;
+    }
+
+    static long outstanding(BufferPools pools) throws InterruptedException {
+        long rc = 0;
+        for (int i = 0; i < 100; i++) {
+            rc = 0;
+            for (BufferPoolMetrics metrics : pools.metrics()) {
+                rc += metrics.outstanding;
+            }
+            if( rc == 0 ) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        return rc;
+    }
+
+    @Test
+    public void offloadedHandshakeAndBulkWrites() throws Exception {
+        BufferPools pools = new BufferPools();
+        CryptoExecutor crypto = new CryptoExecutor();
+        Client client = connect(pools, crypto);
+
+        List<byte[]> frames = new ArrayList<byte[]>();
+        frames.add(frame(10, 1));
+        // larger than a TLS record, so the bulk encryption produces several.
+        frames.add(frame(100 * 1024, 2));
+        frames.add(frame(10, 3));
+        frames.add(frame(40 * 1024, 4));
+        client.send(frames.toArray(new byte[frames.size()][]));
+        for (byte[] frame : frames) {
+            byte[] echoed = client.received.poll(10, SECONDS);
+            assertNotNull(echoed);
+            assertTrue(Arrays.equals(frame, echoed));
+        }
+        assertNull(client.failures.poll());
+        // the handshake steps and the two large writes.
+        assertTrue(crypto.executed.get() > 2);
+
+        stop(client.transport);
+        assertEquals(0, outstanding(pools));
+    }
+
+    @Test
+    public void stopWhileTheHandshakeIsOffloaded() throws Exception {
+        BufferPools pools = new BufferPools();
+        CryptoExecutor crypto = new CryptoExecutor();
+        crypto.hold = true;
+        Client client = connect(pools, crypto);
+        for (int i = 0; i < 100 && crypto.held.isEmpty(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(crypto.held.isEmpty());
+
+        stop(client.transport);
+        crypto.release();
+        assertEquals(0, outstanding(pools));
+        assertNull(client.failures.poll(100, MILLISECONDS));
+    }
+
+    @Test
+    public void stopWhileABulkWriteIsOffloaded() throws Exception {
+        BufferPools pools = new BufferPools();
+        CryptoExecutor crypto = new CryptoExecutor();
+        Client client = connect(pools, crypto);
+        client.send(frame(10, 1));
+        assertNotNull(client.received.poll(10, SECONDS));
+
+        crypto.hold = true;
+        client.send(frame(100 * 1024, 2));
+        for (int i = 0; i < 100 && crypto.held.isEmpty(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(crypto.held.isEmpty());
+
+        stop(client.transport);
+        crypto.release();
+        assertEquals(0, outstanding(pools));
+        assertNull(client.failures.poll(100, MILLISECONDS));
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void takesUpToTheBurst() {
+        TokenBucket bucket = new TokenBucket(1, 100);
+        assertEquals(100, bucket.take(500));
+        assertEquals(0, bucket.take(1));
+        bucket.giveBack(40);
+        assertEquals(40, bucket.take(100));
+        assertEquals(100, bucket.getGrantedCount());
+
+        // it never holds more than the burst.
+        bucket.giveBack(1000);
+        assertEquals(100, bucket.take(1000));
+    }
+
+    @Test
+    public void refillsAtTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 1000);
+        bucket.take(1000);
+        long start = System.nanoTime();
+        Thread.sleep(100);
+        long taken = bucket.take(1000);
+        long elapsed = MILLISECONDS.convert(System.nanoTime() - start, NANOSECONDS);
+        assertTrue(taken >= 90);
+        assertTrue(taken <= elapsed + 1);
+
+        Thread.sleep(1100);
+        assertEquals(1000, bucket.take(2000));
+    }
+
+    @Test
+    public void delayWhileEmpty() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        bucket.setRefillInterval(1, MILLISECONDS);
+        assertEquals(0, bucket.delay());
+        bucket.take(1);
+        long delay = bucket.delay();
+        // a token takes 100ms to come back.
+        assertTrue(delay > MILLISECONDS.toNanos(50));
+        assertTrue(delay <= MILLISECONDS.toNanos(100));
+
+        bucket.setRefillInterval(1, SECONDS);
+        assertTrue(bucket.delay() >= SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void awaitWakesTheWaitersOnceRefilled() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        bucket.setRefillInterval(1, MILLISECONDS);
+        bucket.take(1);
+        final long start = System.nanoTime();
+        final CountDownLatch woken = new CountDownLatch(3);
+        final AtomicLong earliest = new AtomicLong(Long.MAX_VALUE);
+        for (int i = 0; i < 3; i++) {
+            DispatchQueue queue = Dispatch.createQueue("waiter " + i);
+            bucket.await(queue, new Task() {
+                public void run() {
+                    long waited = System.nanoTime() - start;
+                    synchronized (earliest) {
+                        earliest.set(Math.min(earliest.get(), waited));
+                    }
+                    woken.countDown();
+                }
+            });
+        }
+        assertTrue(woken.await(5, SECONDS));
+        assertTrue(earliest.get() >= MILLISECONDS.toNanos(50));
+        assertEquals(1, bucket.take(1));
+
+        // the next waiter schedules a new refill.
+        final CountDownLatch again = new CountDownLatch(1);
+        bucket.await(Dispatch.createQueue("waiter"), new Task() {
+            public void run() {
+                again.countDown();
+            }
+        });
+        assertTrue(again.await(5, SECONDS));
+    }
+
+}
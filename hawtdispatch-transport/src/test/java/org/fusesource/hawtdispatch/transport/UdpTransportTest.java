@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.fusesource.hawtdispatch.Dispatch;
+import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.util.BufferPoolMetrics;
+import org.fusesource.hawtdispatch.util.BufferPools;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class UdpTransportTest {
+
+    /**
+     * Records the datagrams of the batches it receives.
+     */
+    static class Receiver extends DefaultTransportListener {
+        final UdpTransport transport;
+        final CountDownLatch done;
+        final List<String> datagrams = new ArrayList<String>();
+        final List<SocketAddress> addresses = new ArrayList<SocketAddress>();
+        final List<DatagramBatch> batches = new ArrayList<DatagramBatch>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        boolean retain;
+
+        Receiver(UdpTransport transport, int expected) {
+            this.transport = transport;
+            this.done = new CountDownLatch(expected);
+        }
+
+        public void onTransportConnected() {
+            transport.resumeRead();
+        }
+
+        public void onTransportCommand(Object command) {
+            DatagramBatch batch = (DatagramBatch) command;
+            if( retain ) {
+                batch.retain();
+            }
+            batches.add(batch);
+            sizes.add(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                ByteBuffer buffer = batch.buffer(i);
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                datagrams.add(new String(data));
+                addresses.add(batch.address(i));
+                done.countDown();
+            }
+        }
+    }
+
+    static List<String> datagrams(int count) {
+        List<String> rc = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            rc.add("datagram " + i);
+        }
+        return rc;
+    }
+
+    static DatagramChannel bind() throws IOException {
+        DatagramChannel rc = DatagramChannel.open();
+        rc.socket().setReceiveBufferSize(1024 * 256);
+        rc.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        return rc;
+    }
+
+    static void send(DatagramChannel sender, SocketAddress to, List<String> datagrams) throws IOException {
+        for (String datagram : datagrams) {
+            sender.send(ByteBuffer.wrap(datagram.getBytes()), to);
+        }
+    }
+
+    static Receiver start(DatagramChannel channel, BufferPools pools, int expected, ExecutorService executor) throws Exception {
+        UdpTransport transport = new UdpTransport();
+        transport.setBatchSize(8);
+        transport.setDatagramSize(64);
+        transport.setBufferPools(pools);
+        transport.setDispatchQueue(Dispatch.createQueue("udp receiver"));
+        transport.setBlockingExecutor(executor);
+        transport.connected(channel);
+        Receiver rc = new Receiver(transport, expected);
+        transport.setTransportListener(rc);
+        return rc;
+    }
+
+    static void stop(UdpTransport transport) throws InterruptedException {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        transport.stop(new Task() {
+            public void run() {
+                stopped.countDown();
+            }
+        });
+        assertTrue(stopped.await(5, SECONDS));
+    }
+
+    static long outstanding(BufferPools pools) {
+        long rc = 0;
+        for (BufferPoolMetrics metrics : pools.metrics()) {
+            rc += metrics.outstanding;
+        }
+        return rc;
+    }
+
+    /**
+     * The transport releases its batch once its sources are canceled, which can be after it stopped.
+     */
+    static long awaitOutstanding(BufferPools pools, long expected) throws InterruptedException {
+        for (int i = 0; i < 100 && outstanding(pools) != expected; i++) {
+            Thread.sleep(20);
+        }
+        return outstanding(pools);
+    }
+
+    @Test
+    public void receivesDatagramsInBatches() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        DatagramChannel sender = bind();
+        DatagramChannel channel = bind();
+        try {
+            BufferPools pools = new BufferPools();
+            List<String> expected = datagrams(50);
+            Receiver receiver = start(channel, pools, expected.size(), executor);
+            // queue them up before the transport starts reading.
+            send(sender, channel.socket().getLocalSocketAddress(), expected);
+            receiver.transport.start(Dispatch.NOOP);
+            assertTrue(receiver.done.await(5, SECONDS));
+            stop(receiver.transport);
+
+            assertEquals(expected, receiver.datagrams);
+            for (SocketAddress address : receiver.addresses) {
+                assertEquals(sender.socket().getLocalSocketAddress(), address);
+            }
+            int largest = 0;
+            for (int size : receiver.sizes) {
+                assertTrue(size <= 8);
+                largest = Math.max(largest, size);
+            }
+            assertEquals(8, largest);
+            // the batch is refilled when the listener did not keep it.
+            for (DatagramBatch batch : receiver.batches) {
+                assertSame(receiver.batches.get(0), batch);
+            }
+            assertEquals(0, awaitOutstanding(pools, 0));
+        } finally {
+            sender.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void retainedBatchesAreNotRefilled() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        DatagramChannel sender = bind();
+        DatagramChannel channel = bind();
+        try {
+            BufferPools pools = new BufferPools();
+            List<String> expected = datagrams(20);
+            Receiver receiver = start(channel, pools, expected.size(), executor);
+            receiver.retain = true;
+            send(sender, channel.socket().getLocalSocketAddress(), expected);
+            receiver.transport.start(Dispatch.NOOP);
+            assertTrue(receiver.done.await(5, SECONDS));
+            stop(receiver.transport);
+
+            assertEquals(expected, receiver.datagrams);
+            assertTrue(receiver.batches.size() >= 3);
+            int index = 0;
+            for (DatagramBatch batch : receiver.batches) {
+                // the kept batches still hold their datagrams.
+                for (int i = 0; i < batch.size(); i++) {
+                    ByteBuffer buffer = batch.buffer(i);
+                    buffer.rewind();
+                    byte[] data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    assertEquals(expected.get(index++), new String(data));
+                }
+            }
+            for (int i = 1; i < receiver.batches.size(); i++) {
+                assertNotSame(receiver.batches.get(i - 1), receiver.batches.get(i));
+            }
+            assertEquals(receiver.batches.size(), awaitOutstanding(pools, receiver.batches.size()));
+            for (DatagramBatch batch : receiver.batches) {
+                batch.release();
+            }
+            assertEquals(0, outstanding(pools));
+        } finally {
+            sender.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void sendsBatches() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        DatagramChannel channel = bind();
+        try {
+            List<String> expected = datagrams(20);
+            Receiver receiver = start(channel, new BufferPools(), expected.size(), executor);
+            receiver.transport.start(Dispatch.NOOP);
+
+            final UdpTransport sender = new UdpTransport();
+            sender.setBatchSize(8);
+            sender.setDispatchQueue(Dispatch.createQueue("udp sender"));
+            sender.setBlockingExecutor(executor);
+            DatagramChannel senderChannel = bind();
+            senderChannel.connect(channel.socket().getLocalSocketAddress());
+            sender.connected(senderChannel);
+            final List<DatagramBatch> batches = new ArrayList<DatagramBatch>();
+            for (int i = 0; i < expected.size(); ) {
+                DatagramBatch batch = new DatagramBatch(8);
+                while( i < expected.size() && batch.add(ByteBuffer.wrap(expected.get(i).getBytes()), null) ) {
+                    i++;
+                }
+                batches.add(batch);
+            }
+            sender.setTransportListener(new DefaultTransportListener() {
+                public void onTransportConnected() {
+                    onRefill();
+                }
+
+                public void onRefill() {
+                    while( !batches.isEmpty() && sender.offer(batches.get(0)) ) {
+                        batches.remove(0);
+                    }
+                }
+            });
+            sender.start(Dispatch.NOOP);
+            assertTrue(receiver.done.await(5, SECONDS));
+            stop(sender);
+            stop(receiver.transport);
+            assertEquals(expected, receiver.datagrams);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
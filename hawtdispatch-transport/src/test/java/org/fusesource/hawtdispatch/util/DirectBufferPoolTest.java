@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.util;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class DirectBufferPoolTest {
+
+    static class SmallPool extends DirectBufferPool {
+        SmallPool() {
+            super(1024, 2048);
+        }
+
+        @Override
+        protected int maxPoolSizePerThread() {
+            return 1;
+        }
+
+        @Override
+        protected int maxArenaBatches() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void slicesBuffersOutOfSlabs() {
+        DirectBufferPool pool = new SmallPool();
+        ByteBuffer a = pool.checkout();
+        ByteBuffer b = pool.checkout();
+        assertTrue(a.isDirect());
+        assertEquals(1024, a.capacity());
+        assertEquals(1, pool.getSlabCount());
+        ByteBuffer c = pool.checkout();
+        assertEquals(2, pool.getSlabCount());
+        a.putInt(0, 1);
+        b.putInt(0, 2);
+        c.putInt(0, 3);
+        assertEquals(1, a.getInt(0));
+        assertEquals(2, b.getInt(0));
+    }
+
+    @Test
+    public void slabIsReleasedOnceItsDroppedBuffersAreCollected() throws Exception {
+        DirectBufferPool pool = new SmallPool();
+        pool.checkout();
+        pool.checkout();
+        ByteBuffer c = pool.checkout();
+        assertEquals(2, pool.getSlabCount());
+        assertEquals(1, awaitSlabCount(pool, 1));
+        c.putInt(0, 3);
+        assertEquals(3, c.getInt(0));
+    }
+
+    @Test
+    public void slabIsReleasedOnceItsDiscardedBuffersAreCollected() throws Exception {
+        DirectBufferPool pool = new SmallPool();
+        ByteBuffer a = pool.checkout();
+        ByteBuffer b = pool.checkout();
+        ByteBuffer c = pool.checkout();
+        pool.checkin(a);
+        pool.checkin(b);
+        assertEquals(1, pool.getDiscardCount());
+        a = b = null;
+        // the pooled buffer still pins the first slab.
+        assertEquals(2, awaitSlabCount(pool, 1));
+
+        // dropping the last buffer of the first slab releases it.
+        assertNotNull(pool.checkout());
+        assertEquals(1, awaitSlabCount(pool, 1));
+        c.putInt(0, 3);
+        assertEquals(3, c.getInt(0));
+    }
+
+    private static int awaitSlabCount(DirectBufferPool pool, int expected) throws InterruptedException {
+        for( int i=0; i < 20 && pool.getSlabCount() != expected; i++ ) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return pool.getSlabCount();
+    }
+
+}
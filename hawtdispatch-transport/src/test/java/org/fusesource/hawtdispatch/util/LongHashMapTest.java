@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class LongHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1, "one"));
+        assertNull(map.put(-1, "minus one"));
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(Long.MIN_VALUE, "min"));
+        assertNull(map.put(Long.MAX_VALUE, "max"));
+        assertEquals(5, map.size());
+        assertEquals("one", map.get(1));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("zero", map.get(0));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertEquals("max", map.get(Long.MAX_VALUE));
+        assertNull(map.get(2));
+
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals(5, map.size());
+        assertEquals("uno", map.remove(1));
+        assertNull(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(4, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+    }
+
+    @Test
+    public void nullValuesAreRejected() {
+        try {
+            new LongHashMap<String>().put(1, null);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void matchesHashMap() {
+        // a small key space so that the probe sequences collide and wrap
+        // around, and removals have to shift entries back.
+        Random random = new Random(42);
+        for (int range : new int[]{8, 64, 1024}) {
+            LongHashMap<Long> map = new LongHashMap<Long>(2);
+            HashMap<Long, Long> expected = new HashMap<Long, Long>();
+            for (int i = 0; i < 100000; i++) {
+                long key = (random.nextInt(range) - range / 2) * 4096L;
+                long value = random.nextLong();
+                switch (random.nextInt(3)) {
+                    case 0:
+                    case 1:
+                        assertEquals(expected.put(key, value), map.put(key, value));
+                        break;
+                    case 2:
+                        assertEquals(expected.remove(key), map.remove(key));
+                        break;
+                }
+                assertEquals(expected.size(), map.size());
+            }
+            for (long key = -range / 2; key < range / 2; key++) {
+                assertEquals(expected.get(key * 4096L), map.get(key * 4096L));
+            }
+            assertEquals(sorted(expected.values()), sorted(map.values()));
+        }
+    }
+
+    @Test
+    public void growsPastTheInitialCapacity() {
+        LongHashMap<Integer> map = new LongHashMap<Integer>(1);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i));
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove(i));
+        }
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(i));
+        }
+    }
+
+    private static List<Long> sorted(Iterable<Long> values) {
+        List<Long> rc = new ArrayList<Long>();
+        for (Long value : values) {
+            rc.add(value);
+        }
+        Collections.sort(rc);
+        return rc;
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.util;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class PooledBufferTest {
+
+    static long outstanding(BufferPools pools) {
+        long rc = 0;
+        for (BufferPoolMetrics metrics : pools.metrics()) {
+            rc += metrics.outstanding;
+        }
+        return rc;
+    }
+
+    @Test
+    public void checkedInOnceFullyReleased() {
+        BufferPools pools = new BufferPools();
+        PooledBuffer buffer = pools.checkoutBuffer(100);
+        assertFalse(buffer.isDirect());
+        assertEquals(100, buffer.buffer().limit());
+        assertEquals(BufferPools.sizeClass(100), buffer.capacity());
+        byte[] array = buffer.array();
+        assertEquals(1, outstanding(pools));
+
+        // passed along to another holder.
+        buffer.retain();
+        buffer.release();
+        assertEquals(1, buffer.retained());
+        assertEquals(1, outstanding(pools));
+
+        buffer.release();
+        assertEquals(0, buffer.retained());
+        assertEquals(0, outstanding(pools));
+
+        // the array was checked back into the pool.
+        PooledBuffer next = pools.checkoutBuffer(80);
+        assertSame(array, next.array());
+        next.release();
+    }
+
+    @Test
+    public void directBuffersHaveNoArray() {
+        BufferPools pools = new BufferPools();
+        PooledBuffer buffer = pools.checkoutDirectBuffer(100);
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.buffer().isDirect());
+        assertEquals(100, buffer.buffer().limit());
+        try {
+            buffer.array();
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals(1, outstanding(pools));
+        buffer.release();
+        assertEquals(0, outstanding(pools));
+    }
+
+    static boolean checkedOutBy(Throwable checkout, String method) {
+        for (StackTraceElement element : checkout.getStackTrace()) {
+            if( element.getMethodName().equals(method) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Needs the LEAK_DETECTION system property, which the build sets.
+     */
+    @Test
+    public void reportsBuffersCollectedWithoutBeingReleased() throws Exception {
+        if( !Boolean.getBoolean("org.fusesource.hawtdispatch.util.PooledBuffer.LEAK_DETECTION") ) {
+            return;
+        }
+        final BlockingQueue<Throwable> leaks = new LinkedBlockingQueue<Throwable>();
+        PooledBuffer.setLeakListener(new PooledBuffer.LeakListener() {
+            public void leaked(Throwable checkout, List<String> traces) {
+                leaks.add(checkout);
+            }
+        });
+        try {
+            BufferPools pools = new BufferPools();
+            pools.checkoutBuffer(100).release();
+            pools.checkoutBuffer(100);
+            // buffers leaked by other tests may get reported too.
+            int found = 0;
+            for (int i = 0; i < 100 && found == 0; i++) {
+                System.gc();
+                Thread.sleep(10);
+                PooledBuffer.reportLeaks();
+                Throwable checkout;
+                while( (checkout = leaks.poll()) != null ) {
+                    if( checkedOutBy(checkout, "reportsBuffersCollectedWithoutBeingReleased") ) {
+                        assertTrue(checkout.getMessage().contains(Thread.currentThread().getName()));
+                        found++;
+                    }
+                }
+            }
+            // the released buffer is not reported.
+            assertEquals(1, found);
+            assertTrue(PooledBuffer.getLeakCount() > 0);
+        } finally {
+            PooledBuffer.setLeakListener(null);
+        }
+    }
+
+}
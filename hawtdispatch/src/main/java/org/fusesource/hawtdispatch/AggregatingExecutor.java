@@ -17,7 +17,6 @@
 
 package org.fusesource.hawtdispatch;
 
-import java.util.LinkedList;
 import java.util.concurrent.Executor;
 
 import static org.fusesource.hawtdispatch.Dispatch.*;
@@ -32,16 +31,17 @@ import static org.fusesource.hawtdispatch.Dispatch.*;
 public class AggregatingExecutor implements Executor {
 
     final DispatchQueue queue;
-    final CustomDispatchSource<Runnable, LinkedList<Runnable>> source;
+    final CustomDispatchSource<Runnable, Batch<Runnable>> source;
 
     public AggregatingExecutor(DispatchQueue queue) {
         this.queue = queue;
-        this.source = createSource(EventAggregators.<Runnable>linkedList(), queue);
+        this.source = createSource(EventAggregators.<Runnable>batch(), queue);
         this.source.setEventHandler(new Task() {
             public void run() {
-                for (Runnable runnable: source.getData() ) {
+                Batch<Runnable> runnables = source.getData();
+                for (int i = 0; i < runnables.size(); i++) {
                     try {
-                        runnable.run();
+                        runnables.get(i).run();
                     } catch (Exception e) {
                       Thread thread = Thread.currentThread();
                       thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
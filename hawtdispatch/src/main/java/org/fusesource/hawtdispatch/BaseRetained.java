@@ -23,6 +23,7 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -196,6 +197,17 @@ public class BaseRetained implements Retained {
         }
     }
 
+    /**
+     * Subclasses can use this to get at the retain/release call traces
+     * recorded for this object.  Access to the returned list must be
+     * synchronized on the list.
+     *
+     * @return the recorded traces or null if tracing is not enabled.
+     */
+    final protected List<String> traces() {
+        return traces;
+    }
+
     final private ArrayList<String> traces = TRACE ? new ArrayList<String>(MAX_TRACES+1) : null;
     final private void trace(final String action, final     int counter) {
         if( traces.size() < MAX_TRACES) {
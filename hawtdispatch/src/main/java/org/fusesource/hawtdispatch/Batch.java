@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * An array backed list of events, built by a {@link BatchEventAggregator}.
+ * Batches are recycled once the event handler of the dispatch source
+ * that delivered them returns, so a handler must not hold on to one.
+ * </p><p>
+ * Iterating with {@link #get(int)} instead of an iterator avoids
+ * allocating anything.
+ * </p>
+ */
+public final class Batch<T> implements Iterable<T> {
+
+    private Object[] elements;
+    private int size;
+
+    public Batch() {
+        this(16);
+    }
+
+    public Batch(int capacity) {
+        elements = new Object[Math.max(1, capacity)];
+    }
+
+    public void add(T element) {
+        if( size == elements.length ) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+    }
+
+    public void addAll(Batch<T> other) {
+        int required = size + other.size;
+        if( required > elements.length ) {
+            elements = Arrays.copyOf(elements, Math.max(required, elements.length * 2));
+        }
+        System.arraycopy(other.elements, 0, elements, size, other.size);
+        size = required;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if( index < 0 || index >= size ) {
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+        }
+        return (T) elements[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of elements the batch can hold before it has to grow.
+     */
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * Removes all the elements, keeping the array so it can be reused.
+     */
+    public void clear() {
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+    }
+
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            int next;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if( next >= size ) {
+                    throw new NoSuchElementException();
+                }
+                return (T) elements[next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if( i > 0 ) {
+                sb.append(", ");
+            }
+            sb.append(elements[i]);
+        }
+        return sb.append("]").toString();
+    }
+}
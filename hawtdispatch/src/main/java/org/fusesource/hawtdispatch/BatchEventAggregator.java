@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * An ordered {@link EventAggregator} which coalesces events into {@link Batch}es.
+ * The batches are taken from a small pool and go back to it once the dispatch
+ * source is done with them, so once the pool is warmed up, merging events
+ * allocates nothing.
+ * </p><p>
+ * Each dispatch source needs its own instance, which {@link EventAggregators#batch()}
+ * provides.  The pool is lock free since batches are taken on the threads merging
+ * events, and returned on the thread running the event handler.
+ * </p>
+ */
+public class BatchEventAggregator<T> implements OrderedEventAggregator<T, Batch<T>>, RecyclingEventAggregator<T, Batch<T>> {
+
+    private final AtomicReferenceArray<Batch<T>> pool;
+    private final int maxRetainedCapacity;
+
+    public BatchEventAggregator() {
+        this(16, 1024 * 4);
+    }
+
+    /**
+     * @param poolSize the maximum number of batches kept for reuse.
+     * @param maxRetainedCapacity batches which grew larger than this are not kept for reuse.
+     */
+    public BatchEventAggregator(int poolSize, int maxRetainedCapacity) {
+        this.pool = new AtomicReferenceArray<Batch<T>>(poolSize);
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+
+    public Batch<T> mergeEvent(Batch<T> previous, T event) {
+        if( previous == null ) {
+            previous = checkout();
+        }
+        previous.add(event);
+        return previous;
+    }
+
+    public Batch<T> mergeEvents(Batch<T> previous, Batch<T> events) {
+        previous.addAll(events);
+        recycle(events);
+        return previous;
+    }
+
+    public void recycle(Batch<T> batch) {
+        if( batch.capacity() > maxRetainedCapacity ) {
+            return;
+        }
+        batch.clear();
+        for (int i = 0; i < pool.length(); i++) {
+            if( pool.get(i) == null && pool.compareAndSet(i, null, batch) ) {
+                return;
+            }
+        }
+    }
+
+    private Batch<T> checkout() {
+        for (int i = 0; i < pool.length(); i++) {
+            if( pool.get(i) != null ) {
+                Batch<T> rc = pool.getAndSet(i, null);
+                if( rc != null ) {
+                    return rc;
+                }
+            }
+        }
+        return new Batch<T>();
+    }
+
+}
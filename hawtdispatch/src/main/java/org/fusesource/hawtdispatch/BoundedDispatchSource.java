@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+/**
+ * <p>
+ * A {@link CustomDispatchSource} which bounds the number of events merged into
+ * it which have not been handled yet.  Producers use {@link #offer(Object)}
+ * instead of {@link #merge(Object)} so that they stop once the source is full.
+ * </p><p>
+ * The signalling works like a transport's offer and refill: a refused producer
+ * gets its refill handler executed on its own dispatch queue once the number of
+ * pending events drops to the low watermark, and can then resume offering.
+ * </p><p>
+ * Events are pending from the time they are merged until the event handler
+ * they are delivered to returns, so events merged while the source is
+ * suspended count against the capacity too.
+ * </p>
+ */
+public interface BoundedDispatchSource<Event, MergedEvent> extends CustomDispatchSource<Event, MergedEvent> {
+
+    /**
+     * <p>
+     * Merges data into the dispatch source unless it is full.  Producers offering
+     * concurrently can each push the source one event past its capacity.
+     * </p>
+     *
+     * @return false if the source is full, in which case the data was not
+     *         merged and the refill handler will be executed on the calling
+     *         dispatch queue once the source drains to its low watermark.
+     */
+    public boolean offer(Event value);
+
+    /**
+     * @return true if {@link #offer(Object)} would refuse more data.
+     */
+    public boolean full();
+
+    /**
+     * @return the number of events merged which have not been handled yet.
+     */
+    public int getSize();
+
+    /**
+     * @return the maximum number of pending events, or -1 if the source is not bounded.
+     */
+    public int getCapacity();
+
+    public int getLowWatermark();
+
+    /**
+     * Sets the number of pending events the source has to drain down to before
+     * the refused producers get refilled.  Defaults to half the capacity.
+     */
+    public void setLowWatermark(int lowWatermark);
+
+    /**
+     * Sets the task executed on the dispatch queue of every refused producer
+     * once the source has drained down to its low watermark.
+     */
+    public void setRefillHandler(Task handler);
+
+}
@@ -19,10 +19,12 @@
 package org.fusesource.hawtdispatch;
 
 import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+import org.fusesource.hawtdispatch.internal.WorkerThread;
 
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -187,6 +189,39 @@ public class Dispatch {
         return DISPATCHER.createSource(aggregator, queue);
     }
 
+    /**
+     * <p>
+     * Creates a new {@link LongDispatchSource} to monitor primitive data merged into
+     * the dispatch source and automatically submit a handler runnable to a dispatch queue
+     * in response to the events.  Unlike a {@link CustomDispatchSource}, merging does not
+     * box the data.
+     * </p>
+     *
+     * @param aggregator the data aggregation strategy to use.
+     * @param queue The dispatch queue to which the event handler tasks will be submited.
+     *
+     * @return the newly created LongDispatchSource
+     */
+    public static LongDispatchSource createSource(LongEventAggregator aggregator, DispatchQueue queue) {
+        return DISPATCHER.createSource(aggregator, queue);
+    }
+
+    /**
+     * <p>
+     * Creates a new {@link BoundedDispatchSource} which works like a {@link CustomDispatchSource}
+     * but limits the number of events which are pending in it.
+     * </p>
+     *
+     * @param aggregator the data aggregation strategy to use.
+     * @param capacity the maximum number of events merged and not yet handled.
+     * @param queue The dispatch queue to which the event handler tasks will be submited.
+     *
+     * @return the newly created BoundedDispatchSource
+     */
+    public static <Event, MergedEvent> BoundedDispatchSource<Event, MergedEvent> createSource(EventAggregator<Event, MergedEvent> aggregator, int capacity, DispatchQueue queue) {
+        return DISPATCHER.createSource(aggregator, capacity, queue);
+    }
+
     /**
      * @return the thread level dispatch queues for a given dispatch priority.
      */
@@ -202,6 +237,21 @@ public class Dispatch {
         return DISPATCHER.getCurrentThreadQueue();
     }
 
+    /**
+     * Gives an estimate of how busy the current worker thread is so that long
+     * running tasks can decide to yield sooner when other work is waiting.
+     *
+     * @return the number of tasks and dispatch source events ready to run on the
+     *         current worker thread or 0 if not executing on a worker thread.
+     */
+    public static int getCurrentThreadBacklog() {
+        WorkerThread thread = WorkerThread.currentWorkerThread();
+        if( thread==null ) {
+            return 0;
+        }
+        return thread.getDispatchQueue().getBacklog();
+    }
+
 // Being able to execute stuff on the main thread is critical for some GUI implementations.  For now
 // we will not expose these interfaces until are fully cooked / have good test cases for them.
 //
@@ -246,7 +296,9 @@ public class Dispatch {
 
     /**
      * Used to get profiling metrics for all the queues
-     * currently being profiled.
+     * currently being profiled.  They are accumulated since the previous
+     * call made by any caller, see {@link DispatchQueue#metrics()}.  Use
+     * {@link #snapshot()} when there may be more than one consumer.
      *
      * @return
      */
@@ -254,6 +306,39 @@ public class Dispatch {
         return DISPATCHER.metrics();
     }
 
+    /**
+     * Used to get the counters of all the worker threads
+     * of the global queues which have been started.
+     *
+     * @return
+     */
+    public static List<WorkerMetrics> workerMetrics() {
+        return DISPATCHER.workerMetrics();
+    }
+
+    /**
+     * Takes a cumulative snapshot of the metrics of the profiled
+     * queues and of the worker threads.
+     *
+     * @return
+     */
+    public static MetricsSnapshot snapshot() {
+        return DISPATCHER.snapshot();
+    }
+
+    /**
+     * Starts watching the worker threads for tasks which run
+     * longer than the threshold, and reports them to the listener.
+     * A null listener stops the watching.
+     *
+     * @param listener
+     * @param threshold
+     * @param unit
+     */
+    public static void setStallListener(StallListener listener, long threshold, TimeUnit unit) {
+        DISPATCHER.setStallListener(listener, threshold, unit);
+    }
+
     /**
      * A Runnable task that does nothing.
      */
@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A bounded ring buffer which carries values from the dispatch queues of its
+ * producers to the dispatch queues of its subscribers.  Every subscriber
+ * receives every value, in batches, on its own queue, so a channel with one
+ * subscriber is a plain hand off and one with many is a broadcast.
+ * </p><p>
+ * The buffer slots are the flow control credits: a producer can only offer a
+ * value while the slowest subscriber is less than a capacity behind it.  Once
+ * {@link #offer(Object)} is refused, the refill handler is executed on the
+ * producer's queue after the subscribers have freed up the low watermark's worth
+ * of slots, just like a transport's offer and refill.
+ * </p><p>
+ * A channel created for multiple producers claims a slot with one CAS.  One
+ * created for a single producer doesn't need the CAS, but must then only be
+ * offered values by one producer at a time.  A subscriber only needs to be
+ * woken up with an execute when it has gone idle, so under load a value is
+ * handed off without allocating anything.
+ * </p><p>
+ * Values offered while no one is subscribed are dropped.  A slot keeps
+ * referencing its value until it is reused.
+ * </p>
+ */
+public class DispatchChannel<T> {
+
+    /**
+     * Receives the values delivered to a subscriber.
+     */
+    public static interface Receiver<T> {
+
+        /**
+         * Called on the subscriber's queue.  The batch is reused once this
+         * returns, so it must not be held on to.
+         */
+        void receive(Batch<T> batch);
+    }
+
+    private final Object[] elements;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final boolean multipleProducers;
+
+    // the next sequence a producer will claim.
+    private final AtomicLong claimed = new AtomicLong();
+    // a sequence none of the subscribers is behind of.
+    private volatile long gate;
+    private volatile Subscription<T>[] subscriptions = newSubscriptions(0);
+
+    private volatile int lowWatermark;
+    private volatile int maxBatchSize = 256;
+    private Task refillHandler;
+    private final ConcurrentHashMap<DispatchQueue, Boolean> refused = new ConcurrentHashMap<DispatchQueue, Boolean>();
+
+    /**
+     * @param capacity the number of values which can be buffered, rounded up to a power of 2.
+     * @param multipleProducers false if only one producer at a time will offer values.
+     */
+    public DispatchChannel(int capacity, boolean multipleProducers) {
+        int size = 1;
+        while( size < capacity ) {
+            size <<= 1;
+        }
+        this.elements = new Object[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.multipleProducers = multipleProducers;
+        this.lowWatermark = size / 2;
+    }
+
+    /**
+     * A subscriber's position in the channel.
+     */
+    public static final class Subscription<T> {
+
+        private final DispatchChannel<T> channel;
+        private final DispatchQueue queue;
+        private final Receiver<T> receiver;
+        // the next sequence to deliver.
+        private final AtomicLong head = new AtomicLong();
+        // set until the subscription is positioned in the ring.
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        private final Batch<T> batch = new Batch<T>();
+        private volatile boolean canceled;
+        private long delivered;
+
+        private final Task drain = new Task() {
+            public void run() {
+                drain();
+            }
+        };
+
+        Subscription(DispatchChannel<T> channel, DispatchQueue queue, Receiver<T> receiver) {
+            this.channel = channel;
+            this.queue = queue;
+            this.receiver = receiver;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            if( canceled ) {
+                return;
+            }
+            AtomicLongArray published = channel.published;
+            Object[] elements = channel.elements;
+            int mask = channel.mask;
+            long next = head.get();
+            int limit = channel.maxBatchSize;
+            while( batch.size() < limit && published.get((int) next & mask) == next ) {
+                batch.add((T) elements[(int) next & mask]);
+                next++;
+            }
+            if( !batch.isEmpty() ) {
+                // the values have been copied out so the slots can be reused already.
+                head.set(next);
+                delivered += batch.size();
+                if( !channel.refused.isEmpty() && channel.getCredits() >= channel.lowWatermark ) {
+                    channel.refill();
+                }
+                try {
+                    receiver.receive(batch);
+                } catch (Throwable e) {
+                    // keep draining, a stuck subscriber would hold back the producers for good.
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+                batch.clear();
+            }
+            if( published.get((int) next & mask) == next ) {
+                // let the other tasks of the queue run before the next batch.
+                queue.execute(drain);
+                return;
+            }
+            scheduled.set(false);
+            if( published.get((int) next & mask) == next && scheduled.compareAndSet(false, true) ) {
+                // a value was published while we were going idle.
+                queue.execute(drain);
+            }
+        }
+
+        void start() {
+            scheduled.set(false);
+            if( published() ) {
+                wakeup();
+            }
+        }
+
+        private boolean published() {
+            long next = head.get();
+            return channel.published.get((int) next & channel.mask) == next;
+        }
+
+        void wakeup() {
+            if( !scheduled.get() && scheduled.compareAndSet(false, true) ) {
+                queue.execute(drain);
+            }
+        }
+
+        /**
+         * Stops the deliveries to this subscriber, which no longer holds back the producers.
+         */
+        public void cancel() {
+            canceled = true;
+            channel.unsubscribe(this);
+        }
+
+        public DispatchQueue getQueue() {
+            return queue;
+        }
+
+        /**
+         * @return the number of values published which have not been delivered to this subscriber yet.
+         */
+        public long getBacklog() {
+            return Math.max(0, channel.claimed.get() - head.get());
+        }
+
+        /**
+         * @return the number of values delivered to this subscriber.
+         */
+        public long getDeliveredCount() {
+            return delivered;
+        }
+    }
+
+    /**
+     * Subscribes a receiver to the values offered from now on.
+     */
+    public Subscription<T> subscribe(DispatchQueue queue, Receiver<T> receiver) {
+        Subscription<T> subscription = new Subscription<T>(this, queue, receiver);
+        synchronized (this) {
+            Subscription<T>[] current = subscriptions;
+            Subscription<T>[] update = newSubscriptions(current.length + 1);
+            System.arraycopy(current, 0, update, 0, current.length);
+            update[current.length] = subscription;
+            subscriptions = update;
+            // producers which gated on the previous subscribers can't lap
+            // this sequence, so start from here.
+            subscription.head.set(claimed.get());
+            if( !refused.isEmpty() && getCredits() >= lowWatermark ) {
+                // producers may have been refused while the new subscriber was not positioned yet.
+                refill();
+            }
+        }
+        subscription.start();
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription<T> subscription) {
+        Subscription<T>[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if( current[i] == subscription ) {
+                Subscription<T>[] update = newSubscriptions(current.length - 1);
+                System.arraycopy(current, 0, update, 0, i);
+                System.arraycopy(current, i + 1, update, i, current.length - i - 1);
+                subscriptions = update;
+                break;
+            }
+        }
+        if( !refused.isEmpty() ) {
+            refill();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Subscription<T>[] newSubscriptions(int size) {
+        return new Subscription[size];
+    }
+
+    /**
+     * Offers a value to the subscribers.
+     *
+     * @return false if the channel is full, in which case the refill handler will be
+     *         executed on the calling dispatch queue once the subscribers catch up.
+     */
+    public boolean offer(T value) {
+        long sequence;
+        if( multipleProducers ) {
+            do {
+                sequence = claimed.get();
+                if( sequence - gate >= elements.length && sequence - updateGate(sequence) >= elements.length ) {
+                    return refuse();
+                }
+            } while( !claimed.compareAndSet(sequence, sequence + 1) );
+        } else {
+            sequence = claimed.get();
+            if( sequence - gate >= elements.length && sequence - updateGate(sequence) >= elements.length ) {
+                return refuse();
+            }
+            claimed.lazySet(sequence + 1);
+        }
+        int index = (int) sequence & mask;
+        elements[index] = value;
+        published.set(index, sequence);
+
+        for (Subscription<T> subscription : subscriptions) {
+            subscription.wakeup();
+        }
+        return true;
+    }
+
+    private long updateGate(long sequence) {
+        long min = sequence;
+        for (Subscription<T> subscription : subscriptions) {
+            min = Math.min(min, subscription.head.get());
+        }
+        gate = min;
+        return min;
+    }
+
+    private boolean refuse() {
+        DispatchQueue current = Dispatch.getCurrentQueue();
+        refused.putIfAbsent(current == null ? Dispatch.getGlobalQueue() : current, Boolean.TRUE);
+        if( getCredits() >= lowWatermark ) {
+            // we raced the subscribers which would have refilled us.
+            refill();
+        }
+        return false;
+    }
+
+    private void refill() {
+        for (DispatchQueue queue : refused.keySet()) {
+            if( refused.remove(queue) != null && refillHandler != null ) {
+                queue.execute(refillHandler);
+            }
+        }
+    }
+
+    /**
+     * @return the number of values which can be offered before the channel is full.
+     */
+    public int getCredits() {
+        long sequence = claimed.get();
+        return (int) Math.max(0, elements.length - (sequence - updateGate(sequence)));
+    }
+
+    public boolean full() {
+        return getCredits() == 0;
+    }
+
+    public int getCapacity() {
+        return elements.length;
+    }
+
+    public boolean isMultipleProducers() {
+        return multipleProducers;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Sets the number of free slots needed before the refused producers get refilled.
+     * Defaults to half the capacity.
+     */
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of values delivered to a receiver at a time.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets the task executed on the dispatch queue of every refused producer
+     * once the subscribers have caught up.
+     */
+    public void setRefillHandler(Task refillHandler) {
+        this.refillHandler = refillHandler;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.length;
+    }
+
+}
@@ -228,10 +228,23 @@ public interface DispatchQueue extends DispatchObject, Executor {
 
     /**
      * Returns the usage metrics of this queue.  Only returns a value
-     * if the queue has profiling enabled.
+     * if the queue has profiling enabled.  The queue keeps a single baseline
+     * for all the callers, so two consumers polling it split the intervals
+     * between them.  Consumers which need their own intervals should diff
+     * {@link #cumulativeMetrics()} instead.
      *
      * @return new metric counters accumulated since last called or null if the queue has not been used.
      */
     Metrics metrics();
 
+    /**
+     * Returns the usage metrics accumulated since profiling was enabled
+     * on this queue.  Unlike {@link #metrics()}, it does not reset anything
+     * so any number of consumers can use it.  Only returns a value
+     * if the queue has profiling enabled.
+     *
+     * @return the cumulative metric counters or null if the queue is not being profiled.
+     */
+    Metrics cumulativeMetrics();
+
 }
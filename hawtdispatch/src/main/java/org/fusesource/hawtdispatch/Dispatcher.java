@@ -21,6 +21,7 @@ import org.fusesource.hawtdispatch.*;
 
 import java.nio.channels.SelectableChannel;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -161,6 +162,35 @@ public interface Dispatcher {
      */
     public <Event, MergedEvent> CustomDispatchSource<Event, MergedEvent> createSource(EventAggregator<Event, MergedEvent> aggregator, DispatchQueue queue);
 
+    /**
+     * <p>
+     * Creates a new {@link LongDispatchSource} to monitor primitive data merged into
+     * the dispatch source and automatically submit a handler runnable to a dispatch queue
+     * in response to the events.  Unlike a {@link CustomDispatchSource}, merging does not
+     * box the data.
+     * </p>
+     *
+     * @param aggregator the data aggregation strategy to use.
+     * @param queue The dispatch queue to which the event handler tasks will be submited.
+     *
+     * @return the newly created LongDispatchSource
+     */
+    public LongDispatchSource createSource(LongEventAggregator aggregator, DispatchQueue queue);
+
+    /**
+     * <p>
+     * Creates a new {@link BoundedDispatchSource} which works like a {@link CustomDispatchSource}
+     * but limits the number of events which are pending in it.
+     * </p>
+     *
+     * @param aggregator the data aggregation strategy to use.
+     * @param capacity the maximum number of events merged and not yet handled.
+     * @param queue The dispatch queue to which the event handler tasks will be submited.
+     *
+     * @return the newly created BoundedDispatchSource
+     */
+    public <Event, MergedEvent> BoundedDispatchSource<Event, MergedEvent> createSource(EventAggregator<Event, MergedEvent> aggregator, int capacity, DispatchQueue queue);
+
     /**
      * If enabled then it enables profiling on the global
      * queues and any newly created queues.  If not enabled
@@ -173,10 +203,43 @@ public interface Dispatcher {
 
     /**
      * Used to get profiling metrics for all the queues
-     * currently being profiled.
+     * currently being profiled.  They are accumulated since the previous
+     * call made by any caller, see {@link DispatchQueue#metrics()}.  Use
+     * {@link #snapshot()} when there may be more than one consumer.
      *
      * @return
      */
     public List<Metrics> metrics();
 
+    /**
+     * Used to get the counters of all the worker threads
+     * of the global queues which have been started.  Unlike
+     * the queue metrics, they are not reset when taken.
+     *
+     * @return
+     */
+    public List<WorkerMetrics> workerMetrics();
+
+    /**
+     * Takes a cumulative snapshot of the metrics of the
+     * dispatcher's queues currently being profiled and of all
+     * its worker threads.  Nothing gets reset, so it does not interfere
+     * with the other consumers of the metrics.
+     *
+     * @return
+     */
+    public MetricsSnapshot snapshot();
+
+    /**
+     * Starts watching the worker threads for tasks which run
+     * longer than the threshold, and reports them to the listener.
+     * Replaces the previously set listener, a null listener stops
+     * the watching.
+     *
+     * @param listener
+     * @param threshold
+     * @param unit
+     */
+    public void setStallListener(StallListener listener, long threshold, TimeUnit unit);
+
 }
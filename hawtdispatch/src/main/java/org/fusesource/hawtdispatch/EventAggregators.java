@@ -94,6 +94,36 @@ public class EventAggregators {
     };
 
 
+    /**
+     * A LongEventAggregator that coalesces data obtained via calls to
+     * {@link LongDispatchSource#merge(long)}. Addition is used to coalesce the data.
+     */
+    public static final LongEventAggregator PRIMITIVE_ADD = new LongEventAggregator() {
+        public long mergeEvents(long previous, long events) {
+            return previous + events;
+        }
+    };
+
+    /**
+     * A LongEventAggregator that coalesces data obtained via calls to
+     * {@link LongDispatchSource#merge(long)}. Bit-wise or is used to coalesce the data.
+     */
+    public static final LongEventAggregator PRIMITIVE_OR = new LongEventAggregator() {
+        public long mergeEvents(long previous, long events) {
+            return previous | events;
+        }
+    };
+
+    /**
+     * An EventAggregator that coalesces object data obtained via calls to
+     * {@link CustomDispatchSource#merge(Object)} into a recycled {@link Batch}.
+     * Unlike {@link #linkedList()}, it does not allocate a new list for every
+     * batch of events, but the batch must not be used once the event handler returns.
+     */
+    public static <T> EventAggregator<T, Batch<T>> batch(){
+        return new BatchEventAggregator<T>();
+    }
+
     /**
      * An EventAggregator that coalesces object data obtained via calls to
      * {@link CustomDispatchSource#merge(Object)} into a linked list.
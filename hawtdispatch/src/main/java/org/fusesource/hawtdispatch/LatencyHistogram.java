@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A histogram of nanosecond durations which uses HDR style log-linear buckets:
+ * every power of 2 is split into 16 linear buckets, so a recorded value is
+ * off by at most 1/16th of it.  Values above 2^36 ns (about 68 seconds) land
+ * in the last bucket.
+ * </p><p>
+ * Recording is thread safe and lock free.  The histograms attached to
+ * {@link Metrics} are copies which are no longer recorded into.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = ((MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    static int bucketOf(long value) {
+        if( value < SUB_BUCKETS ) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if( exponent > MAX_EXPONENT ) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the largest value which lands in the bucket.
+     */
+    static long highestValueOf(int bucket) {
+        if( bucket < SUB_BUCKETS ) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long lowest = ((long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1)))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a duration in nanoseconds.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(value));
+    }
+
+    /**
+     * @return a copy of the values recorded so far.
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram rc = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            rc.counts.set(i, counts.get(i));
+        }
+        return rc;
+    }
+
+    /**
+     * @param earlier an earlier copy of this histogram.
+     * @return a histogram of the values recorded since the earlier copy was taken.
+     */
+    public LatencyHistogram minus(LatencyHistogram earlier) {
+        LatencyHistogram rc = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            rc.counts.set(i, Math.max(0, counts.get(i) - earlier.counts.get(i)));
+        }
+        return rc;
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        long rc = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            rc += counts.get(i);
+        }
+        return rc;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the value the given percentage of the recorded values are smaller than or
+     *         equal to, within the precision of the buckets, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getCount();
+        if( total == 0 ) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if( seen >= rank ) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * @return the largest recorded value, within the precision of the buckets.
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if( counts.get(i) != 0 ) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ count:%d, p50:%.3f ms, p99:%.3f ms, p999:%.3f ms }",
+                getCount(),
+                getP50() / 1000000.0f,
+                getP99() / 1000000.0f,
+                getP999() / 1000000.0f);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+/**
+ * <p>
+ * The LongEventAggregator interface is used by the {@link LongDispatchSource} objects to
+ * coalesce primitive data without boxing it.  Since the events merged on different threads
+ * are coalesced in no particular order, implementations must be associative and commutative.
+ * They should also be stateless to remain thread-safe.  You can also use one of the built
+ * in implementations:
+ * </p>
+ *
+ * <ul>
+ * <li>{@link EventAggregators#PRIMITIVE_ADD}</li>
+ * <li>{@link EventAggregators#PRIMITIVE_OR}</li>
+ * </ul>
+ */
+public interface LongEventAggregator {
+
+    /**
+     * @param previous the value of previous merges
+     * @param events the value of more merges
+     * @return the merged result
+     */
+    public long mergeEvents(long previous, long events);
+
+}
@@ -62,15 +62,34 @@ public class Metrics {
      */
     public long totalWaitTimeNS;
 
+    /**
+     * How many tasks were counted for every task which was timed.  When
+     * above 1, the time totals are extrapolated from the timed tasks and the
+     * maximums are the ones of the timed tasks.
+     */
+    public int sampling = 1;
+
+    /**
+     * The distribution of the time the timed tasks spent waiting in the queue.
+     */
+    public LatencyHistogram waitTimeHistogram;
+
+    /**
+     * The distribution of the time the timed tasks spent executing.
+     */
+    public LatencyHistogram runTimeHistogram;
+
     @Override
     public String toString() {
-        return String.format("{ label:%s, enqueued:%d, dequeued:%d, max_wait_time:%.2f ms, max_run_time:%.2f ms, total_run_time:%.2f ms, total_wait_time:%.2f ms }",
+        return String.format("{ label:%s, enqueued:%d, dequeued:%d, max_wait_time:%.2f ms, max_run_time:%.2f ms, total_run_time:%.2f ms, total_wait_time:%.2f ms, wait_times:%s, run_times:%s }",
                 queue.getLabel(),
                 enqueued,
                 dequeued,
                 maxWaitTimeNS / 1000000.0f,
                 maxRunTimeNS / 1000000.0f,
                 totalRunTimeNS / 1000000.0f,
-                totalWaitTimeNS / 1000000.0f);
+                totalWaitTimeNS / 1000000.0f,
+                waitTimeHistogram,
+                runTimeHistogram);
     }
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+/**
+ * <p>
+ * The SPI used to push dispatcher metrics into a monitoring system.
+ * Exporters get called periodically by a {@link MetricsReporter}, and can
+ * be discovered with the {@link java.util.ServiceLoader} mechanism by
+ * listing them in a
+ * <code>META-INF/services/org.fusesource.hawtdispatch.MetricsExporter</code>
+ * resource.
+ * </p>
+ */
+public interface MetricsExporter {
+
+    /**
+     * Called on the reporter's dispatch queue, so it should not block for long.
+     */
+    void export(MetricsSnapshot snapshot);
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Periodically takes a {@link MetricsSnapshot} of a dispatcher and passes
+ * it to its {@link MetricsExporter}s.
+ * </p>
+ */
+public class MetricsReporter {
+
+    private final Dispatcher dispatcher;
+    private final DispatchQueue queue;
+    private final CopyOnWriteArrayList<MetricsExporter> exporters = new CopyOnWriteArrayList<MetricsExporter>();
+    private volatile long period = 10;
+    private volatile TimeUnit unit = TimeUnit.SECONDS;
+
+    // only accessed from the queue.
+    private short session;
+    private boolean started;
+
+    public MetricsReporter() {
+        this(DispatcherConfig.getDefaultDispatcher());
+    }
+
+    public MetricsReporter(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        this.queue = dispatcher.createQueue("metrics reporter");
+    }
+
+    public void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public void removeExporter(MetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    public List<MetricsExporter> getExporters() {
+        return new ArrayList<MetricsExporter>(exporters);
+    }
+
+    /**
+     * Adds the exporters registered as <code>org.fusesource.hawtdispatch.MetricsExporter</code>
+     * services in the given class loader.
+     *
+     * @return the number of exporters added.
+     */
+    public int discoverExporters(ClassLoader classLoader) {
+        int rc = 0;
+        for (MetricsExporter exporter : ServiceLoader.load(MetricsExporter.class, classLoader)) {
+            exporters.add(exporter);
+            rc++;
+        }
+        return rc;
+    }
+
+    /**
+     * Sets how often the exporters get called, takes effect on the next report.
+     */
+    public void setPeriod(long period, TimeUnit unit) {
+        this.period = period;
+        this.unit = unit;
+    }
+
+    public long getPeriod(TimeUnit unit) {
+        return unit.convert(period, this.unit);
+    }
+
+    public void start() {
+        queue.execute(new Task() {
+            public void run() {
+                if( !started ) {
+                    started = true;
+                    schedule(++session);
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        queue.execute(new Task() {
+            public void run() {
+                started = false;
+                session++;
+            }
+        });
+    }
+
+    private void schedule(final short session) {
+        queue.executeAfter(period, unit, new Task() {
+            public void run() {
+                if( MetricsReporter.this.session == session ) {
+                    report();
+                    schedule(session);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a snapshot and passes it to the exporters right away.
+     */
+    public void report() {
+        MetricsSnapshot snapshot = dispatcher.snapshot();
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.export(snapshot);
+            } catch (Throwable e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    public DispatchQueue getDispatchQueue() {
+        return queue;
+    }
+}
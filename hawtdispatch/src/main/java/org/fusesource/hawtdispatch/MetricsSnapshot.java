@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The cumulative metrics of a dispatcher's profiled queues and of its
+ * worker threads, taken at one point in time.  Taking one does not reset
+ * anything, so the snapshots of independent consumers don't interfere.
+ * </p>
+ */
+public class MetricsSnapshot {
+
+    /**
+     * The label of the dispatcher the snapshot was taken from.
+     */
+    public String dispatcher;
+
+    /**
+     * When the snapshot was taken in milliseconds since the epoch.
+     */
+    public long timestamp;
+
+    /**
+     * The metrics accumulated by the profiled queues.
+     */
+    public List<Metrics> queues = new ArrayList<Metrics>();
+
+    /**
+     * The counters of the worker threads.
+     */
+    public List<WorkerMetrics> workers = new ArrayList<WorkerMetrics>();
+
+    @Override
+    public String toString() {
+        return String.format("{ dispatcher:%s, timestamp:%d, queues:%s, workers:%s }",
+                dispatcher,
+                timestamp,
+                queues,
+                workers);
+    }
+}
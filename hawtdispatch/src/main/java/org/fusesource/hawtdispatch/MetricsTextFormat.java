@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Writes a {@link MetricsSnapshot} in the Prometheus text exposition format,
+ * so that it can be served as is from a local HTTP endpoint with a
+ * <code>text/plain; version=0.0.4</code> content type.
+ * </p><p>
+ * Queues are labeled with their dispatch queue label and workers with
+ * their thread name.  Times are reported in seconds, and the wait and run
+ * time distributions as summaries with the 0.5, 0.99 and 0.999 quantiles.
+ * </p>
+ */
+public class MetricsTextFormat {
+
+    private static final double[] QUANTILES = new double[]{0.5, 0.99, 0.999};
+    private static final double NS_PER_SECOND = 1000000000.0;
+
+    private MetricsTextFormat() {
+    }
+
+    public static String toString(MetricsSnapshot snapshot) {
+        StringBuilder rc = new StringBuilder();
+        try {
+            write(snapshot, rc);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return rc.toString();
+    }
+
+    public static void write(MetricsSnapshot snapshot, Appendable out) throws IOException {
+        String dispatcher = snapshot.dispatcher;
+
+        header(out, "hawtdispatch_queue_enqueued_total", "counter", "The number of tasks queued.");
+        for (Metrics m : snapshot.queues) {
+            sample(out, "hawtdispatch_queue_enqueued_total", dispatcher, m, null, m.enqueued);
+        }
+        header(out, "hawtdispatch_queue_dequeued_total", "counter", "The number of tasks removed from the queue and executed.");
+        for (Metrics m : snapshot.queues) {
+            sample(out, "hawtdispatch_queue_dequeued_total", dispatcher, m, null, m.dequeued);
+        }
+        header(out, "hawtdispatch_queue_wait_time_seconds", "summary", "The time tasks spent waiting in the queue.");
+        for (Metrics m : snapshot.queues) {
+            summary(out, "hawtdispatch_queue_wait_time_seconds", dispatcher, m, m.waitTimeHistogram, m.totalWaitTimeNS);
+        }
+        header(out, "hawtdispatch_queue_run_time_seconds", "summary", "The time tasks spent executing.");
+        for (Metrics m : snapshot.queues) {
+            summary(out, "hawtdispatch_queue_run_time_seconds", dispatcher, m, m.runTimeHistogram, m.totalRunTimeNS);
+        }
+        header(out, "hawtdispatch_queue_max_wait_time_seconds", "gauge", "The longest time a timed task spent waiting in the queue.");
+        for (Metrics m : snapshot.queues) {
+            sample(out, "hawtdispatch_queue_max_wait_time_seconds", dispatcher, m, null, m.maxWaitTimeNS / NS_PER_SECOND);
+        }
+        header(out, "hawtdispatch_queue_max_run_time_seconds", "gauge", "The longest time a timed task spent executing.");
+        for (Metrics m : snapshot.queues) {
+            sample(out, "hawtdispatch_queue_max_run_time_seconds", dispatcher, m, null, m.maxRunTimeNS / NS_PER_SECOND);
+        }
+
+        header(out, "hawtdispatch_worker_tasks_run_total", "counter", "The number of tasks a worker thread has run.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_tasks_run_total", dispatcher, w, w.tasksRun);
+        }
+        header(out, "hawtdispatch_worker_shared_tasks_run_total", "counter", "The number of tasks a worker thread took from its pool's shared queue.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_shared_tasks_run_total", dispatcher, w, w.sharedTasksRun);
+        }
+        header(out, "hawtdispatch_worker_busy_seconds_total", "counter", "The time a worker thread was not parked.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_busy_seconds_total", dispatcher, w, w.busyTimeNS / NS_PER_SECOND);
+        }
+        header(out, "hawtdispatch_worker_idle_seconds_total", "counter", "The time a worker thread was parked.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_idle_seconds_total", dispatcher, w, w.idleTimeNS / NS_PER_SECOND);
+        }
+        header(out, "hawtdispatch_worker_parks_total", "counter", "The number of times a worker thread parked.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_parks_total", dispatcher, w, w.parks);
+        }
+        header(out, "hawtdispatch_worker_wakeups_received_total", "counter", "The number of times a parked worker thread got woken up.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_wakeups_received_total", dispatcher, w, w.wakeupsReceived);
+        }
+        header(out, "hawtdispatch_worker_wakeups_sent_total", "counter", "The number of times a worker thread woke up another one.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_wakeups_sent_total", dispatcher, w, w.wakeupsSent);
+        }
+        header(out, "hawtdispatch_worker_selected_keys_total", "counter", "The number of NIO selection keys a worker thread found ready.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_selected_keys_total", dispatcher, w, w.selectedKeys);
+        }
+        header(out, "hawtdispatch_worker_timer_fires_total", "counter", "The number of timer tasks a worker thread has run.");
+        for (WorkerMetrics w : snapshot.workers) {
+            sample(out, "hawtdispatch_worker_timer_fires_total", dispatcher, w, w.timerFires);
+        }
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(Appendable out, String name, String dispatcher, Metrics m, LatencyHistogram histogram, long totalNS) throws IOException {
+        if( histogram != null ) {
+            for (double quantile : QUANTILES) {
+                sample(out, name, dispatcher, m, Double.toString(quantile), histogram.getValueAtPercentile(quantile * 100) / NS_PER_SECOND);
+            }
+        }
+        sample(out, name + "_sum", dispatcher, m, null, totalNS / NS_PER_SECOND);
+        sample(out, name + "_count", dispatcher, m, null, m.dequeued);
+    }
+
+    private static void sample(Appendable out, String name, String dispatcher, Metrics m, String quantile, double value) throws IOException {
+        out.append(name).append("{dispatcher=\"");
+        escape(out, dispatcher);
+        out.append("\",queue=\"");
+        escape(out, m.queue == null ? null : m.queue.getLabel());
+        if( quantile != null ) {
+            out.append("\",quantile=\"").append(quantile);
+        }
+        out.append("\"} ");
+        value(out, value);
+        out.append('\n');
+    }
+
+    private static void sample(Appendable out, String name, String dispatcher, WorkerMetrics w, double value) throws IOException {
+        out.append(name).append("{dispatcher=\"");
+        escape(out, dispatcher);
+        out.append("\",worker=\"");
+        escape(out, w.thread);
+        out.append("\",priority=\"");
+        escape(out, w.priority == null ? null : w.priority.name().toLowerCase());
+        out.append("\"} ");
+        value(out, value);
+        out.append('\n');
+    }
+
+    private static void value(Appendable out, double value) throws IOException {
+        if( value == (long) value ) {
+            out.append(Long.toString((long) value));
+        } else {
+            out.append(Double.toString(value));
+        }
+    }
+
+    private static void escape(Appendable out, String value) throws IOException {
+        if( value == null ) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+}
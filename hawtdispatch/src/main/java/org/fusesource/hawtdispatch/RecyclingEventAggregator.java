@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+/**
+ * <p>
+ * An {@link EventAggregator} whose merged events can be reused.  Dispatch sources
+ * hand the merged event back with {@link #recycle(Object)} once their event handler
+ * has returned, or once they have dropped it because they were canceled.
+ * </p>
+ */
+public interface RecyclingEventAggregator<Event, MergedEvent> extends EventAggregator<Event, MergedEvent> {
+
+    /**
+     * Called once a merged event is no longer used.
+     */
+    public void recycle(MergedEvent events);
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+/**
+ * <p>
+ * Describes a worker thread which has been running the same task for too long.
+ * </p>
+ */
+public class Stall {
+
+    /**
+     * The stalled worker thread.
+     */
+    public Thread thread;
+
+    /**
+     * The serial queue whose task is running, or null if the task was
+     * executed directly on a global or thread queue.
+     */
+    public DispatchQueue queue;
+
+    /**
+     * How long the task has been running in nanoseconds.  The watchdog only
+     * samples the workers, so the task may have started up to one sampling
+     * period earlier.
+     */
+    public long durationNS;
+
+    /**
+     * The stack of the stalled thread when the stall was detected.
+     */
+    public StackTraceElement[] stack;
+
+    @Override
+    public String toString() {
+        StringBuilder rc = new StringBuilder();
+        rc.append(String.format("{ thread:%s, queue:%s, duration:%.2f ms, stack:[",
+                thread.getName(),
+                queue == null ? null : queue.getLabel(),
+                durationNS / 1000000.0f));
+        if( stack != null ) {
+            for (StackTraceElement element : stack) {
+                rc.append("\n    at ").append(element);
+            }
+        }
+        rc.append(" ] }");
+        return rc.toString();
+    }
+}
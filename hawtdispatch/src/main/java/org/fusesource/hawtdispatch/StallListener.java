@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+/**
+ * <p>
+ * Gets notified when a worker thread has been running the same task for
+ * longer than the stall threshold configured with
+ * {@link Dispatcher#setStallListener(StallListener, long, java.util.concurrent.TimeUnit)}.
+ * While a worker is stalled, none of the tasks, serial queues and NIO sources
+ * bound to it can make progress.
+ * </p>
+ */
+public interface StallListener {
+
+    /**
+     * Called from the watchdog thread once per stall.
+     *
+     * @return true to move the serial queues waiting on the stalled worker's thread
+     *         queue over to the global queue for as long as the stall lasts, so that
+     *         they get run by the other workers.  This only concerns the queues
+     *         targeting that thread queue, for example the ones bound to its NIO
+     *         sources, which other threads executed.  The queues targeting a
+     *         global queue wait in the worker pool's shared queue, which the other
+     *         workers keep draining anyway.
+     */
+    boolean stalled(Stall stall);
+
+}
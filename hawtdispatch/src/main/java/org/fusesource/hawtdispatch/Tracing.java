@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import org.fusesource.hawtdispatch.internal.Tracer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * <p>
+ * Opt-in tracing of the hops tasks take across dispatch queues, so that
+ * the latency of a request which crosses many queues can be attributed to
+ * the queues it waited on and ran on.
+ * </p><p>
+ * While enabled, every task executed on or scheduled with a timer on a
+ * dispatch queue is tagged with the trace of the task which executed it,
+ * and the events a custom dispatch source fires carry the trace of the task
+ * which first merged them.  Tasks executed outside of any traced task start
+ * a new trace.  Every thread records the enqueue, start and end time of the
+ * hops it runs into a ring buffer of its own, so that only the most recent
+ * hops are kept.
+ * </p><p>
+ * The recorded hops can be written in the Chrome trace event format, and
+ * loaded in <code>chrome://tracing</code> or Perfetto, where the flow arrows
+ * between the hops show the critical path of a trace.
+ * </p>
+ */
+public class Tracing {
+
+    public static final int DEFAULT_EVENTS_PER_THREAD = 1024 * 16;
+
+    private Tracing() {
+    }
+
+    public static void enable() {
+        enable(DEFAULT_EVENTS_PER_THREAD);
+    }
+
+    /**
+     * @param eventsPerThread the number of most recent hops each thread keeps.
+     */
+    public static void enable(int eventsPerThread) {
+        if( eventsPerThread <= 0 ) {
+            throw new IllegalArgumentException("eventsPerThread must be positive");
+        }
+        Tracer.enable(eventsPerThread);
+    }
+
+    public static void disable() {
+        Tracer.disable();
+    }
+
+    public static boolean isEnabled() {
+        return Tracer.isEnabled();
+    }
+
+    /**
+     * @return the id of the trace of the task running on the calling thread,
+     *         or 0 if it is not traced.
+     */
+    public static long currentTraceId() {
+        Tracer.Hop hop = Tracer.current();
+        return hop == null ? 0 : hop.getTraceId();
+    }
+
+    /**
+     * Forgets the hops recorded so far.
+     */
+    public static void clear() {
+        Tracer.clear();
+    }
+
+    public static String toChromeTrace() {
+        StringBuilder rc = new StringBuilder();
+        try {
+            writeChromeTrace(rc);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return rc.toString();
+    }
+
+    public static void writeChromeTrace(Appendable out) throws IOException {
+        Tracer.writeChromeTrace(out);
+    }
+
+    public static void writeChromeTrace(File file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeChromeTrace(out);
+        } finally {
+            out.close();
+        }
+    }
+
+}
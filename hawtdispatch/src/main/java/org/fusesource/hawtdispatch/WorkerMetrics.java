@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+/**
+ * <p>
+ * The counters of a dispatcher's worker thread, accumulated since the
+ * thread was started.
+ * </p>
+ */
+public class WorkerMetrics {
+
+    /**
+     * The name of the worker thread.
+     */
+    public String thread;
+
+    /**
+     * The priority of the global queue the worker thread belongs to.
+     */
+    public DispatchPriority priority;
+
+    /**
+     * The number of tasks the thread has run.
+     */
+    public long tasksRun;
+
+    /**
+     * The number of tasks the thread took from the queue it shares with the other
+     * workers of its pool, as opposed to tasks queued on the thread itself.
+     */
+    public long sharedTasksRun;
+
+    /**
+     * The time the thread was not parked in nanoseconds.
+     */
+    public long busyTimeNS;
+
+    /**
+     * The time the thread was parked waiting for work in nanoseconds.
+     */
+    public long idleTimeNS;
+
+    /**
+     * The number of times the thread parked.
+     */
+    public long parks;
+
+    /**
+     * The number of times the thread got woken up by another thread while parked.
+     */
+    public long wakeupsReceived;
+
+    /**
+     * The number of times the thread woke up another parked thread.
+     */
+    public long wakeupsSent;
+
+    /**
+     * The number of NIO selection keys the thread found ready.
+     */
+    public long selectedKeys;
+
+    /**
+     * The number of timer tasks the thread has run.
+     */
+    public long timerFires;
+
+    /**
+     * @return the fraction of its time the thread was busy, between 0 and 1.
+     */
+    public double getUtilization() {
+        long total = busyTimeNS + idleTimeNS;
+        return total == 0 ? 0 : (double) busyTimeNS / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ thread:%s, tasks_run:%d, shared_tasks_run:%d, busy_time:%.2f ms, idle_time:%.2f ms, utilization:%.2f, parks:%d, wakeups_received:%d, wakeups_sent:%d, selected_keys:%d, timer_fires:%d }",
+                thread,
+                tasksRun,
+                sharedTasksRun,
+                busyTimeNS / 1000000.0f,
+                idleTimeNS / 1000000.0f,
+                getUtilization(),
+                parks,
+                wakeupsReceived,
+                wakeupsSent,
+                selectedKeys,
+                timerFires);
+    }
+}
@@ -18,12 +18,28 @@
 package org.fusesource.hawtdispatch.internal;
 
 import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.LatencyHistogram;
 import org.fusesource.hawtdispatch.Metrics;
 import org.fusesource.hawtdispatch.Task;
+import org.fusesource.hawtdispatch.internal.util.StripedCounter;
 
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * <p>
+ * Counts every task enqueued and dequeued on striped counters, but only
+ * times a sample of them: one in every <code>sampling</code> tasks a thread
+ * enqueues gets wrapped so that its wait and run times get recorded into
+ * the histograms.  The other tasks are passed through as they are, so they
+ * cost one uncontended atomic increment when enqueued and one when dequeued.
+ * </p><p>
+ * The time totals are extrapolated from the samples, and the maximums are
+ * the ones of the samples.
+ * </p><p>
+ * The counters are never reset: {@link #snapshot()} reports them as they are
+ * and {@link #metrics()} reports how much they grew since it was last called,
+ * so one consumer taking interval metrics doesn't disturb the others.
+ * </p>
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  *
@@ -31,16 +47,46 @@ import java.util.concurrent.atomic.AtomicLong;
 final public class ActiveMetricsCollector extends MetricsCollector {
 
     private final DispatchQueue queue;
+    private final long sampleMask;
 
-    private final AtomicLong max_run_time = new AtomicLong();
-    private final AtomicLong max_wait_time = new AtomicLong();
-    private final AtomicLong enqueued = new AtomicLong();
-    private final AtomicLong dequeued = new AtomicLong();
+    private final StripedCounter enqueued = new StripedCounter();
+    private final StripedCounter dequeued = new StripedCounter();
+
+    private final AtomicLong sampled = new AtomicLong();
     private final AtomicLong total_run_time = new AtomicLong();
     private final AtomicLong total_wait_time = new AtomicLong();
+    private final LatencyHistogram wait_times = new LatencyHistogram();
+    private final LatencyHistogram run_times = new LatencyHistogram();
+    private final AtomicLong max_run_time = new AtomicLong();
+    private final AtomicLong max_wait_time = new AtomicLong();
+
+    // the maximums since the last metrics() call.
+    private final AtomicLong interval_max_run_time = new AtomicLong();
+    private final AtomicLong interval_max_wait_time = new AtomicLong();
+
+    // the counters as of the last metrics() call.
+    private long last_enqueued;
+    private long last_dequeued;
+    private long last_sampled;
+    private long last_total_run_time;
+    private long last_total_wait_time;
+    private LatencyHistogram last_wait_times = new LatencyHistogram();
+    private LatencyHistogram last_run_times = new LatencyHistogram();
 
     public ActiveMetricsCollector(DispatchQueue queue) {
+        this(queue, 1);
+    }
+
+    /**
+     * @param sampling times one in this many tasks, rounded up to a power of 2.
+     */
+    public ActiveMetricsCollector(DispatchQueue queue, int sampling) {
         this.queue = queue;
+        int size = 1;
+        while( size < sampling ) {
+            size <<= 1;
+        }
+        this.sampleMask = size - 1;
     }
 
     private void setMax(AtomicLong holder, long value) {
@@ -57,42 +103,102 @@ final public class ActiveMetricsCollector extends MetricsCollector {
     }
 
     public Task track(final Task runnable) {
-        enqueued.incrementAndGet();
-        final long enqueuedAt = System.nanoTime();
-        return new Task(){
-            public void run() {
-                long dequeued_at = System.nanoTime();
-                long wait_time = dequeued_at - enqueuedAt;
-                total_wait_time.addAndGet(wait_time);
-                setMax(max_wait_time,wait_time );
-                dequeued.incrementAndGet();
-                long dequeuedAt = dequeued_at;
-                try {
-                    runnable.run();
-                } finally {
-                    long run_time = System.nanoTime() - dequeuedAt;
-                    total_run_time.addAndGet(run_time);
-                    setMax(max_run_time,run_time);
-                }
+        if( (enqueued.increment() & sampleMask) != 0 ) {
+            return runnable;
+        }
+        return new ProfiledTask(runnable, System.nanoTime());
+    }
+
+    /**
+     * A sampled task, timed while it waits and runs.
+     */
+    final class ProfiledTask extends Task {
+        final Task task;
+        final long enqueuedAt;
+
+        ProfiledTask(Task task, long enqueuedAt) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        public void run() {
+            long dequeuedAt = System.nanoTime();
+            long wait_time = dequeuedAt - enqueuedAt;
+            total_wait_time.addAndGet(wait_time);
+            setMax(max_wait_time, wait_time);
+            setMax(interval_max_wait_time, wait_time);
+            wait_times.record(wait_time);
+            try {
+                task.run();
+            } finally {
+                long run_time = System.nanoTime() - dequeuedAt;
+                total_run_time.addAndGet(run_time);
+                setMax(max_run_time, run_time);
+                setMax(interval_max_run_time, run_time);
+                run_times.record(run_time);
+                sampled.incrementAndGet();
             }
-        };
+        }
+    }
+
+    public void dequeued() {
+        dequeued.increment();
     }
-    
-    public Metrics metrics() {
-        long enq = enqueued.getAndSet(0);
-        long deq = dequeued.getAndSet(0);
-        if( enq==0 && deq==0 ) {
+
+    public synchronized Metrics metrics() {
+        long enq = enqueued.sum();
+        long deq = dequeued.sum();
+        if( enq==last_enqueued && deq==last_dequeued ) {
             return null;
         }
+        long samples = sampled.get();
+        long run_time = total_run_time.get();
+        long wait_time = total_wait_time.get();
+        LatencyHistogram wait_times = this.wait_times.copy();
+        LatencyHistogram run_times = this.run_times.copy();
+
+        Metrics rc = metrics(enq - last_enqueued, deq - last_dequeued, samples - last_sampled,
+                run_time - last_total_run_time, wait_time - last_total_wait_time,
+                interval_max_run_time.getAndSet(0), interval_max_wait_time.getAndSet(0),
+                wait_times.minus(last_wait_times), run_times.minus(last_run_times));
+
+        last_enqueued = enq;
+        last_dequeued = deq;
+        last_sampled = samples;
+        last_total_run_time = run_time;
+        last_total_wait_time = wait_time;
+        last_wait_times = wait_times;
+        last_run_times = run_times;
+        return rc;
+    }
+
+    public Metrics snapshot() {
+        return metrics(enqueued.sum(), dequeued.sum(), sampled.get(),
+                total_run_time.get(), total_wait_time.get(),
+                max_run_time.get(), max_wait_time.get(),
+                wait_times.copy(), run_times.copy());
+    }
+
+    private Metrics metrics(long enq, long deq, long samples, long run_time, long wait_time, long max_run, long max_wait, LatencyHistogram wait_times, LatencyHistogram run_times) {
         Metrics rc = new Metrics();
         rc.queue = queue;
         rc.enqueued = enq;
         rc.dequeued = deq;
-        rc.maxWaitTimeNS = max_wait_time.getAndSet(0);
-        rc.maxRunTimeNS = max_run_time.getAndSet(0);
-        rc.totalRunTimeNS = total_run_time.getAndSet(0);
-        rc.totalWaitTimeNS = total_wait_time.getAndSet(0);
+        rc.sampling = (int) sampleMask + 1;
+        rc.maxWaitTimeNS = max_wait;
+        rc.maxRunTimeNS = max_run;
+        rc.totalRunTimeNS = extrapolate(run_time, samples, deq);
+        rc.totalWaitTimeNS = extrapolate(wait_time, samples, deq);
+        rc.waitTimeHistogram = wait_times;
+        rc.runTimeHistogram = run_times;
         return rc;
     }
 
+    private long extrapolate(long total, long samples, long count) {
+        if( samples==0 || samples>=count ) {
+            return total;
+        }
+        return (long) (total * ((double) count / samples));
+    }
+
 }
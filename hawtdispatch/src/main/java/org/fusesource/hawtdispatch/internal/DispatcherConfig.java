@@ -37,6 +37,7 @@ public class DispatcherConfig {
     private String label="hawtdispatch";
     private int threads = Integer.getInteger("hawtdispatch.threads", Runtime.getRuntime().availableProcessors());
     private boolean profile = Boolean.getBoolean("hawtdispatch.profile");
+    private int profileSampling = Integer.getInteger("hawtdispatch.profile.sampling", 16);
     private int drains = Integer.getInteger("hawtdispatch.drains", 1000);
 
     public static Dispatcher create(String name, int threads) {
@@ -74,6 +75,18 @@ public class DispatcherConfig {
         this.profile = profile;
     }
 
+    public int getProfileSampling() {
+        return profileSampling;
+    }
+
+    /**
+     * Sets how many tasks a profiled queue counts for every task it times.
+     * Set it to 1 to time all of them.
+     */
+    public void setProfileSampling(int profileSampling) {
+        this.profileSampling = profileSampling;
+    }
+
     public int getDrains() {
         return drains;
     }
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.internal;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * The lock free stack the custom dispatch sources fire their events onto.
+ * </p><p>
+ * Every producer owns a ring of nodes which it reuses once the deliver task
+ * has taken them off the stack, so once a producer has enough of them,
+ * firing an event neither allocates nor locks.
+ * </p>
+ */
+abstract class FiredStack<N extends FiredStack.Node<N>> {
+
+    /**
+     * A fired event waiting to be delivered.
+     */
+    static abstract class Node<N extends Node<N>> {
+        N next;
+        // the next node owned by the same producer.
+        N ring;
+        // set until the event has been taken by the deliver task.
+        volatile boolean queued;
+    }
+
+    private final AtomicReference<N> top = new AtomicReference<N>();
+
+    protected abstract N createNode();
+
+    /**
+     * Finds a node of a producer's ring which has been delivered, starting at
+     * the cursor, and adds a node to the ring if they are all still queued.
+     * The producer should continue from the returned node's {@link Node#ring}
+     * the next time.
+     *
+     * @param cursor the producer's cursor, or null if it has no nodes yet.
+     */
+    final N claim(N cursor) {
+        N node = cursor;
+        if( node==null ) {
+            node = createNode();
+            node.ring = node;
+        } else {
+            N start = node;
+            while( node.queued ) {
+                node = node.ring;
+                if( node==start ) {
+                    // all the nodes are queued, add one.
+                    node = createNode();
+                    node.ring = start.ring;
+                    start.ring = node;
+                    break;
+                }
+            }
+        }
+        node.queued = true;
+        return node;
+    }
+
+    /**
+     * @return true if the stack was empty, in which case the deliver task has to be executed.
+     */
+    final boolean push(N node) {
+        N head;
+        do {
+            head = top.get();
+            node.next = head;
+        } while( !top.compareAndSet(head, node) );
+        return head==null;
+    }
+
+    /**
+     * Takes all the fired nodes off the stack.
+     *
+     * @return the first node fired, linked to the later ones through {@link Node#next}.
+     */
+    final N takeAll() {
+        // the stack holds the most recently fired node first.
+        N node = top.getAndSet(null);
+        N reversed = null;
+        while( node!=null ) {
+            N next = node.next;
+            node.next = reversed;
+            reversed = node;
+            node = next;
+        }
+        return reversed;
+    }
+
+    /**
+     * Hands a node taken off the stack back to its producer.
+     *
+     * @return the next node taken off the stack.
+     */
+    static <N extends Node<N>> N release(N node) {
+        N next = node.next;
+        node.next = null;
+        node.queued = false;
+        return next;
+    }
+
+}
@@ -21,7 +21,7 @@ import org.fusesource.hawtdispatch.*;
 import org.fusesource.hawtdispatch.internal.pool.SimplePool;
 import org.fusesource.hawtdispatch.internal.util.IntrospectionSupport;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -72,7 +72,7 @@ final public class GlobalDispatchQueue implements HawtDispatchQueue {
         return false;
     }
 
-    public LinkedList<Task> getSourceQueue() {
+    public ArrayDeque<Task> getSourceQueue() {
         ThreadDispatchQueue tq = dispatcher.getCurrentThreadQueue();
         if( tq!=null ){
             return tq.getSourceQueue();
@@ -98,14 +98,14 @@ final public class GlobalDispatchQueue implements HawtDispatchQueue {
         if( dispatcher.shutdownState.get() > 1 ) {
             throw new ShutdownException();
         }
-        workers.execute(metricsCollector.track(task));
+        workers.execute(metricsCollector.track(Tracer.track(task, this)));
     }
 
     public void executeAfter(long delay, TimeUnit unit, Task task) {
         if( dispatcher.shutdownState.get() > 0 ) {
             throw new ShutdownException();
         }
-        dispatcher.timerThread.addRelative(task, this, delay, unit);
+        dispatcher.timerThread.addRelative(Tracer.trackTimer(task, this, delay, unit), this, delay, unit);
     }
 
     public ThreadDispatchQueue getTargetQueue() {
@@ -170,14 +170,22 @@ final public class GlobalDispatchQueue implements HawtDispatchQueue {
 
     public void profile(boolean on) {
         if( on ) {
-            metricsCollector = new ActiveMetricsCollector(this);
+            metricsCollector = new ActiveMetricsCollector(this, getDispatcher().profileSampling);
         } else {
             metricsCollector = InactiveMetricsCollector.INSTANCE;
         }
     }
 
+    public MetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
     public Metrics metrics() {
         return metricsCollector.metrics();
     }
 
+    public Metrics cumulativeMetrics() {
+        return metricsCollector.snapshot();
+    }
+
 }
@@ -19,32 +19,101 @@ package org.fusesource.hawtdispatch.internal;
 
 import org.fusesource.hawtdispatch.*;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.String.format;
 
 /**
+ * <p>
+ * Events merged on a thread are accumulated in that thread's {@link Producer}
+ * until the task which merged them completes, and are then fired.  Firing
+ * pushes a {@link Fired} node onto a {@link FiredStack}, and the first push
+ * onto an empty stack executes the {@link #deliver} task on the target queue.
+ * That task takes the whole stack, merges the events in the order they were
+ * fired and runs the event handler.
+ * </p><p>
+ * The merged events are handed back to a {@link RecyclingEventAggregator}
+ * once the event handler returns.
+ * </p><p>
+ * When the source is bounded, every merge is counted, and the nodes carry the
+ * number of events they hold so that the count can be decremented once the
+ * event handler returns.  Unbounded sources skip the counting.
+ * </p>
+ *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-final public class HawtCustomDispatchSource<Event, MergedEvent> extends AbstractDispatchObject implements CustomDispatchSource<Event, MergedEvent> {
+final public class HawtCustomDispatchSource<Event, MergedEvent> extends AbstractDispatchObject implements BoundedDispatchSource<Event, MergedEvent> {
     public static final boolean DEBUG = false;
 
     final AtomicBoolean canceled = new AtomicBoolean();
     private Task cancelHandler;
     private Task eventHandler;
 
-    private final ThreadLocal<MergedEvent> outboundEvent = new ThreadLocal<MergedEvent>();
+    /**
+     * A fired event waiting to be delivered.
+     */
+    private static final class Fired<MergedEvent> extends FiredStack.Node<Fired<MergedEvent>> {
+        MergedEvent event;
+        int count;
+    }
+
+    /**
+     * The state a thread keeps for the events it merges into this source.
+     */
+    private static final class Producer<MergedEvent> {
+        MergedEvent outbound;
+        int count;
+        Fired<MergedEvent> cursor;
+        // the traced hop which did the first merge of the outbound event.
+        Tracer.Hop trace;
+    }
+
+    private final ThreadLocal<Producer<MergedEvent>> producers = new ThreadLocal<Producer<MergedEvent>>() {
+        @Override
+        protected Producer<MergedEvent> initialValue() {
+            return new Producer<MergedEvent>();
+        }
+    };
+    private final FiredStack<Fired<MergedEvent>> fired = new FiredStack<Fired<MergedEvent>>() {
+        @Override
+        protected Fired<MergedEvent> createNode() {
+            return new Fired<MergedEvent>();
+        }
+    };
+    private final AtomicReference<MergedEvent> pendingEvent = new AtomicReference<MergedEvent>();
     private final ThreadLocal<MergedEvent> firedEvent = new ThreadLocal<MergedEvent>();
     private final EventAggregator<Event, MergedEvent> aggregator;
-    private MergedEvent pendingEvent;
+    private final RecyclingEventAggregator<Event, MergedEvent> recycler;
     private final boolean ordered;
 
+    private final int capacity;
+    private volatile int lowWatermark;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // the queues of the producers waiting for a refill.
+    private final ConcurrentHashMap<DispatchQueue, Boolean> refused = new ConcurrentHashMap<DispatchQueue, Boolean>();
+    private Task refillHandler;
+
+    private final Task deliver = new Task() {
+        public void run() {
+            deliver();
+        }
+    };
+
     public HawtCustomDispatchSource(HawtDispatcher dispatcher, EventAggregator<Event, MergedEvent> aggregator, DispatchQueue queue) {
+        this(dispatcher, aggregator, -1, queue);
+    }
+
+    public HawtCustomDispatchSource(HawtDispatcher dispatcher, EventAggregator<Event, MergedEvent> aggregator, int capacity, DispatchQueue queue) {
         this.aggregator = aggregator;
+        this.capacity = capacity;
+        this.lowWatermark = capacity / 2;
         this.suspended.incrementAndGet();
         this.ordered = aggregator instanceof OrderedEventAggregator;
+        this.recycler = aggregator instanceof RecyclingEventAggregator ? (RecyclingEventAggregator<Event, MergedEvent>) aggregator : null;
         setTargetQueue(queue);
     }
 
@@ -54,22 +123,26 @@ final public class HawtCustomDispatchSource<Event, MergedEvent> extends Abstract
         return rc;
     }
 
-    protected final ConcurrentLinkedQueue<MergedEvent> externalQueue = new ConcurrentLinkedQueue<MergedEvent>();
-    protected final AtomicLong size = new AtomicLong();
-
     public void merge(Event event) {
         debug("merge called");
+        Producer<MergedEvent> producer = producers.get();
+        if( capacity > 0 ) {
+            size.incrementAndGet();
+        }
         WorkerThread thread = WorkerThread.currentWorkerThread();
         if( thread!=null ) {
-            MergedEvent previous = outboundEvent.get();
+            MergedEvent previous = producer.outbound;
             MergedEvent next = aggregator.mergeEvent(previous, event);
+            producer.outbound = next;
+            producer.count++;
             if( next==null ) {
                 debug("merge resulted in cancel");
-                outboundEvent.remove();
+                release(producer.count);
+                producer.count = 0;
             } else {
-                outboundEvent.set(next);
                 if( previous==null ) {
                     debug("first merge, posting deferred fire event");
+                    producer.trace = Tracer.current();
                     if( ordered ) {
                         HawtDispatchQueue current = HawtDispatcher.CURRENT_QUEUE.get();
                         current.getSourceQueue().add(this);
@@ -82,59 +155,124 @@ final public class HawtCustomDispatchSource<Event, MergedEvent> extends Abstract
             }
         } else {
             debug("merge not called from a worker thread.. triggering fire event now");
-            fireEvent(aggregator.mergeEvent(null, event));
+            fireEvent(producer, aggregator.mergeEvent(null, event), 1, null);
+        }
+    }
+
+    public boolean offer(Event event) {
+        if( full() ) {
+            DispatchQueue current = HawtDispatcher.CURRENT_QUEUE.get();
+            refused.putIfAbsent(current==null ? Dispatch.getGlobalQueue() : current, Boolean.TRUE);
+            if( size.get() <= lowWatermark ) {
+                // we raced the drain which would have refilled us.
+                refill();
+            }
+            return false;
+        }
+        merge(event);
+        return true;
+    }
+
+    public boolean full() {
+        return capacity > 0 && size.get() >= capacity;
+    }
+
+    private void release(int count) {
+        if( capacity > 0 && count > 0 ) {
+            if( size.addAndGet(-count) <= lowWatermark && !refused.isEmpty() ) {
+                refill();
+            }
+        }
+    }
+
+    private void refill() {
+        for (DispatchQueue queue : refused.keySet()) {
+            if( refused.remove(queue)!=null && refillHandler!=null ) {
+                queue.execute(refillHandler);
+            }
         }
     }
 
     public void run() {
         debug("deferred fire event executing");
-        fireEvent(outboundEvent.get());
-        outboundEvent.remove();
+        Producer<MergedEvent> producer = producers.get();
+        MergedEvent event = producer.outbound;
+        int count = producer.count;
+        producer.outbound = null;
+        producer.count = 0;
+        Tracer.Hop trace = producer.trace;
+        producer.trace = null;
+        fireEvent(producer, event, count, trace);
     }
 
-    private void fireEvent(final MergedEvent event) {
-        if( event!=null ) {
-            targetQueue.execute(new Task() {
-                public void run() {
-                    if( isCanceled() ) {
-                        debug("canceled");
-                        return;
-                    }
-                    if( isSuspended() ) {
-                        debug("fired.. but suspended");
-                        synchronized(HawtCustomDispatchSource.this) {
-                            if( pendingEvent==null ) {
-                                pendingEvent = event;
-                            } else {
-                                pendingEvent = aggregator.mergeEvents(pendingEvent, event);
-                            }
-                        }
-                    } else {
-                        MergedEvent e=null;
-                        synchronized(HawtCustomDispatchSource.this) {
-                            e = pendingEvent;
-                            pendingEvent = null;
-                        }
-                        if( e!=null ) {
-                            debug("fired.. mergined with previous pending event..");
-                            e = aggregator.mergeEvents(e, event);
-                        } else {
-                            debug("fired.. no previous pending event..");
-                            e = event;
-                        }
-                        firedEvent.set(e);
-                        try {
-                            eventHandler.run();
-                        } catch (Throwable e1) {
-                            Thread thread = Thread.currentThread();
-                            thread.getUncaughtExceptionHandler().uncaughtException(thread, e1);
-                        }
-                        firedEvent.remove();
-                        debug("eventHandler done");
-                    }
+    private void fireEvent(Producer<MergedEvent> producer, MergedEvent event, int count, Tracer.Hop trace) {
+        if( event==null ) {
+            release(count);
+            return;
+        }
+
+        Fired<MergedEvent> node = fired.claim(producer.cursor);
+        producer.cursor = node.ring;
+        node.event = event;
+        node.count = count;
+        if( fired.push(node) ) {
+            Tracer.execute(targetQueue, deliver, trace);
+        }
+    }
+
+    private void deliver() {
+        Fired<MergedEvent> node = fired.takeAll();
+        MergedEvent e = pendingEvent.getAndSet(null);
+        int count = pendingCount.getAndSet(0);
+        while( node!=null ) {
+            MergedEvent event = node.event;
+            count += node.count;
+            node.event = null;
+            node = FiredStack.release(node);
+            e = e==null ? event : aggregator.mergeEvents(e, event);
+        }
+
+        if( e==null ) {
+            return;
+        }
+        if( isCanceled() ) {
+            debug("canceled");
+            if( recycler!=null ) {
+                recycler.recycle(e);
+            }
+            release(count);
+            return;
+        }
+        if( isSuspended() ) {
+            debug("fired.. but suspended");
+            while( !pendingEvent.compareAndSet(null, e) ) {
+                MergedEvent other = pendingEvent.getAndSet(null);
+                if( other!=null ) {
+                    e = aggregator.mergeEvents(other, e);
                 }
-            });
+            }
+            pendingCount.addAndGet(count);
+            if( !isSuspended() ) {
+                // we raced a resume which may have missed the pending event.
+                targetQueue.execute(deliver);
+            }
+            return;
+        }
+
+        debug("fired..");
+        firedEvent.set(e);
+        try {
+            eventHandler.run();
+        } catch (Throwable e1) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e1);
+        }
+        firedEvent.set(null);
+        if( recycler!=null ) {
+            recycler.recycle(e);
         }
+        release(count);
+        debug("eventHandler done");
     }
 
     @Override
@@ -160,25 +298,7 @@ final public class HawtCustomDispatchSource<Event, MergedEvent> extends Abstract
     @Override
     protected void onResume() {
         debug("onResume");
-        targetQueue.execute(new Task() {
-            public void run() {
-                if( isCanceled() ) {
-                    return;
-                }
-                if( !isSuspended() ) {
-                    MergedEvent e=null;
-                    synchronized(HawtCustomDispatchSource.this) {
-                        e = pendingEvent;
-                        pendingEvent = null;
-                    }
-                    if( e!=null ) {
-                        firedEvent.set(e);
-                        eventHandler.run();
-                        firedEvent.remove();
-                    }
-                }
-            }
-        });
+        targetQueue.execute(deliver);
     }
 
     public boolean isCanceled() {
@@ -203,6 +323,26 @@ final public class HawtCustomDispatchSource<Event, MergedEvent> extends Abstract
         this.eventHandler = eventHandler;
     }
 
+    public void setRefillHandler(Task refillHandler) {
+        this.refillHandler = refillHandler;
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+        this.lowWatermark = lowWatermark;
+    }
+
     protected void debug(String str, Object... args) {
         if (DEBUG) {
             System.out.println(format("[DEBUG] HawtCustomDispatchSource %0#10x: ", System.identityHashCode(this))+format(str, args));
@@ -20,7 +20,7 @@ package org.fusesource.hawtdispatch.internal;
 import org.fusesource.hawtdispatch.DispatchQueue;
 import org.fusesource.hawtdispatch.Task;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 /**
  * 
@@ -37,6 +37,6 @@ public interface HawtDispatchQueue extends DispatchQueue {
     
     HawtDispatchQueue getTargetQueue();
 
-    LinkedList<Task> getSourceQueue();
+    ArrayDeque<Task> getSourceQueue();
 
 }
@@ -23,6 +23,7 @@ import java.nio.channels.SelectableChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.fusesource.hawtdispatch.DispatchPriority.DEFAULT;
@@ -49,15 +50,18 @@ final public class HawtDispatcher implements Dispatcher {
     private final int threads;
     private volatile boolean profile;
     final int drains;
+    final int profileSampling;
     final AtomicInteger shutdownState = new AtomicInteger(0);
 
     volatile Thread.UncaughtExceptionHandler uncaughtExceptionHandler=null;
+    private StallWatchdog watchdog;
 
     public HawtDispatcher(DispatcherConfig config) {
         this.threads = config.getThreads();
         this.label = config.getLabel();
         this.profile = config.isProfile();
         this.drains = config.getDrains();
+        this.profileSampling = config.getProfileSampling();
 
         DEFAULT_QUEUE = new GlobalDispatchQueue(this, DispatchPriority.DEFAULT, config.getThreads());
         DEFAULT_QUEUE.start();
@@ -71,6 +75,7 @@ final public class HawtDispatcher implements Dispatcher {
 
         // shutdown == 1 stop new dispatch after requests..
         if( shutdownState.compareAndSet(0, 1) ) {
+            setStallListener(null, 0, TimeUnit.NANOSECONDS);
             // give every one a chance to notice
             // the state change.
             sleep(100);
@@ -174,6 +179,17 @@ final public class HawtDispatcher implements Dispatcher {
         return new HawtCustomDispatchSource(this, aggregator, queue);
     }
 
+    public <Event, MergedEvent> BoundedDispatchSource<Event, MergedEvent> createSource(EventAggregator<Event, MergedEvent> aggregator, int capacity, DispatchQueue queue) {
+        if( capacity <= 0 ) {
+            throw new IllegalArgumentException("The capacity must be greater than zero");
+        }
+        return new HawtCustomDispatchSource<Event, MergedEvent>(this, aggregator, capacity, queue);
+    }
+
+    public LongDispatchSource createSource(LongEventAggregator aggregator, DispatchQueue queue) {
+        return new HawtLongDispatchSource(this, aggregator, queue);
+    }
+
     public String getLabel() {
         return label;
     }
@@ -237,6 +253,69 @@ final public class HawtDispatcher implements Dispatcher {
 
     }
 
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot rc = new MetricsSnapshot();
+        rc.dispatcher = label;
+        rc.timestamp = System.currentTimeMillis();
+        synchronized (queues) {
+            for( HawtDispatchQueue queue : queues.keySet() ) {
+                // the tracked queues are shared by all the dispatchers.
+                if( queue!=null && queue.getDispatcher()==this ) {
+                    Metrics metrics = queue.cumulativeMetrics();
+                    if( metrics!=null ) {
+                        rc.queues.add(metrics);
+                    }
+                }
+            }
+        }
+        rc.workers = workerMetrics();
+        return rc;
+    }
+
+    public List<WorkerMetrics> workerMetrics() {
+        ArrayList<WorkerMetrics> rc = new ArrayList<WorkerMetrics>();
+        for (WorkerThread thread : getWorkers()) {
+            rc.add(thread.metrics());
+        }
+        return rc;
+    }
+
+    /**
+     * @return the worker threads of the global queues which have been started.
+     */
+    List<WorkerThread> getWorkers() {
+        ArrayList<WorkerThread> rc = new ArrayList<WorkerThread>();
+        getWorkers(DEFAULT_QUEUE, rc);
+        synchronized(HIGH_MUTEX) {
+            getWorkers(HIGH_QUEUE, rc);
+        }
+        synchronized(LOW_MUTEX) {
+            getWorkers(LOW_QUEUE, rc);
+        }
+        return rc;
+    }
+
+    private void getWorkers(GlobalDispatchQueue queue, List<WorkerThread> rc) {
+        if( queue!=null ) {
+            for (WorkerThread thread : queue.workers.getThreads()) {
+                if( thread!=null ) {
+                    rc.add(thread);
+                }
+            }
+        }
+    }
+
+    public synchronized void setStallListener(StallListener listener, long threshold, TimeUnit unit) {
+        if( watchdog!=null ) {
+            watchdog.shutdown();
+            watchdog = null;
+        }
+        if( listener!=null ) {
+            watchdog = new StallWatchdog(this, listener, unit.toNanos(threshold));
+            watchdog.start();
+        }
+    }
+
     String assertMessage(String label) {
         StringBuilder sb = new StringBuilder();
         sb.append("Dispatch queue '");
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.internal;
+
+import org.fusesource.hawtdispatch.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * A {@link LongDispatchSource} which works like the {@link HawtCustomDispatchSource}
+ * and shares its {@link FiredStack}, but keeps the merged data in primitive
+ * fields, so that merging, firing and delivering events does not box them.
+ * </p><p>
+ * Since the aggregator is commutative, events merged while the source is
+ * suspended are pushed back on the fired stack, to be delivered once it is
+ * resumed.
+ * </p>
+ */
+final public class HawtLongDispatchSource extends AbstractDispatchObject implements LongDispatchSource {
+
+    final AtomicBoolean canceled = new AtomicBoolean();
+    private Task cancelHandler;
+    private Task eventHandler;
+
+    /**
+     * A fired event waiting to be delivered.
+     */
+    private static final class Fired extends FiredStack.Node<Fired> {
+        long event;
+    }
+
+    /**
+     * The state a thread keeps for the events it merges into this source.
+     */
+    private static final class Producer {
+        boolean merged;
+        long outbound;
+        Fired cursor;
+        // the event being handled on this thread.
+        long data;
+        // the traced hop which did the first merge of the outbound event.
+        Tracer.Hop trace;
+    }
+
+    private final ThreadLocal<Producer> producers = new ThreadLocal<Producer>() {
+        @Override
+        protected Producer initialValue() {
+            return new Producer();
+        }
+    };
+    private final FiredStack<Fired> fired = new FiredStack<Fired>() {
+        @Override
+        protected Fired createNode() {
+            return new Fired();
+        }
+    };
+    private final LongEventAggregator aggregator;
+
+    private final Task deliver = new Task() {
+        public void run() {
+            deliver();
+        }
+    };
+
+    public HawtLongDispatchSource(HawtDispatcher dispatcher, LongEventAggregator aggregator, DispatchQueue queue) {
+        this.aggregator = aggregator;
+        this.suspended.incrementAndGet();
+        setTargetQueue(queue);
+    }
+
+    public long getData() {
+        Producer producer = producers.get();
+        long rc = producer.data;
+        producer.data = 0;
+        return rc;
+    }
+
+    public void merge(long value) {
+        Producer producer = producers.get();
+        WorkerThread thread = WorkerThread.currentWorkerThread();
+        if( thread!=null ) {
+            if( producer.merged ) {
+                producer.outbound = aggregator.mergeEvents(producer.outbound, value);
+            } else {
+                producer.merged = true;
+                producer.outbound = value;
+                producer.trace = Tracer.current();
+                thread.getDispatchQueue().getSourceQueue().add(this);
+            }
+        } else {
+            if( push(producer, value) ) {
+                targetQueue.execute(deliver);
+            }
+        }
+    }
+
+    public void run() {
+        Producer producer = producers.get();
+        if( producer.merged ) {
+            producer.merged = false;
+            Tracer.Hop trace = producer.trace;
+            producer.trace = null;
+            if( push(producer, producer.outbound) ) {
+                Tracer.execute(targetQueue, deliver, trace);
+            }
+        }
+    }
+
+    /**
+     * @return true if the stack was empty, in which case the deliver task has to be executed.
+     */
+    private boolean push(Producer producer, long event) {
+        Fired node = fired.claim(producer.cursor);
+        producer.cursor = node.ring;
+        node.event = event;
+        return fired.push(node);
+    }
+
+    private void deliver() {
+        Fired node = fired.takeAll();
+        if( node==null ) {
+            return;
+        }
+        long e = node.event;
+        node = FiredStack.release(node);
+        while( node!=null ) {
+            e = aggregator.mergeEvents(e, node.event);
+            node = FiredStack.release(node);
+        }
+
+        if( isCanceled() ) {
+            return;
+        }
+        Producer producer = producers.get();
+        if( isSuspended() ) {
+            // onResume will execute the deliver task.
+            push(producer, e);
+            if( !isSuspended() ) {
+                // we raced a resume which may have missed the pushed back event.
+                targetQueue.execute(deliver);
+            }
+            return;
+        }
+
+        producer.data = e;
+        try {
+            eventHandler.run();
+        } catch (Throwable e1) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e1);
+        }
+        producer.data = 0;
+    }
+
+    @Override
+    protected void onStartup() {
+        if( eventHandler==null ) {
+            throw new IllegalArgumentException("eventHandler must be set");
+        }
+        onResume();
+    }
+
+    public void cancel() {
+        if( canceled.compareAndSet(false, true) ) {
+            targetQueue.execute(new Task() {
+                public void run() {
+                    if( cancelHandler!=null ) {
+                        cancelHandler.run();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        targetQueue.execute(deliver);
+    }
+
+    public boolean isCanceled() {
+        return canceled.get();
+    }
+
+    @Deprecated
+    public void setCancelHandler(Runnable handler) {
+        this.setCancelHandler(new TaskWrapper(handler));
+    }
+
+    @Deprecated
+    public void setEventHandler(Runnable handler) {
+        this.setEventHandler(new TaskWrapper(handler));
+    }
+
+    public void setCancelHandler(Task cancelHandler) {
+        this.cancelHandler = cancelHandler;
+    }
+
+    public void setEventHandler(Task eventHandler) {
+        this.eventHandler = eventHandler;
+    }
+
+}
@@ -33,9 +33,16 @@ final public class InactiveMetricsCollector extends MetricsCollector {
         return runnable;
     }
 
+    public void dequeued() {
+    }
+
     public Metrics metrics() {
         return null;
     }
 
+    public Metrics snapshot() {
+        return null;
+    }
+
 
 }
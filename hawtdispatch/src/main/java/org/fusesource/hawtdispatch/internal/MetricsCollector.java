@@ -28,6 +28,20 @@ import org.fusesource.hawtdispatch.Task;
 public abstract class MetricsCollector {
 
     abstract public Task track(Task runnable);
+
+    /**
+     * Called by the queue as it removes a task to run it.
+     */
+    abstract public void dequeued();
+
+    /**
+     * @return the metrics accumulated since the previous call, by any caller.
+     */
     abstract public Metrics metrics();
 
+    /**
+     * @return the metrics accumulated since the collector was created, without resetting anything.
+     */
+    abstract public Metrics snapshot();
+
 }
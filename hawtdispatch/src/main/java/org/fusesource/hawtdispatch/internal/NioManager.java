@@ -27,6 +27,7 @@ import java.util.LinkedList;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.String.*;
 
@@ -155,6 +156,10 @@ public class NioManager {
 
     volatile protected boolean selecting;
 
+    // only updated by the selecting thread.
+    final AtomicLong wakeupsReceived = new AtomicLong();
+    final AtomicLong selectedKeys = new AtomicLong();
+
     public NioManager() throws IOException {
         this.selector = Selector.open();
     }
@@ -169,6 +174,10 @@ public class NioManager {
     public boolean wakeupIfSelecting() {
         if( wakeupCounter.getAndIncrement() == selectCounter && selecting) {
             selector.wakeup();
+            WorkerThread sender = WorkerThread.currentWorkerThread();
+            if( sender!=null ) {
+                sender.wakeupSent();
+            }
             return true;
         }
         return false;
@@ -199,7 +208,11 @@ public class NioManager {
                     }
                 } finally {
                     selecting=false;
-                    selectCounter = wakeupCounter.get();
+                    int wakeups = wakeupCounter.get();
+                    if( selectCounter != wakeups ) {
+                        wakeupsReceived.lazySet(wakeupsReceived.get() + 1);
+                    }
+                    selectCounter = wakeups;
                 }
             }
         } catch (CancelledKeyException e) {
@@ -217,6 +230,7 @@ public class NioManager {
         int size = selectedKeys.size();
         if (size!=0) {
             trace("selected: %d",size);
+            this.selectedKeys.lazySet(this.selectedKeys.get() + size);
 
             // Copy the key set.. to avoid getting ConcurrentModificationException
             // as it may get changed once we start processing the IO events.
@@ -22,6 +22,7 @@ import org.fusesource.hawtdispatch.Metrics;
 import org.fusesource.hawtdispatch.Task;
 import org.fusesource.hawtdispatch.TaskWrapper;
 
+import java.util.ArrayDeque;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
@@ -38,7 +39,7 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
     protected final AtomicBoolean triggered = new AtomicBoolean();
     protected final ConcurrentLinkedQueue<Task> externalQueue = new ConcurrentLinkedQueue<Task>();
     private final LinkedList<Task> localQueue = new LinkedList<Task>();
-    private final LinkedList<Task> sourceQueue= new LinkedList<Task>();
+    private final ArrayDeque<Task> sourceQueue = new ArrayDeque<Task>();
     private final ThreadLocal<Boolean> executing = new ThreadLocal<Boolean>();
     private MetricsCollector metricsCollector = InactiveMetricsCollector.INSTANCE;
 
@@ -48,7 +49,7 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
 
     public void execute(Task task) {
         assert task != null;
-        enqueue(metricsCollector.track(task));
+        enqueue(metricsCollector.track(Tracer.track(task, this)));
     }
 
     @Deprecated
@@ -61,7 +62,7 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
         this.executeAfter(delay, unit, new TaskWrapper(runnable));
     }
 
-    public LinkedList<Task> getSourceQueue() {
+    public ArrayDeque<Task> getSourceQueue() {
         return sourceQueue;
     }
 
@@ -78,6 +79,8 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
     public void run() {
         HawtDispatchQueue original = HawtDispatcher.CURRENT_QUEUE.get();
         HawtDispatcher.CURRENT_QUEUE.set(this);
+        WorkerThread worker = WorkerThread.currentWorkerThread();
+        HawtDispatchQueue workerQueue = worker==null ? null : worker.setCurrentQueue(this);
         executing.set(Boolean.TRUE);
         try {
             Task runnable;
@@ -92,6 +95,10 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
                 if( runnable==null ) {
                     return;
                 }
+                metricsCollector.dequeued();
+                if( worker!=null ) {
+                    worker.progress();
+                }
                 try {
                     runnable.run();
                 } catch (Throwable e) {
@@ -104,12 +111,15 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
             // Posts any deferred events.  This ensures
             // the next events generated by this dispatch
             // queue are received in order.
-            for (Runnable runnable : sourceQueue) {
-                runnable.run();
+            Task source;
+            while( (source = sourceQueue.poll())!=null ) {
+                source.run();
             }
-            sourceQueue.clear();
 
             executing.remove();
+            if( worker!=null ) {
+                worker.setCurrentQueue(workerQueue);
+            }
             HawtDispatcher.CURRENT_QUEUE.set(original);
             triggered.set(false);
             boolean empty = externalQueue.isEmpty() && localQueue.isEmpty();
@@ -157,7 +167,7 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
     }
 
     public void executeAfter(long delay, TimeUnit unit, Task task) {
-        getDispatcher().timerThread.addRelative(task, this, delay, unit);
+        getDispatcher().timerThread.addRelative(Tracer.trackTimer(task, this, delay, unit), this, delay, unit);
     }
 
     public DispatchQueue createQueue(String label) {
@@ -191,7 +201,7 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
             return;
 
         if( on ) {
-            metricsCollector = new ActiveMetricsCollector(this);
+            metricsCollector = new ActiveMetricsCollector(this, getDispatcher().profileSampling);
             getDispatcher().track(this);
         } else {
 //            getDispatcher().untrack(this);
@@ -203,6 +213,10 @@ public class SerialDispatchQueue extends AbstractDispatchObject implements HawtD
         return metricsCollector.metrics();
     }
 
+    public Metrics cumulativeMetrics() {
+        return metricsCollector.snapshot();
+    }
+
     private int drains() {
         return getDispatcher().drains;
     }
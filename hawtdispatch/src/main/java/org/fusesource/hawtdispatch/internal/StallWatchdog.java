@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.internal;
+
+import org.fusesource.hawtdispatch.Stall;
+import org.fusesource.hawtdispatch.StallListener;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * <p>
+ * A thread which samples the progress counters of the worker threads a few
+ * times per stall threshold.  A worker which is not parked and has not
+ * started a new task since it was first seen running the current one is
+ * reported as stalled once the threshold is exceeded.  The workers don't
+ * time their tasks, so watching them costs them nothing.
+ * </p><p>
+ * It does not use a dispatch queue so that it keeps working when all the
+ * workers are stalled.
+ * </p>
+ */
+final class StallWatchdog extends Thread {
+
+    private static final class WorkerState {
+        long progress;
+        long since;
+        boolean reported;
+        boolean migrating;
+    }
+
+    private final HawtDispatcher dispatcher;
+    private final StallListener listener;
+    private final long threshold;
+    private final HashMap<WorkerThread, WorkerState> states = new HashMap<WorkerThread, WorkerState>();
+    private volatile boolean stopped;
+
+    StallWatchdog(HawtDispatcher dispatcher, StallListener listener, long thresholdNS) {
+        super(dispatcher.getLabel() + " stall watchdog");
+        this.dispatcher = dispatcher;
+        this.listener = listener;
+        this.threshold = thresholdNS;
+        setDaemon(true);
+    }
+
+    void shutdown() {
+        stopped = true;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        long period = Math.max(1, threshold / 4 / 1000000);
+        while( !stopped ) {
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            check(System.nanoTime());
+        }
+    }
+
+    private void check(long now) {
+        List<WorkerThread> workers = dispatcher.getWorkers();
+        for (WorkerThread worker : workers) {
+            long progress = worker.getProgress();
+            WorkerState state = states.get(worker);
+            if( state == null ) {
+                state = new WorkerState();
+                state.progress = progress;
+                state.since = now;
+                states.put(worker, state);
+                continue;
+            }
+            if( progress != state.progress || worker.isParked() ) {
+                state.progress = progress;
+                state.since = now;
+                state.reported = false;
+                state.migrating = false;
+                continue;
+            }
+            if( state.migrating ) {
+                // keep moving the queues which show up while the stall lasts.
+                worker.getDispatchQueue().migrate();
+            } else if( !state.reported && now - state.since >= threshold ) {
+                state.reported = true;
+                Stall stall = new Stall();
+                stall.thread = worker;
+                stall.queue = worker.getCurrentQueue();
+                stall.durationNS = now - state.since;
+                stall.stack = worker.getStackTrace();
+                try {
+                    state.migrating = listener.stalled(stall);
+                } catch (Throwable e) {
+                    getUncaughtExceptionHandler().uncaughtException(this, e);
+                }
+                if( state.migrating ) {
+                    worker.getDispatchQueue().migrate();
+                }
+            }
+        }
+        states.keySet().retainAll(new HashSet<WorkerThread>(workers));
+    }
+}
@@ -19,6 +19,7 @@ package org.fusesource.hawtdispatch.internal;
 
 import org.fusesource.hawtdispatch.*;
 
+import java.util.ArrayDeque;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
@@ -36,7 +37,7 @@ final public class ThreadDispatchQueue implements HawtDispatchQueue {
     final WorkerThread thread;
     final GlobalDispatchQueue globalQueue;
     private MetricsCollector metricsCollector = InactiveMetricsCollector.INSTANCE;
-    private final LinkedList<Task> sourceQueue= new LinkedList<Task>();
+    private final ArrayDeque<Task> sourceQueue = new ArrayDeque<Task>();
 
     public ThreadDispatchQueue(GlobalDispatchQueue globalQueue, WorkerThread thread) {
         this.thread = thread;
@@ -45,10 +46,19 @@ final public class ThreadDispatchQueue implements HawtDispatchQueue {
         getDispatcher().track(this);
     }
 
-    public LinkedList<Task> getSourceQueue() {
+    public ArrayDeque<Task> getSourceQueue() {
         return sourceQueue;
     }
 
+    /**
+     * Must only be called from the queue's thread.
+     *
+     * @return the number of thread local tasks and source events waiting to run.
+     */
+    public int getBacklog() {
+        return localTasks.size() + sourceQueue.size();
+    }
+
     public String getLabel() {
         return label;
     }
@@ -80,7 +90,7 @@ final public class ThreadDispatchQueue implements HawtDispatchQueue {
     }
 
     public void execute(Task task) {
-        task = metricsCollector.track(task);
+        task = metricsCollector.track(Tracer.track(task, this));
         // We don't have to take the synchronization hit 
         if( Thread.currentThread()!=thread ) {
             sharedTasks.add(task);
@@ -95,11 +105,52 @@ final public class ThreadDispatchQueue implements HawtDispatchQueue {
         if (rc ==null) {
             rc = sharedTasks.poll();
         }
+        if (rc !=null) {
+            metricsCollector.dequeued();
+        }
+        return rc;
+    }
+
+    /**
+     * Moves the serial queues other threads have executed on this queue
+     * over to the global queue.  The tasks executed directly on this queue
+     * stay since they may depend on running on this thread, and so do the
+     * ones the thread executed on itself since only it may touch them.
+     * The queues are moved along with their profiling and tracing wrappers
+     * so that their wait and run times still get recorded.
+     *
+     * @return the number of serial queues moved.
+     */
+    int migrate() {
+        int rc = 0;
+        for (Task task : sharedTasks) {
+            // only one of us and the thread gets to remove it.
+            if( unwrap(task) instanceof SerialDispatchQueue && sharedTasks.remove(task) ) {
+                metricsCollector.dequeued();
+                globalQueue.execute(task);
+                rc++;
+            }
+        }
         return rc;
     }
 
+    /**
+     * @return the task the profiling and tracing wrappers were created for.
+     */
+    private static Task unwrap(Task task) {
+        while( true ) {
+            if( task instanceof ActiveMetricsCollector.ProfiledTask ) {
+                task = ((ActiveMetricsCollector.ProfiledTask) task).task;
+            } else if( task instanceof Tracer.Hop ) {
+                task = ((Tracer.Hop) task).task;
+            } else {
+                return task;
+            }
+        }
+    }
+
     public void executeAfter(long delay, TimeUnit unit, Task task) {
-        getDispatcher().timerThread.addRelative(task, this, delay, unit);
+        getDispatcher().timerThread.addRelative(Tracer.trackTimer(task, this, delay, unit), this, delay, unit);
     }
 
     public void resume() {
@@ -150,7 +201,7 @@ final public class ThreadDispatchQueue implements HawtDispatchQueue {
 
     public void profile(boolean on) {
         if( on ) {
-            metricsCollector = new ActiveMetricsCollector(this);
+            metricsCollector = new ActiveMetricsCollector(this, getDispatcher().profileSampling);
         } else {
             metricsCollector = InactiveMetricsCollector.INSTANCE;
         }
@@ -159,4 +210,8 @@ final public class ThreadDispatchQueue implements HawtDispatchQueue {
     public Metrics metrics() {
         return metricsCollector.metrics();
     }
+
+    public Metrics cumulativeMetrics() {
+        return metricsCollector.snapshot();
+    }
 }
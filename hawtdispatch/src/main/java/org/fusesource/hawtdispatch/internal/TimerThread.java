@@ -37,12 +37,24 @@ final public class TimerThread extends Thread {
         ABSOLUTE,
         SHUTDOWN
     }
-    final private static class TimerRequest {
+    final private static class TimerRequest extends Task {
         Type type;
         long time;
         TimeUnit unit;
         Task task;
         DispatchQueue target;
+
+        /**
+         * Runs a timer task which fired on its own, so that it does not
+         * have to be wrapped to credit the worker with the fire.
+         */
+        public void run() {
+            WorkerThread thread = WorkerThread.currentWorkerThread();
+            if( thread!=null ) {
+                thread.timersFired(1);
+            }
+            task.run();
+        }
     }
 
     private final Object mutex = new Object();
@@ -90,18 +102,18 @@ final public class TimerThread extends Thread {
 
     public void run() {
 
-        final HashMap<DispatchQueue, LinkedList<Task>> readyRequests =
-                new HashMap<DispatchQueue, LinkedList<Task>>();
+        final HashMap<DispatchQueue, LinkedList<TimerRequest>> readyRequests =
+                new HashMap<DispatchQueue, LinkedList<TimerRequest>>();
 
         final TimerHeap<TimerRequest> timerHeap = new TimerHeap<TimerRequest>() {
             @Override
             public final void execute(TimerRequest request) {
-                LinkedList<Task> tasks = readyRequests.get(request.target);
+                LinkedList<TimerRequest> tasks = readyRequests.get(request.target);
                 if( tasks==null ) {
-                    tasks = new LinkedList<Task>();
+                    tasks = new LinkedList<TimerRequest>();
                     readyRequests.put(request.target, tasks);
                 }
-                tasks.add(request.task);
+                tasks.add(request);
             }
         };
         
@@ -144,15 +156,19 @@ final public class TimerThread extends Thread {
                 timerHeap.executeReadyTimers();
 
                 if( !readyRequests.isEmpty() ) {
-                    for (Map.Entry<DispatchQueue,LinkedList<Task>> entry: readyRequests.entrySet()) {
+                    for (Map.Entry<DispatchQueue,LinkedList<TimerRequest>> entry: readyRequests.entrySet()) {
                         final DispatchQueue queue = entry.getKey();
-                        final LinkedList<Task> tasks = entry.getValue();
+                        final LinkedList<TimerRequest> tasks = entry.getValue();
                         if( tasks.size() > 1 ) {
                             // execute the tasks as a batch.
                             queue.execute(new Task(){
                                 public void run() {
-                                    for ( Task task: tasks) {
-                                        task.run();
+                                    WorkerThread thread = WorkerThread.currentWorkerThread();
+                                    if( thread!=null ) {
+                                        thread.timersFired(tasks.size());
+                                    }
+                                    for ( TimerRequest request: tasks) {
+                                        request.task.run();
                                     }
                                 }
                             });
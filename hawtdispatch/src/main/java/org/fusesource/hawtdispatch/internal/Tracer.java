@@ -0,0 +1,354 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.internal;
+
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Task;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Records the hops tasks take across dispatch queues.  While enabled, every
+ * task executed on a queue gets wrapped in a {@link Hop} which remembers the
+ * hop that was running on the executing thread.  Hops executed while no hop
+ * is running start a new trace.  Every thread records the hops it runs into
+ * its own ring buffer, which only it writes to, so recording takes no locks.
+ * </p>
+ */
+final public class Tracer {
+
+    public static final int EXECUTE = 0;
+    public static final int TIMER = 1;
+
+    private static volatile boolean enabled;
+    private static volatile int ringSize = 1024 * 16;
+    private static final AtomicLong ids = new AtomicLong();
+    private static final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<Ring>();
+
+    // the hop running on the thread, kept apart from the ring so that threads
+    // which only execute tasks don't have to allocate one.
+    private static final ThreadLocal<Hop> CURRENT = new ThreadLocal<Hop>();
+    private static final ThreadLocal<Ring> RING = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Ring rc = new Ring(Thread.currentThread(), ringSize);
+            rings.add(rc);
+            return rc;
+        }
+    };
+
+    private Tracer() {
+    }
+
+    /**
+     * A task executed while tracing.
+     */
+    public static final class Hop extends Task {
+        final Task task;
+        final String queue;
+        final int kind;
+        final long trace;
+        final long span;
+        final long parent;
+        final long producer;
+        final long enqueued;
+
+        Hop(Task task, DispatchQueue queue, int kind, Hop parent, long delay) {
+            this.task = task;
+            this.queue = queue.getLabel();
+            this.kind = kind;
+            this.span = ids.incrementAndGet();
+            this.trace = parent == null ? span : parent.trace;
+            this.parent = parent == null ? 0 : parent.span;
+            this.producer = Thread.currentThread().getId();
+            this.enqueued = System.nanoTime() + delay;
+        }
+
+        public void run() {
+            Hop previous = CURRENT.get();
+            CURRENT.set(this);
+            long started = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                CURRENT.set(previous);
+                RING.get().record(this, started, System.nanoTime());
+            }
+        }
+
+        public long getTraceId() {
+            return trace;
+        }
+    }
+
+    /**
+     * The hops recorded by one thread.  Only that thread writes to it, the
+     * readers detect the entries overwritten while they were reading them.
+     */
+    static final class Ring {
+        private static final int FIELDS = 8;
+
+        final WeakReference<Thread> thread;
+        final long tid;
+        final String name;
+        final int mask;
+        final long[] data;
+        final String[] queues;
+        final Class<?>[] tasks;
+        final AtomicLong cursor = new AtomicLong();
+        volatile long cleared;
+
+        Ring(Thread thread, int size) {
+            int capacity = 1;
+            while( capacity < size ) {
+                capacity <<= 1;
+            }
+            this.thread = new WeakReference<Thread>(thread);
+            this.tid = thread.getId();
+            this.name = thread.getName();
+            this.mask = capacity - 1;
+            this.data = new long[capacity * FIELDS];
+            this.queues = new String[capacity];
+            this.tasks = new Class<?>[capacity];
+        }
+
+        void record(Hop hop, long started, long ended) {
+            long c = cursor.get();
+            int i = (int) c & mask;
+            int d = i * FIELDS;
+            data[d] = hop.trace;
+            data[d + 1] = hop.span;
+            data[d + 2] = hop.parent;
+            data[d + 3] = hop.producer;
+            data[d + 4] = hop.enqueued;
+            data[d + 5] = started;
+            data[d + 6] = ended;
+            data[d + 7] = hop.kind;
+            queues[i] = hop.queue;
+            tasks[i] = hop.task.getClass();
+            cursor.lazySet(c + 1);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param eventsPerThread the number of most recent hops each thread keeps, only
+     *                        applies to the threads which had not recorded any hop yet.
+     */
+    public static void enable(int eventsPerThread) {
+        ringSize = eventsPerThread;
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Forgets the hops recorded so far.
+     */
+    public static void clear() {
+        for (Ring ring : rings) {
+            ring.cleared = ring.cursor.get();
+            if( ring.thread.get() == null || !ring.thread.get().isAlive() ) {
+                rings.remove(ring);
+            }
+        }
+    }
+
+    /**
+     * @return the task to enqueue in place of the given one.
+     */
+    public static Task track(Task task, DispatchQueue queue) {
+        return track(task, queue, EXECUTE, 0);
+    }
+
+    /**
+     * @return the task to schedule in place of the given one.  The hop's wait
+     *         time gets measured from the time the timer is due.
+     */
+    public static Task trackTimer(Task task, DispatchQueue queue, long delay, TimeUnit unit) {
+        return track(task, queue, TIMER, unit.toNanos(delay));
+    }
+
+    private static Task track(Task task, DispatchQueue queue, int kind, long delay) {
+        if( !enabled || task instanceof Hop || task instanceof SerialDispatchQueue ) {
+            // serial queues only get executed to drain them, their tasks are the hops.
+            return task;
+        }
+        Hop parent = CURRENT.get();
+        if( parent == null && Thread.currentThread() instanceof TimerThread ) {
+            // the timer thread executes batches of timer tasks which were already wrapped.
+            return task;
+        }
+        return new Hop(task, queue, kind, parent, delay);
+    }
+
+    /**
+     * @return the hop running on the calling thread, or null.
+     */
+    public static Hop current() {
+        return enabled ? CURRENT.get() : null;
+    }
+
+    /**
+     * Executes a task as if it was executed from the given hop.
+     */
+    public static void execute(DispatchQueue queue, Task task, Hop context) {
+        if( context == null ) {
+            queue.execute(task);
+            return;
+        }
+        Hop previous = CURRENT.get();
+        CURRENT.set(context);
+        try {
+            queue.execute(task);
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Writes the recorded hops in the Chrome trace event JSON format.  Every hop
+     * is a complete event on the thread which ran it, linked by a flow event
+     * to the thread which executed it.
+     */
+    public static void writeChromeTrace(Appendable out) throws IOException {
+        out.append("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+        boolean first = true;
+        for (Ring ring : new ArrayList<Ring>(rings)) {
+            first = separator(out, first);
+            out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(Long.toString(ring.tid));
+            out.append(",\"args\":{\"name\":");
+            string(out, ring.name);
+            out.append("}}");
+
+            long end = ring.cursor.get();
+            long start = Math.max(ring.cleared, end - ring.mask - 1);
+            ArrayList<long[]> hops = new ArrayList<long[]>();
+            ArrayList<String> queues = new ArrayList<String>();
+            ArrayList<Class<?>> tasks = new ArrayList<Class<?>>();
+            for (long c = start; c < end; c++) {
+                int i = (int) c & ring.mask;
+                long[] hop = new long[Ring.FIELDS + 1];
+                System.arraycopy(ring.data, i * Ring.FIELDS, hop, 0, Ring.FIELDS);
+                hop[Ring.FIELDS] = c;
+                hops.add(hop);
+                queues.add(ring.queues[i]);
+                tasks.add(ring.tasks[i]);
+            }
+            // drop the entries the thread overwrote while we were copying them, the
+            // slot of the oldest one may be getting written to by the next entry.
+            long overwritten = ring.cursor.get() - ring.mask - 1;
+            Iterator<String> q = queues.iterator();
+            Iterator<Class<?>> t = tasks.iterator();
+            for (long[] hop : hops) {
+                String queue = q.next();
+                Class<?> task = t.next();
+                if( hop[Ring.FIELDS] <= overwritten ) {
+                    continue;
+                }
+                first = separator(out, first);
+                hop(out, ring.tid, hop, queue, task);
+            }
+        }
+        out.append("]}\n");
+    }
+
+    private static void hop(Appendable out, long tid, long[] hop, String queue, Class<?> task) throws IOException {
+        long trace = hop[0], span = hop[1], parent = hop[2], producer = hop[3];
+        long enqueued = hop[4], started = hop[5], ended = hop[6];
+        out.append("{\"name\":");
+        string(out, queue == null ? "queue" : queue);
+        out.append(",\"cat\":\"task\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(Long.toString(tid));
+        out.append(",\"ts\":").append(micros(started));
+        out.append(",\"dur\":").append(micros(ended - started));
+        out.append(",\"args\":{\"trace\":").append(Long.toString(trace));
+        out.append(",\"span\":").append(Long.toString(span));
+        out.append(",\"parent\":").append(Long.toString(parent));
+        out.append(",\"kind\":\"").append(hop[7] == TIMER ? "timer" : "execute").append('"');
+        out.append(",\"wait_us\":").append(micros(started - enqueued));
+        out.append(",\"task\":");
+        string(out, task == null ? null : task.getName());
+        out.append("}}");
+        if( parent != 0 ) {
+            out.append(",\n{\"name\":\"hop\",\"cat\":\"hop\",\"ph\":\"s\",\"pid\":1,\"tid\":").append(Long.toString(producer));
+            out.append(",\"id\":").append(Long.toString(span));
+            out.append(",\"ts\":").append(micros(enqueued)).append('}');
+            out.append(",\n{\"name\":\"hop\",\"cat\":\"hop\",\"ph\":\"f\",\"bp\":\"e\",\"pid\":1,\"tid\":").append(Long.toString(tid));
+            out.append(",\"id\":").append(Long.toString(span));
+            out.append(",\"ts\":").append(micros(started)).append('}');
+        }
+    }
+
+    private static boolean separator(Appendable out, boolean first) throws IOException {
+        if( !first ) {
+            out.append(",\n");
+        }
+        return false;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%d.%03d", nanos / 1000, Math.abs(nanos % 1000));
+    }
+
+    private static void string(Appendable out, String value) throws IOException {
+        if( value == null ) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if( c < 0x20 ) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -17,7 +17,10 @@
 
 package org.fusesource.hawtdispatch.internal;
 
+import org.fusesource.hawtdispatch.WorkerMetrics;
+
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
@@ -29,6 +32,20 @@ abstract public class WorkerThread extends Thread {
     public abstract void unpark();
     public abstract NioManager getNioManager();
 
+    // Only updated by the worker thread itself, so the counters are just
+    // lazy set to publish them to the threads taking metrics snapshots.
+    private final AtomicLong tasksRun = new AtomicLong();
+    private final AtomicLong sharedTasksRun = new AtomicLong();
+    private final AtomicLong parks = new AtomicLong();
+    private final AtomicLong idleTime = new AtomicLong();
+    private final AtomicLong wakeupsSent = new AtomicLong();
+    private final AtomicLong timerFires = new AtomicLong();
+    // bumped for every task the thread starts, including the ones run by serial queues.
+    private final AtomicLong progress = new AtomicLong();
+    private volatile HawtDispatchQueue currentQueue;
+    private final long createdAt = System.nanoTime();
+    private volatile long parkedAt;
+
     protected WorkerThread() {
     }
 
@@ -49,6 +66,97 @@ abstract public class WorkerThread extends Thread {
     }
 
 
+    private static void increment(AtomicLong counter, long delta) {
+        counter.lazySet(counter.get() + delta);
+    }
+
+    /**
+     * Must be called by the worker before it runs a task.
+     *
+     * @param shared true if the task was taken from the pool's shared queue.
+     */
+    protected void taskRun(boolean shared) {
+        increment(tasksRun, 1);
+        increment(progress, 1);
+        if( shared ) {
+            increment(sharedTasksRun, 1);
+        }
+    }
+
+    /**
+     * Must be called by the worker before it parks.
+     */
+    protected void parking() {
+        increment(parks, 1);
+        parkedAt = System.nanoTime();
+    }
+
+    /**
+     * Must be called by the worker once it's unparked.
+     */
+    protected void unparked() {
+        increment(idleTime, System.nanoTime() - parkedAt);
+        parkedAt = 0;
+    }
+
+    /**
+     * Called by the serial queues before they run one of their tasks.
+     */
+    void progress() {
+        increment(progress, 1);
+    }
+
+    long getProgress() {
+        return progress.get();
+    }
+
+    boolean isParked() {
+        return parkedAt != 0;
+    }
+
+    /**
+     * @return the serial queue the thread is draining, or null.
+     */
+    HawtDispatchQueue getCurrentQueue() {
+        return currentQueue;
+    }
+
+    HawtDispatchQueue setCurrentQueue(HawtDispatchQueue queue) {
+        HawtDispatchQueue rc = currentQueue;
+        currentQueue = queue;
+        return rc;
+    }
+
+    void wakeupSent() {
+        increment(wakeupsSent, 1);
+    }
+
+    void timersFired(int count) {
+        increment(timerFires, count);
+    }
+
+    /**
+     * @return a snapshot of the counters accumulated since the thread was created.
+     */
+    public WorkerMetrics metrics() {
+        long now = System.nanoTime();
+        WorkerMetrics rc = new WorkerMetrics();
+        rc.thread = getName();
+        rc.priority = getDispatchQueue().getPriority();
+        rc.tasksRun = tasksRun.get();
+        rc.sharedTasksRun = sharedTasksRun.get();
+        rc.parks = parks.get();
+        long parked = parkedAt;
+        rc.idleTimeNS = idleTime.get() + (parked == 0 ? 0 : Math.max(0, now - parked));
+        rc.busyTimeNS = Math.max(0, now - createdAt - rc.idleTimeNS);
+        rc.wakeupsSent = wakeupsSent.get();
+        rc.timerFires = timerFires.get();
+        NioManager nio = getNioManager();
+        rc.wakeupsReceived = nio.wakeupsReceived.get();
+        rc.selectedKeys = nio.selectedKeys.get();
+        return rc;
+    }
+
     @Override
     public void setUncaughtExceptionHandler(UncaughtExceptionHandler uncaughtExceptionHandler) {
         getDispatchQueue().getDispatcher().setUncaughtExceptionHandler(uncaughtExceptionHandler);
@@ -63,17 +63,24 @@ public class SimpleThread extends WorkerThread {
             ConcurrentLinkedQueue<Task> sharedQueue = pool.tasks;
             while(!pool.shutdown) {
 
+                boolean shared = false;
                 Task task = threadQueue.poll();
                 if( task==null ) {
                     task = sharedQueue.poll();
                     if( task==null ) {
                         task = threadQueue.getSourceQueue().poll();
+                    } else {
+                        shared = true;
+                        pool.globalQueue.getMetricsCollector().dequeued();
                     }
                 }
 
                 if( task == null ) {
+                    parking();
                     pool.park(this);
+                    unparked();
                 } else {
+                    taskRun(shared);
                     task.run();
                 }
             }
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.internal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A counter which spreads its updates over cache line padded stripes picked
+ * by the updating thread, so that threads updating it at the same time
+ * don't contend on the same cache line.
+ * </p>
+ */
+public final class StripedCounter {
+
+    // 8 longs keep every stripe on its own 64 byte cache line.
+    private static final int PADDING = 8;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int stripes() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int rc = 1;
+        while( rc < cpus * 2 ) {
+            rc <<= 1;
+        }
+        return rc;
+    }
+
+    private static int index() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * @return the new value of the calling thread's stripe.
+     */
+    public long increment() {
+        return stripes.incrementAndGet(index());
+    }
+
+    public void add(long delta) {
+        stripes.addAndGet(index(), delta);
+    }
+
+    public long sum() {
+        long rc = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            rc += stripes.get(i * PADDING);
+        }
+        return rc;
+    }
+
+    /**
+     * @return the sum of the stripes, which are reset to zero.
+     */
+    public long sumThenReset() {
+        long rc = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            rc += stripes.getAndSet(i * PADDING, 0);
+        }
+        return rc;
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+import org.fusesource.hawtdispatch.DispatchPriority;
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.Dispatcher;
+import org.fusesource.hawtdispatch.Metrics;
+import org.fusesource.hawtdispatch.WorkerMetrics;
+import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+import org.fusesource.hawtdispatch.internal.HawtDispatcher;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>
+ * Registers the MBeans of a dispatcher, of its worker pools and of its
+ * profiled queues with an MBean server.
+ * </p><p>
+ * Queues get profiled and garbage collected as the application runs, so
+ * {@link #refresh()} should be called periodically to register the views of
+ * the newly profiled queues and to unregister the views of the ones which
+ * are gone.
+ * </p>
+ */
+public class DispatcherManagement {
+
+    public static final String DOMAIN = "org.fusesource.hawtdispatch";
+
+    private final Dispatcher dispatcher;
+    private final MBeanServer server;
+    private final String label;
+    private final HashSet<ObjectName> registered = new HashSet<ObjectName>();
+    private final HashSet<DispatchPriority> pools = new HashSet<DispatchPriority>();
+    private final IdentityHashMap<QueueView, ObjectName> queues = new IdentityHashMap<QueueView, ObjectName>();
+
+    /**
+     * Manages the default dispatcher.
+     */
+    public DispatcherManagement(MBeanServer server) {
+        this(DispatcherConfig.getDefaultDispatcher(), server);
+    }
+
+    public DispatcherManagement(Dispatcher dispatcher, MBeanServer server) {
+        this.dispatcher = dispatcher;
+        this.server = server;
+        this.label = dispatcher instanceof HawtDispatcher ? ((HawtDispatcher) dispatcher).getLabel() : dispatcher.snapshot().dispatcher;
+    }
+
+    public synchronized void register() throws JMException {
+        register(new DispatcherView(dispatcher), new ObjectName(DOMAIN + ":type=Dispatcher,name=" + ObjectName.quote(label)));
+        refresh();
+    }
+
+    /**
+     * Registers the views of the worker pools and profiled queues which
+     * have shown up, and unregisters the ones of the queues which are gone.
+     */
+    public synchronized void refresh() throws JMException {
+        for (WorkerMetrics metrics : dispatcher.workerMetrics()) {
+            if( !pools.contains(metrics.priority) ) {
+                register(new WorkerPoolView(dispatcher, metrics.priority), new ObjectName(DOMAIN + ":type=WorkerPool,dispatcher=" + ObjectName.quote(label) + ",name=" + metrics.priority.name()));
+                pools.add(metrics.priority);
+            }
+        }
+
+        IdentityHashMap<DispatchQueue, Boolean> profiled = new IdentityHashMap<DispatchQueue, Boolean>();
+        for (Metrics metrics : dispatcher.snapshot().queues) {
+            profiled.put(metrics.queue, Boolean.TRUE);
+        }
+        for (Iterator<Map.Entry<QueueView, ObjectName>> i = queues.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<QueueView, ObjectName> entry = i.next();
+            DispatchQueue queue = entry.getKey().getQueue();
+            if( queue == null || profiled.remove(queue) == null ) {
+                unregister(entry.getValue());
+                i.remove();
+            }
+        }
+        for (DispatchQueue queue : profiled.keySet()) {
+            QueueView view = new QueueView(queue);
+            ObjectName name = new ObjectName(DOMAIN + ":type=Queue,dispatcher=" + ObjectName.quote(label)
+                    + ",name=" + ObjectName.quote(String.valueOf(queue.getLabel()))
+                    + ",id=" + Integer.toHexString(System.identityHashCode(queue)));
+            if( register(view, name) ) {
+                queues.put(view, name);
+            }
+        }
+    }
+
+    public synchronized void unregister() throws JMException {
+        for (ObjectName name : new HashSet<ObjectName>(registered)) {
+            unregister(name);
+        }
+        pools.clear();
+        queues.clear();
+    }
+
+    private boolean register(Object view, ObjectName name) throws JMException {
+        if( registered.contains(name) ) {
+            return false;
+        }
+        // only track it once it's registered, so that a failed registration gets retried.
+        server.registerMBean(view, name);
+        registered.add(name);
+        return true;
+    }
+
+    private void unregister(ObjectName name) throws JMException {
+        if( registered.remove(name) ) {
+            server.unregisterMBean(name);
+        }
+    }
+}
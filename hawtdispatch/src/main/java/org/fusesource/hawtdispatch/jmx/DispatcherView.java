@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+import org.fusesource.hawtdispatch.Dispatcher;
+import org.fusesource.hawtdispatch.MetricsTextFormat;
+import org.fusesource.hawtdispatch.WorkerMetrics;
+
+public class DispatcherView implements DispatcherViewMBean {
+
+    private final Dispatcher dispatcher;
+    private final String label;
+
+    public DispatcherView(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        this.label = dispatcher.snapshot().dispatcher;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getWorkerCount() {
+        return dispatcher.workerMetrics().size();
+    }
+
+    public int getProfiledQueueCount() {
+        return dispatcher.snapshot().queues.size();
+    }
+
+    public long getTasksRun() {
+        long rc = 0;
+        for (WorkerMetrics metrics : dispatcher.workerMetrics()) {
+            rc += metrics.tasksRun;
+        }
+        return rc;
+    }
+
+    public double getUtilization() {
+        return WorkerPoolView.utilization(dispatcher.workerMetrics());
+    }
+
+    public void profile(boolean enabled) {
+        dispatcher.profile(enabled);
+    }
+
+    public String exportMetrics() {
+        return MetricsTextFormat.toString(dispatcher.snapshot());
+    }
+}
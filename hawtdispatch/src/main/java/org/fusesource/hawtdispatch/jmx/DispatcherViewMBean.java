@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+/**
+ * The management interface of a dispatcher.
+ */
+public interface DispatcherViewMBean {
+
+    String getLabel();
+
+    /**
+     * @return the number of worker threads of the started global queues.
+     */
+    int getWorkerCount();
+
+    /**
+     * @return the number of queues being profiled.
+     */
+    int getProfiledQueueCount();
+
+    /**
+     * @return the number of tasks run by all the worker threads.
+     */
+    long getTasksRun();
+
+    /**
+     * @return the fraction of their time the worker threads were busy, between 0 and 1.
+     */
+    double getUtilization();
+
+    /**
+     * Enables or disables profiling on all the queues.
+     */
+    void profile(boolean enabled);
+
+    /**
+     * @return the dispatcher's metrics in the text exposition format.
+     */
+    String exportMetrics();
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.LatencyHistogram;
+import org.fusesource.hawtdispatch.Metrics;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * <p>
+ * Only weakly references its queue so that registering it does not keep the
+ * queue from being garbage collected.  Reports zeros once the queue is gone
+ * or no longer profiled.
+ * </p>
+ */
+public class QueueView implements QueueViewMBean {
+
+    private static final Metrics EMPTY = new Metrics();
+
+    private final WeakReference<DispatchQueue> queue;
+    private final String label;
+
+    public QueueView(DispatchQueue queue) {
+        this.queue = new WeakReference<DispatchQueue>(queue);
+        this.label = queue.getLabel();
+    }
+
+    DispatchQueue getQueue() {
+        return queue.get();
+    }
+
+    private Metrics metrics() {
+        DispatchQueue queue = this.queue.get();
+        Metrics rc = queue == null ? null : queue.cumulativeMetrics();
+        return rc == null ? EMPTY : rc;
+    }
+
+    private static long percentile(LatencyHistogram histogram, double percentile) {
+        return histogram == null ? 0 : histogram.getValueAtPercentile(percentile);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getEnqueued() {
+        return metrics().enqueued;
+    }
+
+    public long getDequeued() {
+        return metrics().dequeued;
+    }
+
+    public long getBacklog() {
+        Metrics metrics = metrics();
+        return Math.max(0, metrics.enqueued - metrics.dequeued);
+    }
+
+    public int getSampling() {
+        return metrics().sampling;
+    }
+
+    public long getTotalWaitTimeNS() {
+        return metrics().totalWaitTimeNS;
+    }
+
+    public long getTotalRunTimeNS() {
+        return metrics().totalRunTimeNS;
+    }
+
+    public long getMaxWaitTimeNS() {
+        return metrics().maxWaitTimeNS;
+    }
+
+    public long getMaxRunTimeNS() {
+        return metrics().maxRunTimeNS;
+    }
+
+    public long getWaitTimeP50NS() {
+        return percentile(metrics().waitTimeHistogram, 50);
+    }
+
+    public long getWaitTimeP99NS() {
+        return percentile(metrics().waitTimeHistogram, 99);
+    }
+
+    public long getWaitTimeP999NS() {
+        return percentile(metrics().waitTimeHistogram, 99.9);
+    }
+
+    public long getRunTimeP50NS() {
+        return percentile(metrics().runTimeHistogram, 50);
+    }
+
+    public long getRunTimeP99NS() {
+        return percentile(metrics().runTimeHistogram, 99);
+    }
+
+    public long getRunTimeP999NS() {
+        return percentile(metrics().runTimeHistogram, 99.9);
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+/**
+ * The management interface of a profiled dispatch queue.  The counters
+ * are cumulative, the times are in nanoseconds.
+ */
+public interface QueueViewMBean {
+
+    String getLabel();
+
+    long getEnqueued();
+
+    long getDequeued();
+
+    /**
+     * @return the number of tasks queued which have not been executed yet.
+     */
+    long getBacklog();
+
+    /**
+     * @return how many tasks are counted for every task which gets timed.
+     */
+    int getSampling();
+
+    long getTotalWaitTimeNS();
+
+    long getTotalRunTimeNS();
+
+    long getMaxWaitTimeNS();
+
+    long getMaxRunTimeNS();
+
+    long getWaitTimeP50NS();
+
+    long getWaitTimeP99NS();
+
+    long getWaitTimeP999NS();
+
+    long getRunTimeP50NS();
+
+    long getRunTimeP99NS();
+
+    long getRunTimeP999NS();
+
+}
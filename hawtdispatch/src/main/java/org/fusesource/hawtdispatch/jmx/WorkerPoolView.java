@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+import org.fusesource.hawtdispatch.DispatchPriority;
+import org.fusesource.hawtdispatch.Dispatcher;
+import org.fusesource.hawtdispatch.WorkerMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class WorkerPoolView implements WorkerPoolViewMBean {
+
+    private final Dispatcher dispatcher;
+    private final DispatchPriority priority;
+
+    public WorkerPoolView(Dispatcher dispatcher, DispatchPriority priority) {
+        this.dispatcher = dispatcher;
+        this.priority = priority;
+    }
+
+    private List<WorkerMetrics> workers() {
+        ArrayList<WorkerMetrics> rc = new ArrayList<WorkerMetrics>();
+        for (WorkerMetrics metrics : dispatcher.workerMetrics()) {
+            if( metrics.priority == priority ) {
+                rc.add(metrics);
+            }
+        }
+        return rc;
+    }
+
+    static double utilization(List<WorkerMetrics> workers) {
+        long busy = 0;
+        long idle = 0;
+        for (WorkerMetrics metrics : workers) {
+            busy += metrics.busyTimeNS;
+            idle += metrics.idleTimeNS;
+        }
+        return busy + idle == 0 ? 0 : (double) busy / (busy + idle);
+    }
+
+    public String getPriority() {
+        return priority.name();
+    }
+
+    public int getThreadCount() {
+        return workers().size();
+    }
+
+    public long getTasksRun() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.tasksRun;
+        }
+        return rc;
+    }
+
+    public long getSharedTasksRun() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.sharedTasksRun;
+        }
+        return rc;
+    }
+
+    public long getBusyTimeNS() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.busyTimeNS;
+        }
+        return rc;
+    }
+
+    public long getIdleTimeNS() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.idleTimeNS;
+        }
+        return rc;
+    }
+
+    public double getUtilization() {
+        return utilization(workers());
+    }
+
+    public long getParks() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.parks;
+        }
+        return rc;
+    }
+
+    public long getWakeupsReceived() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.wakeupsReceived;
+        }
+        return rc;
+    }
+
+    public long getWakeupsSent() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.wakeupsSent;
+        }
+        return rc;
+    }
+
+    public long getSelectedKeys() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.selectedKeys;
+        }
+        return rc;
+    }
+
+    public long getTimerFires() {
+        long rc = 0;
+        for (WorkerMetrics metrics : workers()) {
+            rc += metrics.timerFires;
+        }
+        return rc;
+    }
+
+    public String[] getWorkers() {
+        List<WorkerMetrics> workers = workers();
+        String[] rc = new String[workers.size()];
+        for (int i = 0; i < rc.length; i++) {
+            rc[i] = workers.get(i).toString();
+        }
+        return rc;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+/**
+ * The management interface of the worker threads of a global queue.
+ * The counters are the sums of the counters of its threads.
+ */
+public interface WorkerPoolViewMBean {
+
+    String getPriority();
+
+    int getThreadCount();
+
+    long getTasksRun();
+
+    long getSharedTasksRun();
+
+    long getBusyTimeNS();
+
+    long getIdleTimeNS();
+
+    /**
+     * @return the fraction of their time the threads were busy, between 0 and 1.
+     */
+    double getUtilization();
+
+    long getParks();
+
+    long getWakeupsReceived();
+
+    long getWakeupsSent();
+
+    long getSelectedKeys();
+
+    long getTimerFires();
+
+    /**
+     * @return the counters of every thread.
+     */
+    String[] getWorkers();
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class BatchTest {
+
+    @Test
+    public void growsAndKeepsItsArrayWhenCleared() {
+        Batch<Integer> batch = new Batch<Integer>(2);
+        for (int i = 0; i < 5; i++) {
+            batch.add(i);
+        }
+        assertEquals(5, batch.size());
+        assertEquals(8, batch.capacity());
+        assertEquals("[0, 1, 2, 3, 4]", batch.toString());
+        try {
+            batch.get(5);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        Batch<Integer> other = new Batch<Integer>(1);
+        other.add(5);
+        batch.addAll(other);
+        int expected = 0;
+        for (Integer value : batch) {
+            assertEquals(expected++, value.intValue());
+        }
+        assertEquals(6, expected);
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+        assertEquals(8, batch.capacity());
+        Iterator<Integer> iterator = batch.iterator();
+        assertFalse(iterator.hasNext());
+        try {
+            iterator.next();
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException expected2) {
+        }
+    }
+
+    @Test
+    public void aggregatorReusesRecycledBatches() {
+        BatchEventAggregator<Integer> aggregator = new BatchEventAggregator<Integer>(2, 16);
+        Batch<Integer> first = aggregator.mergeEvent(null, 1);
+        assertSame(first, aggregator.mergeEvent(first, 2));
+        Batch<Integer> second = aggregator.mergeEvent(null, 3);
+        assertNotSame(first, second);
+
+        // the merged in batch goes back to the pool.
+        assertSame(first, aggregator.mergeEvents(first, second));
+        assertEquals("[1, 2, 3]", first.toString());
+        Batch<Integer> third = aggregator.mergeEvent(null, 4);
+        assertSame(second, third);
+        assertEquals("[4]", third.toString());
+
+        aggregator.recycle(first);
+        aggregator.recycle(third);
+        // the pool is full.
+        aggregator.recycle(new Batch<Integer>());
+        Batch<Integer> a = aggregator.mergeEvent(null, 5);
+        Batch<Integer> b = aggregator.mergeEvent(null, 6);
+        Batch<Integer> c = aggregator.mergeEvent(null, 7);
+        assertTrue(a == first || a == third);
+        assertTrue(b == first || b == third);
+        assertNotSame(first, c);
+        assertNotSame(third, c);
+        assertEquals("[5]", a.toString());
+    }
+
+    @Test
+    public void aggregatorDropsBatchesThatGrewTooLarge() {
+        BatchEventAggregator<Integer> aggregator = new BatchEventAggregator<Integer>(2, 16);
+        Batch<Integer> batch = null;
+        for (int i = 0; i < 17; i++) {
+            batch = aggregator.mergeEvent(batch, i);
+        }
+        assertTrue(batch.capacity() > 16);
+        aggregator.recycle(batch);
+        assertNotSame(batch, aggregator.mergeEvent(null, 1));
+    }
+
+    /**
+     * The source hands the batches back once the event handler returns, so
+     * the following fires reuse them.
+     */
+    @Test
+    public void sourceRecyclesDeliveredBatches() throws InterruptedException {
+        final int fires = 20;
+        DispatchQueue target = Dispatch.createQueue("target");
+        final CustomDispatchSource<Integer, Batch<Integer>> source = Dispatch.createSource(EventAggregators.<Integer>batch(), target);
+        final ArrayList<Integer> received = new ArrayList<Integer>();
+        final ArrayList<Batch<Integer>> batches = new ArrayList<Batch<Integer>>();
+        final Semaphore delivered = new Semaphore(0);
+        source.setEventHandler(new Task() {
+            public void run() {
+                Batch<Integer> batch = source.getData();
+                batches.add(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    received.add(batch.get(i));
+                }
+                delivered.release();
+            }
+        });
+        source.resume();
+
+        DispatchQueue producer = Dispatch.createQueue("producer");
+        for (int i = 0; i < fires; i++) {
+            final int first = i * 10;
+            producer.execute(new Task() {
+                public void run() {
+                    for (int j = first; j < first + 10; j++) {
+                        source.merge(j);
+                    }
+                }
+            });
+            // one fire at a time.  The batch is recycled once the handler returns,
+            // so it is back in the pool by the time the target runs the next task.
+            assertTrue(delivered.tryAcquire(1, SECONDS));
+            final CountDownLatch recycled = new CountDownLatch(1);
+            target.execute(new Task() {
+                public void run() {
+                    recycled.countDown();
+                }
+            });
+            assertTrue(recycled.await(1, SECONDS));
+        }
+
+        assertEquals(fires * 10, received.size());
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(i, received.get(i).intValue());
+        }
+        assertEquals(fires, batches.size());
+        for (Batch<Integer> batch : batches) {
+            assertSame(batches.get(0), batch);
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class DispatchChannelTest {
+
+    /**
+     * Records the values delivered to a subscriber.
+     */
+    static class Recorder implements DispatchChannel.Receiver<Integer> {
+        final List<Integer> received = new ArrayList<Integer>();
+        final CountDownLatch done;
+
+        Recorder(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        public void receive(Batch<Integer> batch) {
+            for (Integer value : batch) {
+                received.add(value);
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Offers a range of values, continuing from the refill handler whenever
+     * the channel is full.
+     */
+    static class Producer extends Task {
+        final DispatchChannel<Integer> channel;
+        final DispatchQueue queue;
+        int next;
+        final int end;
+
+        Producer(DispatchChannel<Integer> channel, DispatchQueue queue, int start, int end) {
+            this.channel = channel;
+            this.queue = queue;
+            this.next = start;
+            this.end = end;
+        }
+
+        public void run() {
+            while( next < end && channel.offer(next) ) {
+                next++;
+            }
+        }
+    }
+
+    @Test
+    public void everySubscriberReceivesEveryValueInOrder() throws InterruptedException {
+        int count = 10000;
+        DispatchChannel<Integer> channel = new DispatchChannel<Integer>(64, false);
+        Recorder first = new Recorder(count);
+        Recorder second = new Recorder(count);
+        channel.subscribe(Dispatch.createQueue("first"), first);
+        channel.subscribe(Dispatch.createQueue("second"), second);
+        assertEquals(2, channel.getSubscriberCount());
+
+        DispatchQueue queue = Dispatch.createQueue("producer");
+        Producer producer = new Producer(channel, queue, 0, count);
+        channel.setRefillHandler(producer);
+        queue.execute(producer);
+
+        assertTrue(first.done.await(5, SECONDS));
+        assertTrue(second.done.await(5, SECONDS));
+        for (Recorder recorder : new Recorder[]{first, second}) {
+            assertEquals(count, recorder.received.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, recorder.received.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void multipleProducers() throws InterruptedException {
+        final int producers = 4;
+        final int count = 5000;
+        final DispatchChannel<Integer> channel = new DispatchChannel<Integer>(128, true);
+        Recorder recorder = new Recorder(producers * count);
+        channel.subscribe(Dispatch.createQueue("subscriber"), recorder);
+
+        final Producer[] tasks = new Producer[producers];
+        for (int p = 0; p < producers; p++) {
+            tasks[p] = new Producer(channel, Dispatch.createQueue("producer " + p), p * count, (p + 1) * count);
+        }
+        // every refused producer gets refilled on its own queue.
+        channel.setRefillHandler(new Task() {
+            public void run() {
+                for (Producer producer : tasks) {
+                    if( producer.queue == Dispatch.getCurrentQueue() ) {
+                        producer.run();
+                    }
+                }
+            }
+        });
+        for (Producer producer : tasks) {
+            producer.queue.execute(producer);
+        }
+
+        assertTrue(recorder.done.await(5, SECONDS));
+        assertEquals(producers * count, recorder.received.size());
+        // the values of every producer arrive in the order they were offered.
+        int[] next = new int[producers];
+        for (Integer value : recorder.received) {
+            int p = value / count;
+            assertEquals(p * count + next[p], value.intValue());
+            next[p]++;
+        }
+    }
+
+    @Test
+    public void refusedProducerIsRefilledOnItsQueue() throws InterruptedException {
+        final DispatchChannel<Integer> channel = new DispatchChannel<Integer>(8, false);
+        assertEquals(8, channel.getCapacity());
+        DispatchQueue subscriberQueue = Dispatch.createQueue("subscriber");
+        Recorder recorder = new Recorder(8);
+        channel.subscribe(subscriberQueue, recorder);
+        subscriberQueue.suspend();
+
+        final AtomicReference<DispatchQueue> refilledOn = new AtomicReference<DispatchQueue>();
+        final CountDownLatch refilled = new CountDownLatch(1);
+        channel.setRefillHandler(new Task() {
+            public void run() {
+                refilledOn.set(Dispatch.getCurrentQueue());
+                refilled.countDown();
+            }
+        });
+
+        final DispatchQueue producer = Dispatch.createQueue("producer");
+        final int[] accepted = new int[1];
+        final CountDownLatch offered = new CountDownLatch(1);
+        producer.execute(new Task() {
+            public void run() {
+                while( channel.offer(accepted[0]) ) {
+                    accepted[0]++;
+                }
+                offered.countDown();
+            }
+        });
+        assertTrue(offered.await(1, SECONDS));
+        assertEquals(8, accepted[0]);
+        assertTrue(channel.full());
+        assertEquals(0, channel.getCredits());
+        assertFalse(refilled.await(100, MILLISECONDS));
+
+        subscriberQueue.resume();
+        assertTrue(recorder.done.await(1, SECONDS));
+        assertTrue(refilled.await(1, SECONDS));
+        assertSame(producer, refilledOn.get());
+    }
+
+    @Test
+    public void canceledSubscriberNoLongerHoldsBackProducers() throws InterruptedException {
+        DispatchChannel<Integer> channel = new DispatchChannel<Integer>(8, false);
+        DispatchQueue subscriberQueue = Dispatch.createQueue("subscriber");
+        subscriberQueue.suspend();
+        DispatchChannel.Subscription<Integer> subscription = channel.subscribe(subscriberQueue, new Recorder(0));
+        for (int i = 0; i < 8; i++) {
+            assertTrue(channel.offer(i));
+        }
+        assertTrue(channel.full());
+        assertEquals(8, subscription.getBacklog());
+
+        subscription.cancel();
+        assertEquals(0, channel.getSubscriberCount());
+        assertEquals(8, channel.getCredits());
+        assertTrue(channel.offer(8));
+        subscriberQueue.resume();
+    }
+
+    @Test
+    public void valuesOfferedWithoutSubscribersAreDropped() throws InterruptedException {
+        DispatchChannel<Integer> channel = new DispatchChannel<Integer>(4, false);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(channel.offer(i));
+        }
+        Recorder recorder = new Recorder(1);
+        DispatchChannel.Subscription<Integer> subscription = channel.subscribe(Dispatch.createQueue("subscriber"), recorder);
+        assertEquals(0, subscription.getBacklog());
+        assertTrue(channel.offer(100));
+        assertTrue(recorder.done.await(1, SECONDS));
+        assertEquals(100, recorder.received.get(0).intValue());
+    }
+
+    @Test
+    public void failingReceiverKeepsReceiving() throws InterruptedException {
+        final int count = 1000;
+        DispatchChannel<Integer> channel = new DispatchChannel<Integer>(16, false);
+        final Recorder recorder = new Recorder(count);
+        DispatchQueue subscriberQueue = Dispatch.createQueue("subscriber");
+        channel.subscribe(subscriberQueue, new DispatchChannel.Receiver<Integer>() {
+            boolean failed;
+
+            public void receive(Batch<Integer> batch) {
+                recorder.receive(batch);
+                if( !failed ) {
+                    failed = true;
+                    throw new IllegalStateException("expected failure");
+                }
+            }
+        });
+        DispatchQueue queue = Dispatch.createQueue("producer");
+        Producer producer = new Producer(channel, queue, 0, count);
+        channel.setRefillHandler(producer);
+        queue.execute(producer);
+        assertTrue(recorder.done.await(5, SECONDS));
+    }
+
+}
@@ -25,6 +25,14 @@ import java.net.UnknownHostException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.fusesource.hawtdispatch.internal.DispatcherConfig;
 import org.fusesource.hawtdispatch.internal.util.RunnableCountDownLatch;
@@ -85,6 +93,379 @@ public class DispatchSourceTest {
         
     }
 
+    @Test
+    public void orderedDelivery() throws InterruptedException {
+        final int producers = 4;
+        final int count = 1000;
+        DispatchQueue target = Dispatch.createQueue("target");
+        final CustomDispatchSource<Integer, LinkedList<Integer>> source = Dispatch.createSource(EventAggregators.<Integer>linkedList(), target);
+        final ArrayList<Integer> received = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(1);
+        source.setEventHandler(new Task() {
+            public void run() {
+                received.addAll(source.getData());
+                if( received.size() == producers * count ) {
+                    done.countDown();
+                }
+            }
+        });
+        source.resume();
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            DispatchQueue queue = Dispatch.createQueue("producer " + p);
+            for (int i = 0; i < count; i += 10) {
+                final int first = i;
+                queue.execute(new Task() {
+                    public void run() {
+                        for (int j = first; j < first + 10; j++) {
+                            source.merge(producer * count + j);
+                        }
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(5, SECONDS));
+
+        // the events of every producer queue are delivered in the order they were merged.
+        int[] next = new int[producers];
+        for (Integer value : received) {
+            int producer = value / count;
+            assertEquals(producer * count + next[producer], value.intValue());
+            next[producer]++;
+        }
+    }
+
+    @Test
+    public void unorderedDelivery() throws InterruptedException {
+        final int producers = 4;
+        final int count = 1000;
+        DispatchQueue target = Dispatch.createQueue("target");
+        final CustomDispatchSource<Integer, HashSet<Integer>> source = Dispatch.createSource(EventAggregators.<Integer>hashSet(), target);
+        final HashSet<Integer> received = new HashSet<Integer>();
+        final CountDownLatch done = new CountDownLatch(1);
+        source.setEventHandler(new Task() {
+            public void run() {
+                received.addAll(source.getData());
+                if( received.size() == producers * count ) {
+                    done.countDown();
+                }
+            }
+        });
+        source.resume();
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            DispatchQueue queue = Dispatch.createQueue("producer " + p);
+            for (int i = 0; i < count; i += 10) {
+                final int first = i;
+                queue.execute(new Task() {
+                    public void run() {
+                        for (int j = first; j < first + 10; j++) {
+                            source.merge(producer * count + j);
+                        }
+                    }
+                });
+            }
+        }
+        // every event is delivered, in whatever order the producers fired them.
+        assertTrue(done.await(5, SECONDS));
+    }
+
+    @Test
+    public void eventsMergedWhileSuspendedAreDeliveredOnResume() throws InterruptedException {
+        DispatchQueue target = Dispatch.createQueue("target");
+        final CustomDispatchSource<Integer, Integer> source = Dispatch.createSource(EventAggregators.INTEGER_ADD, target);
+        final AtomicInteger sum = new AtomicInteger();
+        final AtomicInteger fires = new AtomicInteger();
+        source.setEventHandler(new Task() {
+            public void run() {
+                sum.addAndGet(source.getData());
+                fires.incrementAndGet();
+            }
+        });
+        source.resume();
+        source.suspend();
+
+        final CountDownLatch merged = new CountDownLatch(10);
+        DispatchQueue queue = Dispatch.createQueue("producer");
+        for (int i = 0; i < 10; i++) {
+            queue.execute(new Task() {
+                public void run() {
+                    source.merge(1);
+                    merged.countDown();
+                }
+            });
+        }
+        assertTrue(merged.await(1, SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, fires.get());
+
+        source.resume();
+        long deadline = System.currentTimeMillis() + 2000;
+        while( sum.get() < 10 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep(10);
+        }
+        assertEquals(10, sum.get());
+    }
+
+    @Test
+    public void cancelRacingFire() throws InterruptedException {
+        final DispatchQueue producer = Dispatch.createQueue("producer");
+        for (int round = 0; round < 200; round++) {
+            DispatchQueue target = Dispatch.createQueue("target");
+            final CustomDispatchSource<Integer, Integer> source = Dispatch.createSource(EventAggregators.INTEGER_ADD, target);
+            final AtomicBoolean canceled = new AtomicBoolean();
+            final AtomicInteger cancels = new AtomicInteger();
+            final AtomicInteger late = new AtomicInteger();
+            final CountDownLatch cancelHandled = new CountDownLatch(1);
+            source.setEventHandler(new Task() {
+                public void run() {
+                    source.getData();
+                    if( canceled.get() ) {
+                        late.incrementAndGet();
+                    }
+                }
+            });
+            source.setCancelHandler(new Task() {
+                public void run() {
+                    canceled.set(true);
+                    cancels.incrementAndGet();
+                    cancelHandled.countDown();
+                }
+            });
+            source.resume();
+
+            final CountDownLatch fired = new CountDownLatch(1);
+            producer.execute(new Task() {
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        source.merge(1);
+                    }
+                    fired.countDown();
+                }
+            });
+            source.cancel();
+            source.cancel();
+            assertTrue(cancelHandled.await(1, SECONDS));
+            assertTrue(fired.await(1, SECONDS));
+
+            // let any fire which raced the cancel reach the target queue.
+            final CountDownLatch drained = new CountDownLatch(1);
+            target.execute(new Task() {
+                public void run() {
+                    drained.countDown();
+                }
+            });
+            assertTrue(drained.await(1, SECONDS));
+            assertEquals(1, cancels.get());
+            assertEquals(0, late.get());
+        }
+    }
+
+    @Test
+    public void concurrentProducersFromNonWorkerThreads() throws InterruptedException {
+        final int threads = 4;
+        final int count = 10000;
+        DispatchQueue target = Dispatch.createQueue("target");
+        final CustomDispatchSource<Integer, Integer> source = Dispatch.createSource(EventAggregators.INTEGER_ADD, target);
+        final LongDispatchSource longSource = Dispatch.createSource(EventAggregators.PRIMITIVE_ADD, target);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong longSum = new AtomicLong();
+        source.setEventHandler(new Task() {
+            public void run() {
+                sum.addAndGet(source.getData());
+            }
+        });
+        longSource.setEventHandler(new Task() {
+            public void run() {
+                longSum.addAndGet(longSource.getData());
+            }
+        });
+        source.resume();
+        longSource.resume();
+
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            producers[t] = new Thread("producer " + t) {
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        source.merge(1);
+                        longSource.merge(1);
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while( (sum.get() < threads * count || longSum.get() < threads * count) && System.currentTimeMillis() < deadline ) {
+            Thread.sleep(10);
+        }
+        assertEquals(threads * count, sum.get());
+        assertEquals(threads * count, longSum.get());
+    }
+
+    @Test
+    public void longSourceCoalescesCounters() throws InterruptedException {
+        final int producers = 4;
+        final int count = 1000;
+        // past the int range, so it only adds up if the data is not truncated.
+        final long value = Integer.MAX_VALUE + 1L;
+        DispatchQueue target = Dispatch.createQueue("target");
+        final LongDispatchSource source = Dispatch.createSource(EventAggregators.PRIMITIVE_ADD, target);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicInteger fires = new AtomicInteger();
+        final AtomicInteger unconsumed = new AtomicInteger();
+        source.setEventHandler(new Task() {
+            public void run() {
+                sum.addAndGet(source.getData());
+                // the data is consumed by reading it.
+                if( source.getData()!=0 ) {
+                    unconsumed.incrementAndGet();
+                }
+                fires.incrementAndGet();
+            }
+        });
+        source.resume();
+
+        for (int p = 0; p < producers; p++) {
+            DispatchQueue queue = Dispatch.createQueue("producer " + p);
+            for (int i = 0; i < count; i += 10) {
+                queue.execute(new Task() {
+                    public void run() {
+                        for (int j = 0; j < 10; j++) {
+                            source.merge(value);
+                        }
+                    }
+                });
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while( sum.get() < producers * count * value && System.currentTimeMillis() < deadline ) {
+            Thread.sleep(10);
+        }
+        assertEquals(producers * count * value, sum.get());
+        assertEquals(0, unconsumed.get());
+        // the merges of a task are delivered as one event.
+        assertTrue(fires.get() <= producers * count / 10);
+    }
+
+    @Test
+    public void longSourceCoalescesBitMasksWhileSuspended() throws InterruptedException {
+        DispatchQueue target = Dispatch.createQueue("target");
+        final LongDispatchSource source = Dispatch.createSource(EventAggregators.PRIMITIVE_OR, target);
+        final AtomicLong mask = new AtomicLong();
+        final AtomicInteger fires = new AtomicInteger();
+        final CountDownLatch fired = new CountDownLatch(1);
+        source.setEventHandler(new Task() {
+            public void run() {
+                mask.set(source.getData());
+                fires.incrementAndGet();
+                fired.countDown();
+            }
+        });
+
+        final CountDownLatch merged = new CountDownLatch(64);
+        for (int bit = 0; bit < 64; bit++) {
+            final long value = 1L << bit;
+            Dispatch.createQueue("producer " + bit).execute(new Task() {
+                public void run() {
+                    source.merge(value);
+                    // merging a bit again does not change the mask.
+                    source.merge(value);
+                    merged.countDown();
+                }
+            });
+        }
+        assertTrue(merged.await(1, SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, fires.get());
+
+        source.resume();
+        assertTrue(fired.await(1, SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, fires.get());
+        assertEquals(-1L, mask.get());
+    }
+
+    @Test
+    public void boundedSourceRefillsTheRefusedProducer() throws InterruptedException {
+        assertRefill(false);
+    }
+
+    @Test
+    public void suspendedBoundedSourceRefillsTheRefusedProducer() throws InterruptedException {
+        assertRefill(true);
+    }
+
+    private void assertRefill(boolean suspended) throws InterruptedException {
+        DispatchQueue target = Dispatch.createQueue("target");
+        final BoundedDispatchSource<Integer, Integer> source = Dispatch.createSource(EventAggregators.INTEGER_ADD, 10, target);
+        final AtomicInteger sum = new AtomicInteger();
+        source.setEventHandler(new Task() {
+            public void run() {
+                sum.addAndGet(source.getData());
+            }
+        });
+        final AtomicReference<DispatchQueue> refilledOn = new AtomicReference<DispatchQueue>();
+        final CountDownLatch refilled = new CountDownLatch(1);
+        source.setRefillHandler(new Task() {
+            public void run() {
+                refilledOn.set(Dispatch.getCurrentQueue());
+                refilled.countDown();
+            }
+        });
+
+        Suspendable blocked;
+        if( suspended ) {
+            // the events merged into the suspended source stay pending.
+            blocked = source;
+        } else {
+            // hold back the event handler until the source is full.
+            source.resume();
+            target.suspend();
+            blocked = target;
+        }
+
+        final DispatchQueue producer = Dispatch.createQueue("producer");
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicBoolean refused = new AtomicBoolean();
+        final CountDownLatch offered = new CountDownLatch(1);
+        producer.execute(new Task() {
+            public void run() {
+                while( source.offer(1) ) {
+                    accepted.incrementAndGet();
+                }
+                refused.set(true);
+                offered.countDown();
+            }
+        });
+        assertTrue(offered.await(1, SECONDS));
+        assertTrue(refused.get());
+        assertEquals(10, accepted.get());
+        assertTrue(source.full());
+        assertEquals(10, source.getSize());
+
+        // nothing drains while the source is blocked, so the producer is not refilled.
+        assertFalse(refilled.await(100, MILLISECONDS));
+
+        blocked.resume();
+        assertTrue(refilled.await(1, SECONDS));
+        assertSame(producer, refilledOn.get());
+        long deadline = System.currentTimeMillis() + 1000;
+        while( source.getSize() > 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, source.getSize());
+        assertEquals(10, sum.get());
+        assertTrue(source.offer(1));
+    }
+
     private void connect(final ServerSocketChannel channel) {
         new Thread("connect") {
             public void run() {
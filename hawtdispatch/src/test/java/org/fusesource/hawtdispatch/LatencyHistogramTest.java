@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        int last = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        for (int bucket = 0; bucket < last; bucket++) {
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(highest + 1));
+        }
+        // values past 2^36 ns all land in the last bucket.
+        assertEquals((1L << 37) - 1, LatencyHistogram.highestValueOf(last));
+        assertEquals(last, LatencyHistogram.bucketOf(1L << 37));
+        assertEquals(0, LatencyHistogram.bucketOf(-5));
+    }
+
+    @Test
+    public void bucketsAreWithinASixteenthOfTheirValues() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(value)));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = 16 + (random.nextLong() & ((1L << (4 + random.nextInt(33))) - 1));
+            long highest = LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(value));
+            assertTrue("value " + value + " bucket " + highest, highest >= value);
+            assertTrue("value " + value + " bucket " + highest, highest - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getP50());
+        assertEquals(0, histogram.getMax());
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertWithinPrecision(500000, histogram.getP50());
+        assertWithinPrecision(990000, histogram.getP99());
+        assertWithinPrecision(999000, histogram.getP999());
+        assertWithinPrecision(1000000, histogram.getMax());
+        assertWithinPrecision(1000, histogram.getValueAtPercentile(0));
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void copyAndMinus() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(100);
+        }
+        LatencyHistogram earlier = histogram.copy();
+        for (int i = 0; i < 5; i++) {
+            histogram.record(1000000);
+        }
+        // the copy is no longer recorded into.
+        assertEquals(10, earlier.getCount());
+        assertEquals(15, histogram.getCount());
+
+        LatencyHistogram interval = histogram.minus(earlier);
+        assertEquals(5, interval.getCount());
+        assertWithinPrecision(1000000, interval.getP50());
+        assertEquals(0, earlier.minus(histogram).getCount());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(expected + " != " + actual, actual >= expected && actual - expected <= expected / 16);
+    }
+
+}
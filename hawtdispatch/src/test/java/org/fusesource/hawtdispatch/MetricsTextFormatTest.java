@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class MetricsTextFormatTest {
+
+    private static MetricsSnapshot snapshot(String label) {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        snapshot.dispatcher = "test";
+
+        Metrics queue = new Metrics();
+        queue.queue = Dispatch.createQueue(label);
+        queue.enqueued = 12;
+        queue.dequeued = 10;
+        queue.totalWaitTimeNS = 2500000000L;
+        queue.totalRunTimeNS = 1000000000L;
+        queue.maxWaitTimeNS = 1500000000L;
+        queue.maxRunTimeNS = 500000000L;
+        queue.waitTimeHistogram = new LatencyHistogram();
+        queue.runTimeHistogram = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            queue.waitTimeHistogram.record(250000000L);
+            queue.runTimeHistogram.record(8);
+        }
+        snapshot.queues.add(queue);
+
+        WorkerMetrics worker = new WorkerMetrics();
+        worker.thread = "worker-1";
+        worker.priority = DispatchPriority.HIGH;
+        worker.tasksRun = 42;
+        worker.busyTimeNS = 3000000000L;
+        worker.timerFires = 7;
+        snapshot.workers.add(worker);
+        return snapshot;
+    }
+
+    @Test
+    public void samples() {
+        List<String> lines = Arrays.asList(MetricsTextFormat.toString(snapshot("orders")).split("\n"));
+        assertTrue(lines.contains("hawtdispatch_queue_enqueued_total{dispatcher=\"test\",queue=\"orders\"} 12"));
+        assertTrue(lines.contains("hawtdispatch_queue_dequeued_total{dispatcher=\"test\",queue=\"orders\"} 10"));
+        assertTrue(lines.contains("hawtdispatch_queue_max_wait_time_seconds{dispatcher=\"test\",queue=\"orders\"} 1.5"));
+        assertTrue(lines.contains("hawtdispatch_queue_wait_time_seconds_sum{dispatcher=\"test\",queue=\"orders\"} 2.5"));
+        assertTrue(lines.contains("hawtdispatch_queue_wait_time_seconds_count{dispatcher=\"test\",queue=\"orders\"} 10"));
+        assertTrue(lines.contains("hawtdispatch_queue_run_time_seconds_sum{dispatcher=\"test\",queue=\"orders\"} 1"));
+        assertTrue(lines.contains("hawtdispatch_queue_run_time_seconds{dispatcher=\"test\",queue=\"orders\",quantile=\"0.99\"} 8.0E-9"));
+        assertTrue(lines.contains("hawtdispatch_worker_tasks_run_total{dispatcher=\"test\",worker=\"worker-1\",priority=\"high\"} 42"));
+        assertTrue(lines.contains("hawtdispatch_worker_busy_seconds_total{dispatcher=\"test\",worker=\"worker-1\",priority=\"high\"} 3"));
+        assertTrue(lines.contains("hawtdispatch_worker_timer_fires_total{dispatcher=\"test\",worker=\"worker-1\",priority=\"high\"} 7"));
+
+        // the quantiles are within the precision of the histogram buckets.
+        for (String quantile : new String[]{"0.5", "0.99", "0.999"}) {
+            String prefix = "hawtdispatch_queue_wait_time_seconds{dispatcher=\"test\",queue=\"orders\",quantile=\"" + quantile + "\"} ";
+            double value = Double.NaN;
+            for (String line : lines) {
+                if( line.startsWith(prefix) ) {
+                    value = Double.parseDouble(line.substring(prefix.length()));
+                }
+            }
+            assertTrue(quantile + " " + value, value >= 0.25 && value <= 0.25 * 17 / 16);
+        }
+    }
+
+    @Test
+    public void everyMetricHasOneHelpAndTypeLine() {
+        String text = MetricsTextFormat.toString(snapshot("orders"));
+        HashSet<String> helped = new HashSet<String>();
+        HashSet<String> typed = new HashSet<String>();
+        String type = null;
+        String family = null;
+        for (String line : text.split("\n")) {
+            if( line.startsWith("# HELP ") ) {
+                family = line.split(" ")[2];
+                assertTrue(family, helped.add(family));
+            } else if( line.startsWith("# TYPE ") ) {
+                String[] parts = line.split(" ");
+                assertEquals(family, parts[2]);
+                assertTrue(family, typed.add(family));
+                type = parts[3];
+                assertTrue(type, type.equals("counter") || type.equals("gauge") || type.equals("summary"));
+            } else {
+                assertTrue(line, line.matches("[a-z_]+\\{([a-z]+=\"[^\"]*\",?)+\\} -?[0-9.E-]+"));
+                String name = line.substring(0, line.indexOf('{'));
+                if( type.equals("summary") ) {
+                    assertTrue(line, name.equals(family) || name.equals(family + "_sum") || name.equals(family + "_count"));
+                } else {
+                    assertEquals(family, name);
+                }
+                if( type.equals("counter") ) {
+                    assertTrue(line, name.endsWith("_total"));
+                }
+            }
+        }
+        assertEquals(helped, typed);
+    }
+
+    @Test
+    public void labelsAreEscaped() {
+        String text = MetricsTextFormat.toString(snapshot("say \"hi\"\\\n"));
+        assertTrue(text, text.contains("queue=\"say \\\"hi\\\"\\\\\\n\"}"));
+    }
+
+    @Test
+    public void queuesWithoutHistograms() {
+        MetricsSnapshot snapshot = snapshot("orders");
+        snapshot.queues.get(0).waitTimeHistogram = null;
+        String text = MetricsTextFormat.toString(snapshot);
+        assertFalse(text, text.contains("hawtdispatch_queue_wait_time_seconds{dispatcher=\"test\",queue=\"orders\",quantile="));
+        assertTrue(text, text.contains("hawtdispatch_queue_wait_time_seconds_count{dispatcher=\"test\",queue=\"orders\"} 10"));
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+import org.fusesource.hawtdispatch.internal.HawtDispatcher;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class StallListenerTest {
+
+    static class Listener implements StallListener {
+        final boolean migrate;
+        final AtomicReference<Stall> stall = new AtomicReference<Stall>();
+        final CountDownLatch reported = new CountDownLatch(1);
+
+        Listener(boolean migrate) {
+            this.migrate = migrate;
+        }
+
+        public boolean stalled(Stall stall) {
+            this.stall.compareAndSet(null, stall);
+            reported.countDown();
+            return migrate;
+        }
+    }
+
+    static HawtDispatcher dispatcher() {
+        DispatcherConfig config = new DispatcherConfig();
+        config.setLabel("stall test");
+        config.setThreads(2);
+        config.setProfile(true);
+        config.setProfileSampling(1);
+        return config.createDispatcher();
+    }
+
+    @Test
+    public void reportsABlockedWorker() throws Exception {
+        HawtDispatcher dispatcher = dispatcher();
+        try {
+            Listener listener = new Listener(false);
+            dispatcher.setStallListener(listener, 50, MILLISECONDS);
+            DispatchQueue worker = dispatcher.getThreadQueues(DispatchPriority.DEFAULT)[0];
+            DispatchQueue slow = dispatcher.createQueue("slow");
+            slow.setTargetQueue(worker);
+            final CountDownLatch release = new CountDownLatch(1);
+            slow.execute(new Task() {
+                public void run() {
+                    await(release);
+                }
+            });
+            assertTrue(listener.reported.await(5, SECONDS));
+            release.countDown();
+
+            Stall stall = listener.stall.get();
+            assertSame(slow, stall.queue);
+            assertTrue(stall.durationNS >= MILLISECONDS.toNanos(50));
+            assertTrue(stall.stack.length > 0);
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void migratesTheQueuesWaitingOnTheStalledWorker() throws Exception {
+        HawtDispatcher dispatcher = dispatcher();
+        try {
+            Listener listener = new Listener(true);
+            dispatcher.setStallListener(listener, 50, MILLISECONDS);
+            DispatchQueue worker = dispatcher.getThreadQueues(DispatchPriority.DEFAULT)[0];
+            worker.profile(true);
+            DispatchQueue slow = dispatcher.createQueue("slow");
+            slow.setTargetQueue(worker);
+            DispatchQueue pinned = dispatcher.createQueue("pinned");
+            pinned.setTargetQueue(worker);
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch blocked = new CountDownLatch(1);
+            slow.execute(new Task() {
+                public void run() {
+                    blocked.countDown();
+                    await(release);
+                }
+            });
+            assertTrue(blocked.await(5, SECONDS));
+            final CountDownLatch ran = new CountDownLatch(1);
+            final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+            pinned.execute(new Task() {
+                public void run() {
+                    thread.set(Thread.currentThread());
+                    ran.countDown();
+                }
+            });
+            try {
+                // the other worker runs it while the stall lasts.
+                assertTrue(ran.await(5, SECONDS));
+                assertNotSame(listener.stall.get().thread, thread.get());
+                // the migrated queue kept the worker queue's profiling wrapper.
+                Metrics metrics = null;
+                for (int i = 0; i < 50 && (metrics == null || metrics.runTimeHistogram.getCount() == 0); i++) {
+                    Thread.sleep(10);
+                    metrics = worker.cumulativeMetrics();
+                }
+                assertEquals(1, metrics.runTimeHistogram.getCount());
+            } finally {
+                release.countDown();
+            }
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
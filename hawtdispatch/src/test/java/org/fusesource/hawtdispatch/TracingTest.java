@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+import org.fusesource.hawtdispatch.internal.HawtDispatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class TracingTest {
+
+    static final Pattern SPAN = Pattern.compile("\"span\":(\\d+)");
+
+    HawtDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        // before the worker records anything, so that its ring gets the size.
+        Tracing.enable(8);
+        DispatcherConfig config = new DispatcherConfig();
+        config.setLabel("tracing test");
+        config.setThreads(1);
+        dispatcher = config.createDispatcher();
+    }
+
+    @After
+    public void tearDown() {
+        Tracing.disable();
+        Tracing.clear();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * @return the complete events the given thread recorded.
+     */
+    static List<String> hops(String trace, long tid) {
+        ArrayList<String> rc = new ArrayList<String>();
+        for (String line : trace.split("\n")) {
+            if( line.contains("\"ph\":\"X\"") && line.contains("\"tid\":" + tid + ",") ) {
+                rc.add(line);
+            }
+        }
+        return rc;
+    }
+
+    static long span(String hop) {
+        Matcher matcher = SPAN.matcher(hop);
+        assertTrue(matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    @Test
+    public void hopsJoinTheTraceOfTheTaskWhichExecutedThem() throws Exception {
+        final DispatchQueue first = dispatcher.createQueue("first");
+        final DispatchQueue second = dispatcher.createQueue("quoted \"second\"\nqueue");
+        final AtomicLong firstTrace = new AtomicLong();
+        final AtomicLong secondTrace = new AtomicLong();
+        final AtomicLong tid = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(1);
+        first.execute(new Task() {
+            public void run() {
+                firstTrace.set(Tracing.currentTraceId());
+                second.execute(new Task() {
+                    public void run() {
+                        secondTrace.set(Tracing.currentTraceId());
+                        tid.set(Thread.currentThread().getId());
+                        done.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(done.await(5, SECONDS));
+        // not running a traced task.
+        assertEquals(0, Tracing.currentTraceId());
+        assertTrue(firstTrace.get() != 0);
+        assertEquals(firstTrace.get(), secondTrace.get());
+
+        // the second hop gets recorded once it returns.
+        Thread.sleep(100);
+        String trace = Tracing.toChromeTrace();
+        assertTrue(trace.startsWith("{\"displayTimeUnit\":\"ns\",\"traceEvents\":["));
+        assertTrue(trace.endsWith("]}\n"));
+        List<String> hops = hops(trace, tid.get());
+        assertEquals(2, hops.size());
+        assertTrue(hops.get(0).startsWith("{\"name\":\"first\""));
+        assertTrue(hops.get(0).contains("\"parent\":0,"));
+        assertTrue(hops.get(1).startsWith("{\"name\":\"quoted \\\"second\\\"\\nqueue\""));
+        long parent = span(hops.get(0));
+        assertTrue(hops.get(1).contains("\"trace\":" + firstTrace.get() + ","));
+        assertTrue(hops.get(1).contains("\"parent\":" + parent + ","));
+        // the flow event linking the second hop to the first.
+        long child = span(hops.get(1));
+        assertTrue(trace.contains("\"ph\":\"s\",\"pid\":1,\"tid\":" + tid.get() + ",\"id\":" + child + ","));
+        assertTrue(trace.contains("\"ph\":\"f\",\"bp\":\"e\",\"pid\":1,\"tid\":" + tid.get() + ",\"id\":" + child + ","));
+
+        Tracing.clear();
+        assertTrue(hops(Tracing.toChromeTrace(), tid.get()).isEmpty());
+    }
+
+    @Test
+    public void ringKeepsTheMostRecentHops() throws Exception {
+        DispatchQueue queue = dispatcher.createQueue("ring");
+        final AtomicLong tid = new AtomicLong();
+        final List<Long> traces = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            queue.execute(new Task() {
+                public void run() {
+                    tid.set(Thread.currentThread().getId());
+                    // each task starts a trace of its own, identified by its span.
+                    traces.add(Tracing.currentTraceId());
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, SECONDS));
+        Thread.sleep(100);
+
+        List<String> hops = hops(Tracing.toChromeTrace(), tid.get());
+        // the oldest slot is skipped since the thread may be overwriting it.
+        assertEquals(7, hops.size());
+        List<Long> recent = traces.subList(13, 20);
+        for (int i = 0; i < hops.size(); i++) {
+            assertEquals(recent.get(i).longValue(), span(hops.get(i)));
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.CountDownLatch;
+
+import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+import org.fusesource.hawtdispatch.internal.HawtDispatcher;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.*;
+import static junit.framework.Assert.*;
+
+public class WorkerMetricsTest {
+
+    static HawtDispatcher dispatcher() {
+        DispatcherConfig config = new DispatcherConfig();
+        config.setLabel("metrics test");
+        config.setThreads(2);
+        return config.createDispatcher();
+    }
+
+    /**
+     * Sums up the counters of all the workers.
+     */
+    static WorkerMetrics total(Dispatcher dispatcher) {
+        WorkerMetrics rc = new WorkerMetrics();
+        for (WorkerMetrics metrics : dispatcher.workerMetrics()) {
+            rc.tasksRun += metrics.tasksRun;
+            rc.sharedTasksRun += metrics.sharedTasksRun;
+            rc.busyTimeNS += metrics.busyTimeNS;
+            rc.idleTimeNS += metrics.idleTimeNS;
+            rc.parks += metrics.parks;
+            rc.wakeupsReceived += metrics.wakeupsReceived;
+            rc.wakeupsSent += metrics.wakeupsSent;
+            rc.selectedKeys += metrics.selectedKeys;
+            rc.timerFires += metrics.timerFires;
+        }
+        return rc;
+    }
+
+    static CountDownLatch countDown(DispatchQueue queue, int count) {
+        final CountDownLatch rc = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            queue.execute(new Task() {
+                public void run() {
+                    rc.countDown();
+                }
+            });
+        }
+        return rc;
+    }
+
+    /**
+     * The counters are published lazily, so give them a moment to show up.
+     */
+    static WorkerMetrics awaitTimerFires(Dispatcher dispatcher, long expected) throws InterruptedException {
+        WorkerMetrics rc = total(dispatcher);
+        for (int i = 0; i < 100 && rc.timerFires < expected; i++) {
+            Thread.sleep(10);
+            rc = total(dispatcher);
+        }
+        return rc;
+    }
+
+    @Test
+    public void countsTasksAndParks() throws Exception {
+        HawtDispatcher dispatcher = dispatcher();
+        try {
+            assertTrue(countDown(dispatcher.getGlobalQueue(), 100).await(5, SECONDS));
+            // let the workers go idle.
+            Thread.sleep(100);
+            WorkerMetrics before = total(dispatcher);
+            assertEquals(2, dispatcher.workerMetrics().size());
+            assertTrue(before.tasksRun >= 100);
+            assertTrue(before.sharedTasksRun > 0);
+            assertTrue(before.parks > 0);
+            assertTrue(before.idleTimeNS > 0);
+
+            // the idle workers get woken up to run the tasks.
+            assertTrue(countDown(dispatcher.getGlobalQueue(), 100).await(5, SECONDS));
+            Thread.sleep(100);
+            WorkerMetrics after = total(dispatcher);
+            assertTrue(after.tasksRun >= before.tasksRun + 100);
+            assertTrue(after.wakeupsReceived > before.wakeupsReceived);
+            assertTrue(after.parks > before.parks);
+            assertTrue(after.idleTimeNS > before.idleTimeNS);
+
+            for (WorkerMetrics metrics : dispatcher.workerMetrics()) {
+                assertEquals(DispatchPriority.DEFAULT, metrics.priority);
+                assertTrue(metrics.getUtilization() >= 0 && metrics.getUtilization() <= 1);
+            }
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void countsSingleAndBatchedTimerFires() throws Exception {
+        HawtDispatcher dispatcher = dispatcher();
+        try {
+            final DispatchQueue queue = dispatcher.createQueue("timers");
+            assertTrue(countDown(queue, 1).await(5, SECONDS));
+            long fired = total(dispatcher).timerFires;
+
+            // fires on its own, so the timer request itself gets executed.
+            final CountDownLatch single = new CountDownLatch(1);
+            queue.executeAfter(10, MILLISECONDS, new Task() {
+                public void run() {
+                    if( Dispatch.getCurrentQueue() == queue ) {
+                        single.countDown();
+                    }
+                }
+            });
+            assertTrue(single.await(5, SECONDS));
+            assertEquals(fired + 1, awaitTimerFires(dispatcher, fired + 1).timerFires);
+
+            // likely to become ready together, in which case they are executed as a batch.
+            final CountDownLatch batch = new CountDownLatch(5);
+            for (int i = 0; i < 5; i++) {
+                queue.executeAfter(50, MILLISECONDS, new Task() {
+                    public void run() {
+                        batch.countDown();
+                    }
+                });
+            }
+            assertTrue(batch.await(5, SECONDS));
+            assertEquals(fired + 6, awaitTimerFires(dispatcher, fired + 6).timerFires);
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void countsSelectedKeys() throws Exception {
+        HawtDispatcher dispatcher = dispatcher();
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            long selected = total(dispatcher).selectedKeys;
+
+            final CountDownLatch accepted = new CountDownLatch(1);
+            final ServerSocketChannel server = channel;
+            DispatchSource source = dispatcher.createSource(channel, SelectionKey.OP_ACCEPT, dispatcher.createQueue("accept"));
+            source.setEventHandler(new Task() {
+                public void run() {
+                    try {
+                        if( server.accept() != null ) {
+                            accepted.countDown();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            source.resume();
+            Socket socket = new Socket();
+            socket.connect(channel.socket().getLocalSocketAddress());
+            try {
+                assertTrue(accepted.await(5, SECONDS));
+            } finally {
+                socket.close();
+            }
+            source.cancel();
+            assertTrue(total(dispatcher).selectedKeys > selected);
+        } finally {
+            channel.close();
+            dispatcher.shutdown();
+        }
+    }
+
+}
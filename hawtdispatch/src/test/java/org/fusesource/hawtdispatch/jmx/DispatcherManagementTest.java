@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 FuseSource, Inc.
+ * http://fusesource.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fusesource.hawtdispatch.jmx;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.fusesource.hawtdispatch.DispatchQueue;
+import org.fusesource.hawtdispatch.internal.DispatcherConfig;
+import org.fusesource.hawtdispatch.internal.HawtDispatcher;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class DispatcherManagementTest {
+
+    static HawtDispatcher dispatcher(String label) {
+        DispatcherConfig config = new DispatcherConfig();
+        config.setLabel(label);
+        config.setThreads(1);
+        return config.createDispatcher();
+    }
+
+    static ObjectName dispatcherName(String label) throws JMException {
+        return new ObjectName(DispatcherManagement.DOMAIN + ":type=Dispatcher,name=" + ObjectName.quote(label));
+    }
+
+    @Test
+    public void registersTheDispatcherPoolsAndProfiledQueues() throws Exception {
+        HawtDispatcher dispatcher = dispatcher("jmx test");
+        try {
+            MBeanServer server = MBeanServerFactory.newMBeanServer();
+            DispatcherManagement management = new DispatcherManagement(dispatcher, server);
+            management.register();
+            assertTrue(server.isRegistered(dispatcherName("jmx test")));
+            assertEquals(1, server.queryNames(new ObjectName(DispatcherManagement.DOMAIN + ":type=WorkerPool,*"), null).size());
+
+            DispatchQueue queue = dispatcher.createQueue("profiled");
+            queue.profile(true);
+            management.refresh();
+            assertEquals(1, server.queryNames(new ObjectName(DispatcherManagement.DOMAIN + ":type=Queue,*"), null).size());
+
+            management.unregister();
+            assertEquals(0, server.queryNames(new ObjectName(DispatcherManagement.DOMAIN + ":*"), null).size());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void onlyRegistersTheQueuesOfItsDispatcher() throws Exception {
+        HawtDispatcher dispatcher = dispatcher("jmx test");
+        HawtDispatcher other = dispatcher("other jmx test");
+        try {
+            DispatchQueue queue = other.createQueue("other profiled");
+            queue.profile(true);
+            MBeanServer server = MBeanServerFactory.newMBeanServer();
+            DispatcherManagement management = new DispatcherManagement(dispatcher, server);
+            management.register();
+            assertEquals(0, server.queryNames(new ObjectName(DispatcherManagement.DOMAIN + ":type=Queue,*"), null).size());
+            management.unregister();
+        } finally {
+            other.shutdown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void failedRegistrationIsRetried() throws Exception {
+        HawtDispatcher dispatcher = dispatcher("jmx retry test");
+        try {
+            MBeanServer server = MBeanServerFactory.newMBeanServer();
+            // something else already took the name.
+            ObjectName name = dispatcherName("jmx retry test");
+            server.registerMBean(new DispatcherView(dispatcher), name);
+            DispatcherManagement management = new DispatcherManagement(dispatcher, server);
+            try {
+                management.register();
+                fail("expected a JMException");
+            } catch (JMException expected) {
+            }
+
+            server.unregisterMBean(name);
+            management.register();
+            assertTrue(server.isRegistered(name));
+            management.unregister();
+            assertFalse(server.isRegistered(name));
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+}